@@ -5,6 +5,13 @@ module ZeroJ {
     exports net.nicknadeau.zero.blockchain.callback;
     exports net.nicknadeau.zero.type;
     exports net.nicknadeau.zero.storage;
+    exports net.nicknadeau.zero.storage.memory;
+    exports net.nicknadeau.zero.storage.file;
+    exports net.nicknadeau.zero.storage.cache;
+    exports net.nicknadeau.zero.storage.filter;
+    exports net.nicknadeau.zero.storage.kv;
+    exports net.nicknadeau.zero.storage.shard;
+    exports net.nicknadeau.zero.storage.tier;
     exports net.nicknadeau.zero.util;
     exports net.nicknadeau.zero.exception;
 }
@@ -0,0 +1,234 @@
+package net.nicknadeau.zero.block;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Block} decoded by {@link ZeroBlockCodec}, which holds on to its encoding rather than copying its attributes
+ * out of it.
+ *
+ * The buffer getters, such as {@link #getBlockDataBuffer()}, return read-only slices of the encoding and never copy.
+ * The array getters required by {@link Block} copy the attribute out of the encoding the first time they are called
+ * and return that same array from then on, so each attribute is copied at most once, and only if it is asked for as an
+ * array. To avoid copying on every read, the returned arrays must not be modified.
+ *
+ * This class is thread-safe.
+ */
+public final class EncodedBlock implements Block {
+    static final int NUMBER = 0;
+    static final int HASH = 1;
+    static final int PARENT_HASH = 2;
+    static final int KEY = 3;
+    static final int SIGNATURE = 4;
+    static final int DATA = 5;
+    static final int FIELD_COUNT = 6;
+
+    private final ByteBuffer encoding;
+    private final int[] fields;
+    private volatile BigInteger blockNumber;
+    private volatile byte[] blockHash;
+    private volatile byte[] parentBlockHash;
+    private volatile byte[] blockProducerPublicKey;
+    private volatile byte[] blockSignature;
+    private volatile byte[] blockData;
+
+    /**
+     * Constructs a new block over the given read-only encoding, whose position is zero and whose limit is the end of the
+     * encoding, and the given offset and length of each of its length-prefixed fields.
+     */
+    EncodedBlock(ByteBuffer encoding, int[] fields) {
+        this.encoding = encoding;
+        this.fields = fields;
+    }
+
+    /**
+     * Returns a read-only view of the whole encoding of this block, whose position is zero.
+     *
+     * @return the encoding.
+     */
+    public ByteBuffer getEncoding() {
+        return this.encoding.duplicate();
+    }
+
+    /**
+     * Returns the number of bytes in the encoding of this block.
+     *
+     * @return the encoded size.
+     */
+    public int getEncodedSize() {
+        return this.encoding.limit();
+    }
+
+    @Override
+    public int getLayerZeroMajorVersion() {
+        return this.encoding.getInt(1);
+    }
+
+    @Override
+    public BigInteger getBlockNumber() {
+        BigInteger number = this.blockNumber;
+        if (number == null) {
+            number = new BigInteger(copyOf(NUMBER));
+            this.blockNumber = number;
+        }
+        return number;
+    }
+
+    // Each array getter below may race with itself on another thread, but both threads copy the same bytes, so it does
+    // not matter which of the copies wins.
+
+    @Override
+    public byte[] getBlockProducerPublicKey() {
+        byte[] key = this.blockProducerPublicKey;
+        if (key == null) {
+            key = copyOf(KEY);
+            this.blockProducerPublicKey = key;
+        }
+        return key;
+    }
+
+    @Override
+    public byte[] getBlockHash() {
+        byte[] hash = this.blockHash;
+        if (hash == null) {
+            hash = copyOf(HASH);
+            this.blockHash = hash;
+        }
+        return hash;
+    }
+
+    @Override
+    public byte[] getParentBlockHash() {
+        if (lengthOf(PARENT_HASH) == 0) {
+            return null;
+        }
+        byte[] parentHash = this.parentBlockHash;
+        if (parentHash == null) {
+            parentHash = copyOf(PARENT_HASH);
+            this.parentBlockHash = parentHash;
+        }
+        return parentHash;
+    }
+
+    @Override
+    public byte[] getBlockData() {
+        byte[] data = this.blockData;
+        if (data == null) {
+            data = copyOf(DATA);
+            this.blockData = data;
+        }
+        return data;
+    }
+
+    @Override
+    public byte[] getBlockSignature() {
+        byte[] signature = this.blockSignature;
+        if (signature == null) {
+            signature = copyOf(SIGNATURE);
+            this.blockSignature = signature;
+        }
+        return signature;
+    }
+
+    /**
+     * Returns a read-only view of the big-endian two's complement bytes of the block number, whose position is zero.
+     *
+     * @return the block number bytes.
+     */
+    public ByteBuffer getBlockNumberBuffer() {
+        return slice(NUMBER);
+    }
+
+    /**
+     * Returns a read-only view of the public key of the block producer, whose position is zero.
+     *
+     * @return the public key.
+     */
+    public ByteBuffer getBlockProducerPublicKeyBuffer() {
+        return slice(KEY);
+    }
+
+    /**
+     * Returns a read-only view of the block hash, whose position is zero.
+     *
+     * @return the block hash.
+     */
+    public ByteBuffer getBlockHashBuffer() {
+        return slice(HASH);
+    }
+
+    /**
+     * Returns a read-only view of the parent block hash, whose position is zero, or {@code null} if this is a genesis
+     * block.
+     *
+     * @return the parent block hash or null.
+     */
+    public ByteBuffer getParentBlockHashBuffer() {
+        return (lengthOf(PARENT_HASH) == 0) ? null : slice(PARENT_HASH);
+    }
+
+    /**
+     * Returns a read-only view of the block data, whose position is zero.
+     *
+     * @return the block data.
+     */
+    public ByteBuffer getBlockDataBuffer() {
+        return slice(DATA);
+    }
+
+    /**
+     * Returns a read-only view of the block signature, whose position is zero.
+     *
+     * @return the block signature.
+     */
+    public ByteBuffer getBlockSignatureBuffer() {
+        return slice(SIGNATURE);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (other instanceof EncodedBlock) {
+            return getBlockHashBuffer().equals(((EncodedBlock) other).getBlockHashBuffer());
+        }
+        if (!(other instanceof BlockHeader)) {
+            return false;
+        }
+        return getBlockHashBuffer().equals(ByteBuffer.wrap(((BlockHeader) other).getBlockHash()));
+    }
+
+    @Override
+    public int hashCode() {
+        // This is the same as Arrays.hashCode(getBlockHash()), so that it agrees with the other blocks, without the copy.
+        int offset = offsetOf(HASH);
+        int end = offset + lengthOf(HASH);
+        int hashCode = 1;
+        for (int i = offset; i < end; i++) {
+            hashCode = 31 * hashCode + this.encoding.get(i);
+        }
+        return hashCode;
+    }
+
+    private ByteBuffer slice(int field) {
+        ByteBuffer view = this.encoding.duplicate();
+        int offset = offsetOf(field);
+        view.limit(offset + lengthOf(field)).position(offset);
+        return view.slice();
+    }
+
+    private byte[] copyOf(int field) {
+        byte[] bytes = new byte[lengthOf(field)];
+        this.encoding.duplicate().position(offsetOf(field)).get(bytes);
+        return bytes;
+    }
+
+    private int offsetOf(int field) {
+        return this.fields[2 * field];
+    }
+
+    private int lengthOf(int field) {
+        return this.fields[2 * field + 1];
+    }
+}
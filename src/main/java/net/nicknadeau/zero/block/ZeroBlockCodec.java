@@ -0,0 +1,189 @@
+package net.nicknadeau.zero.block;
+
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The binary encoding of a layer zero {@link Block}, so that storage engines and anything else that needs to move
+ * blocks around can share one compact encoding instead of each inventing their own.
+ *
+ * An encoded block begins with a single byte giving the version of the layout, which is {@link #FORMAT_VERSION}, and
+ * the rest of the encoding depends on that version. In version 1 the version byte is followed by the block's major
+ * version as a 4 byte big-endian integer, and then the block number (as the big-endian two's complement bytes of the
+ * number), hash, parent hash, producer public key, signature and data, each of which is prefixed with its length as an
+ * unsigned LEB128 varint. A genesis block, which has no parent hash, encodes a parent hash of length zero. Every field
+ * of the header comes before the data, so that the header of a block can be decoded without touching its data.
+ *
+ * Decoding does not copy anything: it returns an {@link EncodedBlock}, whose getters read from slices of the buffer the
+ * block was decoded from.
+ *
+ * This class is thread-safe.
+ */
+public final class ZeroBlockCodec {
+    /**
+     * The version of the layout written by {@link #encode(Block)}.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private ZeroBlockCodec() {}
+
+    /**
+     * Returns the number of bytes that the specified block is encoded into.
+     *
+     * @param block The block.
+     * @return the encoded size of the block.
+     * @throws NullPointerException if block or any of its attributes but its parent block hash is null.
+     */
+    public static int encodedSize(Block block) {
+        ArgChecker.assertNonNull(block);
+        if (block instanceof EncodedBlock) {
+            return ((EncodedBlock) block).getEncodedSize();
+        }
+
+        byte[] parentHash = block.getParentBlockHash();
+        return 1
+                + Integer.BYTES
+                + sizeOf(block.getBlockNumber().toByteArray())
+                + sizeOf(block.getBlockHash())
+                + ((parentHash == null) ? 1 : sizeOf(parentHash))
+                + sizeOf(block.getBlockProducerPublicKey())
+                + sizeOf(block.getBlockSignature())
+                + sizeOf(block.getBlockData());
+    }
+
+    /**
+     * Returns a new buffer holding the encoding of the specified block, ready to be read.
+     *
+     * @param block The block to encode.
+     * @return the encoded block.
+     * @throws NullPointerException if block or any of its attributes but its parent block hash is null.
+     */
+    public static ByteBuffer encode(Block block) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(block));
+        encode(block, buffer);
+        return buffer.flip();
+    }
+
+    /**
+     * Writes the encoding of the specified block into the specified buffer at its position, and advances the buffer
+     * past the encoding.
+     *
+     * If the block is an {@link EncodedBlock} then its encoding is copied as is.
+     *
+     * @param block The block to encode.
+     * @param destination The buffer to write the encoding to.
+     * @throws NullPointerException if block, destination or any attribute of block but its parent block hash is null.
+     * @throws java.nio.BufferOverflowException if the encoding does not fit in the remaining bytes of destination.
+     */
+    public static void encode(Block block, ByteBuffer destination) {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(destination);
+        if (block instanceof EncodedBlock) {
+            destination.put(((EncodedBlock) block).getEncoding());
+            return;
+        }
+
+        byte[] parentHash = block.getParentBlockHash();
+        destination.put((byte) FORMAT_VERSION);
+        destination.putInt(block.getLayerZeroMajorVersion());
+        putBytes(destination, block.getBlockNumber().toByteArray());
+        putBytes(destination, block.getBlockHash());
+        putBytes(destination, (parentHash == null) ? new byte[0] : parentHash);
+        putBytes(destination, block.getBlockProducerPublicKey());
+        putBytes(destination, block.getBlockSignature());
+        putBytes(destination, block.getBlockData());
+    }
+
+    /**
+     * Decodes the block encoded in the specified buffer at its position, and advances the buffer past the encoding.
+     *
+     * Nothing is copied: the returned block reads its attributes from a read-only view of the buffer, and so the bytes
+     * of the encoding must not be modified for as long as the block is in use.
+     *
+     * @param source The buffer to decode the block from.
+     * @return the decoded block.
+     * @throws NullPointerException if source is null.
+     * @throws IllegalArgumentException if the buffer does not hold a valid encoding in a supported layout.
+     */
+    public static EncodedBlock decode(ByteBuffer source) {
+        ArgChecker.assertNonNull(source);
+        ByteBuffer encoding = source.slice().asReadOnlyBuffer();
+        if (encoding.remaining() < 1 + Integer.BYTES) {
+            throw new IllegalArgumentException("The encoded block is truncated.");
+        }
+        int formatVersion = Byte.toUnsignedInt(encoding.get());
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported block encoding version: " + formatVersion);
+        }
+        encoding.position(encoding.position() + Integer.BYTES);
+
+        // Each field is recorded as the offset of its first byte followed by its length.
+        int[] fields = new int[2 * EncodedBlock.FIELD_COUNT];
+        for (int i = 0; i < EncodedBlock.FIELD_COUNT; i++) {
+            int length = readLength(encoding);
+            if (length > encoding.remaining()) {
+                throw new IllegalArgumentException("The encoded block is truncated.");
+            }
+            fields[2 * i] = encoding.position();
+            fields[2 * i + 1] = length;
+            encoding.position(encoding.position() + length);
+        }
+        for (int field : new int[]{ EncodedBlock.NUMBER, EncodedBlock.HASH, EncodedBlock.KEY, EncodedBlock.SIGNATURE }) {
+            if (fields[2 * field + 1] == 0) {
+                throw new IllegalArgumentException("The encoded block has an empty required field.");
+            }
+        }
+
+        // The block number is hashed as its unsigned bytes, so it must have a single encoding, or else the same block
+        // would have a different pre-image depending on whether it was decoded.
+        int numberOffset = fields[2 * EncodedBlock.NUMBER];
+        if (fields[2 * EncodedBlock.NUMBER + 1] > 1) {
+            byte first = encoding.get(numberOffset);
+            byte second = encoding.get(numberOffset + 1);
+            if (((first == 0x0) && (second >= 0)) || ((first == (byte) 0xff) && (second < 0))) {
+                throw new IllegalArgumentException("The encoded block number is not in its minimal form.");
+            }
+        }
+
+        int encodedSize = encoding.position();
+        source.position(source.position() + encodedSize);
+        return new EncodedBlock(encoding.limit(encodedSize).position(0), fields);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        int length = bytes.length;
+        while ((length & ~0x7f) != 0) {
+            buffer.put((byte) ((length & 0x7f) | 0x80));
+            length >>>= 7;
+        }
+        buffer.put((byte) length);
+        buffer.put(bytes);
+    }
+
+    private static int readLength(ByteBuffer buffer) {
+        int length = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("The encoded block is truncated.");
+            }
+            byte next = buffer.get();
+            length |= (next & 0x7f) << shift;
+            if (next >= 0) {
+                if (length < 0) {
+                    throw new IllegalArgumentException("The encoded block has a negative field length.");
+                }
+                return length;
+            }
+        }
+        throw new IllegalArgumentException("The encoded block has a malformed field length.");
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        int size = 1;
+        for (int length = bytes.length; (length & ~0x7f) != 0; length >>>= 7) {
+            size++;
+        }
+        return size + bytes.length;
+    }
+}
@@ -0,0 +1,213 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.exception.RuntimeAssertionError;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.HashKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of the ancestry of every block in the blockchain, so that ancestor queries never have to walk the
+ * chain one database lookup at a time.
+ *
+ * Each block has a node which points to its parent's node and also to a skip node, which is the node of an ancestor
+ * much further back. The skip heights are chosen as in Bitcoin Core's block index, so that walking back to an ancestor
+ * at any height takes O(log n) steps, where n is the block number of the starting block. The nodes hold only the block
+ * hash and number, never the block itself, and so the index is built from block headers alone.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ */
+final class AncestryIndex {
+    private final Map<HashKey, Node> nodes = new HashMap<>();
+
+    /**
+     * Rebuilds this index from scratch so that it describes exactly the given blocks. A block may be given more than
+     * once.
+     *
+     * ASSUMPTION: The parent of every given non-genesis block is also given.
+     */
+    void rebuild(Collection<? extends BlockHeader> blocks) {
+        ArgChecker.assertNonNull(blocks);
+        this.nodes.clear();
+
+        // Adding the blocks in ascending order guarantees that every parent is indexed before its children.
+        List<BlockHeader> ordered = new ArrayList<>(blocks);
+        ordered.sort(Comparator.comparing(BlockHeader::getBlockNumber));
+        for (BlockHeader block : ordered) {
+            if (!this.nodes.containsKey(HashKey.wrap(block.getBlockHash()))) {
+                add(block);
+            }
+        }
+    }
+
+    /**
+     * Adds the specified block to this index.
+     *
+     * ASSUMPTION: The block's parent, if it has one, is already in this index.
+     */
+    void add(BlockHeader block) {
+        byte[] parentHash = block.getParentBlockHash();
+        Node parent = null;
+        if (parentHash != null) {
+            parent = this.nodes.get(HashKey.wrap(parentHash));
+            if (parent == null) {
+                throw RuntimeAssertionError.unexpected();
+            }
+        }
+
+        long number = block.getBlockNumber().longValueExact();
+        Node skip = (parent == null) ? null : parent.getAncestor(getSkipHeight(number));
+        HashKey key = HashKey.wrap(block.getBlockHash());
+        this.nodes.put(key, new Node(key, number, parent, skip));
+    }
+
+    /**
+     * Removes the block with the specified hash from this index, if it is in this index.
+     *
+     * ASSUMPTION: The block has no children in this index.
+     */
+    void remove(byte[] blockHash) {
+        this.nodes.remove(HashKey.wrap(blockHash));
+    }
+
+    /**
+     * Returns {@code true} if and only if the block with the specified hash is in this index.
+     */
+    boolean contains(byte[] blockHash) {
+        return find(blockHash) != null;
+    }
+
+    /**
+     * Returns the hash of the parent of the block with the specified hash, or {@code null} if the block is a genesis
+     * block or is not in this index.
+     */
+    byte[] getParentHash(byte[] blockHash) {
+        Node node = find(blockHash);
+        return ((node == null) || (node.parent == null)) ? null : node.parent.key.getHash();
+    }
+
+    /**
+     * Returns the block number of the block with the specified hash, or -1 if the block is not in this index.
+     */
+    long getBlockNumber(byte[] blockHash) {
+        Node node = find(blockHash);
+        return (node == null) ? -1 : node.number;
+    }
+
+    /**
+     * Returns the hash of the ancestor of the block with the specified hash which has the specified block number, or
+     * {@code null} if the block is not in this index or the number is not in the range {@code [0, n]}, where n is the
+     * block's own block number. A block is its own ancestor at its own block number.
+     */
+    byte[] getAncestorHash(byte[] blockHash, long blockNumber) {
+        Node node = find(blockHash);
+        Node ancestor = (node == null) ? null : node.getAncestor(blockNumber);
+        return (ancestor == null) ? null : ancestor.key.getHash();
+    }
+
+    /**
+     * Returns {@code true} if and only if both blocks are in this index and the block with hash {@code ancestorHash}
+     * is an ancestor of the block with hash {@code descendantHash}. A block is its own ancestor.
+     */
+    boolean isAncestor(byte[] ancestorHash, byte[] descendantHash) {
+        Node ancestor = find(ancestorHash);
+        Node descendant = find(descendantHash);
+        return (ancestor != null) && (descendant != null) && (descendant.getAncestor(ancestor.number) == ancestor);
+    }
+
+    /**
+     * Returns the hash of the most recent common ancestor of the two blocks, or {@code null} if either block is not in
+     * this index or they have no common ancestor.
+     *
+     * Since two blocks which share an ancestor at some height also share every ancestor below it, the height of the
+     * most recent common ancestor is found by a binary search, which takes O(log^2 n) steps.
+     */
+    byte[] getCommonAncestorHash(byte[] blockHash1, byte[] blockHash2) {
+        Node node1 = find(blockHash1);
+        Node node2 = find(blockHash2);
+        if ((node1 == null) || (node2 == null) || (node1.getAncestor(0) != node2.getAncestor(0))) {
+            return null;
+        }
+
+        long low = 0;
+        long high = Math.min(node1.number, node2.number);
+        while (low < high) {
+            long middle = low + (high - low + 1) / 2;
+            if (node1.getAncestor(middle) == node2.getAncestor(middle)) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return node1.getAncestor(low).key.getHash();
+    }
+
+    private Node find(byte[] blockHash) {
+        return (blockHash == null) ? null : this.nodes.get(HashKey.wrap(blockHash));
+    }
+
+    /**
+     * Returns the height that the skip pointer of a block at the specified height points to. Any height reachable by
+     * walking back from a block is reachable in O(log n) steps using these skip heights.
+     */
+    private static long getSkipHeight(long height) {
+        if (height < 2) {
+            return 0;
+        }
+        // Odd heights skip a little less far than even heights, which is what keeps the walk logarithmic.
+        return ((height & 1) == 1)
+                ? clearLowestOneBit(clearLowestOneBit(height - 1)) + 1
+                : clearLowestOneBit(height);
+    }
+
+    private static long clearLowestOneBit(long value) {
+        return value & (value - 1);
+    }
+
+    private static final class Node {
+        private final HashKey key;
+        private final long number;
+        private final Node parent;
+        private final Node skip;
+
+        private Node(HashKey key, long number, Node parent, Node skip) {
+            this.key = key;
+            this.number = number;
+            this.parent = parent;
+            this.skip = skip;
+        }
+
+        /**
+         * Returns this node's ancestor at the specified height, or {@code null} if there is no such ancestor.
+         */
+        private Node getAncestor(long height) {
+            if ((height < 0) || (height > this.number)) {
+                return null;
+            }
+
+            Node walk = this;
+            long walkHeight = this.number;
+            while (walkHeight > height) {
+                long skipHeight = getSkipHeight(walkHeight);
+                long previousSkipHeight = getSkipHeight(walkHeight - 1);
+                // Take the skip only if it does not overshoot, and if the parent's skip would not get us closer.
+                boolean takeSkip = (walk.skip != null) && ((skipHeight == height)
+                        || ((skipHeight > height) && !((previousSkipHeight < skipHeight - 2) && (previousSkipHeight >= height))));
+                if (takeSkip) {
+                    walk = walk.skip;
+                    walkHeight = skipHeight;
+                } else {
+                    walk = walk.parent;
+                    walkHeight--;
+                }
+            }
+            return walk;
+        }
+    }
+}
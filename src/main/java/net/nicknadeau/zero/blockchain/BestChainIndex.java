@@ -0,0 +1,183 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.exception.RuntimeAssertionError;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+
+/**
+ * An in-memory index of the block hashes of the best chain by block number. The best chain is the chain whose head
+ * block has the largest block number, and when two heads have the same block number the chain which was already the
+ * best chain remains so.
+ *
+ * Since the best chain has exactly one block at each block number, starting at the genesis block, the i'th block hash
+ * in this index is the hash of the block with block number i. The hashes are packed one after the other into a single
+ * byte array, and the end offset of each hash is kept in a parallel int array, so that a lookup by number is O(1) and
+ * the index costs little more than the hash bytes themselves. A reorg truncates the index back to the common ancestor of
+ * the old and new best chains and then appends the new branch.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ */
+final class BestChainIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final BigInteger MAX_LENGTH = BigInteger.valueOf(Integer.MAX_VALUE);
+
+    private byte[] hashes = new byte[INITIAL_CAPACITY * 32];
+    private int[] hashEnds = new int[INITIAL_CAPACITY];
+    private int length = 0;
+
+    /**
+     * Returns the number of blocks in the best chain, which is one larger than the block number of its head.
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * Returns a copy of the hash of the best chain block with the specified block number, or {@code null} if the best
+     * chain has no such block.
+     */
+    byte[] getHash(BigInteger blockNumber) {
+        int index = toIndex(blockNumber);
+        return (index < 0) ? null : Arrays.copyOfRange(this.hashes, startOf(index), this.hashEnds[index]);
+    }
+
+    /**
+     * Returns a copy of the hash of the head of the best chain, or {@code null} if the best chain is empty.
+     */
+    byte[] getHeadHash() {
+        return (this.length == 0) ? null : Arrays.copyOfRange(this.hashes, startOf(this.length - 1), this.hashEnds[this.length - 1]);
+    }
+
+    /**
+     * Returns {@code true} if and only if the specified block is in the best chain.
+     */
+    boolean contains(Block block) {
+        return contains(block.getBlockNumber(), block.getBlockHash());
+    }
+
+    private boolean contains(BigInteger blockNumber, byte[] blockHash) {
+        int index = toIndex(blockNumber);
+        return (index >= 0) && Arrays.equals(this.hashes, startOf(index), this.hashEnds[index], blockHash, 0, blockHash.length);
+    }
+
+    /**
+     * Makes the chain headed by the block with the largest block number in {@code heads} the best chain. If that block
+     * has the same block number as the current best head, then the current best chain is kept.
+     *
+     * ASSUMPTION: The parent of every ancestor of each of the heads can be found using {@code lookup}.
+     */
+    void selectBestOf(Collection<Block> heads, ParentLookup lookup) {
+        Block best = null;
+        for (Block head : heads) {
+            if ((best == null) || (head.getBlockNumber().compareTo(best.getBlockNumber()) > 0)) {
+                best = head;
+            }
+        }
+
+        if (best == null) {
+            truncate(0);
+        } else if (best.getBlockNumber().compareTo(BigInteger.valueOf(this.length - 1)) > 0) {
+            moveTo(best, lookup);
+        }
+    }
+
+    /**
+     * Makes the chain headed by the specified block the best chain, by truncating this index back to the first ancestor
+     * of the block which is in the best chain and then appending each of the block's ancestors after that, and then the
+     * block itself.
+     *
+     * ASSUMPTION: The parent of every ancestor of the block can be found using {@code lookup}.
+     */
+    void moveTo(Block head, ParentLookup lookup) {
+        ArgChecker.assertNonNull(head);
+        ArgChecker.assertNonNull(lookup);
+        if (head.getBlockNumber().compareTo(MAX_LENGTH) >= 0) {
+            throw RuntimeAssertionError.unexpected();
+        }
+
+        // Walk back from the head until we reach the best chain. The parent is checked against the index before it is
+        // looked up, so that extending the best chain never needs a lookup at all.
+        Deque<byte[]> branch = new ArrayDeque<>();
+        byte[] hash = head.getBlockHash();
+        BigInteger number = head.getBlockNumber();
+        byte[] parentHash = head.getParentBlockHash();
+        int forkLength = 0;
+        while (true) {
+            if (contains(number, hash)) {
+                forkLength = toIndex(number) + 1;
+                break;
+            }
+            branch.push(hash);
+            if (number.signum() == 0) {
+                break;
+            }
+            if (parentHash == null) {
+                throw RuntimeAssertionError.unexpected();
+            }
+            hash = parentHash;
+            number = number.subtract(BigInteger.ONE);
+            parentHash = contains(number, hash) ? null : lookup.findParentHash(hash);
+        }
+
+        truncate(forkLength);
+        for (byte[] branchHash : branch) {
+            push(branchHash);
+        }
+    }
+
+    /**
+     * Removes every block whose block number is greater than or equal to the specified block number from the best
+     * chain, if the best chain has such blocks.
+     */
+    void truncateFrom(BigInteger blockNumber) {
+        if (blockNumber.signum() >= 0 && blockNumber.compareTo(BigInteger.valueOf(this.length)) < 0) {
+            truncate(blockNumber.intValue());
+        }
+    }
+
+    private void truncate(int newLength) {
+        this.length = newLength;
+    }
+
+    private void push(byte[] hash) {
+        if (this.length == this.hashEnds.length) {
+            this.hashEnds = Arrays.copyOf(this.hashEnds, this.length * 2);
+        }
+        int start = startOf(this.length);
+        int end = start + hash.length;
+        if (end > this.hashes.length) {
+            this.hashes = Arrays.copyOf(this.hashes, Math.max(end, this.hashes.length * 2));
+        }
+        System.arraycopy(hash, 0, this.hashes, start, hash.length);
+        this.hashEnds[this.length] = end;
+        this.length++;
+    }
+
+    private int startOf(int index) {
+        return (index == 0) ? 0 : this.hashEnds[index - 1];
+    }
+
+    /**
+     * Returns the index of the block with the specified block number, or -1 if the best chain has no such block.
+     */
+    private int toIndex(BigInteger blockNumber) {
+        if ((blockNumber == null) || (blockNumber.signum() < 0) || (blockNumber.compareTo(BigInteger.valueOf(this.length)) >= 0)) {
+            return -1;
+        }
+        return blockNumber.intValue();
+    }
+
+    /**
+     * Looks up the parent of a block when the best chain is moved onto a new branch.
+     */
+    @FunctionalInterface
+    interface ParentLookup {
+        byte[] findParentHash(byte[] blockHash);
+    }
+}
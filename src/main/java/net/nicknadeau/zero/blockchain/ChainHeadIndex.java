@@ -0,0 +1,143 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.exception.RuntimeAssertionError;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.HashKey;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An in-memory index of the head blocks of every chain in the blockchain, where a head block is a block which has no
+ * children.
+ *
+ * To know when the parent of a removed head becomes a head itself, the index also keeps the number of children of each
+ * block that has more than one child. Every other non-head block has exactly one child, so this is only a small map.
+ *
+ * The index is maintained incrementally as blocks are added and removed, and publishes an immutable snapshot of the
+ * heads after each change, so that it can be queried without any locking and without touching the database. The
+ * mutating methods are NOT thread-safe and must be externally synchronized.
+ */
+final class ChainHeadIndex {
+    private final Map<HashKey, Block> heads = new HashMap<>();
+    private final Map<HashKey, Integer> forkChildCounts = new HashMap<>();
+    private volatile Map<HashKey, Block> headsSnapshot = Collections.emptyMap();
+
+    /**
+     * Rebuilds this index from scratch so that it describes exactly the blocks with the given headers. Only the head
+     * blocks are loaded from the given database.
+     */
+    void rebuild(Collection<? extends BlockHeader> headers, ZeroDatabase database) throws DatabaseError {
+        ArgChecker.assertNonNull(headers);
+        ArgChecker.assertNonNull(database);
+        this.heads.clear();
+        this.forkChildCounts.clear();
+
+        Map<HashKey, Integer> childCounts = new HashMap<>();
+        for (BlockHeader header : headers) {
+            byte[] parentHash = header.getParentBlockHash();
+            if (parentHash != null) {
+                childCounts.merge(HashKey.wrap(parentHash), 1, Integer::sum);
+            }
+        }
+        for (BlockHeader header : headers) {
+            HashKey key = HashKey.wrap(header.getBlockHash());
+            Integer childCount = childCounts.get(key);
+            if (childCount == null) {
+                Block head = (header instanceof Block) ? (Block) header : database.findBlockByHash(header.getBlockHash());
+                if (head == null) {
+                    throw RuntimeAssertionError.unexpected();
+                }
+                this.heads.put(key, head);
+            } else if (childCount > 1) {
+                this.forkChildCounts.put(key, childCount);
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Updates this index to reflect that the given block was added, making it a new head.
+     *
+     * ASSUMPTION: The block's parent, if it has one, is already described by this index.
+     */
+    void onBlockAdded(Block block) {
+        this.heads.put(HashKey.wrap(block.getBlockHash()), block);
+
+        byte[] parentHash = block.getParentBlockHash();
+        if (parentHash != null) {
+            HashKey parentKey = HashKey.wrap(parentHash);
+            if (this.heads.remove(parentKey) == null) {
+                // The parent already had at least one other child, so it is now a fork point.
+                this.forkChildCounts.merge(parentKey, 2, (count, ignored) -> count + 1);
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Updates this index to reflect that the given block was removed. If the block was the only child of its parent,
+     * then the parent, which is loaded from the given database, becomes a head again.
+     *
+     * If the block was not a head then it is not described by this index and so nothing is done.
+     */
+    void onBlockRemoved(Block block, ZeroDatabase database) throws DatabaseError {
+        if (this.heads.remove(HashKey.wrap(block.getBlockHash())) == null) {
+            return;
+        }
+
+        byte[] parentHash = block.getParentBlockHash();
+        if (parentHash != null) {
+            HashKey parentKey = HashKey.wrap(parentHash);
+            Integer childCount = this.forkChildCounts.get(parentKey);
+            if (childCount == null) {
+                Block parent = database.findBlockByHash(parentHash);
+                if (parent != null) {
+                    this.heads.put(parentKey, parent);
+                }
+            } else if (childCount == 2) {
+                this.forkChildCounts.remove(parentKey);
+            } else {
+                this.forkChildCounts.put(parentKey, childCount - 1);
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Returns an immutable snapshot of the head blocks.
+     */
+    Collection<Block> getHeads() {
+        return this.headsSnapshot.values();
+    }
+
+    /**
+     * Returns {@code true} if and only if the block with the specified hash is currently a head.
+     */
+    boolean isHead(byte[] blockHash) {
+        return (blockHash != null) && this.headsSnapshot.containsKey(HashKey.wrap(blockHash));
+    }
+
+    /**
+     * Returns the current head block with the specified hash, or {@code null} if there is no such head.
+     */
+    Block getHead(byte[] blockHash) {
+        return (blockHash == null) ? null : this.headsSnapshot.get(HashKey.wrap(blockHash));
+    }
+
+    /**
+     * Publishes a full copy of the heads, so each change costs time linear in the number of heads. That is deliberate:
+     * there is one head per chain which has not yet been pruned, so the count is expected to stay small, and a plain
+     * copy keeps the lock-free queries as cheap as a single hash map lookup. If the head count could grow large, this
+     * should instead publish an incrementally updated persistent map.
+     */
+    private void publish() {
+        this.headsSnapshot = Collections.unmodifiableMap(new HashMap<>(this.heads));
+    }
+}
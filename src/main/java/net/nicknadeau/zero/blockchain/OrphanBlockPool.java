@@ -0,0 +1,172 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.HashKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded pool of orphan blocks, which are blocks that passed all of the stateless validation checks but whose parent
+ * block did not exist when they were added. The blocks are keyed by the hash of their missing parent, so that once the
+ * parent is added all of its waiting children can be taken out of the pool in the order in which they arrived.
+ *
+ * The pool is bounded by the number of blocks it holds, by the estimated number of bytes those blocks occupy, and by
+ * the length of time any one block may be held for. When a bound is exceeded the oldest blocks are evicted first.
+ *
+ * This class is thread-safe.
+ */
+final class OrphanBlockPool {
+    // A rough estimate of the object overhead of a held block, on top of the lengths of its arrays.
+    private static final long BLOCK_OVERHEAD_BYTES = 128;
+
+    private final int maxBlocks;
+    private final long maxBytes;
+    private final long maxAgeNanos;
+    private final LongSupplier nanoClock;
+
+    // Insertion order is arrival order, so the eldest entry is always the oldest block.
+    private final LinkedHashMap<HashKey, Entry> entriesByHash = new LinkedHashMap<>();
+    private final Map<HashKey, List<Entry>> entriesByParentHash = new HashMap<>();
+    private long byteCount = 0;
+    private long heldCount = 0;
+    private long drainedCount = 0;
+    private long evictedCount = 0;
+    private long expiredCount = 0;
+
+    OrphanBlockPool(int maxBlocks, long maxBytes, long maxAgeNanos, LongSupplier nanoClock) {
+        ArgChecker.assertGreaterOrEqualTo(maxBlocks, 1);
+        ArgChecker.assertNonNull(nanoClock);
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        if (maxAgeNanos < 1) {
+            throw new IllegalArgumentException("maxAgeNanos must be positive");
+        }
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+        this.maxAgeNanos = maxAgeNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Puts the specified block into the pool, evicting the oldest blocks if necessary to make room for it, and returns
+     * {@code true} if the block is now held by the pool. Returns {@code false} if the block on its own is larger than
+     * the byte bound of the pool.
+     *
+     * ASSUMPTION: The block has passed all of the stateless validation checks and is not a genesis block.
+     */
+    synchronized boolean hold(Block block) {
+        HashKey key = HashKey.wrap(block.getBlockHash());
+        if (this.entriesByHash.containsKey(key)) {
+            return true;
+        }
+
+        long bytes = estimateSize(block);
+        if (bytes > this.maxBytes) {
+            return false;
+        }
+
+        long now = this.nanoClock.getAsLong();
+        expire(now);
+        while ((this.entriesByHash.size() >= this.maxBlocks) || (this.byteCount + bytes > this.maxBytes)) {
+            removeEntry(this.entriesByHash.values().iterator().next());
+            this.evictedCount++;
+        }
+
+        Entry entry = new Entry(block, key, HashKey.wrap(block.getParentBlockHash()), bytes, now);
+        this.entriesByHash.put(key, entry);
+        this.entriesByParentHash.computeIfAbsent(entry.parentKey, (k) -> new ArrayList<>()).add(entry);
+        this.byteCount += bytes;
+        this.heldCount++;
+        return true;
+    }
+
+    /**
+     * Takes all of the blocks whose parent is the block with the specified hash out of the pool and returns them in the
+     * order in which they were put into the pool. Returns an empty list if there are no such blocks.
+     */
+    synchronized List<Block> drainChildrenOf(byte[] parentHash) {
+        expire(this.nanoClock.getAsLong());
+
+        List<Entry> entries = this.entriesByParentHash.get(HashKey.wrap(parentHash));
+        if (entries == null) {
+            return Collections.emptyList();
+        }
+
+        List<Block> children = new ArrayList<>(entries.size());
+        for (Entry entry : new ArrayList<>(entries)) {
+            removeEntry(entry);
+            children.add(entry.block);
+        }
+        this.drainedCount += children.size();
+        return children;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of this pool.
+     */
+    synchronized OrphanPoolStats getStats() {
+        expire(this.nanoClock.getAsLong());
+        return new OrphanPoolStats(this.entriesByHash.size(), this.byteCount, this.heldCount, this.drainedCount, this.evictedCount, this.expiredCount);
+    }
+
+    /**
+     * Evicts every block which has been held for longer than the maximum age.
+     */
+    private void expire(long now) {
+        Iterator<Entry> iterator = this.entriesByHash.values().iterator();
+        while (iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (now - eldest.heldAtNanos <= this.maxAgeNanos) {
+                return;
+            }
+            removeEntry(eldest);
+            this.expiredCount++;
+            iterator = this.entriesByHash.values().iterator();
+        }
+    }
+
+    private void removeEntry(Entry entry) {
+        this.entriesByHash.remove(entry.key);
+        List<Entry> siblings = this.entriesByParentHash.get(entry.parentKey);
+        siblings.remove(entry);
+        if (siblings.isEmpty()) {
+            this.entriesByParentHash.remove(entry.parentKey);
+        }
+        this.byteCount -= entry.bytes;
+    }
+
+    private static long estimateSize(Block block) {
+        return BLOCK_OVERHEAD_BYTES
+                + block.getBlockNumber().bitLength() / 8
+                + block.getBlockHash().length
+                + block.getParentBlockHash().length
+                + block.getBlockProducerPublicKey().length
+                + block.getBlockSignature().length
+                + block.getBlockData().length;
+    }
+
+    private static final class Entry {
+        private final Block block;
+        private final HashKey key;
+        private final HashKey parentKey;
+        private final long bytes;
+        private final long heldAtNanos;
+
+        private Entry(Block block, HashKey key, HashKey parentKey, long bytes, long heldAtNanos) {
+            this.block = block;
+            this.key = key;
+            this.parentKey = parentKey;
+            this.bytes = bytes;
+            this.heldAtNanos = heldAtNanos;
+        }
+    }
+}
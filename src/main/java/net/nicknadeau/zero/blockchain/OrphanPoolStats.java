@@ -0,0 +1,91 @@
+package net.nicknadeau.zero.blockchain;
+
+/**
+ * An immutable snapshot of the metrics of the orphan block pool of a {@link ZeroBlockchain}.
+ *
+ * An orphan block is a block which passed all of the stateless validation checks but whose parent block did not exist
+ * when it was added. Such blocks are held in the pool until their parent is added, at which point they are added too.
+ */
+public final class OrphanPoolStats {
+    private final int blockCount;
+    private final long byteCount;
+    private final long heldCount;
+    private final long drainedCount;
+    private final long evictedCount;
+    private final long expiredCount;
+
+    OrphanPoolStats(int blockCount, long byteCount, long heldCount, long drainedCount, long evictedCount, long expiredCount) {
+        this.blockCount = blockCount;
+        this.byteCount = byteCount;
+        this.heldCount = heldCount;
+        this.drainedCount = drainedCount;
+        this.evictedCount = evictedCount;
+        this.expiredCount = expiredCount;
+    }
+
+    /**
+     * Returns the number of blocks currently held in the pool.
+     *
+     * @return the number of held blocks.
+     */
+    public int getBlockCount() {
+        return this.blockCount;
+    }
+
+    /**
+     * Returns the estimated number of bytes of memory used by the blocks currently held in the pool.
+     *
+     * @return the estimated size of the held blocks.
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     * Returns the total number of blocks which have ever been put into the pool.
+     *
+     * @return the total number of blocks held.
+     */
+    public long getHeldCount() {
+        return this.heldCount;
+    }
+
+    /**
+     * Returns the total number of blocks which have been taken out of the pool because their parent was added.
+     *
+     * @return the total number of blocks drained.
+     */
+    public long getDrainedCount() {
+        return this.drainedCount;
+    }
+
+    /**
+     * Returns the total number of blocks which have been evicted from the pool to keep it within its size limits.
+     *
+     * @return the total number of blocks evicted for size.
+     */
+    public long getEvictedCount() {
+        return this.evictedCount;
+    }
+
+    /**
+     * Returns the total number of blocks which have been evicted from the pool because they were held for too long.
+     *
+     * @return the total number of blocks evicted for age.
+     */
+    public long getExpiredCount() {
+        return this.expiredCount;
+    }
+
+    @Override
+    public String toString() {
+        return OrphanPoolStats.class.getSimpleName()
+                + "{ blocks=" + this.blockCount
+                + ", bytes=" + this.byteCount
+                + ", held=" + this.heldCount
+                + ", drained=" + this.drainedCount
+                + ", evicted=" + this.evictedCount
+                + ", expired=" + this.expiredCount
+                + " }";
+    }
+}
@@ -1,11 +1,13 @@
 package net.nicknadeau.zero.blockchain;
 
 import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
 import net.nicknadeau.zero.block.BlockStatus;
 import net.nicknadeau.zero.blockchain.callback.ZeroCallbacks;
 import net.nicknadeau.zero.exception.DatabaseError;
 import net.nicknadeau.zero.exception.LayersOutOfSyncException;
 import net.nicknadeau.zero.exception.RuntimeAssertionError;
+import net.nicknadeau.zero.storage.WriteBatch;
 import net.nicknadeau.zero.storage.ZeroDatabase;
 import net.nicknadeau.zero.type.Receipt;
 import net.nicknadeau.zero.type.ReceiptCode;
@@ -13,8 +15,30 @@ import net.nicknadeau.zero.util.HashFunction;
 import net.nicknadeau.zero.util.SignatureVerifier;
 import net.nicknadeau.zero.util.internal.ArgChecker;
 import net.nicknadeau.zero.util.internal.BlockValidator;
+import net.nicknadeau.zero.util.internal.HashKey;
 
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * The layer zero blockchain.
@@ -23,26 +47,55 @@ import java.util.Collection;
  * with one another, then all public methods (unless otherwise noted) will immediately throw
  * {@link LayersOutOfSyncException}.
  *
+ * Only a single thread is able to modify the blockchain at a time: every method which adds or removes blocks, or which
+ * recovers the blockchain, is serialized against all of the others. However, such a method only excludes readers for
+ * the brief moments in which it publishes a change to the state of the blockchain, and not while it is validating
+ * blocks or waiting on the layer one callbacks. Therefore, the read-only methods of this class can run alongside an
+ * in-progress modification, and {@link ZeroBlockchain#isOutOfSync()} never blocks at all.
+ *
  * Instances of this class should be constructed using {@link ZeroBlockchain.Builder}.
  */
 public final class ZeroBlockchain {
-    private final Object lock = new Object();
+    private final ReentrantLock mutationLock = new ReentrantLock();
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
     private final ZeroDatabase database;
     private final HashFunction hashFunction;
     private final SignatureVerifier signatureVerifier;
     private final ZeroCallbacks callbacks;
-    private boolean isOutOfSync;
+    private final Executor executor;
+    private final ForkJoinPool validationPool;
+    private final OrphanBlockPool orphanPool;
+    private final ChainHeadIndex headIndex = new ChainHeadIndex();
+    private final AncestryIndex ancestry = new AncestryIndex();
+    private final BestChainIndex bestChain = new BestChainIndex();
+    private final Object writeQueueLock = new Object();
+    private CompletableFuture<Void> writeQueueTail = CompletableFuture.completedFuture(null);
+    private volatile boolean isOutOfSync;
 
-    private ZeroBlockchain(ZeroDatabase database, HashFunction hashFunction, SignatureVerifier signatureVerifier, ZeroCallbacks callbacks) throws DatabaseError {
+    private ZeroBlockchain(ZeroDatabase database, HashFunction hashFunction, SignatureVerifier signatureVerifier, ZeroCallbacks callbacks, Executor executor, ForkJoinPool validationPool, OrphanBlockPool orphanPool) throws DatabaseError {
         ArgChecker.assertNonNull(database);
         ArgChecker.assertNonNull(hashFunction);
         ArgChecker.assertNonNull(signatureVerifier);
         ArgChecker.assertNonNull(callbacks);
+        ArgChecker.assertNonNull(executor);
+        ArgChecker.assertNonNull(validationPool);
         this.database = database;
         this.hashFunction = hashFunction;
         this.signatureVerifier = signatureVerifier;
         this.callbacks = callbacks;
-        this.isOutOfSync = this.database.containsPendingBlocks();
+        this.executor = executor;
+        this.validationPool = validationPool;
+        this.orphanPool = orphanPool;
+        // A block pending deletion is still in layer one, and so it is still part of the chain until it is removed.
+        // The indexes only need the headers of the blocks, and so only the head blocks are ever loaded in full.
+        Collection<BlockHeader> pendingDeletions = this.database.findBlockHeadersByStatus(BlockStatus.PENDING_DELETION);
+        this.isOutOfSync = this.database.containsPendingBlocks() || !pendingDeletions.isEmpty();
+
+        List<BlockHeader> headers = new ArrayList<>(this.database.findBlockHeadersByStatus(BlockStatus.ADDED));
+        headers.addAll(pendingDeletions);
+        this.headIndex.rebuild(headers, this.database);
+        this.ancestry.rebuild(headers);
+        this.bestChain.selectBestOf(this.headIndex.getHeads(), this.ancestry::getParentHash);
     }
 
     /**
@@ -52,11 +105,252 @@ public final class ZeroBlockchain {
      * unless otherwise noted. This method, of course, is an exception to that rule. In the case that the blockchain is
      * out of sync, a recovery can be attempted via {@link ZeroBlockchain#recover()}.
      *
+     * This method never blocks.
+     *
      * @return whether or not the blockchain is out of sync.
      */
     public boolean isOutOfSync() {
-        synchronized (this.lock) {
-            return this.isOutOfSync;
+        return this.isOutOfSync;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the orphan block pool. If this blockchain was built without an orphan pool
+     * then all of the metrics are zero.
+     *
+     * This method never throws {@link LayersOutOfSyncException}.
+     *
+     * @return the orphan pool metrics.
+     */
+    public OrphanPoolStats getOrphanPoolStats() {
+        return (this.orphanPool == null)
+                ? new OrphanPoolStats(0, 0, 0, 0, 0, 0)
+                : this.orphanPool.getStats();
+    }
+
+    /**
+     * Returns the head blocks of all of the chains in this blockchain. A head block is a block which has no children.
+     *
+     * The heads are kept in memory and are updated as blocks are added and removed, so this method never touches the
+     * database and never blocks. The returned collection is an immutable snapshot, and so it is not updated by any
+     * later modification of the blockchain.
+     *
+     * @return the head blocks.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public Collection<Block> getHeads() throws LayersOutOfSyncException {
+        if (this.isOutOfSync) {
+            throw new LayersOutOfSyncException();
+        }
+        return this.headIndex.getHeads();
+    }
+
+    /**
+     * Returns {@code true} if and only if the block with the specified block hash is in this blockchain and is the head
+     * of a chain, meaning that it has no children.
+     *
+     * Returns {@code false} if {@code blockHash == null}.
+     *
+     * This method never touches the database and never blocks.
+     *
+     * @param blockHash The block hash of the block to check.
+     * @return whether or not the block is a head.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public boolean isHead(byte[] blockHash) throws LayersOutOfSyncException {
+        if (this.isOutOfSync) {
+            throw new LayersOutOfSyncException();
+        }
+        return this.headIndex.isHead(blockHash);
+    }
+
+    /**
+     * Returns the head block of the best chain, or {@code null} if this blockchain is empty. The best chain is the
+     * chain whose head block has the largest block number. When a new head has the same block number as the head of
+     * the best chain, the best chain does not change.
+     *
+     * This method never touches the database.
+     *
+     * @return the best head block or null if there is none.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public Block getBestHead() throws LayersOutOfSyncException {
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            return this.headIndex.getHead(this.bestChain.getHeadHash());
+        } finally {
+            this.stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the block in the best chain with the specified block number or {@code null} if the best chain has no such
+     * block. See {@link ZeroBlockchain#getBestHead()} for a description of the best chain.
+     *
+     * Returns {@code null} if {@code blockNumber == null}.
+     *
+     * The best chain is indexed in memory by block number, so this method costs a single database lookup by hash.
+     *
+     * This is a thread-safe read-only method, which may run alongside an in-progress modification of the blockchain.
+     *
+     * @param blockNumber The block number of the block to find.
+     * @return the block or null if not found.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public Block getBlockByNumber(BigInteger blockNumber) throws LayersOutOfSyncException, DatabaseError {
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            byte[] blockHash = this.bestChain.getHash(blockNumber);
+            return (blockHash == null) ? null : this.database.findBlockByHash(blockHash);
+        } finally {
+            this.stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the blocks in the best chain whose block numbers are in the range {@code [fromNumber, toNumber]}, in
+     * ascending order of block number. The range is clipped to the blocks which the best chain actually has, so the
+     * returned list is empty if the range does not overlap the best chain.
+     *
+     * The blocks are all read under a single acquisition of this blockchain's read lock, and so they are guaranteed to
+     * belong to the same chain even if a reorg is in progress.
+     *
+     * @param fromNumber The block number of the first block to return.
+     * @param toNumber The block number of the last block to return.
+     * @return the blocks in the range.
+     * @throws NullPointerException if fromNumber or toNumber is null.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public List<Block> getBlocksByNumber(BigInteger fromNumber, BigInteger toNumber) throws LayersOutOfSyncException, DatabaseError {
+        ArgChecker.assertNonNull(fromNumber);
+        ArgChecker.assertNonNull(toNumber);
+
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            BigInteger first = fromNumber.max(BigInteger.ZERO);
+            BigInteger last = toNumber.min(BigInteger.valueOf(this.bestChain.length() - 1));
+
+            List<Block> blocks = new ArrayList<>();
+            for (BigInteger number = first; number.compareTo(last) <= 0; number = number.add(BigInteger.ONE)) {
+                blocks.add(this.database.findBlockByHash(this.bestChain.getHash(number)));
+            }
+            return blocks;
+        } finally {
+            this.stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns {@code true} if and only if both of the specified blocks are in this blockchain and the block with hash
+     * {@code ancestorHash} is an ancestor of the block with hash {@code descendantHash}. A block is considered to be its
+     * own ancestor.
+     *
+     * The ancestry of every block is kept in memory with logarithmic skip pointers, so this method never touches the
+     * database and runs in O(log n) steps, where n is the block number of the descendant.
+     *
+     * @param ancestorHash The block hash of the possible ancestor.
+     * @param descendantHash The block hash of the possible descendant.
+     * @return whether or not the one block is an ancestor of the other.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public boolean isAncestor(byte[] ancestorHash, byte[] descendantHash) throws LayersOutOfSyncException {
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            return this.ancestry.isAncestor(ancestorHash, descendantHash);
+        } finally {
+            this.stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the most recent block which is an ancestor of both of the specified blocks, or {@code null} if either
+     * block is not in this blockchain. A block is considered to be its own ancestor, so if one block is an ancestor of
+     * the other then that block is returned.
+     *
+     * The common ancestor is found in memory in O(log^2 n) steps, after which a single database lookup is made to load
+     * the block.
+     *
+     * @param blockHash1 The block hash of the first block.
+     * @param blockHash2 The block hash of the second block.
+     * @return the common ancestor or null if there is none.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public Block getCommonAncestor(byte[] blockHash1, byte[] blockHash2) throws LayersOutOfSyncException, DatabaseError {
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            byte[] ancestorHash = this.ancestry.getCommonAncestorHash(blockHash1, blockHash2);
+            return (ancestorHash == null) ? null : this.database.findBlockByHash(ancestorHash);
+        } finally {
+            this.stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ancestor of the specified block which has the specified block number, or {@code null} if the block is
+     * not in this blockchain or has no such ancestor. Unlike {@link ZeroBlockchain#getBlockByNumber(BigInteger)}, the
+     * block does not need to be in the best chain.
+     *
+     * The ancestor is found in memory in O(log n) steps, after which a single database lookup is made to load the
+     * block.
+     *
+     * Returns {@code null} if {@code blockHash == null} or {@code blockNumber == null}.
+     *
+     * @param blockHash The block hash of the descendant block.
+     * @param blockNumber The block number of the ancestor to find.
+     * @return the ancestor or null if not found.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public Block getAncestorAtHeight(byte[] blockHash, BigInteger blockNumber) throws LayersOutOfSyncException, DatabaseError {
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            if ((blockNumber == null) || (blockNumber.bitLength() >= Long.SIZE)) {
+                return null;
+            }
+            byte[] ancestorHash = this.ancestry.getAncestorHash(blockHash, blockNumber.longValue());
+            return (ancestorHash == null) ? null : this.database.findBlockByHash(ancestorHash);
+        } finally {
+            this.stateLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the block in this blockchain with the specified block hash or {@code null} if no such block exists.
+     *
+     * Returns {@code null} if {@code blockHash == null}.
+     *
+     * This is a thread-safe read-only method, which may run alongside an in-progress modification of the blockchain.
+     * Note that a block which is in the middle of being added or removed may be returned.
+     *
+     * @param blockHash The block hash of the block to find.
+     * @return the block or null if not found.
+     * @throws LayersOutOfSyncException if the blockchain is out of sync.
+     */
+    public Block getBlockByHash(byte[] blockHash) throws LayersOutOfSyncException, DatabaseError {
+        this.stateLock.readLock().lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            return this.database.findBlockByHash(blockHash);
+        } finally {
+            this.stateLock.readLock().unlock();
         }
     }
 
@@ -76,47 +370,52 @@ public final class ZeroBlockchain {
      * Returns an unsuccessful receipt if the recovery could not be performed successfully, in which case the blockchain
      * is guaranteed to be in an inconsistent state and therefore will continue to throw {@link LayersOutOfSyncException}.
      *
-     * This is a thread-safe blocking method. Only a single thread is able to enter ANY public method at a time, so that
+     * This is a thread-safe blocking method. Only a single thread is able to modify the blockchain at a time, so that
      * internal consistency can be maintained.
      *
      * @return the receipt of the recovery operation.
      */
     public Receipt recover() {
-        synchronized (this.lock) {
+        this.mutationLock.lock();
+        try {
             if (!this.isOutOfSync) {
                 return Receipt.successfulReceipt();
             }
 
             try {
-                Collection<Block> blocks = this.database.findBlocksByStatus(BlockStatus.PENDING_ADDITION);
-                if (blocks.size() > 1) {
+                List<Block> deletions = new ArrayList<>(this.database.findBlocksByStatus(BlockStatus.PENDING_DELETION));
+                List<Block> additions = new ArrayList<>(this.database.findBlocksByStatus(BlockStatus.PENDING_ADDITION));
+                if (deletions.isEmpty() && additions.isEmpty()) {
+                    // Then somehow we are both out of sync and yet have no pending blocks of any kind.
+                    // We should never be in this state.
                     throw RuntimeAssertionError.unexpected();
-                } else if (blocks.size() == 1) {
-                    Receipt receipt = addPendingBlock(blocks.iterator().next());
-                    if (receipt.getCode() == ReceiptCode.SUCCESS) {
-                        this.isOutOfSync = false;
-                    }
-                    return receipt;
                 }
 
-                // If we are here, then there was no pending addition block to recover, so try a pending deletion.
-                blocks = this.database.findBlocksByStatus(BlockStatus.PENDING_DELETION);
-                if (blocks.size() > 1) {
-                    throw RuntimeAssertionError.unexpected();
-                } else if (blocks.size() == 1) {
-                    Receipt receipt = removePendingBlock(blocks.iterator().next());
-                    if (receipt.getCode() == ReceiptCode.SUCCESS) {
-                        this.isOutOfSync = false;
+                // There may be many pending blocks if a rewind or a head switch was interrupted. The deletions are
+                // finished first, tip-first, so that an old branch is gone before a new branch is added in its place,
+                // and then the additions are finished parent-first.
+                deletions.sort(Comparator.comparing(Block::getBlockNumber).reversed());
+                for (Block block : deletions) {
+                    Receipt receipt = removePendingBlock(block);
+                    if (receipt.getCode() != ReceiptCode.SUCCESS) {
+                        return receipt;
+                    }
+                }
+                additions.sort(Comparator.comparing(Block::getBlockNumber));
+                for (Block block : additions) {
+                    Receipt receipt = addPendingBlock(block, null);
+                    if (receipt.getCode() != ReceiptCode.SUCCESS) {
+                        return receipt;
                     }
-                    return receipt;
-                } else {
-                    // Then somehow we are both out of sync and yet have no pending blocks of any kind.
-                    // We should never be in this state.
-                    throw RuntimeAssertionError.unexpected();
                 }
+
+                this.isOutOfSync = false;
+                return Receipt.successfulReceipt();
             } catch (Exception e) {
                 return Receipt.unexpectedErrorReceipt(e);
             }
+        } finally {
+            this.mutationLock.unlock();
         }
     }
 
@@ -128,7 +427,12 @@ public final class ZeroBlockchain {
      * This operation is considered successful if and only if, both layer zero and layer one removed the block from the
      * blockchain.
      *
-     * This is a thread-safe blocking method. Only a single thread is able to call ANY public method at a time, so that
+     * Only a head block may be removed. The removal of a block which has children is rejected with
+     * {@link ReceiptCode#INVALID_PARAMETER}, and the removal of a block which is not in the blockchain is rejected with
+     * {@link ReceiptCode#DOES_NOT_EXIST}, in both cases before anything is written. To remove a block together with its
+     * descendants, use {@link ZeroBlockchain#rewindTo(byte[])} on its parent.
+     *
+     * This is a thread-safe blocking method. Only a single thread is able to modify the blockchain at a time, so that
      * internal consistency can be maintained.
      *
      * @param block The block to delete.
@@ -137,13 +441,19 @@ public final class ZeroBlockchain {
      * blockchain is already out of sync.
      */
     public Receipt removeBlock(Block block) throws LayersOutOfSyncException {
-        synchronized (this.lock) {
+        this.mutationLock.lock();
+        try {
             if (this.isOutOfSync) {
                 throw new LayersOutOfSyncException();
             }
             if (block == null) {
                 return Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "block is null");
             }
+            if (!this.headIndex.isHead(block.getBlockHash())) {
+                return this.ancestry.contains(block.getBlockHash())
+                        ? Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "block is not a head")
+                        : Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "block does not exist");
+            }
 
             try {
                 if (!this.database.updateBlockStatus(block.getBlockHash(), BlockStatus.PENDING_DELETION)) {
@@ -158,6 +468,228 @@ public final class ZeroBlockchain {
             } catch (Exception e) {
                 return Receipt.unexpectedErrorReceipt(e);
             }
+        } finally {
+            this.mutationLock.unlock();
+        }
+    }
+
+    /**
+     * Attempts to remove every descendant of the block with the specified hash from this blockchain, so that the block
+     * becomes a head, and returns a receipt descriptive of the outcome of this operation. If the block has descendants
+     * on several branches then all of those branches are removed. As a result, calling into this method will cause the
+     * {@link net.nicknadeau.zero.blockchain.callback.LayerOneDeleteBlockCallback} callback to be invoked once for each
+     * removed block, always on a head block, and so tip-first.
+     *
+     * Every block to be removed is first marked as {@link BlockStatus#PENDING_DELETION}, in a single
+     * {@link WriteBatch}, and only then are the blocks removed from layer one, one by one, after which they are all
+     * removed from the database in a second {@link WriteBatch}. If the process crashes partway through, the blockchain
+     * is out of sync when it is next constructed and {@link ZeroBlockchain#recover()} finishes removing the marked
+     * blocks. If layer one fails to remove a block, then the blocks which it did remove are still removed from the
+     * database, the blocks which were not yet removed are marked as {@link BlockStatus#ADDED} again and the failed
+     * receipt is returned, so the blockchain is left rewound partway, but consistent.
+     *
+     * The whole rewind is done under a single acquisition of this blockchain's lock. The descendants are found using
+     * the in-memory chain indexes rather than by querying the database, and each block is only loaded from the
+     * database as it is handed to layer one.
+     *
+     * This is a thread-safe blocking method. Only a single thread is able to modify the blockchain at a time, so that
+     * internal consistency can be maintained.
+     *
+     * @param ancestorHash The block hash of the block to rewind to.
+     * @return the receipt of the rewind operation.
+     * @throws LayersOutOfSyncException if rewinding caused the two layers to become out of sync, or if the blockchain is
+     * already out of sync.
+     */
+    public Receipt rewindTo(byte[] ancestorHash) throws LayersOutOfSyncException {
+        this.mutationLock.lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            if ((ancestorHash == null) || !this.ancestry.contains(ancestorHash)) {
+                return Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "ancestor block does not exist");
+            }
+
+            boolean isMarking = false;
+            try {
+                List<byte[]> branch = findDescendants(ancestorHash);
+
+                // Mark the whole branch for deletion up front, in one batch, so that a crash leaves the remainder to be
+                // recovered.
+                WriteBatch marks = this.database.newWriteBatch();
+                for (byte[] hash : branch) {
+                    marks.updateBlockStatus(hash, BlockStatus.PENDING_DELETION);
+                }
+                isMarking = true;
+                // A batch which is not atomic across its stores may apply marks after the first failing one, so every
+                // block is restored, which does nothing to a block that was never marked.
+                if (marks.commit() < branch.size()) {
+                    restoreBlocks(branch);
+                    return Receipt.failedReceipt(ReceiptCode.FAILED, "failed to mark block for deletion");
+                }
+                return removePendingBlocks(branch, Collections.emptyList());
+            } catch (LayersOutOfSyncException e) {
+                // In this case, we actually do want to allow the error to propagate.
+                this.isOutOfSync = true;
+                throw e;
+            } catch (Exception e) {
+                // Some blocks may have been left pending deletion, and only a recovery can tell.
+                if (isMarking) {
+                    this.isOutOfSync = true;
+                }
+                return Receipt.unexpectedErrorReceipt(e);
+            }
+        } finally {
+            this.mutationLock.unlock();
+        }
+    }
+
+    /**
+     * Attempts to switch this blockchain from the chain headed by the block with hash {@code fromHeadHash} onto the
+     * specified new branch, and returns a receipt descriptive of the outcome of this operation.
+     *
+     * The new branch must be a chain of blocks, ordered parent-first, whose first block's parent is the fork point: an
+     * ancestor of the old head. The blocks of the old chain after the fork point are removed tip-first and then the
+     * blocks of the new branch are added. If the fork point is the old head itself, then nothing is removed and the new
+     * branch simply extends the old head.
+     *
+     * The whole new branch is validated before anything is torn down. The layer zero checks are run over the whole
+     * branch, with the hash and signature checks run before this blockchain's lock is taken, and then the
+     * {@link net.nicknadeau.zero.blockchain.callback.LayerOneValidateBlockCallback} callback is invoked on each new
+     * block in order. Note that, unlike {@link ZeroBlockchain#addBlock(Block)}, this means that layer one validates a
+     * new block before its parent has been added. Only once every block is valid are the old blocks marked as
+     * {@link BlockStatus#PENDING_DELETION} and the new blocks saved as {@link BlockStatus#PENDING_ADDITION}, all in a
+     * single {@link WriteBatch}, after which the deletions and additions are run back to back. If the process crashes
+     * at any point after that, the blockchain is out of sync when it is next constructed and
+     * {@link ZeroBlockchain#recover()} finishes the switch.
+     *
+     * If layer one fails to remove an old block, the switch is abandoned and the blockchain is left rewound partway to
+     * the fork point. If layer one fails to add a new block, the switch is abandoned and the blockchain is left with
+     * the new blocks before the failing one. In either case the blockchain is consistent and the failed receipt is
+     * returned.
+     *
+     * The switch is rejected with {@link ReceiptCode#INVALID_PARAMETER} if any other chain branches off the old chain
+     * after the fork point, since then the old blocks are not all removable.
+     *
+     * This is a thread-safe blocking method. Only a single thread is able to modify the blockchain at a time, so that
+     * internal consistency can be maintained.
+     *
+     * @param fromHeadHash The block hash of the head of the chain to switch away from.
+     * @param newBranch The parent-ordered blocks of the branch to switch onto.
+     * @return the receipt of the switch operation.
+     * @throws NullPointerException if newBranch is null.
+     * @throws LayersOutOfSyncException if switching caused the two layers to become out of sync, or if the blockchain
+     * is already out of sync.
+     */
+    public Receipt switchHead(byte[] fromHeadHash, List<Block> newBranch) throws LayersOutOfSyncException {
+        ArgChecker.assertNonNull(newBranch);
+        if (this.isOutOfSync) {
+            throw new LayersOutOfSyncException();
+        }
+        if (newBranch.isEmpty()) {
+            return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "new branch is empty");
+        }
+
+        // Perform the expensive layer zero block verifications over the whole branch, in parallel, before taking the lock.
+        Receipt[] layerZeroReceipts = BlockValidator.runStatelessLayerZeroValidation(newBranch, this.hashFunction, this.signatureVerifier, this.validationPool);
+        for (Receipt receipt : layerZeroReceipts) {
+            if (receipt.getCode() != ReceiptCode.SUCCESS) {
+                return receipt;
+            }
+        }
+        for (int i = 1; i < newBranch.size(); i++) {
+            if (!Arrays.equals(newBranch.get(i).getParentBlockHash(), newBranch.get(i - 1).getBlockHash())) {
+                return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "new branch is not a chain");
+            }
+        }
+
+        this.mutationLock.lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+            if (!this.headIndex.isHead(fromHeadHash)) {
+                return Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "head block does not exist");
+            }
+            byte[] forkHash = newBranch.get(0).getParentBlockHash();
+            if ((forkHash == null) || !this.ancestry.isAncestor(forkHash, fromHeadHash)) {
+                return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "new branch does not fork from the chain of the head block");
+            }
+
+            boolean isSwitching = false;
+            try {
+                // Perform the remaining layer zero block verifications, and then the layer one verifications.
+                Map<HashKey, Block> validBlocks = new HashMap<>();
+                for (Block block : newBranch) {
+                    Receipt receipt = BlockValidator.runStatefulLayerZeroValidation(block, this.database, validBlocks);
+                    if (receipt.getCode() != ReceiptCode.SUCCESS) {
+                        return receipt;
+                    }
+                    validBlocks.put(HashKey.wrap(block.getBlockHash()), block);
+                }
+                for (Block block : newBranch) {
+                    int layerOneCode = this.callbacks.getLayerOneValidateBlockCallback().validate(block);
+                    if (layerOneCode != 0) {
+                        return Receipt.layerOneFailedReceipt(layerOneCode);
+                    }
+                }
+
+                List<byte[]> oldBranch = findDescendants(forkHash);
+                if (!isSingleChain(oldBranch, fromHeadHash)) {
+                    return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "another chain branches off the chain of the head block");
+                }
+
+                // Record the whole switch up front, in one batch. The old blocks are marked before the new blocks are
+                // saved, so that even a database which applies the batch one operation at a time never leaves a new
+                // block pending on top of a fork point which is not a head. If the batch fails, then the whole record
+                // is undone, since a batch which is not atomic across its stores may apply operations after the failing
+                // one, and undoing an operation which was never applied does nothing.
+                WriteBatch switchRecord = this.database.newWriteBatch();
+                for (byte[] hash : oldBranch) {
+                    switchRecord.updateBlockStatus(hash, BlockStatus.PENDING_DELETION);
+                }
+                for (Block block : newBranch) {
+                    switchRecord.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+                }
+                isSwitching = true;
+                int recordedCount = switchRecord.commit();
+                if (recordedCount < switchRecord.size()) {
+                    discardBlocks(newBranch);
+                    restoreBlocks(oldBranch);
+                    return (recordedCount < oldBranch.size())
+                            ? Receipt.failedReceipt(ReceiptCode.FAILED, "failed to mark block for deletion")
+                            : Receipt.failedReceipt(ReceiptCode.FAILED, "failed to save block to database");
+                }
+
+                Receipt removalReceipt = removePendingBlocks(oldBranch, newBranch);
+                if (removalReceipt.getCode() != ReceiptCode.SUCCESS) {
+                    return removalReceipt;
+                }
+                for (int i = 0; i < newBranch.size(); i++) {
+                    Receipt receipt = addPendingBlock(newBranch.get(i), null);
+                    if (receipt.getCode() != ReceiptCode.SUCCESS) {
+                        discardBlocks(newBranch.subList(i, newBranch.size()));
+                        return receipt;
+                    }
+                }
+
+                for (Block block : newBranch) {
+                    addOrphansOf(block.getBlockHash());
+                }
+                return Receipt.successfulReceipt();
+            } catch (LayersOutOfSyncException e) {
+                // In this case, we actually do want to allow the error to propagate.
+                this.isOutOfSync = true;
+                throw e;
+            } catch (Exception e) {
+                // Some blocks may have been left pending, and only a recovery can tell.
+                if (isSwitching) {
+                    this.isOutOfSync = true;
+                }
+                return Receipt.unexpectedErrorReceipt(e);
+            }
+        } finally {
+            this.mutationLock.unlock();
         }
     }
 
@@ -174,7 +706,12 @@ public final class ZeroBlockchain {
      * This operation is considered successful if and only if, both layer zero and layer one added the block to the
      * blockchain. Note that if the block already exists in the blockchain, then re-adding it is a failure.
      *
-     * This is a thread-safe blocking method. Only a single thread is able to call ANY public method at a time, so that
+     * The layer zero checks which do not depend on the state of the blockchain, most notably the verification of the
+     * block's hash and signature, are run before this blockchain's lock is taken, so that many threads are able to
+     * validate blocks in parallel while a single thread adds them. Only the cheap checks which do depend on that state
+     * (whether the block or its parent exists) are run under the lock.
+     *
+     * This is a thread-safe blocking method. Only a single thread is able to modify the blockchain at a time, so that
      * internal consistency can be maintained.
      *
      * @param block The block to add.
@@ -183,25 +720,301 @@ public final class ZeroBlockchain {
      * blockchain is already out of sync.
      */
     public Receipt addBlock(Block block) throws LayersOutOfSyncException {
-        synchronized (this.lock) {
+        if (this.isOutOfSync) {
+            throw new LayersOutOfSyncException();
+        }
+
+        // Perform the expensive layer zero block verifications before taking the lock, since they are independent of
+        // the state of the blockchain.
+        Receipt statelessReceipt = BlockValidator.runStatelessLayerZeroValidation(block, this.hashFunction, this.signatureVerifier);
+        if (statelessReceipt.getCode() != ReceiptCode.SUCCESS) {
+            return statelessReceipt;
+        }
+
+        return addStatelesslyValidBlock(block);
+    }
+
+    /**
+     * Asynchronously attempts to add the specified block to this blockchain, exactly as
+     * {@link ZeroBlockchain#addBlock(Block)} would, and returns a future which will be completed with the receipt of
+     * the add operation.
+     *
+     * This method never blocks. The stateless layer zero validation checks are run on this blockchain's executor, and
+     * the block is then handed to an internal single-writer queue, which adds the queued blocks one at a time, also on
+     * that executor. The blocks submitted through the asynchronous methods of this class are added or removed in the
+     * order in which those methods were called, so a block may be submitted immediately after its parent without
+     * waiting on the parent's future.
+     *
+     * If adding this block causes the two layers to become out of sync, or if the blockchain is already out of sync,
+     * then the returned future is completed exceptionally with a {@link LayersOutOfSyncException}.
+     *
+     * @param block The block to add.
+     * @return a future which will be completed with the receipt of the add operation.
+     */
+    public CompletableFuture<Receipt> addBlockAsync(Block block) {
+        if (this.isOutOfSync) {
+            return CompletableFuture.failedFuture(new LayersOutOfSyncException());
+        }
+
+        try {
+            CompletableFuture<Receipt> validation = CompletableFuture.supplyAsync(() -> BlockValidator.runStatelessLayerZeroValidation(block, this.hashFunction, this.signatureVerifier), this.executor);
+            return enqueueWrite(validation, (statelessReceipt) -> {
+                if (statelessReceipt.getCode() != ReceiptCode.SUCCESS) {
+                    return statelessReceipt;
+                }
+                return addStatelesslyValidBlock(block);
+            });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Asynchronously attempts to remove the specified block from this blockchain, exactly as
+     * {@link ZeroBlockchain#removeBlock(Block)} would, and returns a future which will be completed with the receipt of
+     * the removal operation.
+     *
+     * This method never blocks. The removal is handed to the same internal single-writer queue used by
+     * {@link ZeroBlockchain#addBlockAsync(Block)}, and is therefore ordered with respect to all other asynchronous
+     * operations.
+     *
+     * If removing this block causes the two layers to become out of sync, or if the blockchain is already out of sync,
+     * then the returned future is completed exceptionally with a {@link LayersOutOfSyncException}.
+     *
+     * @param block The block to remove.
+     * @return a future which will be completed with the receipt of the removal operation.
+     */
+    public CompletableFuture<Receipt> removeBlockAsync(Block block) {
+        if (this.isOutOfSync) {
+            return CompletableFuture.failedFuture(new LayersOutOfSyncException());
+        }
+        return enqueueWrite(CompletableFuture.completedFuture(null), (ignored) -> removeBlock(block));
+    }
+
+    /**
+     * Attempts to add each of the specified blocks to this blockchain and returns a list of receipts descriptive of the
+     * outcome of each add operation, such that the i'th receipt corresponds to the i'th block.
+     *
+     * The blocks must be ordered so that any block whose parent is also in the list appears after its parent. The
+     * layer zero validation checks are run over the whole batch in a single pass before any block is added, and a
+     * block whose parent is earlier in the batch passes the parent check even though that parent has not been added
+     * yet. If a block fails to be added then any of its descendants in the batch fail with
+     * {@link ReceiptCode#DOES_NOT_EXIST}, but the blocks which do not descend from it are still added.
+     *
+     * The layer one validation checks are then run over the whole batch, and every block which passes them is saved as
+     * {@link BlockStatus#PENDING_ADDITION} in a single {@link WriteBatch}. Only then are the blocks added to layer one,
+     * and the updates which mark them as {@link BlockStatus#ADDED} are written together in a second batch once the whole
+     * batch is in, so a batch costs two writes regardless of its size. If the process crashes before then, the blocks
+     * are still pending when the blockchain is next constructed, and {@link ZeroBlockchain#recover()} adds them to layer
+     * one again, parent-first. A block which layer one refuses to add is removed again, together with its descendants.
+     *
+     * The whole batch is processed under a single acquisition of this blockchain's lock, so no other thread may
+     * interleave its own modifications in between the blocks of the batch. As with {@link ZeroBlockchain#addBlock(Block)},
+     * the verification of the blocks' hashes and signatures is done before that lock is taken. It is spread over the
+     * threads of the validation pool, since each block is verified independently of the others.
+     *
+     * This is a thread-safe blocking method. Only a single thread is able to modify the blockchain at a time, so that
+     * internal consistency can be maintained.
+     *
+     * @param blocks The parent-ordered blocks to add.
+     * @return the receipts of the add operations.
+     * @throws NullPointerException if blocks is null.
+     * @throws LayersOutOfSyncException if adding any of these blocks caused the two layers to become out of sync, or if
+     * the blockchain is already out of sync. In this case, the blocks after the failing block are not added.
+     */
+    public List<Receipt> addBlocks(List<Block> blocks) throws LayersOutOfSyncException {
+        ArgChecker.assertNonNull(blocks);
+        if (this.isOutOfSync) {
+            throw new LayersOutOfSyncException();
+        }
+
+        // Perform the expensive layer zero block verifications over the whole batch, in parallel, before taking the lock.
+        Receipt[] layerZeroReceipts = BlockValidator.runStatelessLayerZeroValidation(blocks, this.hashFunction, this.signatureVerifier, this.validationPool);
+
+        this.mutationLock.lock();
+        try {
             if (this.isOutOfSync) {
                 throw new LayersOutOfSyncException();
             }
 
+            // Perform the remaining layer zero block verifications over the whole batch.
+            Map<HashKey, Block> validBlocks = new HashMap<>();
+            for (int i = 0; i < layerZeroReceipts.length; i++) {
+                if (layerZeroReceipts[i].getCode() == ReceiptCode.SUCCESS) {
+                    Block block = blocks.get(i);
+                    layerZeroReceipts[i] = BlockValidator.runStatefulLayerZeroValidation(block, this.database, validBlocks);
+                    if (layerZeroReceipts[i].getCode() == ReceiptCode.SUCCESS) {
+                        validBlocks.put(HashKey.wrap(block.getBlockHash()), block);
+                    } else if (layerZeroReceipts[i].getCode() == ReceiptCode.DOES_NOT_EXIST) {
+                        layerZeroReceipts[i] = holdOrphan(block, layerZeroReceipts[i]);
+                    }
+                }
+            }
+
+            // Perform the layer one block verifications, skipping any block whose parent in the batch failed them.
+            Receipt[] receipts = layerZeroReceipts;
+            List<Integer> pendingIndexes = new ArrayList<>();
+            Set<HashKey> pendingBlocks = new HashSet<>();
+            for (int i = 0; i < receipts.length; i++) {
+                if (receipts[i].getCode() != ReceiptCode.SUCCESS) {
+                    continue;
+                }
+                Block block = blocks.get(i);
+                byte[] parentHash = block.getParentBlockHash();
+                if ((parentHash != null) && validBlocks.containsKey(HashKey.wrap(parentHash)) && !pendingBlocks.contains(HashKey.wrap(parentHash))) {
+                    receipts[i] = Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "parent block was not added");
+                    continue;
+                }
+                try {
+                    int layerOneCode = this.callbacks.getLayerOneValidateBlockCallback().validate(block);
+                    if (layerOneCode != 0) {
+                        receipts[i] = Receipt.layerOneFailedReceipt(layerOneCode);
+                        continue;
+                    }
+                } catch (Exception e) {
+                    receipts[i] = Receipt.unexpectedErrorReceipt(e);
+                    continue;
+                }
+                pendingIndexes.add(i);
+                pendingBlocks.add(HashKey.wrap(block.getBlockHash()));
+            }
+
+            // Save every valid block as pending with a single write. The blocks are parent-ordered, so the blocks that
+            // were saved before the first failing save can still be added. A batch which is not atomic across its
+            // stores may apply operations after the failing one, so the blocks after it are all discarded again.
+            int savedCount = savePendingBlocks(blocks, pendingIndexes, receipts);
+
+            // Now add the saved blocks to layer one in order, skipping any whose parent in the batch could not be
+            // added. The blocks are only marked as added once the whole batch is in, with a single write.
+            Set<HashKey> addedBlocks = new LinkedHashSet<>();
+            Set<HashKey> abandonedBlocks = new HashSet<>();
+            List<Block> batchedBlocks = new ArrayList<>();
+            List<Block> discardedBlocks = new ArrayList<>();
+            WriteBatch addedStatuses = this.database.newWriteBatch();
             try {
-                // Perform the block verifications.
-                Receipt receipt = validateBlock(block);
-                if (receipt.getCode() != ReceiptCode.SUCCESS) {
-                    return receipt;
+                for (int i : pendingIndexes.subList(0, savedCount)) {
+                    Block block = blocks.get(i);
+                    byte[] parentHash = block.getParentBlockHash();
+                    if ((parentHash != null) && abandonedBlocks.contains(HashKey.wrap(parentHash))) {
+                        abandonedBlocks.add(HashKey.wrap(block.getBlockHash()));
+                        discardedBlocks.add(block);
+                        receipts[i] = Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "parent block was not added");
+                        continue;
+                    }
+
+                    try {
+                        receipts[i] = addPendingBlock(block, addedStatuses);
+                        if (receipts[i].getCode() == ReceiptCode.SUCCESS) {
+                            addedBlocks.add(HashKey.wrap(block.getBlockHash()));
+                            batchedBlocks.add(block);
+                        } else {
+                            // Layer one refused the block, so it and its descendants in the batch are not pending anymore.
+                            abandonedBlocks.add(HashKey.wrap(block.getBlockHash()));
+                            discardedBlocks.add(block);
+                        }
+                    } catch (LayersOutOfSyncException e) {
+                        // In this case, we actually do want to allow the error to propagate.
+                        this.isOutOfSync = true;
+                        throw e;
+                    } catch (Exception e) {
+                        // Layer one may or may not have the block, so it is left pending for a recovery to finish.
+                        abandonedBlocks.add(HashKey.wrap(block.getBlockHash()));
+                        receipts[i] = Receipt.unexpectedErrorReceipt(e);
+                    }
                 }
+            } finally {
+                // The blocks already in layer one must be marked as added even if the batch is being abandoned.
+                commitAddedStatuses(addedStatuses, batchedBlocks);
+            }
+            if (!discardedBlocks.isEmpty()) {
+                discardPendingBlocks(discardedBlocks);
+            }
+
+            // Only once the whole batch is in do we add any orphans that were waiting on its blocks.
+            for (HashKey addedBlock : addedBlocks) {
+                addOrphansOf(addedBlock.getHash());
+            }
+            return Arrays.asList(receipts);
+        } finally {
+            this.mutationLock.unlock();
+        }
+    }
+
+    /**
+     * Saves each of the blocks at the given indexes as {@link BlockStatus#PENDING_ADDITION} with a single write, and
+     * returns the number of leading blocks which were saved. Every block after those is discarded again, and its
+     * receipt is replaced with a failed receipt.
+     *
+     * If the blocks cannot be discarded then the blockchain is marked as out of sync, since those blocks may be pending
+     * in layer zero without ever having been added to layer one.
+     */
+    private int savePendingBlocks(List<Block> blocks, List<Integer> indexes, Receipt[] receipts) throws LayersOutOfSyncException {
+        WriteBatch pendingAdditions = this.database.newWriteBatch();
+        for (int i : indexes) {
+            pendingAdditions.saveBlockAndStatus(blocks.get(i), BlockStatus.PENDING_ADDITION);
+        }
+
+        int savedCount;
+        Receipt failedReceipt = Receipt.failedReceipt(ReceiptCode.FAILED, "failed to save block to database");
+        try {
+            savedCount = pendingAdditions.commit();
+        } catch (DatabaseError e) {
+            savedCount = 0;
+            failedReceipt = Receipt.unexpectedErrorReceipt(e);
+        }
+        if (savedCount == indexes.size()) {
+            return savedCount;
+        }
 
-                // Add the block to layer zero and mark it as pending.
-                if (!this.database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)) {
-                    return Receipt.failedReceipt(ReceiptCode.FAILED, "failed to save block to database");
+        List<Block> unsavedBlocks = new ArrayList<>();
+        for (int i : indexes.subList(savedCount, indexes.size())) {
+            unsavedBlocks.add(blocks.get(i));
+            receipts[i] = failedReceipt;
+        }
+        discardPendingBlocks(unsavedBlocks);
+        return savedCount;
+    }
+
+    /**
+     * Removes each of the given blocks, which are pending addition and are not in layer one, from the database, marking
+     * the blockchain as out of sync if they cannot all be removed.
+     */
+    private void discardPendingBlocks(List<Block> blocks) throws LayersOutOfSyncException {
+        try {
+            discardBlocks(blocks);
+        } catch (LayersOutOfSyncException | DatabaseError e) {
+            this.isOutOfSync = true;
+            throw new LayersOutOfSyncException();
+        }
+    }
+
+    /**
+     * Runs the layer zero validation checks which depend on the state of the blockchain on the given block and, if they
+     * pass, adds the block.
+     *
+     * ASSUMPTION: The block has already passed all of the stateless layer zero validation checks.
+     */
+    private Receipt addStatelesslyValidBlock(Block block) throws LayersOutOfSyncException {
+        this.mutationLock.lock();
+        try {
+            if (this.isOutOfSync) {
+                throw new LayersOutOfSyncException();
+            }
+
+            try {
+                // Perform the remaining layer zero block verifications, which depend on the state of the blockchain.
+                Receipt receipt = BlockValidator.runStatefulLayerZeroValidation(block, this.database, Collections.emptyMap());
+                if (receipt.getCode() == ReceiptCode.DOES_NOT_EXIST) {
+                    return holdOrphan(block, receipt);
+                } else if (receipt.getCode() != ReceiptCode.SUCCESS) {
+                    return receipt;
                 }
 
-                // Add the block to layer one and finish adding it to layer zero.
-                return addPendingBlock(block);
+                receipt = addLayerZeroValidBlock(block);
+                if (receipt.getCode() == ReceiptCode.SUCCESS) {
+                    addOrphansOf(block.getBlockHash());
+                }
+                return receipt;
             } catch (LayersOutOfSyncException e) {
                 // In this case, we actually do want to allow the error to propagate.
                 this.isOutOfSync = true;
@@ -209,34 +1022,206 @@ public final class ZeroBlockchain {
             } catch (Exception e) {
                 return Receipt.unexpectedErrorReceipt(e);
             }
+        } finally {
+            this.mutationLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the hashes of every descendant of the block with the given hash, found in the in-memory chain indexes
+     * without loading any block from the database, in descending order of block number so that each block comes before
+     * its parent.
+     */
+    private List<byte[]> findDescendants(byte[] ancestorHash) {
+        Set<HashKey> descendants = new HashSet<>();
+        List<byte[]> branch = new ArrayList<>();
+        for (Block head : this.headIndex.getHeads()) {
+            byte[] hash = head.getBlockHash();
+            if (!this.ancestry.isAncestor(ancestorHash, hash)) {
+                continue;
+            }
+            // Walk back to the ancestor, stopping early where this branch joins one we have already walked.
+            while (!Arrays.equals(hash, ancestorHash) && descendants.add(HashKey.wrap(hash))) {
+                branch.add(hash);
+                hash = this.ancestry.getParentHash(hash);
+            }
+        }
+        branch.sort(Comparator.<byte[]>comparingLong(this.ancestry::getBlockNumber).reversed());
+        return branch;
+    }
+
+    /**
+     * Returns {@code true} if and only if the descendants of some block with the given hashes, in descending order of
+     * block number, form a single chain which is headed by the block with the given hash.
+     */
+    private boolean isSingleChain(List<byte[]> descendants, byte[] headHash) {
+        byte[] expectedHash = headHash;
+        for (byte[] hash : descendants) {
+            if (!Arrays.equals(hash, expectedHash)) {
+                return false;
+            }
+            expectedHash = this.ancestry.getParentHash(hash);
+        }
+        return true;
+    }
+
+    /**
+     * Removes each of the given blocks, which are pending addition and are not in layer one, from the database.
+     */
+    private void discardBlocks(List<Block> blocks) throws LayersOutOfSyncException, DatabaseError {
+        WriteBatch batch = this.database.newWriteBatch();
+        for (Block block : blocks) {
+            batch.removeBlockByHash(block.getBlockHash());
+        }
+        if (batch.commit() < batch.size()) {
+            throw new LayersOutOfSyncException();
+        }
+    }
+
+    /**
+     * Marks each of the blocks with the given hashes, which are pending deletion, as {@link BlockStatus#ADDED} again.
+     */
+    private void restoreBlocks(List<byte[]> hashes) throws LayersOutOfSyncException, DatabaseError {
+        WriteBatch batch = this.database.newWriteBatch();
+        for (byte[] hash : hashes) {
+            batch.updateBlockStatus(hash, BlockStatus.ADDED);
+        }
+        if (batch.commit() < batch.size()) {
+            throw new LayersOutOfSyncException();
+        }
+    }
+
+    /**
+     * Commits the given batch of updates which mark the given blocks, already added to layer one, as
+     * {@link BlockStatus#ADDED}, and then adds the blocks to the chain indexes.
+     *
+     * Every block is indexed even if the batch fails, since a failed batch may have applied any of its updates, not
+     * only those before the failing one, and the blocks are all in layer one. The blocks still pending are then added
+     * to layer one again by {@link ZeroBlockchain#recover()}, which leaves the blocks that are already indexed as they
+     * are.
+     */
+    private void commitAddedStatuses(WriteBatch addedStatuses, List<Block> blocks) throws LayersOutOfSyncException {
+        boolean isCommitted;
+        try {
+            isCommitted = addedStatuses.commit() == addedStatuses.size();
+        } catch (DatabaseError e) {
+            isCommitted = false;
+        }
+
+        this.stateLock.writeLock().lock();
+        try {
+            for (Block block : blocks) {
+                indexAddedBlock(block);
+            }
+        } finally {
+            this.stateLock.writeLock().unlock();
+        }
+
+        if (!isCommitted) {
+            // The blocks are in layer one but are still pending in layer zero, exactly as if the update had returned false.
+            this.isOutOfSync = true;
+            throw new LayersOutOfSyncException();
         }
     }
 
     /**
-     * Validates the block using both the layer zero and layer one validation logic.
+     * Puts the given block, which failed the stateful validation checks with the given receipt because its parent does
+     * not exist, into the orphan pool and returns an {@link ReceiptCode#ORPHANED} receipt. If there is no orphan pool,
+     * or the block cannot be held by it, then the given receipt is returned instead.
      */
-    private Receipt validateBlock(Block block) {
-        // Perform the layer zero block verifications.
-        Receipt receipt = BlockValidator.runLayerZeroValidation(block, this.database, this.hashFunction, this.signatureVerifier);
-        if (receipt.getCode() != ReceiptCode.SUCCESS) {
+    private Receipt holdOrphan(Block block, Receipt receipt) {
+        if ((this.orphanPool == null) || !this.orphanPool.hold(block)) {
             return receipt;
         }
+        return Receipt.failedReceipt(ReceiptCode.ORPHANED, "parent block does not exist, block is held until its parent is added");
+    }
+
+    /**
+     * Adds every orphan block which descends from the block with the given hash, which was just added, in the order in
+     * which the orphans arrived. An orphan which fails to be added is dropped, and so are its own orphan descendants
+     * for as long as they remain in the pool.
+     *
+     * If adding an orphan causes the two layers to become out of sync then the blockchain is marked as out of sync and
+     * no more orphans are added. The error is not propagated, since the block which the caller added was added.
+     */
+    private void addOrphansOf(byte[] blockHash) {
+        if (this.orphanPool == null) {
+            return;
+        }
 
+        Deque<byte[]> parentHashes = new ArrayDeque<>();
+        parentHashes.add(blockHash);
+        while (!parentHashes.isEmpty()) {
+            for (Block orphan : this.orphanPool.drainChildrenOf(parentHashes.poll())) {
+                try {
+                    Receipt receipt = BlockValidator.runStatefulLayerZeroValidation(orphan, this.database, Collections.emptyMap());
+                    if (receipt.getCode() == ReceiptCode.SUCCESS) {
+                        receipt = addLayerZeroValidBlock(orphan);
+                    }
+                    if (receipt.getCode() == ReceiptCode.SUCCESS) {
+                        parentHashes.add(orphan.getBlockHash());
+                    }
+                } catch (LayersOutOfSyncException e) {
+                    this.isOutOfSync = true;
+                    return;
+                } catch (Exception e) {
+                    // The orphan is simply dropped, exactly as if it had failed validation.
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the given write to the tail of the single-writer queue and returns its future. The write is run on the
+     * executor once both the previously queued write and the given input have completed, and it is given the input's
+     * result. A {@link LayersOutOfSyncException} thrown by the write completes its future exceptionally.
+     */
+    private CompletableFuture<Receipt> enqueueWrite(CompletableFuture<Receipt> input, QueuedWrite write) {
+        synchronized (this.writeQueueLock) {
+            CompletableFuture<Receipt> result = this.writeQueueTail.thenCombineAsync(input, (ignored, inputReceipt) -> {
+                try {
+                    return write.run(inputReceipt);
+                } catch (LayersOutOfSyncException e) {
+                    throw new CompletionException(e);
+                }
+            }, this.executor);
+
+            // The next write must wait on this one regardless of how it completes.
+            this.writeQueueTail = result.handle((receipt, error) -> null);
+            return result;
+        }
+    }
+
+    /**
+     * Runs the layer one validation checks on the given block and, if they pass, adds the block to layer zero as a
+     * pending block and then adds it to layer one.
+     *
+     * ASSUMPTION: The block has already passed all of the layer zero validation checks.
+     */
+    private Receipt addLayerZeroValidBlock(Block block) throws LayersOutOfSyncException, DatabaseError {
         // Perform the layer one block verifications.
         int layerOneCode = this.callbacks.getLayerOneValidateBlockCallback().validate(block);
         if (layerOneCode != 0) {
             return Receipt.layerOneFailedReceipt(layerOneCode);
         }
 
-        return Receipt.successfulReceipt();
+        // Add the block to layer zero and mark it as pending.
+        if (!this.database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)) {
+            return Receipt.failedReceipt(ReceiptCode.FAILED, "failed to save block to database");
+        }
+
+        // Add the block to layer one and finish adding it to layer zero.
+        return addPendingBlock(block, null);
     }
 
     /**
-     * Adds the given block to layer one and then updates the status of the block to {@link BlockStatus#ADDED}.
+     * Adds the given block to layer one and then updates the status of the block to {@link BlockStatus#ADDED}, or adds
+     * that update to the given batch if it is not null, in which case the caller must commit the batch with
+     * {@link ZeroBlockchain#commitAddedStatuses(WriteBatch, List)}, which indexes the block once its update is written.
      *
      * ASSUMPTION: The status of the block is already {@link BlockStatus#PENDING_ADDITION} on disk.
      */
-    private Receipt addPendingBlock(Block block) throws LayersOutOfSyncException, DatabaseError {
+    private Receipt addPendingBlock(Block block, WriteBatch addedStatuses) throws LayersOutOfSyncException, DatabaseError {
         // Add the block to layer one.
         int layerOneCode = this.callbacks.getLayerOneAddBlockCallback().add(block);
         if (layerOneCode != 0) {
@@ -244,13 +1229,38 @@ public final class ZeroBlockchain {
         }
 
         // Finally, now we can update the status to being fully added to the blockchain.
-        if (!this.database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED)) {
-            throw new LayersOutOfSyncException();
+        this.stateLock.writeLock().lock();
+        try {
+            if (addedStatuses != null) {
+                addedStatuses.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED);
+                return Receipt.successfulReceipt();
+            }
+            if (!this.database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED)) {
+                throw new LayersOutOfSyncException();
+            }
+            indexAddedBlock(block);
+        } finally {
+            this.stateLock.writeLock().unlock();
         }
 
         return Receipt.successfulReceipt();
     }
 
+    /**
+     * Adds the given block, which was just added to both layers, to the chain indexes. A block which is already indexed
+     * is left as it is, since a recovery may finish adding a block which was indexed before its batch failed.
+     *
+     * ASSUMPTION: The caller holds the write lock of the state lock.
+     */
+    private void indexAddedBlock(Block block) {
+        if (this.ancestry.contains(block.getBlockHash())) {
+            return;
+        }
+        this.headIndex.onBlockAdded(block);
+        this.ancestry.add(block);
+        this.bestChain.selectBestOf(Collections.singleton(block), this.ancestry::getParentHash);
+    }
+
     /**
      * Removes the given block from layer one and then removes it from layer zero.
      *
@@ -263,13 +1273,122 @@ public final class ZeroBlockchain {
         }
 
         // Finally, now we can remove the block.
-        if (!this.database.removeBlockByHash(block.getBlockHash())) {
-            throw new LayersOutOfSyncException();
+        this.stateLock.writeLock().lock();
+        try {
+            if (!this.database.removeBlockByHash(block.getBlockHash())) {
+                throw new LayersOutOfSyncException();
+            }
+            unindexRemovedBlock(block);
+        } finally {
+            this.stateLock.writeLock().unlock();
         }
 
         return Receipt.successfulReceipt();
     }
 
+    /**
+     * Removes the blocks with the given hashes, which are ordered tip-first, from layer one one at a time, loading each
+     * block from the database only as it is handed to layer one, and then removes every block which layer one removed
+     * from the database with a single {@link WriteBatch}. The blocks remain pending deletion until that batch is
+     * written, so a crash in between leaves them to {@link ZeroBlockchain#recover()}.
+     *
+     * If layer one fails to remove a block, then the blocks which it did remove are still removed from the database,
+     * the given abandoned blocks, which are pending addition, are discarded, and the blocks which were not removed are
+     * marked as {@link BlockStatus#ADDED} again, before the failed receipt is returned.
+     *
+     * ASSUMPTION: The status of every block is already {@link BlockStatus#PENDING_DELETION} on disk.
+     */
+    private Receipt removePendingBlocks(List<byte[]> hashes, List<Block> abandonedBlocks) throws LayersOutOfSyncException, DatabaseError {
+        List<Block> removedBlocks = new ArrayList<>(hashes.size());
+        Receipt receipt = Receipt.successfulReceipt();
+        try {
+            for (byte[] hash : hashes) {
+                Block block = this.database.findBlockByHash(hash);
+                if (block == null) {
+                    throw RuntimeAssertionError.unexpected();
+                }
+                int layerOneCode = this.callbacks.getLayerOneDeleteBlockCallback().delete(block);
+                if (layerOneCode != 0) {
+                    receipt = Receipt.layerOneFailedReceipt(layerOneCode);
+                    break;
+                }
+                removedBlocks.add(block);
+            }
+        } finally {
+            // The blocks already out of layer one must be removed from the database even if the removal is abandoned.
+            commitRemovals(removedBlocks);
+        }
+
+        if (removedBlocks.size() < hashes.size()) {
+            discardBlocks(abandonedBlocks);
+            restoreBlocks(hashes.subList(removedBlocks.size(), hashes.size()));
+        }
+        return receipt;
+    }
+
+    /**
+     * Removes the given blocks, which are pending deletion and are no longer in layer one, from the database with a
+     * single {@link WriteBatch}, and then removes them from the chain indexes in the given, tip-first, order.
+     *
+     * Every block is removed from the indexes even if the batch fails, since a failed batch may have applied any of its
+     * removals, and the blocks are all out of layer one. The blocks still pending are then removed by
+     * {@link ZeroBlockchain#recover()}, which leaves the indexes as they are for a block which they no longer hold.
+     */
+    private void commitRemovals(List<Block> blocks) throws LayersOutOfSyncException, DatabaseError {
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        WriteBatch removals = this.database.newWriteBatch();
+        for (Block block : blocks) {
+            removals.removeBlockByHash(block.getBlockHash());
+        }
+        boolean isCommitted;
+        try {
+            isCommitted = removals.commit() == removals.size();
+        } catch (DatabaseError e) {
+            isCommitted = false;
+        }
+
+        this.stateLock.writeLock().lock();
+        try {
+            for (Block block : blocks) {
+                unindexRemovedBlock(block);
+            }
+        } finally {
+            this.stateLock.writeLock().unlock();
+        }
+
+        if (!isCommitted) {
+            // The blocks are out of layer one but still pending in layer zero, as if a removal had returned false.
+            this.isOutOfSync = true;
+            throw new LayersOutOfSyncException();
+        }
+    }
+
+    /**
+     * Removes the given block, which was just removed from both layers, from the chain indexes. If the block was a head
+     * then its parent may become a head, in which case the parent is loaded from the database.
+     *
+     * ASSUMPTION: The caller holds the write lock of the state lock.
+     */
+    private void unindexRemovedBlock(Block block) throws DatabaseError {
+        this.headIndex.onBlockRemoved(block, this.database);
+        this.ancestry.remove(block.getBlockHash());
+        if (this.bestChain.contains(block)) {
+            this.bestChain.truncateFrom(block.getBlockNumber());
+            this.bestChain.selectBestOf(this.headIndex.getHeads(), this.ancestry::getParentHash);
+        }
+    }
+
+    /**
+     * A write which is run by the single-writer queue, given the result of its input.
+     */
+    @FunctionalInterface
+    private interface QueuedWrite {
+        Receipt run(Receipt input) throws LayersOutOfSyncException;
+    }
+
     //------------------------------------------------------------------------------------------------------------------
 
     /**
@@ -280,6 +1399,11 @@ public final class ZeroBlockchain {
         private HashFunction hashFunction;
         private SignatureVerifier signatureVerifier;
         private ZeroCallbacks callbacks;
+        private Executor executor = ForkJoinPool.commonPool();
+        private ForkJoinPool validationPool = ForkJoinPool.commonPool();
+        private int orphanPoolMaxBlocks = 0;
+        private long orphanPoolMaxBytes = 0;
+        private Duration orphanPoolMaxAge = null;
 
         private Builder() {}
 
@@ -336,6 +1460,60 @@ public final class ZeroBlockchain {
             return this;
         }
 
+        /**
+         * Uses the specified executor to run the asynchronous operations, such as
+         * {@link ZeroBlockchain#addBlockAsync(Block)}. The layer one callbacks will be invoked by the threads of this
+         * executor when blocks are added or removed asynchronously.
+         *
+         * If no executor is given, then {@link ForkJoinPool#commonPool()} is used. Since the layer one callbacks and the
+         * database may block, it is recommended that a dedicated executor be given instead.
+         *
+         * @param executor The executor to use.
+         * @return this builder.
+         */
+        public Builder withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Uses the specified pool to verify the hashes and signatures of the blocks of a batch in parallel, as in
+         * {@link ZeroBlockchain#addBlocks(List)} and {@link ZeroBlockchain#switchHead(byte[], List)}. The remaining
+         * checks are still run over the batch in order, once these have all completed.
+         *
+         * The hash function and signature verifier will be called by the threads of this pool at the same time, and so
+         * must both be thread-safe. If no pool is given, then {@link ForkJoinPool#commonPool()} is used.
+         *
+         * @param pool The pool to use.
+         * @return this builder.
+         */
+        public Builder withValidationPool(ForkJoinPool pool) {
+            this.validationPool = pool;
+            return this;
+        }
+
+        /**
+         * Gives the blockchain an orphan block pool with the specified bounds. Without an orphan pool, a block whose
+         * parent does not exist is rejected with {@link ReceiptCode#DOES_NOT_EXIST}. With one, such a block is instead
+         * held in the pool, a receipt with {@link ReceiptCode#ORPHANED} is returned, and the block is added as soon as
+         * its parent is added.
+         *
+         * The pool evicts its oldest blocks once it holds more than {@code maxBlocks} blocks, once the blocks it holds
+         * are estimated to occupy more than {@code maxBytes} bytes, or once a block has been held for longer than
+         * {@code maxAge}. Each of these bounds must be positive.
+         *
+         * @param maxBlocks The maximum number of blocks to hold.
+         * @param maxBytes The maximum estimated number of bytes of memory the held blocks may occupy.
+         * @param maxAge The maximum length of time to hold any one block for.
+         * @return this builder.
+         */
+        public Builder withOrphanPool(int maxBlocks, long maxBytes, Duration maxAge) {
+            this.orphanPoolMaxBlocks = maxBlocks;
+            this.orphanPoolMaxBytes = maxBytes;
+            this.orphanPoolMaxAge = maxAge;
+            return this;
+        }
+
         /**
          * Returns a newly constructed instance of {@link ZeroBlockchain}, which uses each of the objects given to this
          * builder. If multiple objects of the same type were provided, only the last such object will be used.
@@ -343,10 +1521,16 @@ public final class ZeroBlockchain {
          * @return the new instance.
          */
         public ZeroBlockchain build() throws DatabaseError {
+            OrphanBlockPool orphanPool = (this.orphanPoolMaxAge == null)
+                    ? null
+                    : new OrphanBlockPool(this.orphanPoolMaxBlocks, this.orphanPoolMaxBytes, this.orphanPoolMaxAge.toNanos(), System::nanoTime);
             return new ZeroBlockchain(this.database
                     , this.hashFunction
                     , this.signatureVerifier
                     , this.callbacks
+                    , this.executor
+                    , this.validationPool
+                    , orphanPool
             );
         }
     }
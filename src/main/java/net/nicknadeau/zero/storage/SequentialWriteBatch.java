@@ -0,0 +1,43 @@
+package net.nicknadeau.zero.storage;
+
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.util.List;
+
+/**
+ * A {@link WriteBatch} which applies its operations by invoking the single-write methods of a database one after the
+ * other. This is the batch of any database which does not support batches natively, and it is NOT atomic: a failure or
+ * a crash partway through leaves the operations before it applied.
+ */
+public final class SequentialWriteBatch extends WriteBatch {
+    private final ZeroDatabase database;
+
+    /**
+     * Constructs a new empty batch which writes to the specified database.
+     *
+     * @param database The database to write to.
+     * @throws NullPointerException if database is null.
+     */
+    public SequentialWriteBatch(ZeroDatabase database) {
+        ArgChecker.assertNonNull(database);
+        this.database = database;
+    }
+
+    @Override
+    protected int apply(List<WriteOperation> operations) throws DatabaseError {
+        for (int i = 0; i < operations.size(); i++) {
+            WriteOperation operation = operations.get(i);
+            boolean isApplied;
+            switch (operation.getType()) {
+                case SAVE: isApplied = this.database.saveBlockAndStatus(operation.getBlock(), operation.getStatus()); break;
+                case UPDATE_STATUS: isApplied = this.database.updateBlockStatus(operation.getBlockHash(), operation.getStatus()); break;
+                default: isApplied = this.database.removeBlockByHash(operation.getBlockHash()); break;
+            }
+            if (!isApplied) {
+                return i;
+            }
+        }
+        return operations.size();
+    }
+}
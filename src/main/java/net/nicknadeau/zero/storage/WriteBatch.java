@@ -0,0 +1,152 @@
+package net.nicknadeau.zero.storage;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of writes to a {@link ZeroDatabase}, which are recorded one by one and then committed together, so that a
+ * database is able to apply them all in a single transaction. A batch is obtained from
+ * {@link ZeroDatabase#newWriteBatch()}.
+ *
+ * Each operation has exactly the meaning of the {@link ZeroDatabase} method of the same name, as if the methods were
+ * invoked one after the other in the order the operations were added. An operation fails wherever its method would
+ * return {@code false}: a block which could not be saved, a status update of a block which does not exist, or a removal
+ * which did not remove the block. The first failing operation stops the batch, except in a database which spreads a
+ * batch over several stores, as described below.
+ *
+ * A database which supports batches natively commits each batch atomically: either every operation is applied, or
+ * none is, and a crash never leaves a batch partly applied. The {@link SequentialWriteBatch}, which is used by any
+ * database which does not, simply invokes the methods one by one, so a failure or a crash can leave the operations
+ * before the failing one applied. A database which splits a batch over several stores without atomicity across them,
+ * such as {@link net.nicknadeau.zero.storage.shard.ShardedZeroDatabase}, may also apply operations after the failing
+ * one, since the stores which the failing operation does not belong to carry on. In every case {@link #commit()}
+ * reports how many operations at the front of the batch were applied, and a caller must not assume that the
+ * operations after those were not.
+ *
+ * The blocks and hashes given to a batch must not be modified until it has been committed. A batch is NOT thread-safe,
+ * and may be committed only once.
+ */
+public abstract class WriteBatch {
+    private final List<WriteOperation> operations = new ArrayList<>();
+    private boolean isCommitted = false;
+
+    /**
+     * Constructs a new empty batch, for a subclass which applies the operations to its database.
+     */
+    protected WriteBatch() {}
+
+    /**
+     * Adds an operation which saves the specified block with the specified status.
+     *
+     * @param block The block to save.
+     * @param status The block status to save.
+     * @return this batch.
+     * @throws NullPointerException if block or status are null.
+     * @throws IllegalStateException if this batch has been committed.
+     */
+    public final WriteBatch saveBlockAndStatus(Block block, BlockStatus status) {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        return add(WriteOperation.save(block, status));
+    }
+
+    /**
+     * Adds an operation which updates the block with the specified hash so that it has the specified status.
+     *
+     * @param blockHash The block hash of the block to update.
+     * @param status The new block status.
+     * @return this batch.
+     * @throws NullPointerException if blockHash or status are null.
+     * @throws IllegalStateException if this batch has been committed.
+     */
+    public final WriteBatch updateBlockStatus(byte[] blockHash, BlockStatus status) {
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(status);
+        return add(WriteOperation.updateStatus(blockHash, status));
+    }
+
+    /**
+     * Adds an operation which removes the block with the specified hash. A null hash adds nothing, since removing it
+     * always succeeds.
+     *
+     * @param blockHash The hash of the block to remove.
+     * @return this batch.
+     * @throws IllegalStateException if this batch has been committed.
+     */
+    public final WriteBatch removeBlockByHash(byte[] blockHash) {
+        return (blockHash == null) ? assertNotCommitted() : add(WriteOperation.remove(blockHash));
+    }
+
+    /**
+     * Adds each of the specified operations, in order, which is how a batch which decorates another batch passes its
+     * operations on.
+     *
+     * @param operations The operations to add.
+     * @return this batch.
+     * @throws NullPointerException if operations is null.
+     * @throws IllegalStateException if this batch has been committed.
+     */
+    public final WriteBatch addAll(List<WriteOperation> operations) {
+        ArgChecker.assertNonNull(operations);
+        assertNotCommitted();
+        this.operations.addAll(operations);
+        return this;
+    }
+
+    /**
+     * Returns the number of operations in this batch.
+     *
+     * @return the number of operations.
+     */
+    public final int size() {
+        return this.operations.size();
+    }
+
+    /**
+     * Applies the operations of this batch to the database, in order, and returns the number of operations at the front
+     * of the batch which were applied. The whole batch was applied if and only if this returns {@link #size()}. If it
+     * returns less, then the operations after the first unapplied one may still have been applied, unless the database
+     * stops the batch at its first failing operation.
+     *
+     * If this method throws then it is not known which of the operations were applied, unless the batch is atomic, in
+     * which case either all or none of them were.
+     *
+     * @return the number of operations applied.
+     * @throws IllegalStateException if this batch has already been committed.
+     * @throws DatabaseError if the database failed.
+     */
+    public final int commit() throws DatabaseError {
+        assertNotCommitted();
+        this.isCommitted = true;
+        return this.operations.isEmpty() ? 0 : apply(Collections.unmodifiableList(this.operations));
+    }
+
+    /**
+     * Applies the specified operations, which are never empty, to the database in order, and returns the number of
+     * operations at the front of the list which were applied.
+     *
+     * @param operations The operations to apply.
+     * @return the number of operations applied.
+     * @throws DatabaseError if the database failed.
+     */
+    protected abstract int apply(List<WriteOperation> operations) throws DatabaseError;
+
+    private WriteBatch add(WriteOperation operation) {
+        assertNotCommitted();
+        this.operations.add(operation);
+        return this;
+    }
+
+    private WriteBatch assertNotCommitted() {
+        if (this.isCommitted) {
+            throw new IllegalStateException("The batch has already been committed.");
+        }
+        return this;
+    }
+}
@@ -0,0 +1,89 @@
+package net.nicknadeau.zero.storage;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+
+/**
+ * A single operation recorded in a {@link WriteBatch}, which is the batched form of one of the mutating methods of
+ * {@link ZeroDatabase}.
+ */
+public final class WriteOperation {
+    private final Type type;
+    private final Block block;
+    private final byte[] blockHash;
+    private final BlockStatus status;
+
+    private WriteOperation(Type type, Block block, byte[] blockHash, BlockStatus status) {
+        this.type = type;
+        this.block = block;
+        this.blockHash = blockHash;
+        this.status = status;
+    }
+
+    static WriteOperation save(Block block, BlockStatus status) {
+        return new WriteOperation(Type.SAVE, block, block.getBlockHash(), status);
+    }
+
+    static WriteOperation updateStatus(byte[] blockHash, BlockStatus status) {
+        return new WriteOperation(Type.UPDATE_STATUS, null, blockHash, status);
+    }
+
+    static WriteOperation remove(byte[] blockHash) {
+        return new WriteOperation(Type.REMOVE, null, blockHash, null);
+    }
+
+    /**
+     * Returns the type of this operation.
+     *
+     * @return the operation type.
+     */
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Returns the block to save if this is a {@link Type#SAVE} operation, and otherwise {@code null}.
+     *
+     * @return the block to save.
+     */
+    public Block getBlock() {
+        return this.block;
+    }
+
+    /**
+     * Returns the hash of the block this operation writes. This is never {@code null}.
+     *
+     * @return the block hash.
+     */
+    public byte[] getBlockHash() {
+        return this.blockHash;
+    }
+
+    /**
+     * Returns the status to save or update to, or {@code null} if this is a {@link Type#REMOVE} operation.
+     *
+     * @return the block status.
+     */
+    public BlockStatus getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteOperation { type = " + this.type + ", status = " + this.status + " }";
+    }
+
+    /**
+     * The types of operations.
+     */
+    public enum Type {
+        /* The batched form of ZeroDatabase.saveBlockAndStatus */
+        SAVE,
+
+        /* The batched form of ZeroDatabase.updateBlockStatus */
+        UPDATE_STATUS,
+
+        /* The batched form of ZeroDatabase.removeBlockByHash */
+        REMOVE
+    }
+}
@@ -1,9 +1,11 @@
 package net.nicknadeau.zero.storage;
 
 import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
 import net.nicknadeau.zero.block.BlockStatus;
 import net.nicknadeau.zero.exception.DatabaseError;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 /**
@@ -54,6 +56,39 @@ public interface ZeroDatabase {
      */
     public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError;
 
+    /**
+     * Returns the header of the block in the database with the specified block hash or {@code null} if no such block
+     * exists.
+     *
+     * Returns {@code null} if {@code blockHash == null};
+     *
+     * A database which stores the headers of its blocks apart from their data should override this method so that the
+     * data is never loaded. By default, this method returns the block found by {@link #findBlockByHash(byte[])}.
+     *
+     * @param blockHash The block hash of the block whose header to find.
+     * @return the block header or null if not found.
+     */
+    public default BlockHeader findBlockHeaderByHash(byte[] blockHash) throws DatabaseError {
+        return findBlockByHash(blockHash);
+    }
+
+    /**
+     * Returns a collection of the headers of all the blocks in the database whose status is the specified status.
+     * Returns an empty collection is no blocks in the database have the specified status.
+     *
+     * Returns an empty collection is {@code status == null}.
+     *
+     * A database which stores the headers of its blocks apart from their data should override this method so that the
+     * data is never loaded. By default, this method returns the blocks found by
+     * {@link #findBlocksByStatus(BlockStatus)}.
+     *
+     * @param status The status to match against.
+     * @return the headers of the blocks with the status.
+     */
+    public default Collection<BlockHeader> findBlockHeadersByStatus(BlockStatus status) throws DatabaseError {
+        return new ArrayList<>(findBlocksByStatus(status));
+    }
+
     /**
      * Saves the specified block in the database and returns {@code true} to indicate that the block was successfully
      * saved and {@code false} to indicate an error occurred and the block could not be saved.
@@ -97,4 +132,17 @@ public interface ZeroDatabase {
      * @return whether or not the deletion was successful.
      */
     public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError;
+
+    /**
+     * Returns a new empty batch of writes to this database, which are applied together when the batch is committed.
+     *
+     * A database which is able to apply several writes in a single transaction should override this method and return
+     * a batch which it commits atomically. By default, this method returns a {@link SequentialWriteBatch}, which simply
+     * invokes the single-write methods of this database one by one.
+     *
+     * @return the new batch.
+     */
+    public default WriteBatch newWriteBatch() {
+        return new SequentialWriteBatch(this);
+    }
 }
@@ -0,0 +1,22 @@
+package net.nicknadeau.zero.storage.cache;
+
+import net.nicknadeau.zero.util.internal.HashKey;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+/**
+ * A cached block, which is also a link in the intrusive list of the queue that the eviction policy holds it in.
+ */
+final class CacheNode {
+    final HashKey key;
+    final ImmutableBlock block;
+    final long weight;
+    CacheNode previous;
+    CacheNode next;
+    NodeList queue;
+
+    CacheNode(HashKey key, ImmutableBlock block, long weight) {
+        this.key = key;
+        this.block = block;
+        this.weight = weight;
+    }
+}
@@ -0,0 +1,405 @@
+package net.nicknadeau.zero.storage.cache;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.HashKey;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ZeroDatabase} which caches the blocks of another database, so that repeated lookups of the same blocks by
+ * hash, such as the parent lookups made when validating new blocks, do not reach the other database.
+ *
+ * The cache holds blocks up to a maximum total weight, which is an estimate of the bytes of memory the cached blocks
+ * occupy, and evicts blocks according to an {@link EvictionPolicy} once it is full. A block is cached when it is found
+ * by {@link #findBlockByHash(byte[])} and when it is saved, since a newly saved block is likely to be looked up soon as
+ * the parent of the next block. A header lookup is answered from the cache if the block is cached, but otherwise goes
+ * to the other database without caching anything, so that it never loads the block's data. Only the blocks themselves
+ * are cached, never their statuses, so every status query goes to the other database and a status update does not need
+ * to touch the cache.
+ *
+ * Saving or removing a block invalidates its cache entry once the write to the other database has finished. Every
+ * invalidation also advances an epoch, and a lookup which missed only caches the block it read from the other database
+ * if the epoch did not advance while it was reading, so that a lookup racing with a removal can never cache the removed
+ * block. A {@link WriteBatch} is committed by the other database's own batch, and then invalidates the entry of every
+ * block it wrote in the same way.
+ *
+ * This class is thread-safe if the other database is. Lookups which hit the cache never block: the eviction policy is
+ * told about a hit only if its lock is free, and otherwise the hit goes unrecorded.
+ */
+public final class CachingZeroDatabase implements ZeroDatabase {
+    /**
+     * The estimated number of bytes each cached block occupies in addition to its attributes.
+     */
+    private static final long BLOCK_OVERHEAD = 200;
+
+    private final ZeroDatabase database;
+    private final long maximumWeight;
+    private final ConcurrentHashMap<HashKey, CacheNode> nodes = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Eviction eviction;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private volatile long epoch = 0;
+
+    private CachingZeroDatabase(ZeroDatabase database, long maximumWeight, EvictionPolicy evictionPolicy) {
+        ArgChecker.assertNonNull(database);
+        ArgChecker.assertNonNull(evictionPolicy);
+        ArgChecker.assertGreaterOrEqualTo(maximumWeight, 1);
+        this.database = database;
+        this.maximumWeight = maximumWeight;
+        this.eviction = evictionPolicy.newEviction(maximumWeight);
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        return this.database.genesisBlockExists();
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return false;
+        }
+        if (lookup(HashKey.wrap(blockHash)) != null) {
+            return true;
+        }
+        return this.database.blockExists(blockHash);
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return null;
+        }
+        CacheNode node = lookup(HashKey.wrap(blockHash));
+        if (node != null) {
+            return node.block;
+        }
+
+        long fillEpoch = this.epoch;
+        Block block = this.database.findBlockByHash(blockHash);
+        if (block == null) {
+            return null;
+        }
+        ImmutableBlock copy = ImmutableBlock.copyOf(block);
+        this.evictionLock.lock();
+        try {
+            if (this.epoch == fillEpoch) {
+                insert(copy);
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+        return copy;
+    }
+
+    @Override
+    public BlockHeader findBlockHeaderByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return null;
+        }
+        CacheNode node = lookup(HashKey.wrap(blockHash));
+        return (node == null) ? this.database.findBlockHeaderByHash(blockHash) : node.block;
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        return this.database.findBlocksByStatus(status);
+    }
+
+    @Override
+    public Collection<BlockHeader> findBlockHeadersByStatus(BlockStatus status) throws DatabaseError {
+        return this.database.findBlockHeadersByStatus(status);
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        ImmutableBlock copy = ImmutableBlock.copyOf(block);
+        boolean isSaved = false;
+        try {
+            isSaved = this.database.saveBlockAndStatus(copy, status);
+            return isSaved;
+        } finally {
+            invalidate(copy.getBlockHash(), isSaved ? copy : null);
+        }
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        return this.database.updateBlockStatus(blockHash, status);
+    }
+
+    @Override
+    public boolean containsPendingBlocks() throws DatabaseError {
+        return this.database.containsPendingBlocks();
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        try {
+            return this.database.removeBlockByHash(blockHash);
+        } finally {
+            if (blockHash != null) {
+                invalidate(blockHash, null);
+            }
+        }
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of lookups which were answered by the cache.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups which had to go to the other database.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    /**
+     * Returns the number of blocks which have been evicted to keep the cache within its maximum weight.
+     *
+     * @return the eviction count.
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+
+    /**
+     * Returns the number of blocks in the cache.
+     *
+     * @return the number of cached blocks.
+     */
+    public int getCachedBlockCount() {
+        return this.nodes.size();
+    }
+
+    /**
+     * Returns the total weight of the blocks in the cache, which is never more than the maximum weight.
+     *
+     * @return the weight of the cache.
+     */
+    public long getWeight() {
+        this.evictionLock.lock();
+        try {
+            return this.eviction.weight();
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Commits the given operations through a batch of the other database, and then invalidates the entry of every block
+     * they wrote, in order, caching each saved block which was applied.
+     */
+    private int applyBatch(List<WriteOperation> operations) throws DatabaseError {
+        WriteBatch batch = this.database.newWriteBatch();
+        ImmutableBlock[] copies = new ImmutableBlock[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            WriteOperation operation = operations.get(i);
+            switch (operation.getType()) {
+                case SAVE:
+                    copies[i] = ImmutableBlock.copyOf(operation.getBlock());
+                    batch.saveBlockAndStatus(copies[i], operation.getStatus());
+                    break;
+                case UPDATE_STATUS: batch.updateBlockStatus(operation.getBlockHash(), operation.getStatus()); break;
+                default: batch.removeBlockByHash(operation.getBlockHash()); break;
+            }
+        }
+
+        int appliedCount = 0;
+        try {
+            appliedCount = batch.commit();
+            return appliedCount;
+        } finally {
+            for (int i = 0; i < operations.size(); i++) {
+                if (operations.get(i).getType() != WriteOperation.Type.UPDATE_STATUS) {
+                    invalidate(operations.get(i).getBlockHash(), (i < appliedCount) ? copies[i] : null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cached node of the block with the specified hash and records a hit, or records a miss and returns
+     * {@code null} if the block is not cached.
+     */
+    private CacheNode lookup(HashKey key) {
+        CacheNode node = this.nodes.get(key);
+        if (node == null) {
+            this.missCount.increment();
+        } else {
+            this.hitCount.increment();
+        }
+
+        if (this.evictionLock.tryLock()) {
+            try {
+                if (node == null) {
+                    this.eviction.onMiss(key.hashCode());
+                } else if (node.queue != null) {
+                    this.eviction.onHit(node);
+                }
+            } finally {
+                this.evictionLock.unlock();
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Advances the epoch and removes the block with the specified hash from the cache, and then caches the replacement
+     * block if it is not null.
+     */
+    private void invalidate(byte[] blockHash, ImmutableBlock replacement) {
+        this.evictionLock.lock();
+        try {
+            this.epoch++;
+            CacheNode node = this.nodes.remove(HashKey.wrap(blockHash));
+            if ((node != null) && (node.queue != null)) {
+                this.eviction.remove(node);
+            }
+            if (replacement != null) {
+                insert(replacement);
+            }
+        } finally {
+            this.evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Caches the specified block, unless it is already cached or is heavier than the whole cache, and evicts whichever
+     * blocks the eviction policy chooses.
+     *
+     * ASSUMPTION: The eviction lock is held.
+     */
+    private void insert(ImmutableBlock block) {
+        long weight = weigh(block);
+        HashKey key = HashKey.wrap(block.getBlockHash());
+        if ((weight > this.maximumWeight) || this.nodes.containsKey(key)) {
+            return;
+        }
+
+        CacheNode node = new CacheNode(key, block, weight);
+        this.nodes.put(key, node);
+        List<CacheNode> evicted = new ArrayList<>();
+        this.eviction.add(node, evicted);
+        for (CacheNode victim : evicted) {
+            this.nodes.remove(victim.key, victim);
+            this.evictionCount.increment();
+        }
+    }
+
+    /**
+     * Returns an estimate of the number of bytes of memory the specified block occupies.
+     */
+    private static long weigh(ImmutableBlock block) {
+        byte[] parentHash = block.getParentBlockHash();
+        return BLOCK_OVERHEAD
+                + (block.getBlockNumber().bitLength() / 8)
+                + block.getBlockProducerPublicKey().length
+                + block.getBlockHash().length
+                + ((parentHash == null) ? 0 : parentHash.length)
+                + block.getBlockData().length
+                + block.getBlockSignature().length;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A builder which constructs new instances of {@link CachingZeroDatabase}.
+     */
+    public static final class Builder {
+        private ZeroDatabase database;
+        private long maximumWeight = 0;
+        private EvictionPolicy evictionPolicy = EvictionPolicy.W_TINY_LFU;
+
+        private Builder() {}
+
+        /**
+         * Returns a new builder instance.
+         *
+         * @return the new builder.
+         */
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        /**
+         * Caches the blocks of the specified database.
+         *
+         * @param database The database to cache.
+         * @return this builder.
+         */
+        public Builder withDatabase(ZeroDatabase database) {
+            this.database = database;
+            return this;
+        }
+
+        /**
+         * Bounds the cache so that the estimated number of bytes of memory the cached blocks occupy never exceeds the
+         * specified weight, which must be positive. A block heavier than this is never cached.
+         *
+         * @param maximumWeight The maximum weight in bytes.
+         * @return this builder.
+         */
+        public Builder withMaximumWeight(long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Uses the specified eviction policy. If no policy is given, then {@link EvictionPolicy#W_TINY_LFU} is used.
+         *
+         * @param evictionPolicy The eviction policy to use.
+         * @return this builder.
+         */
+        public Builder withEvictionPolicy(EvictionPolicy evictionPolicy) {
+            this.evictionPolicy = evictionPolicy;
+            return this;
+        }
+
+        /**
+         * Returns a newly constructed instance of {@link CachingZeroDatabase}.
+         *
+         * @return the new instance.
+         * @throws NullPointerException if no database was given or the eviction policy is null.
+         * @throws IllegalArgumentException if no maximum weight was given or it is not positive.
+         */
+        public CachingZeroDatabase build() {
+            return new CachingZeroDatabase(this.database, this.maximumWeight, this.evictionPolicy);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.nicknadeau.zero.storage.cache;
+
+import java.util.List;
+
+/**
+ * An eviction policy, which keeps the total weight of the nodes it holds within the maximum weight of its cache by
+ * choosing which nodes to evict.
+ *
+ * Implementations are NOT thread-safe and must be externally synchronized.
+ */
+interface Eviction {
+
+    /**
+     * Records that the specified node, which this policy holds, was looked up.
+     */
+    void onHit(CacheNode node);
+
+    /**
+     * Records that a key with the specified hash code was looked up but is not cached.
+     */
+    void onMiss(int keyHash);
+
+    /**
+     * Adds the specified node, and then adds every node which must be evicted to keep the total weight within the
+     * maximum weight to {@code evicted}. The added node itself may be evicted.
+     *
+     * ASSUMPTION: The node is not held by this policy and its weight is not greater than the maximum weight.
+     */
+    void add(CacheNode node, List<CacheNode> evicted);
+
+    /**
+     * Removes the specified node, which this policy holds.
+     */
+    void remove(CacheNode node);
+
+    /**
+     * Returns the total weight of the nodes this policy holds.
+     */
+    long weight();
+}
@@ -0,0 +1,36 @@
+package net.nicknadeau.zero.storage.cache;
+
+/**
+ * The policy a {@link CachingZeroDatabase} uses to choose which cached blocks to evict once the cache is full.
+ */
+public enum EvictionPolicy {
+
+    /*
+     * Evicts the least recently used block. This is cheap and works well when the blocks being looked up are the ones
+     * that were saved or looked up most recently, such as the parents of new blocks.
+     */
+    LRU {
+        @Override
+        Eviction newEviction(long maximumWeight) {
+            return new LruEviction(maximumWeight);
+        }
+    }
+
+    /*
+     * Window TinyLFU, which admits a block into the bulk of the cache only if it is estimated to have been looked up
+     * more often than the block it would replace. This keeps frequently looked up blocks cached when the cache is also
+     * swept by one-off lookups, such as a scan over old blocks, which would flush an LRU cache.
+     */
+    , W_TINY_LFU {
+        @Override
+        Eviction newEviction(long maximumWeight) {
+            return new WindowTinyLfuEviction(maximumWeight);
+        }
+    }
+    ;
+
+    /**
+     * Returns a new instance of this policy for a cache bounded by the specified weight.
+     */
+    abstract Eviction newEviction(long maximumWeight);
+}
@@ -0,0 +1,110 @@
+package net.nicknadeau.zero.storage.cache;
+
+/**
+ * A count-min sketch which estimates how often each key has been seen recently, in a fixed amount of memory.
+ *
+ * Each key has four 4-bit counters, each in a different word of the table, and its estimated frequency is the smallest
+ * of them. Since the counters saturate at 15, and every counter is halved once the sketch has counted ten times as many
+ * keys as it is sized for, the estimates favour keys which have been seen often and recently. This is the sketch that
+ * the Caffeine library uses for TinyLFU.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private long[] table;
+    private int sampleSize;
+    private int size;
+
+    FrequencySketch() {
+        allocate(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * Grows the sketch, if necessary, so that it can tell apart the frequencies of at least the specified number of
+     * keys. Growing the sketch forgets every frequency counted so far.
+     */
+    void ensureCapacity(int keyCount) {
+        if (keyCount > this.table.length && this.table.length < MAXIMUM_CAPACITY) {
+            allocate(keyCount);
+        }
+    }
+
+    /**
+     * Returns the estimated number of times the key with the specified hash code has been seen, which is at most 15.
+     */
+    int frequency(int keyHash) {
+        int hash = spread(keyHash);
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int count = (int) ((this.table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one more sighting of the key with the specified hash code.
+     */
+    void increment(int keyHash) {
+        int hash = spread(keyHash);
+        int start = (hash & 3) << 2;
+        boolean isAdded = false;
+        for (int i = 0; i < 4; i++) {
+            isAdded |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (isAdded && (++this.size == this.sampleSize)) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((this.table[index] & mask) != mask) {
+            this.table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves every counter, so that old sightings count for less than new ones.
+     */
+    private void reset() {
+        int oddCount = 0;
+        for (int i = 0; i < this.table.length; i++) {
+            oddCount += Long.bitCount(this.table[i] & ONE_MASK);
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        }
+        this.size = (this.size - (oddCount >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int hash, int depth) {
+        long index = (hash + SEEDS[depth]) * SEEDS[depth];
+        index += index >>> 32;
+        return ((int) index) & (this.table.length - 1);
+    }
+
+    private void allocate(int keyCount) {
+        int capacity = Integer.highestOneBit(Math.max(MINIMUM_CAPACITY, Math.min(keyCount, MAXIMUM_CAPACITY)) - 1) << 1;
+        this.table = new long[capacity];
+        this.sampleSize = 10 * capacity;
+        this.size = 0;
+    }
+
+    /**
+     * Spreads the bits of the hash code, since the hash codes of byte arrays cluster in their low bits.
+     */
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,47 @@
+package net.nicknadeau.zero.storage.cache;
+
+import java.util.List;
+
+/**
+ * The least recently used eviction policy.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ */
+final class LruEviction implements Eviction {
+    private final long maximumWeight;
+    private final NodeList nodes = new NodeList();
+
+    LruEviction(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    @Override
+    public void onHit(CacheNode node) {
+        this.nodes.moveToFront(node);
+    }
+
+    @Override
+    public void onMiss(int keyHash) {
+        // Recency is all that matters to this policy, so a miss tells it nothing.
+    }
+
+    @Override
+    public void add(CacheNode node, List<CacheNode> evicted) {
+        this.nodes.addFirst(node);
+        while (this.nodes.weight() > this.maximumWeight) {
+            CacheNode victim = this.nodes.peekLast();
+            this.nodes.remove(victim);
+            evicted.add(victim);
+        }
+    }
+
+    @Override
+    public void remove(CacheNode node) {
+        this.nodes.remove(node);
+    }
+
+    @Override
+    public long weight() {
+        return this.nodes.weight();
+    }
+}
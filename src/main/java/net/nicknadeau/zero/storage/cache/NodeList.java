@@ -0,0 +1,82 @@
+package net.nicknadeau.zero.storage.cache;
+
+/**
+ * An intrusive doubly-linked list of cache nodes in recency order, from the most recently used node at its head to the
+ * least recently used node at its tail, which keeps track of the total weight of its nodes.
+ *
+ * A node is in at most one list at a time, and knows which list it is in.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ */
+final class NodeList {
+    private CacheNode head = null;
+    private CacheNode tail = null;
+    private long weight = 0;
+
+    long weight() {
+        return this.weight;
+    }
+
+    boolean isEmpty() {
+        return this.head == null;
+    }
+
+    /**
+     * Returns the least recently used node in this list, or {@code null} if the list is empty.
+     */
+    CacheNode peekLast() {
+        return this.tail;
+    }
+
+    /**
+     * Adds the specified node to the head of this list.
+     *
+     * ASSUMPTION: The node is not in any list.
+     */
+    void addFirst(CacheNode node) {
+        node.queue = this;
+        node.previous = null;
+        node.next = this.head;
+        if (this.head == null) {
+            this.tail = node;
+        } else {
+            this.head.previous = node;
+        }
+        this.head = node;
+        this.weight += node.weight;
+    }
+
+    /**
+     * Removes the specified node from this list.
+     *
+     * ASSUMPTION: The node is in this list.
+     */
+    void remove(CacheNode node) {
+        if (node.previous == null) {
+            this.head = node.next;
+        } else {
+            node.previous.next = node.next;
+        }
+        if (node.next == null) {
+            this.tail = node.previous;
+        } else {
+            node.next.previous = node.previous;
+        }
+        node.previous = null;
+        node.next = null;
+        node.queue = null;
+        this.weight -= node.weight;
+    }
+
+    /**
+     * Moves the specified node to the head of this list.
+     *
+     * ASSUMPTION: The node is in this list.
+     */
+    void moveToFront(CacheNode node) {
+        if (this.head != node) {
+            remove(node);
+            addFirst(node);
+        }
+    }
+}
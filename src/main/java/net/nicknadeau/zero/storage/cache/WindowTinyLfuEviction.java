@@ -0,0 +1,102 @@
+package net.nicknadeau.zero.storage.cache;
+
+import java.util.List;
+
+/**
+ * The Window TinyLFU eviction policy.
+ *
+ * New nodes enter a small LRU window, which takes 1% of the maximum weight. A node pushed out of the window is only
+ * admitted into the main cache if its estimated frequency is greater than that of the node the main cache would evict
+ * to make room for it, and otherwise the node from the window is evicted instead. The main cache is a segmented LRU: a
+ * node enters its probation segment and is promoted to its protected segment, which takes 80% of the main cache, when
+ * it is hit again. The frequencies are estimated by a {@link FrequencySketch}, which counts both hits and misses.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ */
+final class WindowTinyLfuEviction implements Eviction {
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final long mainMaximumWeight;
+    private final long windowMaximumWeight;
+    private final long protectedMaximumWeight;
+    private final NodeList window = new NodeList();
+    private final NodeList probation = new NodeList();
+    private final NodeList protectedNodes = new NodeList();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private int nodeCount = 0;
+
+    WindowTinyLfuEviction(long maximumWeight) {
+        this.windowMaximumWeight = (long) (maximumWeight * WINDOW_FRACTION);
+        this.mainMaximumWeight = maximumWeight - this.windowMaximumWeight;
+        this.protectedMaximumWeight = (long) (this.mainMaximumWeight * PROTECTED_FRACTION);
+    }
+
+    @Override
+    public void onHit(CacheNode node) {
+        this.sketch.increment(node.key.hashCode());
+        if (node.queue == this.probation) {
+            this.probation.remove(node);
+            this.protectedNodes.addFirst(node);
+            while (this.protectedNodes.weight() > this.protectedMaximumWeight) {
+                CacheNode demoted = this.protectedNodes.peekLast();
+                this.protectedNodes.remove(demoted);
+                this.probation.addFirst(demoted);
+            }
+        } else {
+            node.queue.moveToFront(node);
+        }
+    }
+
+    @Override
+    public void onMiss(int keyHash) {
+        this.sketch.increment(keyHash);
+    }
+
+    @Override
+    public void add(CacheNode node, List<CacheNode> evicted) {
+        this.nodeCount++;
+        this.sketch.ensureCapacity(this.nodeCount);
+        this.window.addFirst(node);
+        while (this.window.weight() > this.windowMaximumWeight) {
+            CacheNode candidate = this.window.peekLast();
+            this.window.remove(candidate);
+            admit(candidate, evicted);
+        }
+    }
+
+    @Override
+    public void remove(CacheNode node) {
+        node.queue.remove(node);
+        this.nodeCount--;
+    }
+
+    @Override
+    public long weight() {
+        return this.window.weight() + this.probation.weight() + this.protectedNodes.weight();
+    }
+
+    /**
+     * Admits the specified candidate, which was pushed out of the window, into the main cache if it is estimated to be
+     * used more often than each of the nodes that would have to be evicted to make room for it. Whichever loses is
+     * evicted.
+     */
+    private void admit(CacheNode candidate, List<CacheNode> evicted) {
+        int candidateFrequency = this.sketch.frequency(candidate.key.hashCode());
+        while (this.probation.weight() + this.protectedNodes.weight() + candidate.weight > this.mainMaximumWeight) {
+            CacheNode victim = this.probation.isEmpty() ? this.protectedNodes.peekLast() : this.probation.peekLast();
+            if ((victim == null) || (candidateFrequency <= this.sketch.frequency(victim.key.hashCode()))) {
+                evict(candidate, evicted);
+                return;
+            }
+            victim.queue.remove(victim);
+            evict(victim, evicted);
+        }
+        this.probation.addFirst(candidate);
+    }
+
+    private void evict(CacheNode node, List<CacheNode> evicted) {
+        this.nodeCount--;
+        evicted.add(node);
+    }
+}
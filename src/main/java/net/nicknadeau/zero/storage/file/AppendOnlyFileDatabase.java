@@ -0,0 +1,1358 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.ByteArrayMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.Deflater;
+
+/**
+ * A durable {@link ZeroDatabase} which stores its blocks in a directory of append-only segment files, without the need
+ * for any external database.
+ *
+ * Every write appends a record to the end of the active segment: saving a block appends the whole encoded block, while
+ * updating a block's status or removing a block appends a small record holding only the block hash, so no record is
+ * ever rewritten in place. Once the active segment is full a new one is started. The segments are preallocated and
+ * mapped into memory, so appending is a memory copy and reading a block never makes a system call.
+ *
+ * The data of each block can be compressed, with a configurable level and an optional preset dictionary, which is
+ * worth it whenever the data compresses well, since it makes the segments smaller and so makes better use of the page
+ * cache. The data of a block which does not get any smaller is stored as is. Compression is off by default.
+ *
+ * Reading a block only decodes its header. The block's data stays in its segment until it is first asked for, so that
+ * looking up the headers of blocks, whether through {@link #findBlockHeaderByHash(byte[])} or by only reading the
+ * header of a block found any other way, never touches their data, nor decompresses it.
+ *
+ * The segments are the database's write-ahead log, and when a write's record is forced out to the storage device is
+ * decided by the {@link SyncPolicy}. By default, concurrent writes are group committed, so that each write is durable
+ * when it returns but a group of writes which arrive together share one force.
+ *
+ * A {@link WriteBatch} is committed atomically as a single record holding all of its writes, so the whole batch costs
+ * one append and at most one force, and it is replayed either in full or not at all.
+ *
+ * The database keeps an index of the location and status of every block, which is rebuilt when the database is opened
+ * by replaying every record of every segment in order. By default the index is kept on the heap, but for a chain too
+ * large for that it can instead be kept in a memory-mapped extendible hash index file in the database directory, which
+ * only keeps a small directory on the heap and reads a single page per lookup, as long as every block hash has the same
+ * length. Only the blocks with a pending status are then indexed on the heap, since there are only ever a few of them.
+ * Each record carries a checksum, and a record at the end of the last segment which is incomplete, because the process
+ * stopped while it was being written, is discarded.
+ *
+ * Removing a block, saving it again, or changing its status leaves the records written before dead, and so the index
+ * also counts the live bytes of each segment. The DELETE record of a removed block is only live for as long as an older
+ * segment may still hold a record of the block, which would otherwise bring the block back when the log is replayed. A segment other than the active one, in which at least the compaction
+ * threshold of the bytes are dead, is compacted in the background: the records in it which are still needed are copied
+ * to the end of the log, and once those copies are durable, the segment file is deleted. The records are copied in
+ * small chunks, each of which is checked against the index and switched over to atomically as a single batch record,
+ * so that reads and writes go on throughout and only ever wait for one chunk. Compaction is throttled to the
+ * compaction rate, and {@link #getCompactionStats()} reports the bytes it reclaimed and the pauses it caused.
+ *
+ * This class is thread-safe. Any number of threads may read from the database at once, while writes are exclusive.
+ */
+public final class AppendOnlyFileDatabase implements ZeroDatabase, AutoCloseable {
+    /**
+     * The default capacity of each segment file, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The default interval between forces under {@link SyncPolicy#PERIODIC}.
+     */
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(100);
+
+    /**
+     * The default fraction of dead bytes at which a segment is compacted.
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * The default number of bytes of segments which are compacted per second, at most.
+     */
+    public static final long DEFAULT_COMPACTION_RATE = 32L * 1024 * 1024;
+
+    /**
+     * The default interval between background checks for segments to compact.
+     */
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * The number of bytes of a segment which compaction scans while holding the lock, which bounds its pauses.
+     */
+    private static final int COMPACTION_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The name of the file which holds the index in the database directory, when the index is not kept on the heap.
+     */
+    private static final String INDEX_FILE_NAME = "blocks.index";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final BlockIndex blocks;
+    private final ByteArrayMap<Location> pendingAdditions = new ByteArrayMap<>();
+    private final ByteArrayMap<Location> pendingDeletions = new ByteArrayMap<>();
+    private final ByteArrayMap<Tombstone> tombstones = new ByteArrayMap<>();
+    private final LogSyncer syncer;
+    private final BlockCompressor compressor;
+    private final double compactionThreshold;
+    private final long compactionRate;
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final ScheduledExecutorService compactionTimer;
+    private final Object compactionStatsMonitor = new Object();
+    private volatile Segment activeSegment;
+    private volatile long appendedPosition = 0;
+    private int genesisCount = 0;
+    private boolean isClosed = false;
+    private long compactedSegmentCount = 0;
+    private long reclaimedBytes = 0;
+    private long copiedBytes = 0;
+    private long pauseCount = 0;
+    private long totalPauseNanos = 0;
+    private long maxPauseNanos = 0;
+    private long failedCompactionCount = 0;
+
+    private AppendOnlyFileDatabase(Path directory, int segmentSize, SyncPolicy syncPolicy, Duration syncInterval, int compressionLevel, byte[] compressionDictionary, double compactionThreshold, long compactionRate, Duration compactionInterval, int indexedHashLength) throws DatabaseError {
+        ArgChecker.assertNonNull(directory);
+        ArgChecker.assertGreaterOrEqualTo(segmentSize, LogRecord.HEADER_SIZE + 1);
+        ArgChecker.assertNonNull(syncPolicy);
+        if (!(compactionThreshold > 0) || (compactionThreshold > 1)) {
+            throw new IllegalArgumentException("The compaction threshold must be greater than 0 and at most 1.");
+        }
+        ArgChecker.assertGreaterOrEqualTo(compactionRate, 1L);
+        if ((compactionInterval != null) && (compactionInterval.isNegative() || compactionInterval.isZero())) {
+            throw new IllegalArgumentException("The compaction interval must be positive.");
+        }
+        ArgChecker.assertGreaterOrEqualTo(indexedHashLength, 0);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.compactionRate = compactionRate;
+        this.compressor = new BlockCompressor(compressionLevel, (compressionDictionary == null) ? null : compressionDictionary.clone());
+
+        BlockIndex index = null;
+        try {
+            Files.createDirectories(directory);
+            index = (indexedHashLength == 0) ? new HeapBlockIndex() : new MappedBlockIndex(directory.resolve(INDEX_FILE_NAME), indexedHashLength, this::segmentOf);
+        } catch (IOException e) {
+            throw new DatabaseError("Failed to create the index in " + directory, e);
+        }
+        this.blocks = index;
+
+        try {
+            for (Path path : listSegmentFiles(directory)) {
+                this.segments.add(Segment.open(path, Segment.idOf(path.getFileName().toString())));
+            }
+            for (int i = 0; i < this.segments.size(); i++) {
+                replay(this.segments.get(i), i == this.segments.size() - 1);
+            }
+            this.activeSegment = this.segments.isEmpty() ? startSegment(0, segmentSize) : this.segments.get(this.segments.size() - 1);
+        } catch (IOException e) {
+            closeSegments();
+            throw new DatabaseError("Failed to open the database in " + directory, e);
+        } catch (DatabaseError | RuntimeException e) {
+            closeSegments();
+            throw e;
+        }
+
+        try {
+            this.syncer = new LogSyncer(syncPolicy, syncInterval, () -> this.appendedPosition, () -> this.activeSegment.force());
+        } catch (RuntimeException e) {
+            closeSegments();
+            throw e;
+        }
+
+        if (compactionInterval == null) {
+            this.compactionTimer = null;
+        } else {
+            this.compactionTimer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "zero-file-database-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long nanos = compactionInterval.toNanos();
+            this.compactionTimer.scheduleWithFixedDelay(this::compactPeriodically, nanos, nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            return this.genesisCount > 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return false;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            return this.blocks.containsKey(blockHash);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return null;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            Location location = this.blocks.get(blockHash);
+            return (location == null) ? null : readBlock(location);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            switch (status) {
+                case PENDING_ADDITION: return readBlocks(this.pendingAdditions.values());
+                case PENDING_DELETION: return readBlocks(this.pendingDeletions.values());
+                default:
+                    List<Location> locations = new ArrayList<>(this.blocks.size() - this.pendingAdditions.size() - this.pendingDeletions.size());
+                    this.blocks.forEach((hash, location) -> {
+                        if (location.status == status) {
+                            locations.add(location);
+                        }
+                    });
+                    return readBlocks(locations);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        this.blocks.assertIndexable(block.getBlockHash());
+        ByteBuffer record = LogRecord.newBlockRecord(block, status, this.compressor);
+        byte[] blockHash = block.getBlockHash().clone();
+        boolean isGenesis = block.getBlockNumber().signum() == 0;
+
+        long position;
+        this.lock.writeLock().lock();
+        try {
+            assertOpen();
+            int recordLength = record.remaining();
+            Segment segment = segmentFor(recordLength);
+            int offset = segment.append(record);
+
+            indexBlock(blockHash, new Location(segment, offset + LogRecord.HEADER_SIZE, recordLength - LogRecord.HEADER_SIZE, isGenesis, status));
+            position = afterAppend(recordLength);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.syncer.awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(status);
+
+        long position;
+        this.lock.writeLock().lock();
+        try {
+            assertOpen();
+            Location location = this.blocks.get(blockHash);
+            if (location == null) {
+                return false;
+            }
+            ByteBuffer record = LogRecord.newStatusRecord(blockHash, status);
+            int recordLength = record.remaining();
+            Segment segment = segmentFor(recordLength);
+            segment.append(record);
+
+            // The status indexes keep the hash they are given, so they must never be given the caller's array.
+            indexStatus(blockHash.clone(), location, status, segment, recordLength - LogRecord.HEADER_SIZE);
+            position = afterAppend(recordLength);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.syncer.awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public boolean containsPendingBlocks() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            return !this.pendingAdditions.isEmpty();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return true;
+        }
+
+        long position;
+        this.lock.writeLock().lock();
+        try {
+            assertOpen();
+            if (!this.blocks.containsKey(blockHash)) {
+                return true;
+            }
+            ByteBuffer record = LogRecord.newDeleteRecord(blockHash);
+            int recordLength = record.remaining();
+            Segment segment = segmentFor(recordLength);
+            segment.append(record);
+
+            // The tombstones keep the hash they are given, so they must never be given the caller's array.
+            indexDelete(blockHash.clone(), segment, recordLength);
+            position = afterAppend(recordLength);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.syncer.awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of blocks in this database.
+     *
+     * @return the number of blocks.
+     * @throws DatabaseError if the database is closed.
+     */
+    public int size() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            return this.blocks.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of times the log has been forced out to the storage device since this database was opened.
+     */
+    long getForceCount() {
+        return this.syncer.getForceCount();
+    }
+
+    /**
+     * Compacts every segment other than the active one in which at least the compaction threshold of the bytes are
+     * dead, oldest first, and returns the number of segments compacted. This is what the background compaction does on
+     * every compaction interval, and if a background compaction is running, then this waits for it to finish first.
+     *
+     * Other threads may go on reading and writing while this runs, and it is throttled to the compaction rate. If the
+     * calling thread is interrupted, then this stops early, leaving the interrupt status set.
+     *
+     * @return the number of segments compacted.
+     * @throws DatabaseError if the database is closed or a compacted segment file could not be deleted.
+     */
+    public int compact() throws DatabaseError {
+        this.compactionLock.lock();
+        try {
+            int count = 0;
+            for (Segment segment : findSegmentsToCompact()) {
+                if (!compact(segment)) {
+                    break;
+                }
+                count++;
+            }
+            return count;
+        } finally {
+            this.compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the segment compaction of this database since it was opened.
+     *
+     * @return the compaction metrics.
+     */
+    public CompactionStats getCompactionStats() {
+        synchronized (this.compactionStatsMonitor) {
+            return new CompactionStats(this.compactedSegmentCount, this.reclaimedBytes, this.copiedBytes, this.pauseCount, this.totalPauseNanos, this.maxPauseNanos, this.failedCompactionCount);
+        }
+    }
+
+    /**
+     * Forces every record which has been appended so far out to the storage device, so that it survives a crash of the
+     * operating system or a power failure and not only a crash of the process, whatever the sync policy.
+     *
+     * @throws DatabaseError if the database is closed or the records could not be forced out.
+     */
+    public void flush() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            this.syncer.sync();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes and closes this database. Every method of a closed database throws a {@link DatabaseError}. Closing a
+     * closed database does nothing.
+     *
+     * @throws DatabaseError if a segment file could not be closed.
+     */
+    @Override
+    public void close() throws DatabaseError {
+        // The background compaction must be stopped before the lock is taken, since it may be waiting for the lock.
+        if (this.compactionTimer != null) {
+            this.compactionTimer.shutdownNow();
+            try {
+                this.compactionTimer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            if (this.isClosed) {
+                return;
+            }
+            this.isClosed = true;
+            this.syncer.close();
+            IOException error;
+            try {
+                this.syncer.sync();
+            } finally {
+                error = closeSegments();
+                this.compressor.close();
+            }
+            if (error != null) {
+                throw new DatabaseError("Failed to close the database in " + this.directory, error);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends every one of the given operations as a single batch record, or nothing if any operation would fail, and
+     * returns the number of operations applied.
+     */
+    private int applyBatch(List<WriteOperation> operations) throws DatabaseError {
+        // Encode every record before taking the lock, exactly as the single writes do.
+        List<ByteBuffer> records = new ArrayList<>(operations.size());
+        for (WriteOperation operation : operations) {
+            switch (operation.getType()) {
+                case SAVE:
+                    this.blocks.assertIndexable(operation.getBlockHash());
+                    records.add(LogRecord.newBlockRecord(operation.getBlock(), operation.getStatus(), this.compressor));
+                    break;
+                case UPDATE_STATUS: records.add(LogRecord.newStatusRecord(operation.getBlockHash(), operation.getStatus())); break;
+                default: records.add(LogRecord.newDeleteRecord(operation.getBlockHash())); break;
+            }
+        }
+
+        long position;
+        this.lock.writeLock().lock();
+        try {
+            assertOpen();
+
+            // Only a status update can fail, if its block neither exists nor is saved earlier in the batch. A removal of
+            // a block which does not exist succeeds without writing anything.
+            ByteArrayMap<Boolean> existence = new ByteArrayMap<>();
+            List<ByteBuffer> batchedRecords = new ArrayList<>(records.size());
+            for (int i = 0; i < operations.size(); i++) {
+                byte[] blockHash = operations.get(i).getBlockHash();
+                boolean exists = existence.containsKey(blockHash) ? existence.get(blockHash) : this.blocks.containsKey(blockHash);
+                switch (operations.get(i).getType()) {
+                    case SAVE:
+                        existence.put(blockHash, Boolean.TRUE);
+                        batchedRecords.add(records.get(i));
+                        break;
+                    case UPDATE_STATUS:
+                        if (!exists) {
+                            return 0;
+                        }
+                        batchedRecords.add(records.get(i));
+                        break;
+                    default:
+                        existence.put(blockHash, Boolean.FALSE);
+                        if (exists) {
+                            batchedRecords.add(records.get(i));
+                        }
+                        break;
+                }
+            }
+            if (batchedRecords.isEmpty()) {
+                return operations.size();
+            }
+
+            ByteBuffer record = LogRecord.newBatchRecord(batchedRecords);
+            int recordLength = record.remaining();
+            Segment segment = segmentFor(recordLength);
+            int offset = segment.append(record);
+
+            // The index is updated by replaying the record just written, so that it is always exactly what a reopen sees.
+            int bodyOffset = offset + LogRecord.HEADER_SIZE;
+            if (!apply(segment, bodyOffset, segment.read(bodyOffset, recordLength - LogRecord.HEADER_SIZE))) {
+                throw new IllegalStateException("Wrote an invalid batch record.");
+            }
+            position = afterAppend(recordLength);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        this.syncer.awaitDurable(position);
+        return operations.size();
+    }
+
+    private void compactPeriodically() {
+        try {
+            compact();
+        } catch (DatabaseError | RuntimeException e) {
+            synchronized (this.compactionStatsMonitor) {
+                this.failedCompactionCount++;
+            }
+        }
+    }
+
+    /**
+     * Returns every segment other than the active one in which at least the compaction threshold of the bytes are dead,
+     * in order.
+     */
+    private List<Segment> findSegmentsToCompact() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            assertOpen();
+            List<Segment> candidates = new ArrayList<>();
+            for (Segment segment : this.segments) {
+                long deadBytes = segment.writePosition() - segment.liveBytes();
+                if ((segment != this.activeSegment) && (deadBytes >= this.compactionThreshold * segment.writePosition())) {
+                    candidates.add(segment);
+                }
+            }
+            return candidates;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies every record of the specified segment which is still needed to the end of the log, chunk by chunk, and
+     * then deletes the segment, and returns {@code false} if the calling thread was interrupted before it was done.
+     *
+     * The segment is never written to again, so it is scanned without holding the lock, except that each chunk is
+     * matched against the index under the read lock, and the chunk's records are then copied without holding the lock.
+     * Since the index may have moved on in the meantime, the copies are checked again under the write lock, and only
+     * then appended as a single batch record. A compaction which stops part way leaves the database as consistent as
+     * any write does, since a copy always comes after the record it copies and so simply wins when the log is replayed.
+     */
+    private boolean compact(Segment segment) throws DatabaseError {
+        ByteArrayMap<Boolean> carriedHashes = new ByteArrayMap<>();
+        long segmentCopiedBytes = 0;
+        int position = 0;
+        int end = segment.writePosition();
+        while (position < end) {
+            long chunkStart = System.nanoTime();
+            List<CompactionCandidate> candidates = new ArrayList<>();
+            int chunkEnd = position;
+            this.lock.readLock().lock();
+            long pauseStart = System.nanoTime();
+            try {
+                assertOpen();
+                while ((chunkEnd < end) && (chunkEnd - position < COMPACTION_CHUNK_SIZE)) {
+                    int bodyLength = segment.getInt(chunkEnd);
+                    int bodyOffset = chunkEnd + LogRecord.HEADER_SIZE;
+                    findLiveRecords(segment, bodyOffset, segment.read(bodyOffset, bodyLength), candidates, carriedHashes);
+                    chunkEnd = bodyOffset + bodyLength;
+                }
+            } finally {
+                long pause = System.nanoTime() - pauseStart;
+                this.lock.readLock().unlock();
+                recordPause(pause);
+            }
+
+            for (CompactionCandidate candidate : candidates) {
+                candidate.record = candidate.newRecord();
+            }
+
+            int copiedLength = 0;
+            this.lock.writeLock().lock();
+            pauseStart = System.nanoTime();
+            try {
+                assertOpen();
+                List<ByteBuffer> records = new ArrayList<>(candidates.size());
+                for (CompactionCandidate candidate : candidates) {
+                    ByteBuffer record = recheck(segment, candidate);
+                    if (record != null) {
+                        records.add(record);
+                    }
+                }
+                if (!records.isEmpty()) {
+                    ByteBuffer record = LogRecord.newBatchRecord(records);
+                    copiedLength = record.remaining();
+                    Segment activeSegment = segmentFor(copiedLength);
+                    int bodyOffset = activeSegment.append(record) + LogRecord.HEADER_SIZE;
+                    if (!apply(activeSegment, bodyOffset, activeSegment.read(bodyOffset, copiedLength - LogRecord.HEADER_SIZE))) {
+                        throw new IllegalStateException("Wrote an invalid batch record.");
+                    }
+                    afterAppend(copiedLength);
+                }
+            } finally {
+                long pause = System.nanoTime() - pauseStart;
+                this.lock.writeLock().unlock();
+                recordPause(pause);
+            }
+            segmentCopiedBytes += copiedLength;
+            synchronized (this.compactionStatsMonitor) {
+                this.copiedBytes += copiedLength;
+            }
+
+            if (!throttle(chunkStart, chunkEnd - position)) {
+                return false;
+            }
+            position = chunkEnd;
+        }
+
+        // The segment may only go once the copies, and any later record which made one of its records dead, are durable.
+        this.syncer.sync();
+        this.lock.writeLock().lock();
+        long pauseStart = System.nanoTime();
+        try {
+            assertOpen();
+            this.segments.remove(segment);
+            releaseTombstones();
+        } finally {
+            long pause = System.nanoTime() - pauseStart;
+            this.lock.writeLock().unlock();
+            recordPause(pause);
+        }
+
+        // Any block already read from the segment stays readable, since the mapping outlives the file and its channel.
+        // The entries of the segments which the copies went to are forced out first, so that the copies can never be
+        // lost while the segment is gone.
+        try {
+            Segment.syncDirectory(this.directory);
+            segment.close();
+            Files.deleteIfExists(segment.path());
+        } catch (IOException e) {
+            throw new DatabaseError("Failed to delete the compacted segment " + segment.path(), e);
+        }
+        synchronized (this.compactionStatsMonitor) {
+            this.compactedSegmentCount++;
+            this.reclaimedBytes += Math.max(0, segment.capacity() - segmentCopiedBytes);
+        }
+        return true;
+    }
+
+    /**
+     * Adds every record in the specified record body, at the specified offset of the specified segment, which is still
+     * needed to the given candidates. A record is needed if it is:
+     *
+     * - the record of a block in the index, which is copied with the block's current status.
+     * - the latest STATUS record of a block in the index whose own record is in another segment.
+     * - the DELETE record which is the tombstone of a block, which it is as long as an older segment may still hold a
+     * record of the block.
+     *
+     * The hashes of the STATUS and DELETE records which are carried forward are added to the given hashes, so that each
+     * is only carried forward once.
+     */
+    private void findLiveRecords(Segment segment, int bodyOffset, ByteBuffer body, List<CompactionCandidate> candidates, ByteArrayMap<Boolean> carriedHashes) {
+        byte type = body.get(0);
+        byte[] blockHash;
+        Location location;
+        switch (type) {
+            case LogRecord.TYPE_BLOCK:
+            case LogRecord.TYPE_COMPRESSED_BLOCK:
+                blockHash = LogRecord.readBlock(type, body.duplicate().position(2), this.compressor).getBlockHash();
+                location = this.blocks.get(blockHash);
+                if ((location != null) && (location.segment == segment) && (location.bodyOffset == bodyOffset)) {
+                    candidates.add(new CompactionCandidate(type, blockHash, location, location.status, body));
+                }
+                break;
+            case LogRecord.TYPE_STATUS:
+                blockHash = LogRecord.readBytes(body.duplicate().position(2));
+                location = this.blocks.get(blockHash);
+                if ((location != null) && (location.statusSegment == segment) && (location.segment != segment) && !carriedHashes.containsKey(blockHash)) {
+                    carriedHashes.put(blockHash, Boolean.TRUE);
+                    candidates.add(new CompactionCandidate(type, blockHash, location, location.status, body));
+                }
+                break;
+            case LogRecord.TYPE_DELETE:
+                blockHash = LogRecord.readBytes(body.duplicate().position(1));
+                Tombstone tombstone = this.tombstones.get(blockHash);
+                if ((tombstone != null) && (tombstone.segment == segment) && !carriedHashes.containsKey(blockHash)) {
+                    carriedHashes.put(blockHash, Boolean.TRUE);
+                    candidates.add(new CompactionCandidate(type, blockHash, null, null, body));
+                }
+                break;
+            default:
+                int count = body.getInt(1);
+                int position = 1 + Integer.BYTES;
+                for (int i = 0; i < count; i++) {
+                    int innerLength = body.getInt(position);
+                    int innerOffset = bodyOffset + position + Integer.BYTES;
+                    findLiveRecords(segment, innerOffset, segment.read(innerOffset, innerLength), candidates, carriedHashes);
+                    position += Integer.BYTES + innerLength;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Returns the record which carries the given candidate forward from the given segment, as the index now stands, or
+     * {@code null} if the candidate is no longer needed because a later write made it dead.
+     */
+    private ByteBuffer recheck(Segment segment, CompactionCandidate candidate) {
+        Location location = this.blocks.get(candidate.blockHash);
+        switch (candidate.type) {
+            case LogRecord.TYPE_STATUS:
+                return ((location != null) && location.isSameRecord(candidate.location) && (location.statusSegment == segment)) ? candidate.record : null;
+            case LogRecord.TYPE_DELETE:
+                Tombstone tombstone = this.tombstones.get(candidate.blockHash);
+                return ((tombstone != null) && (tombstone.segment == segment)) ? candidate.record : null;
+            default:
+                if ((location == null) || !location.isSameRecord(candidate.location)) {
+                    return null;
+                }
+                return (location.status == candidate.status) ? candidate.record : LogRecord.copyBlockRecord(candidate.body, location.status);
+        }
+    }
+
+    /**
+     * Sleeps for as long as it takes for a chunk of the specified number of bytes, which began at the specified time,
+     * to stay within the compaction rate, and returns {@code false} if the calling thread was interrupted.
+     */
+    private boolean throttle(long chunkStart, int chunkLength) {
+        long sleepNanos = (long) (chunkLength * (1e9 / this.compactionRate)) - (System.nanoTime() - chunkStart);
+        if (sleepNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    private void recordPause(long nanos) {
+        synchronized (this.compactionStatsMonitor) {
+            this.pauseCount++;
+            this.totalPauseNanos += nanos;
+            this.maxPauseNanos = Math.max(this.maxPauseNanos, nanos);
+        }
+    }
+
+    /**
+     * Applies every intact record of the specified segment to the index, in order, and sets the write position of the
+     * segment to the end of its last intact record.
+     *
+     * A record which is incomplete or whose checksum does not match ends the scan. In the last segment this is expected
+     * if the process or the machine stopped in the middle of an append, and so the rest of the segment is zeroed and
+     * will be written over. In any other segment it means the data is corrupt, since a segment is always forced out in
+     * full before the next one is started.
+     */
+    private void replay(Segment segment, boolean isLastSegment) throws DatabaseError {
+        int position = 0;
+        int capacity = segment.capacity();
+        while (position <= capacity - LogRecord.HEADER_SIZE) {
+            int bodyLength = segment.getInt(position);
+            if (bodyLength == 0) {
+                break;
+            }
+            int bodyOffset = position + LogRecord.HEADER_SIZE;
+            ByteBuffer body = ((bodyLength > 0) && (bodyLength <= capacity - bodyOffset)) ? segment.read(bodyOffset, bodyLength) : null;
+            if ((body == null) || !LogRecord.isIntact(body, segment.getInt(position + 4)) || !apply(segment, bodyOffset, body)) {
+                if (!isLastSegment) {
+                    throw new DatabaseError("Corrupt record at offset " + position + " of " + segment.path());
+                }
+                break;
+            }
+            position = bodyOffset + bodyLength;
+        }
+
+        // Pages of the log may reach the device out of order, so there may be intact records after the first missing
+        // one. They must be erased, since they would otherwise be replayed once the gap has been written over.
+        if (isLastSegment) {
+            segment.zeroFrom(position);
+        }
+        segment.setWritePosition(position);
+        this.appendedPosition += position;
+    }
+
+    /**
+     * Applies the record with the specified body to the index, and returns {@code false} if the record is not a valid
+     * record.
+     */
+    private boolean apply(Segment segment, int bodyOffset, ByteBuffer body) throws DatabaseError {
+        int bodyLength = body.remaining();
+        byte type = body.get();
+        BlockStatus status;
+        byte[] blockHash;
+        Location location;
+        switch (type) {
+            case LogRecord.TYPE_BLOCK:
+            case LogRecord.TYPE_COMPRESSED_BLOCK:
+                status = LogRecord.readStatus(body);
+                if (status == null) {
+                    return false;
+                }
+                // A record compressed with another dictionary is intact, so it must not be mistaken for a torn record.
+                if ((type == LogRecord.TYPE_COMPRESSED_BLOCK) && !this.compressor.canDecompress(LogRecord.readDictionaryId(body))) {
+                    throw new DatabaseError("A block in " + segment.path() + " was compressed with a dictionary which was not given.");
+                }
+                Block block;
+                try {
+                    block = LogRecord.readBlock(type, body, this.compressor);
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                indexBlock(block.getBlockHash(), new Location(segment, bodyOffset, bodyLength, block.getBlockNumber().signum() == 0, status));
+                return true;
+            case LogRecord.TYPE_STATUS:
+                status = LogRecord.readStatus(body);
+                if (status == null) {
+                    return false;
+                }
+                blockHash = LogRecord.readBytes(body);
+                location = this.blocks.get(blockHash);
+                if (location != null) {
+                    indexStatus(blockHash, location, status, segment, bodyLength);
+                }
+                return true;
+            case LogRecord.TYPE_DELETE:
+                blockHash = LogRecord.readBytes(body);
+                indexDelete(blockHash, segment, LogRecord.HEADER_SIZE + bodyLength);
+                return true;
+            case LogRecord.TYPE_BATCH:
+                int count = body.getInt();
+                for (int i = 0; i < count; i++) {
+                    int innerLength = body.getInt();
+                    if ((innerLength <= 0) || (innerLength > body.remaining())) {
+                        return false;
+                    }
+                    int innerOffset = bodyOffset + body.position();
+                    ByteBuffer inner = segment.read(innerOffset, innerLength);
+                    if ((inner.get(0) == LogRecord.TYPE_BATCH) || !apply(segment, innerOffset, inner)) {
+                        return false;
+                    }
+                    body.position(body.position() + innerLength);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the segment to append a record of the specified size to, which is a new segment if the record does not
+     * fit into the active segment. A record larger than the segment size gets a segment of its own.
+     */
+    private Segment segmentFor(int recordSize) throws DatabaseError {
+        if (this.activeSegment.remaining() >= recordSize) {
+            return this.activeSegment;
+        }
+        try {
+            // The full segment is forced out now, so that only the active segment ever has unforced records.
+            this.activeSegment.force();
+            this.activeSegment = startSegment(this.activeSegment.id() + 1, Math.max(this.segmentSize, recordSize));
+            return this.activeSegment;
+        } catch (IOException e) {
+            throw new DatabaseError("Failed to create a new segment in " + this.directory, e);
+        }
+    }
+
+    /**
+     * Advances the appended position past a record of the specified length which was just appended, lets the syncer
+     * force it out if its policy requires a force while the write lock is held, and returns the new appended position.
+     */
+    private long afterAppend(int recordLength) throws DatabaseError {
+        long position = this.appendedPosition + recordLength;
+        this.appendedPosition = position;
+        this.syncer.afterAppend();
+        return position;
+    }
+
+    private Segment startSegment(int id, int capacity) throws IOException {
+        Segment segment = Segment.create(this.directory, id, capacity);
+        this.segments.add(segment);
+        return segment;
+    }
+
+    private Block readBlock(Location location) {
+        ByteBuffer body = location.segment.read(location.bodyOffset, location.bodyLength);
+        body.position(2);
+        return LogRecord.readBlock(body.get(0), body, this.compressor);
+    }
+
+    private List<Block> readBlocks(Collection<Location> locations) {
+        List<Block> blocks = new ArrayList<>(locations.size());
+        for (Location location : locations) {
+            blocks.add(readBlock(location));
+        }
+        return blocks;
+    }
+
+    /**
+     * Adds the block at the given location to the status index of its status.
+     */
+    private void track(byte[] blockHash, Location location) {
+        if (location.status == BlockStatus.PENDING_ADDITION) {
+            this.pendingAdditions.put(blockHash, location);
+        } else if (location.status == BlockStatus.PENDING_DELETION) {
+            this.pendingDeletions.put(blockHash, location);
+        }
+    }
+
+    /**
+     * Removes the block at the given location from the status index of its status.
+     */
+    private void untrack(byte[] blockHash, Location location) {
+        if (location.status == BlockStatus.PENDING_ADDITION) {
+            this.pendingAdditions.remove(blockHash);
+        } else if (location.status == BlockStatus.PENDING_DELETION) {
+            this.pendingDeletions.remove(blockHash);
+        }
+    }
+
+    /**
+     * Puts the block at the given location into the index, in place of any earlier record of the same block, which dies.
+     */
+    private void indexBlock(byte[] blockHash, Location location) {
+        // The block's older records, and those from before it was last removed, may still be in older segments.
+        Location previous = this.blocks.get(blockHash);
+        Tombstone tombstone = this.tombstones.remove(blockHash);
+        if (previous != null) {
+            location = location.withFirstSegmentId(previous.firstSegmentId);
+        } else if (tombstone != null) {
+            tombstone.segment.addLiveBytes(-tombstone.recordLength);
+            location = location.withFirstSegmentId(tombstone.firstSegmentId);
+        }
+        this.blocks.put(blockHash, location);
+        if (previous != null) {
+            untrack(blockHash, previous);
+            release(previous);
+        } else if (location.isGenesis) {
+            this.genesisCount++;
+        }
+        track(blockHash, location);
+        location.segment.addLiveBytes(LogRecord.HEADER_SIZE + location.bodyLength);
+    }
+
+    /**
+     * Gives the block at the given location the given status, which was set by the STATUS record with the given body
+     * length in the given segment. Any earlier STATUS record of the block dies.
+     */
+    private void indexStatus(byte[] blockHash, Location location, BlockStatus status, Segment segment, int bodyLength) {
+        Location updated = location.withStatus(status, segment, bodyLength);
+        this.blocks.put(blockHash, updated);
+        untrack(blockHash, location);
+        if (location.statusSegment != null) {
+            location.statusSegment.addLiveBytes(-(LogRecord.HEADER_SIZE + location.statusLength));
+        }
+        segment.addLiveBytes(LogRecord.HEADER_SIZE + bodyLength);
+        track(blockHash, updated);
+    }
+
+    /**
+     * Removes the block with the given hash from the index, as the DELETE record of the given length in the given
+     * segment does, and the block's records die. The DELETE record becomes the block's tombstone, and so stays live, if
+     * an older segment may still hold a record of the block. Any earlier tombstone of the block dies.
+     */
+    private void indexDelete(byte[] blockHash, Segment segment, int recordLength) {
+        Location location = this.blocks.remove(blockHash);
+        Tombstone previous = this.tombstones.remove(blockHash);
+        int firstSegmentId = segment.id();
+        if (location != null) {
+            untrack(blockHash, location);
+            release(location);
+            if (location.isGenesis) {
+                this.genesisCount--;
+            }
+            firstSegmentId = location.firstSegmentId;
+        } else if (previous != null) {
+            previous.segment.addLiveBytes(-previous.recordLength);
+            firstSegmentId = previous.firstSegmentId;
+        }
+
+        if (hasSegmentBetween(firstSegmentId, segment.id())) {
+            this.tombstones.put(blockHash, new Tombstone(segment, recordLength, firstSegmentId));
+            segment.addLiveBytes(recordLength);
+        }
+    }
+
+    /**
+     * Takes every tombstone for which there is no longer any older segment which may hold a record of its block off the
+     * live bytes of its segment, once a segment has been deleted.
+     */
+    private void releaseTombstones() {
+        List<byte[]> releasedHashes = new ArrayList<>();
+        this.tombstones.forEach((blockHash, tombstone) -> {
+            if (!hasSegmentBetween(tombstone.firstSegmentId, tombstone.segment.id())) {
+                releasedHashes.add(blockHash);
+            }
+        });
+        for (byte[] blockHash : releasedHashes) {
+            Tombstone tombstone = this.tombstones.remove(blockHash);
+            tombstone.segment.addLiveBytes(-tombstone.recordLength);
+        }
+    }
+
+    /**
+     * Returns {@code true} if and only if there is a segment whose id is at least the first id and less than the end id.
+     */
+    private boolean hasSegmentBetween(int firstId, int endId) {
+        for (Segment segment : this.segments) {
+            if ((segment.id() >= firstId) && (segment.id() < endId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the records of the block at the given location, which is no longer in the index, off the live bytes of
+     * their segments.
+     */
+    private static void release(Location location) {
+        location.segment.addLiveBytes(-(LogRecord.HEADER_SIZE + location.bodyLength));
+        if (location.statusSegment != null) {
+            location.statusSegment.addLiveBytes(-(LogRecord.HEADER_SIZE + location.statusLength));
+        }
+    }
+
+    private void assertOpen() throws DatabaseError {
+        if (this.isClosed) {
+            throw new DatabaseError("The database in " + this.directory + " is closed.");
+        }
+    }
+
+    /**
+     * Closes every segment and the index, and returns the first error encountered, or {@code null} if there was none.
+     */
+    private IOException closeSegments() {
+        IOException error = null;
+        for (Segment segment : this.segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        try {
+            this.blocks.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Returns the segment with the specified id, or {@code null} if there is none.
+     */
+    private Segment segmentOf(int id) {
+        int low = 0;
+        int high = this.segments.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = this.segments.get(middle).id();
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return this.segments.get(middle);
+            }
+        }
+        return null;
+    }
+
+    private static List<Path> listSegmentFiles(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (Segment.idOf(path.getFileName().toString()) >= 0) {
+                    paths.add(path);
+                }
+            }
+        }
+        paths.sort(Comparator.comparingInt(path -> Segment.idOf(path.getFileName().toString())));
+        return paths;
+    }
+
+    /**
+     * The DELETE record of a block which is not in the index, which must be kept because the segments from the one with
+     * the first id up to the record's own segment may still hold an older record of the block.
+     */
+    private static final class Tombstone {
+        private final Segment segment;
+        private final int recordLength;
+        private final int firstSegmentId;
+
+        private Tombstone(Segment segment, int recordLength, int firstSegmentId) {
+            this.segment = segment;
+            this.recordLength = recordLength;
+            this.firstSegmentId = firstSegmentId;
+        }
+    }
+
+    /**
+     * A record found to be still needed while compacting a segment, together with the index entry it was found to be
+     * needed for, and the record which carries it forward once that has been built.
+     */
+    private static final class CompactionCandidate {
+        private final byte type;
+        private final byte[] blockHash;
+        private final Location location;
+        private final BlockStatus status;
+        private final ByteBuffer body;
+        private ByteBuffer record;
+
+        private CompactionCandidate(byte type, byte[] blockHash, Location location, BlockStatus status, ByteBuffer body) {
+            this.type = type;
+            this.blockHash = blockHash;
+            this.location = location;
+            this.status = status;
+            this.body = body;
+        }
+
+        private ByteBuffer newRecord() {
+            switch (this.type) {
+                case LogRecord.TYPE_STATUS: return LogRecord.newStatusRecord(this.blockHash, this.status);
+                case LogRecord.TYPE_DELETE: return LogRecord.newDeleteRecord(this.blockHash);
+                default: return LogRecord.copyBlockRecord(this.body, this.status);
+            }
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A builder which opens instances of {@link AppendOnlyFileDatabase}.
+     */
+    public static final class Builder {
+        private Path directory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private SyncPolicy syncPolicy = SyncPolicy.GROUP_COMMIT;
+        private Duration syncInterval = DEFAULT_SYNC_INTERVAL;
+        private int compressionLevel = Deflater.NO_COMPRESSION;
+        private byte[] compressionDictionary;
+        private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+        private long compactionRate = DEFAULT_COMPACTION_RATE;
+        private Duration compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+        private int indexedHashLength = 0;
+
+        private Builder() {}
+
+        /**
+         * Returns a new builder instance.
+         *
+         * @return the new builder.
+         */
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        /**
+         * Stores the database in the specified directory, which is created if it does not exist.
+         *
+         * @param directory The directory to use.
+         * @return this builder.
+         */
+        public Builder withDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Gives each new segment file the specified capacity in bytes. A block too large to fit into a segment of this
+         * size gets a segment of its own. If no size is given, then {@link #DEFAULT_SEGMENT_SIZE} is used.
+         *
+         * @param segmentSize The segment size in bytes.
+         * @return this builder.
+         */
+        public Builder withSegmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Uses the specified policy to decide when appended records are forced out to the storage device. If no policy
+         * is given, then {@link SyncPolicy#GROUP_COMMIT} is used.
+         *
+         * @param syncPolicy The sync policy to use.
+         * @return this builder.
+         */
+        public Builder withSyncPolicy(SyncPolicy syncPolicy) {
+            this.syncPolicy = syncPolicy;
+            return this;
+        }
+
+        /**
+         * Forces the appended records out on the specified interval, which must be positive, when the sync policy is
+         * {@link SyncPolicy#PERIODIC}. If no interval is given, then {@link #DEFAULT_SYNC_INTERVAL} is used.
+         *
+         * @param syncInterval The interval between forces.
+         * @return this builder.
+         */
+        public Builder withSyncInterval(Duration syncInterval) {
+            this.syncInterval = syncInterval;
+            return this;
+        }
+
+        /**
+         * Compresses the data of each saved block at the specified level, from {@link Deflater#BEST_SPEED} to
+         * {@link Deflater#BEST_COMPRESSION} or {@link Deflater#DEFAULT_COMPRESSION}, or never compresses it if the
+         * level is {@link Deflater#NO_COMPRESSION}, which is the default. Blocks which were saved compressed can always
+         * be read, whatever the level.
+         *
+         * @param compressionLevel The compression level to use.
+         * @return this builder.
+         */
+        public Builder withCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * Compresses the data of each saved block with the specified preset dictionary, which should be a sample of
+         * typical block data, such as a concatenation of the data of recent blocks. The dictionary is copied.
+         *
+         * A block which was saved compressed with a dictionary can only be read back with the same dictionary, and so
+         * once a dictionary has been used, the database must always be opened with it.
+         *
+         * @param compressionDictionary The dictionary to use.
+         * @return this builder.
+         */
+        public Builder withCompressionDictionary(byte[] compressionDictionary) {
+            this.compressionDictionary = compressionDictionary;
+            return this;
+        }
+
+        /**
+         * Compacts a segment once the specified fraction of its bytes, which must be greater than 0 and at most 1, are
+         * dead. A lower threshold keeps the segment files smaller, at the cost of copying more live records around. If
+         * no threshold is given, then {@link #DEFAULT_COMPACTION_THRESHOLD} is used.
+         *
+         * @param compactionThreshold The fraction of dead bytes at which to compact.
+         * @return this builder.
+         */
+        public Builder withCompactionThreshold(double compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Compacts at most the specified number of bytes of segments per second, which must be positive, so that
+         * compaction never takes more than its share of the storage device away from the writers. If no rate is given,
+         * then {@link #DEFAULT_COMPACTION_RATE} is used.
+         *
+         * @param compactionRate The compaction rate in bytes per second.
+         * @return this builder.
+         */
+        public Builder withCompactionRate(long compactionRate) {
+            this.compactionRate = compactionRate;
+            return this;
+        }
+
+        /**
+         * Checks for segments to compact in the background on the specified interval, which must be positive, or never
+         * compacts in the background if the interval is null, in which case segments are only compacted by
+         * {@link AppendOnlyFileDatabase#compact()}. If no interval is given, then {@link #DEFAULT_COMPACTION_INTERVAL}
+         * is used.
+         *
+         * @param compactionInterval The interval between background compactions, or null.
+         * @return this builder.
+         */
+        public Builder withCompactionInterval(Duration compactionInterval) {
+            this.compactionInterval = compactionInterval;
+            return this;
+        }
+
+        /**
+         * Keeps the index of the blocks in a memory-mapped hash index file in the database directory rather than on the
+         * heap, which is worth it once the index of the chain no longer comfortably fits into memory. Every block hash
+         * must then be exactly the specified number of bytes, and saving a block with a hash of any other length throws
+         * an {@link IllegalArgumentException}. The index file is rebuilt whenever the database is opened. If no length
+         * is given, or it is 0, then the index is kept on the heap and the block hashes may have any length.
+         *
+         * @param blockHashLength The length in bytes of every block hash.
+         * @return this builder.
+         */
+        public Builder withMappedIndex(int blockHashLength) {
+            this.indexedHashLength = blockHashLength;
+            return this;
+        }
+
+        /**
+         * Opens the database in the given directory, rebuilding its index from the segment files already there, and
+         * returns it.
+         *
+         * @return the opened database.
+         * @throws NullPointerException if no directory or sync policy was given.
+         * @throws IllegalArgumentException if the segment size is too small to hold any record, or if the sync policy
+         * is periodic and the sync interval is not positive, or if the compression level is not a valid level or the
+         * compression dictionary is empty, or if the compaction threshold, rate or interval or the length of the block
+         * hashes in a mapped index is out of range.
+         * @throws DatabaseError if the segment files could not be opened or are corrupt, or hold blocks compressed with
+         * a dictionary other than the given one.
+         */
+        public AppendOnlyFileDatabase build() throws DatabaseError {
+            return new AppendOnlyFileDatabase(this.directory, this.segmentSize, this.syncPolicy, this.syncInterval, this.compressionLevel, this.compressionDictionary, this.compactionThreshold, this.compactionRate, this.compactionInterval, this.indexedHashLength);
+        }
+    }
+}
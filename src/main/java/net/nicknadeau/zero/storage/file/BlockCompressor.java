@@ -0,0 +1,177 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses the data of the blocks stored by an {@link AppendOnlyFileDatabase}, using the JDK's
+ * {@link Deflater} and {@link Inflater} and an optional preset dictionary.
+ *
+ * A preset dictionary is a sample of typical block data, which lets even small blocks compress well, since the
+ * compressor can refer back into the dictionary from the very first byte. Data compressed with a dictionary can only be
+ * decompressed with the same dictionary, which is identified by its Adler-32 checksum, exactly as zlib identifies it.
+ *
+ * Deflaters and inflaters hold native memory and are expensive to create, so they are pooled and reused.
+ *
+ * This class is thread-safe.
+ */
+final class BlockCompressor {
+    /**
+     * The dictionary id of data which was compressed without a dictionary. No Adler-32 checksum is ever zero.
+     */
+    static final int NO_DICTIONARY = 0;
+
+    private final int level;
+    private final byte[] dictionary;
+    private final int dictionaryId;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private volatile boolean isClosed = false;
+
+    /**
+     * Constructs a new compressor which compresses at the given {@link Deflater} level, where
+     * {@link Deflater#NO_COMPRESSION} means that data is never compressed, using the given dictionary, which may be
+     * null, and which is NOT copied.
+     */
+    BlockCompressor(int level, byte[] dictionary) {
+        ArgChecker.assertGreaterOrEqualTo(level, Deflater.DEFAULT_COMPRESSION);
+        ArgChecker.assertGreaterOrEqualTo(Deflater.BEST_COMPRESSION, level);
+        this.level = level;
+        this.dictionary = dictionary;
+        if (dictionary == null) {
+            this.dictionaryId = NO_DICTIONARY;
+        } else {
+            ArgChecker.assertGreaterOrEqualTo(dictionary.length, 1);
+            Adler32 adler = new Adler32();
+            adler.update(dictionary);
+            this.dictionaryId = (int) adler.getValue();
+        }
+    }
+
+    /**
+     * Returns the id of the dictionary which this compressor compresses with, or {@link #NO_DICTIONARY}.
+     */
+    int getDictionaryId() {
+        return this.dictionaryId;
+    }
+
+    /**
+     * Returns {@code true} if and only if this compressor can decompress data which was compressed with the dictionary
+     * with the specified id.
+     */
+    boolean canDecompress(int dictionaryId) {
+        return (dictionaryId == NO_DICTIONARY) || (dictionaryId == this.dictionaryId);
+    }
+
+    /**
+     * Returns the compressed form of the given data, or {@code null} if this compressor never compresses or if the
+     * compressed form would not be any smaller than the data itself, in which case the data should be stored as is.
+     */
+    byte[] compress(byte[] data) {
+        if ((this.level == Deflater.NO_COMPRESSION) || (data.length == 0)) {
+            return null;
+        }
+
+        Deflater deflater = this.deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater(this.level);
+        }
+        try {
+            if (this.dictionary != null) {
+                deflater.setDictionary(this.dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+
+            // Anything which does not fit into fewer bytes than the data is not worth compressing.
+            byte[] compressed = new byte[data.length - 1];
+            int length = 0;
+            while (!deflater.finished() && (length < compressed.length)) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            return deflater.finished() ? Arrays.copyOf(compressed, length) : null;
+        } finally {
+            release(deflater);
+        }
+    }
+
+    /**
+     * Returns the data which the given compressed bytes, from their position to their limit, decompress into, which
+     * must be exactly the given number of bytes. The position of the compressed bytes is not changed.
+     *
+     * @throws IllegalStateException if the compressed bytes are corrupt or need a dictionary this compressor lacks.
+     */
+    byte[] decompress(ByteBuffer compressed, int length) {
+        Inflater inflater = this.inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(compressed.duplicate());
+            byte[] data = new byte[length];
+            int inflated = 0;
+            boolean isStalled = false;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(data, inflated, length - inflated);
+                inflated += count;
+                if (count > 0) {
+                    isStalled = false;
+                } else if (inflater.needsDictionary() && (this.dictionary != null) && (inflater.getAdler() == this.dictionaryId)) {
+                    inflater.setDictionary(this.dictionary);
+                } else if (isStalled || inflater.needsDictionary() || inflater.needsInput()) {
+                    throw new IllegalStateException("The compressed block data is corrupt or needs a missing dictionary.");
+                } else {
+                    // Once the output is full, one more call may be needed to consume the end of the stream.
+                    isStalled = true;
+                }
+            }
+            if (inflated != length) {
+                throw new IllegalStateException("The compressed block data has the wrong length.");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("The compressed block data is corrupt.", e);
+        } finally {
+            release(inflater);
+        }
+    }
+
+    /**
+     * Frees the native memory of every pooled deflater and inflater. Any that are in use are freed once they are done.
+     * The compressor can still be used afterwards, but nothing is pooled anymore.
+     */
+    void close() {
+        this.isClosed = true;
+        for (Deflater deflater = this.deflaters.poll(); deflater != null; deflater = this.deflaters.poll()) {
+            deflater.end();
+        }
+        for (Inflater inflater = this.inflaters.poll(); inflater != null; inflater = this.inflaters.poll()) {
+            inflater.end();
+        }
+    }
+
+    private void release(Deflater deflater) {
+        if (this.isClosed) {
+            deflater.end();
+        } else {
+            deflater.reset();
+            this.deflaters.offer(deflater);
+        }
+    }
+
+    private void release(Inflater inflater) {
+        if (this.isClosed) {
+            inflater.end();
+        } else {
+            inflater.reset();
+            this.inflaters.offer(inflater);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.nicknadeau.zero.storage.file;
+
+import java.io.IOException;
+import java.util.function.BiConsumer;
+
+/**
+ * The index of an {@link AppendOnlyFileDatabase}, which maps the hash of every block in the database to the
+ * {@link Location} of its record.
+ *
+ * The index is rebuilt from the segments whenever the database is opened, so it never needs to survive a restart.
+ *
+ * Implementations are NOT thread-safe and must be externally synchronized, except that any number of threads may read
+ * from an index at once.
+ */
+interface BlockIndex {
+
+    /**
+     * Returns the number of blocks in the index.
+     */
+    int size();
+
+    /**
+     * Returns {@code true} if and only if the index has a location for the block with the specified hash.
+     */
+    boolean containsKey(byte[] blockHash);
+
+    /**
+     * Returns the location of the block with the specified hash, or {@code null} if there is none.
+     */
+    Location get(byte[] blockHash);
+
+    /**
+     * Sets the location of the block with the specified hash, and returns its previous location, or {@code null} if
+     * there was none. The index may keep the hash, which therefore must not be modified afterwards.
+     */
+    Location put(byte[] blockHash, Location location);
+
+    /**
+     * Removes the location of the block with the specified hash, and returns it, or {@code null} if there was none.
+     */
+    Location remove(byte[] blockHash);
+
+    /**
+     * Gives the hash and location of every block in the index to the specified consumer, in no particular order. The
+     * consumer must not modify the index.
+     */
+    void forEach(BiConsumer<byte[], Location> consumer);
+
+    /**
+     * Throws an exception if the specified block hash cannot be put into the index, which must be checked before the
+     * record of the block is written.
+     *
+     * @throws IllegalArgumentException if the hash cannot be indexed.
+     */
+    void assertIndexable(byte[] blockHash);
+
+    /**
+     * Releases the resources held by the index.
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,106 @@
+package net.nicknadeau.zero.storage.file;
+
+/**
+ * An immutable snapshot of the metrics of the segment compaction of an {@link AppendOnlyFileDatabase}.
+ *
+ * Compaction copies the records of a mostly dead segment which are still needed to the end of the log, in small chunks,
+ * and then deletes the segment. Each chunk is switched over to while the database is briefly locked, which is a pause
+ * for every writer, and so the pauses are measured, along with the bytes that compaction reclaimed and copied.
+ */
+public final class CompactionStats {
+    private final long compactedSegmentCount;
+    private final long reclaimedBytes;
+    private final long copiedBytes;
+    private final long pauseCount;
+    private final long totalPauseNanos;
+    private final long maxPauseNanos;
+    private final long failedCount;
+
+    CompactionStats(long compactedSegmentCount, long reclaimedBytes, long copiedBytes, long pauseCount, long totalPauseNanos, long maxPauseNanos, long failedCount) {
+        this.compactedSegmentCount = compactedSegmentCount;
+        this.reclaimedBytes = reclaimedBytes;
+        this.copiedBytes = copiedBytes;
+        this.pauseCount = pauseCount;
+        this.totalPauseNanos = totalPauseNanos;
+        this.maxPauseNanos = maxPauseNanos;
+        this.failedCount = failedCount;
+    }
+
+    /**
+     * Returns the total number of segment files which have been compacted and deleted.
+     *
+     * @return the total number of segments compacted.
+     */
+    public long getCompactedSegmentCount() {
+        return this.compactedSegmentCount;
+    }
+
+    /**
+     * Returns the total number of bytes of disk space which compaction has freed, which is the size of every deleted
+     * segment file less the bytes that had to be copied out of it.
+     *
+     * @return the total number of bytes reclaimed.
+     */
+    public long getReclaimedBytes() {
+        return this.reclaimedBytes;
+    }
+
+    /**
+     * Returns the total number of bytes which compaction has appended to the log to carry live records forward.
+     *
+     * @return the total number of bytes copied.
+     */
+    public long getCopiedBytes() {
+        return this.copiedBytes;
+    }
+
+    /**
+     * Returns the total number of times compaction has held the lock of the database, during which writes had to wait.
+     *
+     * @return the total number of pauses.
+     */
+    public long getPauseCount() {
+        return this.pauseCount;
+    }
+
+    /**
+     * Returns the total time, in nanoseconds, for which compaction has held the lock of the database.
+     *
+     * @return the total pause time in nanoseconds.
+     */
+    public long getTotalPauseNanos() {
+        return this.totalPauseNanos;
+    }
+
+    /**
+     * Returns the longest time, in nanoseconds, for which compaction has held the lock of the database at once.
+     *
+     * @return the longest pause in nanoseconds.
+     */
+    public long getMaxPauseNanos() {
+        return this.maxPauseNanos;
+    }
+
+    /**
+     * Returns the total number of background compaction runs which failed. A failed run leaves the database as it was
+     * and is simply retried on the next run.
+     *
+     * @return the total number of failed runs.
+     */
+    public long getFailedCount() {
+        return this.failedCount;
+    }
+
+    @Override
+    public String toString() {
+        return CompactionStats.class.getSimpleName()
+                + "{ segments=" + this.compactedSegmentCount
+                + ", reclaimed=" + this.reclaimedBytes
+                + ", copied=" + this.copiedBytes
+                + ", pauses=" + this.pauseCount
+                + ", totalPauseNanos=" + this.totalPauseNanos
+                + ", maxPauseNanos=" + this.maxPauseNanos
+                + ", failed=" + this.failedCount
+                + " }";
+    }
+}
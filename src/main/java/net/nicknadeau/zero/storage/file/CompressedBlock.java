@@ -0,0 +1,92 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.block.EncodedBlock;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A {@link Block} read from a compressed BLOCK record of an {@link AppendOnlyFileDatabase}. Its header is read straight
+ * from the encoded block in the segment, whose data is the compressed data, and the data is only decompressed the first
+ * time it is asked for, so that looking up the header of a compressed block costs no more than for any other block.
+ *
+ * To avoid copying on every read, the getters return the internal arrays, and therefore the returned arrays must not be
+ * modified.
+ *
+ * This class is thread-safe.
+ */
+final class CompressedBlock implements Block {
+    private final EncodedBlock compressedBlock;
+    private final int dataLength;
+    private final BlockCompressor compressor;
+    private volatile byte[] blockData;
+
+    /**
+     * Constructs a new block from the given encoded block, whose data is the compressed form of the given number of
+     * bytes, which are decompressed by the given compressor.
+     */
+    CompressedBlock(EncodedBlock compressedBlock, int dataLength, BlockCompressor compressor) {
+        this.compressedBlock = compressedBlock;
+        this.dataLength = dataLength;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public int getLayerZeroMajorVersion() {
+        return this.compressedBlock.getLayerZeroMajorVersion();
+    }
+
+    @Override
+    public BigInteger getBlockNumber() {
+        return this.compressedBlock.getBlockNumber();
+    }
+
+    @Override
+    public byte[] getBlockProducerPublicKey() {
+        return this.compressedBlock.getBlockProducerPublicKey();
+    }
+
+    @Override
+    public byte[] getBlockHash() {
+        return this.compressedBlock.getBlockHash();
+    }
+
+    @Override
+    public byte[] getParentBlockHash() {
+        return this.compressedBlock.getParentBlockHash();
+    }
+
+    @Override
+    public byte[] getBlockData() {
+        // Two threads may both decompress the data, but they produce the same bytes, so whichever copy wins is fine.
+        byte[] data = this.blockData;
+        if (data == null) {
+            data = this.compressor.decompress(this.compressedBlock.getBlockDataBuffer(), this.dataLength);
+            this.blockData = data;
+        }
+        return data;
+    }
+
+    @Override
+    public byte[] getBlockSignature() {
+        return this.compressedBlock.getBlockSignature();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BlockHeader)) {
+            return false;
+        }
+        return Arrays.equals(getBlockHash(), ((BlockHeader) other).getBlockHash());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.compressedBlock.hashCode();
+    }
+}
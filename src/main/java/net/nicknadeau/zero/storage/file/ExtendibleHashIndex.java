@@ -0,0 +1,396 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A hash index from keys of a fixed length to values of a fixed length, which is kept in a memory-mapped file rather
+ * than on the heap, using extendible hashing.
+ *
+ * The file is a sequence of fixed-size pages, each of which holds as many entries as fit into it. Only the directory is
+ * kept on the heap: an array of 2^globalDepth page numbers, indexed by the low bits of the hash of a key, so that every
+ * lookup reads exactly one page. A full page is split in two by the next bit of the hash, and the directory is only
+ * doubled when the full page is already told apart by every bit of the directory. Until then, several slots of the
+ * directory point to the same page, and so the directory takes only a few bytes per page.
+ *
+ * Each page begins with its local depth, which is the number of hash bits all of its keys share, and its entry count.
+ * Each entry holds the hash of its key, so that a lookup only compares the keys whose hashes match, then the key and
+ * then the value. Removing an entry moves the last entry of the page into its place, but pages are never merged.
+ *
+ * The file grows one extent at a time, and each extent is mapped on its own, so that growing never remaps the pages
+ * already there. The index is built from scratch whenever it is created, over any file which was there, and so it is
+ * not crash-safe: whoever uses it must be able to rebuild it.
+ *
+ * This class is NOT thread-safe and must be externally synchronized, except that any number of threads may read from
+ * the index at once.
+ */
+final class ExtendibleHashIndex {
+    static final int DEFAULT_PAGE_SIZE = 4096;
+    private static final int EXTENT_SIZE = 16 * 1024 * 1024;
+    private static final int MAX_GLOBAL_DEPTH = 30;
+    private static final int PAGE_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int keyLength;
+    private final int valueLength;
+    private final int pageSize;
+    private final int entrySize;
+    private final int pageCapacity;
+    private final List<MappedByteBuffer> extents = new ArrayList<>();
+    private int[] directory = { 0 };
+    private int globalDepth = 0;
+    private int pageCount = 0;
+    private int size = 0;
+
+    private ExtendibleHashIndex(Path path, FileChannel channel, int keyLength, int valueLength, int pageSize) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.keyLength = keyLength;
+        this.valueLength = valueLength;
+        this.pageSize = pageSize;
+        this.entrySize = Integer.BYTES + keyLength + valueLength;
+        this.pageCapacity = (pageSize - PAGE_HEADER_SIZE) / this.entrySize;
+        allocatePage(0);
+    }
+
+    /**
+     * Creates a new empty index in the file at the specified path, which is truncated if it exists, for keys and values
+     * of the specified lengths, in pages of the specified size. The page size must be a power of two, and large enough
+     * to hold at least two entries.
+     */
+    static ExtendibleHashIndex create(Path path, int keyLength, int valueLength, int pageSize) throws IOException {
+        ArgChecker.assertNonNull(path);
+        ArgChecker.assertGreaterOrEqualTo(keyLength, 1);
+        ArgChecker.assertGreaterOrEqualTo(valueLength, 0);
+        ArgChecker.assertGreaterOrEqualTo(EXTENT_SIZE, pageSize);
+        ArgChecker.assertGreaterOrEqualTo(pageSize - PAGE_HEADER_SIZE, 2 * (Integer.BYTES + keyLength + valueLength));
+        if (Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("The page size must be a power of two.");
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new ExtendibleHashIndex(path, channel, keyLength, valueLength, pageSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of entries in this index.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of pages in the file of this index.
+     */
+    int pageCount() {
+        return this.pageCount;
+    }
+
+    /**
+     * Returns the number of slots in the directory of this index, which is all that this index keeps on the heap.
+     */
+    int directorySize() {
+        return this.directory.length;
+    }
+
+    int keyLength() {
+        return this.keyLength;
+    }
+
+    /**
+     * Returns {@code true} if and only if this index has an entry for the specified key.
+     *
+     * ASSUMPTION: The key has the key length of this index.
+     */
+    boolean containsKey(byte[] key) {
+        int hash = hashOf(key);
+        return find(pageOf(hash), hash, key) >= 0;
+    }
+
+    /**
+     * Returns a read-only view of the value of the specified key, whose position is zero, or {@code null} if this index
+     * has no entry for the key. The view is only valid until this index is next modified.
+     *
+     * ASSUMPTION: The key has the key length of this index.
+     */
+    ByteBuffer get(byte[] key) {
+        int hash = hashOf(key);
+        int page = pageOf(hash);
+        int slot = find(page, hash, key);
+        return (slot < 0) ? null : valueAt(page, slot);
+    }
+
+    /**
+     * Sets the value of the specified key to the specified value, from its position to its limit, and returns
+     * {@code true} if the key was not in this index before. The key is copied, and the position of the value is not
+     * changed.
+     *
+     * @throws IllegalArgumentException if the key or the value does not have the length of this index.
+     * @throws IllegalStateException if the index cannot grow any further, or its file could not be grown.
+     */
+    boolean put(byte[] key, ByteBuffer value) {
+        ArgChecker.assertEqualTo(key.length, this.keyLength);
+        ArgChecker.assertEqualTo(value.remaining(), this.valueLength);
+
+        int hash = hashOf(key);
+        while (true) {
+            int page = pageOf(hash);
+            int slot = find(page, hash, key);
+            if (slot >= 0) {
+                writeValue(page, slot, value);
+                return false;
+            }
+            int count = countOf(page);
+            if (count < this.pageCapacity) {
+                ByteBuffer buffer = bufferOf(page);
+                int offset = entryOffset(page, count);
+                buffer.putInt(offset, hash);
+                buffer.duplicate().position(offset + Integer.BYTES).put(key);
+                writeValue(page, count, value);
+                buffer.putInt(offsetOf(page) + Integer.BYTES, count + 1);
+                this.size++;
+                return true;
+            }
+            split(page);
+        }
+    }
+
+    /**
+     * Removes the entry of the specified key, and returns {@code true} if there was one.
+     *
+     * ASSUMPTION: The key has the key length of this index.
+     */
+    boolean remove(byte[] key) {
+        int hash = hashOf(key);
+        int page = pageOf(hash);
+        int slot = find(page, hash, key);
+        if (slot < 0) {
+            return false;
+        }
+        int last = countOf(page) - 1;
+        if (slot != last) {
+            copyEntry(page, last, page, slot);
+        }
+        bufferOf(page).putInt(offsetOf(page) + Integer.BYTES, last);
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Gives every key in this index, copied, and a read-only view of its value to the specified consumer, in no
+     * particular order. The consumer must not modify this index.
+     */
+    void forEach(BiConsumer<byte[], ByteBuffer> consumer) {
+        for (int page = 0; page < this.pageCount; page++) {
+            ByteBuffer buffer = bufferOf(page);
+            int count = countOf(page);
+            for (int slot = 0; slot < count; slot++) {
+                byte[] key = new byte[this.keyLength];
+                buffer.duplicate().position(entryOffset(page, slot) + Integer.BYTES).get(key);
+                consumer.accept(key, valueAt(page, slot));
+            }
+        }
+    }
+
+    /**
+     * Closes the file of this index and deletes it, since the index is rebuilt from scratch whenever it is created.
+     */
+    void close() throws IOException {
+        this.channel.close();
+        Files.deleteIfExists(this.path);
+    }
+
+    /**
+     * Splits the specified full page in two by the next bit of the hash, doubling the directory first if that bit is
+     * not yet part of the directory.
+     */
+    private void split(int page) {
+        int localDepth = bufferOf(page).getInt(offsetOf(page));
+        if (localDepth == this.globalDepth) {
+            if ((this.globalDepth == MAX_GLOBAL_DEPTH) || haveSameHash(page)) {
+                throw new IllegalStateException("The index in " + this.path + " cannot grow any further.");
+            }
+            int[] directory = new int[2 * this.directory.length];
+            System.arraycopy(this.directory, 0, directory, 0, this.directory.length);
+            System.arraycopy(this.directory, 0, directory, this.directory.length, this.directory.length);
+            this.directory = directory;
+            this.globalDepth++;
+        }
+
+        int sibling = this.pageCount;
+        allocatePage(localDepth + 1);
+        ByteBuffer buffer = bufferOf(page);
+        buffer.putInt(offsetOf(page), localDepth + 1);
+
+        // Every entry whose next hash bit is set moves to the sibling, and the rest are packed together again.
+        int count = countOf(page);
+        int kept = 0;
+        int moved = 0;
+        for (int slot = 0; slot < count; slot++) {
+            if (((buffer.getInt(entryOffset(page, slot)) >>> localDepth) & 1) == 1) {
+                copyEntry(page, slot, sibling, moved++);
+            } else {
+                if (slot != kept) {
+                    copyEntry(page, slot, page, kept);
+                }
+                kept++;
+            }
+        }
+        buffer.putInt(offsetOf(page) + Integer.BYTES, kept);
+        bufferOf(sibling).putInt(offsetOf(sibling) + Integer.BYTES, moved);
+
+        for (int i = 0; i < this.directory.length; i++) {
+            if ((this.directory[i] == page) && (((i >>> localDepth) & 1) == 1)) {
+                this.directory[i] = sibling;
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if every entry of the specified page has the same hash, in which case no split can ever make
+     * room in it.
+     */
+    private boolean haveSameHash(int page) {
+        ByteBuffer buffer = bufferOf(page);
+        int hash = buffer.getInt(entryOffset(page, 0));
+        int count = countOf(page);
+        for (int slot = 1; slot < count; slot++) {
+            if (buffer.getInt(entryOffset(page, slot)) != hash) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a new empty page with the specified local depth to the file, mapping a new extent if needed.
+     */
+    private void allocatePage(int localDepth) {
+        int pagesPerExtent = EXTENT_SIZE / this.pageSize;
+        if (this.pageCount == this.extents.size() * pagesPerExtent) {
+            try {
+                // Mapping past the end of the file grows it, and the file system fills the new extent with zeros.
+                this.extents.add(this.channel.map(FileChannel.MapMode.READ_WRITE, (long) this.extents.size() * EXTENT_SIZE, EXTENT_SIZE));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to grow the index in " + this.path, e);
+            }
+        }
+        int page = this.pageCount++;
+        bufferOf(page).putInt(offsetOf(page), localDepth);
+    }
+
+    /**
+     * Returns the slot of the specified key in the specified page, or -1 if it is not there.
+     */
+    private int find(int page, int hash, byte[] key) {
+        ByteBuffer buffer = bufferOf(page);
+        int count = countOf(page);
+        for (int slot = 0; slot < count; slot++) {
+            int offset = entryOffset(page, slot);
+            if ((buffer.getInt(offset) == hash) && keyEquals(buffer, offset + Integer.BYTES, key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private ByteBuffer valueAt(int page, int slot) {
+        ByteBuffer view = bufferOf(page).asReadOnlyBuffer();
+        int offset = entryOffset(page, slot) + Integer.BYTES + this.keyLength;
+        view.limit(offset + this.valueLength).position(offset);
+        return view.slice();
+    }
+
+    private void writeValue(int page, int slot, ByteBuffer value) {
+        bufferOf(page).duplicate().position(entryOffset(page, slot) + Integer.BYTES + this.keyLength).put(value.duplicate());
+    }
+
+    private void copyEntry(int fromPage, int fromSlot, int toPage, int toSlot) {
+        ByteBuffer from = bufferOf(fromPage).duplicate();
+        int offset = entryOffset(fromPage, fromSlot);
+        from.limit(offset + this.entrySize).position(offset);
+        bufferOf(toPage).duplicate().position(entryOffset(toPage, toSlot)).put(from);
+    }
+
+    private int pageOf(int hash) {
+        return this.directory[hash & (this.directory.length - 1)];
+    }
+
+    private int countOf(int page) {
+        return bufferOf(page).getInt(offsetOf(page) + Integer.BYTES);
+    }
+
+    private ByteBuffer bufferOf(int page) {
+        return this.extents.get(page / (EXTENT_SIZE / this.pageSize));
+    }
+
+    private int offsetOf(int page) {
+        return (page % (EXTENT_SIZE / this.pageSize)) * this.pageSize;
+    }
+
+    private int entryOffset(int page, int slot) {
+        return offsetOf(page) + PAGE_HEADER_SIZE + slot * this.entrySize;
+    }
+
+    private static boolean keyEquals(ByteBuffer buffer, int offset, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the 32-bit MurmurHash3 of the specified key, whose low bits address the directory. Block hashes are
+     * already uniform, but keys which are not, such as small numbers, must still spread evenly over the pages, and
+     * MurmurHash3 maps keys of up to four bytes to distinct hashes.
+     */
+    private static int hashOf(byte[] key) {
+        int hash = 0;
+        int blockEnd = key.length & ~3;
+        for (int i = 0; i < blockEnd; i += 4) {
+            int block = (key[i] & 0xff) | ((key[i + 1] & 0xff) << 8) | ((key[i + 2] & 0xff) << 16) | (key[i + 3] << 24);
+            hash ^= mixBlock(block);
+            hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+        }
+        int tailLength = key.length & 3;
+        if (tailLength > 0) {
+            int tail = key[blockEnd] & 0xff;
+            if (tailLength > 1) {
+                tail |= (key[blockEnd + 1] & 0xff) << 8;
+            }
+            if (tailLength > 2) {
+                tail |= (key[blockEnd + 2] & 0xff) << 16;
+            }
+            hash ^= mixBlock(tail);
+        }
+        hash ^= key.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    private static int mixBlock(int block) {
+        return Integer.rotateLeft(block * 0xcc9e2d51, 15) * 0x1b873593;
+    }
+}
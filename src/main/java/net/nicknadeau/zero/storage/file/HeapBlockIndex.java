@@ -0,0 +1,51 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.util.internal.ByteArrayMap;
+
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link BlockIndex} which is kept entirely on the heap, and which accepts block hashes of any length.
+ *
+ * This class is NOT thread-safe and must be externally synchronized, except that any number of threads may read from it
+ * at once.
+ */
+final class HeapBlockIndex implements BlockIndex {
+    private final ByteArrayMap<Location> locations = new ByteArrayMap<>();
+
+    @Override
+    public int size() {
+        return this.locations.size();
+    }
+
+    @Override
+    public boolean containsKey(byte[] blockHash) {
+        return this.locations.containsKey(blockHash);
+    }
+
+    @Override
+    public Location get(byte[] blockHash) {
+        return this.locations.get(blockHash);
+    }
+
+    @Override
+    public Location put(byte[] blockHash, Location location) {
+        return this.locations.put(blockHash, location);
+    }
+
+    @Override
+    public Location remove(byte[] blockHash) {
+        return this.locations.remove(blockHash);
+    }
+
+    @Override
+    public void forEach(BiConsumer<byte[], Location> consumer) {
+        this.locations.forEach(consumer);
+    }
+
+    @Override
+    public void assertIndexable(byte[] blockHash) {}
+
+    @Override
+    public void close() {}
+}
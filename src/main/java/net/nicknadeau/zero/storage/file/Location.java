@@ -0,0 +1,66 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.BlockStatus;
+
+/**
+ * The location of a block's record in the segments of an {@link AppendOnlyFileDatabase}, together with the block's
+ * current status and the segment and body length of the STATUS record which set it, if it was not set by the block's
+ * record itself. It also keeps the id of the oldest segment which may still hold a record of the block, live or dead,
+ * which decides how long a DELETE record of the block is needed.
+ *
+ * A location is immutable, so that a {@link BlockIndex} may hand out copies of it, and a change of status is made by
+ * putting a new location into the index.
+ */
+final class Location {
+    final Segment segment;
+    final int bodyOffset;
+    final int bodyLength;
+    final boolean isGenesis;
+    final BlockStatus status;
+    final Segment statusSegment;
+    final int statusLength;
+    final int firstSegmentId;
+
+    /**
+     * Constructs a new location of a block whose status was set by its own record, and which has no record in any
+     * segment older than the segment of that record.
+     */
+    Location(Segment segment, int bodyOffset, int bodyLength, boolean isGenesis, BlockStatus status) {
+        this(segment, bodyOffset, bodyLength, isGenesis, status, null, 0, segment.id());
+    }
+
+    Location(Segment segment, int bodyOffset, int bodyLength, boolean isGenesis, BlockStatus status, Segment statusSegment, int statusLength, int firstSegmentId) {
+        this.segment = segment;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+        this.isGenesis = isGenesis;
+        this.status = status;
+        this.statusSegment = statusSegment;
+        this.statusLength = statusLength;
+        this.firstSegmentId = firstSegmentId;
+    }
+
+    /**
+     * Returns a copy of this location with the specified status, which was set by the STATUS record with the specified
+     * body length in the specified segment.
+     */
+    Location withStatus(BlockStatus status, Segment statusSegment, int statusLength) {
+        return new Location(this.segment, this.bodyOffset, this.bodyLength, this.isGenesis, status, statusSegment, statusLength, this.firstSegmentId);
+    }
+
+    /**
+     * Returns a copy of this location whose block may still have a record in the segment with the specified id, or in
+     * any later segment.
+     */
+    Location withFirstSegmentId(int firstSegmentId) {
+        return new Location(this.segment, this.bodyOffset, this.bodyLength, this.isGenesis, this.status, this.statusSegment, this.statusLength, firstSegmentId);
+    }
+
+    /**
+     * Returns {@code true} if and only if this location and the specified location point to the same record, whatever
+     * the status of the block.
+     */
+    boolean isSameRecord(Location other) {
+        return (this.segment == other.segment) && (this.bodyOffset == other.bodyOffset);
+    }
+}
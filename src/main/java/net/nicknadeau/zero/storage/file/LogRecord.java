@@ -0,0 +1,208 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.block.ZeroBlockCodec;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The layout of the records which are appended to the segment files of an {@link AppendOnlyFileDatabase}.
+ *
+ * Every record begins with an 8 byte header, which holds the length of the record body followed by the CRC32 checksum
+ * of the body. The body begins with a single byte giving the type of the record, and the rest of the body depends on
+ * that type:
+ *
+ * BLOCK: the status byte followed by the block, encoded by {@link ZeroBlockCodec}.
+ * COMPRESSED_BLOCK: the status byte, the id of the dictionary the data was compressed with, and the length of the data
+ * once decompressed, followed by the block, encoded by {@link ZeroBlockCodec}, with its data in compressed form.
+ * STATUS: the status byte followed by the length-prefixed hash of the block whose status changed.
+ * DELETE: the length-prefixed hash of the block which was removed.
+ * BATCH: the number of records in the batch followed by the length-prefixed body of each record, which must not itself
+ * be a batch. Since the whole batch is covered by one checksum, a batch is replayed either in full or not at all.
+ *
+ * The codec puts the header of a block before its data, so the header can be decoded without touching the data, which is
+ * by far the largest part of a block, and without decompressing it. A block is only saved in a COMPRESSED_BLOCK record
+ * if its compressed data is smaller than its data, and otherwise it is saved in a BLOCK record as is. A body length of
+ * zero marks the end of the records in a segment, since the segment files are preallocated and filled with zeros.
+ */
+final class LogRecord {
+    static final int HEADER_SIZE = 8;
+    static final byte TYPE_BLOCK = 1;
+    static final byte TYPE_STATUS = 2;
+    static final byte TYPE_DELETE = 3;
+    static final byte TYPE_BATCH = 4;
+    static final byte TYPE_COMPRESSED_BLOCK = 5;
+
+    private LogRecord() {}
+
+    /**
+     * Returns a new buffer holding the whole record which saves the specified block with the specified status, ready
+     * to be read. The block's data is compressed by the specified compressor, unless it does not get any smaller.
+     */
+    static ByteBuffer newBlockRecord(Block block, BlockStatus status, BlockCompressor compressor) {
+        byte[] data = block.getBlockData();
+        byte[] compressedData = compressor.compress(data);
+        if (compressedData == null) {
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 2 + ZeroBlockCodec.encodedSize(block));
+            record.position(HEADER_SIZE);
+            record.put(TYPE_BLOCK);
+            record.put((byte) status.toInt());
+            ZeroBlockCodec.encode(block, record);
+            return seal(record);
+        }
+
+        Block compressedBlock = new ImmutableBlock(block.getLayerZeroMajorVersion()
+                , block.getBlockNumber()
+                , block.getBlockProducerPublicKey()
+                , block.getBlockHash()
+                , block.getParentBlockHash()
+                , compressedData
+                , block.getBlockSignature()
+        );
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 2 + 2 * Integer.BYTES + ZeroBlockCodec.encodedSize(compressedBlock));
+        record.position(HEADER_SIZE);
+        record.put(TYPE_COMPRESSED_BLOCK);
+        record.put((byte) status.toInt());
+        record.putInt(compressor.getDictionaryId());
+        record.putInt(data.length);
+        ZeroBlockCodec.encode(compressedBlock, record);
+        return seal(record);
+    }
+
+    /**
+     * Returns a new buffer holding the whole record which changes the status of the block with the specified hash,
+     * ready to be read.
+     */
+    static ByteBuffer newStatusRecord(byte[] blockHash, BlockStatus status) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 2 + sizeOf(blockHash));
+        record.position(HEADER_SIZE);
+        record.put(TYPE_STATUS);
+        record.put((byte) status.toInt());
+        putBytes(record, blockHash);
+        return seal(record);
+    }
+
+    /**
+     * Returns a new buffer holding the whole record which removes the block with the specified hash, ready to be read.
+     */
+    static ByteBuffer newDeleteRecord(byte[] blockHash) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + 1 + sizeOf(blockHash));
+        record.position(HEADER_SIZE);
+        record.put(TYPE_DELETE);
+        putBytes(record, blockHash);
+        return seal(record);
+    }
+
+    /**
+     * Returns a new buffer holding the whole record which batches the specified records, each of which is a whole record
+     * as returned by the other methods of this class, ready to be read.
+     */
+    static ByteBuffer newBatchRecord(List<ByteBuffer> records) {
+        int bodyLength = 1 + Integer.BYTES;
+        for (ByteBuffer record : records) {
+            bodyLength += Integer.BYTES + record.remaining() - HEADER_SIZE;
+        }
+
+        ByteBuffer batch = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        batch.position(HEADER_SIZE);
+        batch.put(TYPE_BATCH);
+        batch.putInt(records.size());
+        for (ByteBuffer record : records) {
+            ByteBuffer body = record.duplicate();
+            body.position(body.position() + HEADER_SIZE);
+            batch.putInt(body.remaining());
+            batch.put(body);
+        }
+        return seal(batch);
+    }
+
+    /**
+     * Returns a new buffer holding a whole record which is a copy of the specified BLOCK or COMPRESSED_BLOCK record
+     * body, from its position to its limit, except that it saves the block with the specified status, ready to be read.
+     * The block is copied as is, and so a compressed block is not decompressed.
+     */
+    static ByteBuffer copyBlockRecord(ByteBuffer body, BlockStatus status) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + body.remaining());
+        record.position(HEADER_SIZE);
+        record.put(body.duplicate());
+        record.put(HEADER_SIZE + 1, (byte) status.toInt());
+        return seal(record);
+    }
+
+    /**
+     * Returns {@code true} if and only if the specified record body, from its position to its limit, has the specified
+     * checksum. The position of the body is not changed.
+     */
+    static boolean isIntact(ByteBuffer body, int checksum) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue() == checksum;
+    }
+
+    /**
+     * Returns the status of a BLOCK or STATUS record body which is positioned at its status byte, or {@code null} if
+     * the byte is not a valid status, and advances the body past the status byte.
+     */
+    static BlockStatus readStatus(ByteBuffer body) {
+        return BlockStatus.fromInt(body.get());
+    }
+
+    /**
+     * Returns a new array holding the next length-prefixed field of the body and advances the body past it.
+     */
+    static byte[] readBytes(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the id of the dictionary which the data in the body of a COMPRESSED_BLOCK record was compressed with. The
+     * body must be positioned just past the status byte, and its position is not changed.
+     */
+    static int readDictionaryId(ByteBuffer body) {
+        return body.getInt(body.position());
+    }
+
+    /**
+     * Returns the block in the body of a BLOCK or COMPRESSED_BLOCK record of the specified type, which must be
+     * positioned just past the status byte. Nothing is copied out of the body, nor decompressed, until it is asked for,
+     * and then the data of a compressed block is decompressed by the specified compressor.
+     *
+     * @throws IllegalArgumentException if the body does not hold a valid encoded block.
+     */
+    static Block readBlock(byte type, ByteBuffer body, BlockCompressor compressor) {
+        if (type == TYPE_BLOCK) {
+            return ZeroBlockCodec.decode(body);
+        }
+        body.getInt();
+        int dataLength = body.getInt();
+        if (dataLength < 0) {
+            throw new IllegalArgumentException("The compressed block has a negative data length.");
+        }
+        return new CompressedBlock(ZeroBlockCodec.decode(body), dataLength, compressor);
+    }
+
+    private static ByteBuffer seal(ByteBuffer record) {
+        record.flip();
+        int bodyLength = record.limit() - HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, bodyLength);
+        record.putInt(0, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Integer.BYTES + bytes.length;
+    }
+}
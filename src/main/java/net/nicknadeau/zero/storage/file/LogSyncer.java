@@ -0,0 +1,186 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Forces the records appended to the log of an {@link AppendOnlyFileDatabase} out to the storage device according to a
+ * {@link SyncPolicy}.
+ *
+ * The log is measured by its appended position, which is the total number of bytes ever appended to it. A force makes
+ * every record appended before it began durable, and so the syncer only has to remember the largest position known to
+ * be durable to tell whether a given write still needs a force.
+ *
+ * This class is thread-safe.
+ */
+final class LogSyncer {
+    private final SyncPolicy policy;
+    private final LongSupplier appendedPosition;
+    private final Runnable force;
+    private final ScheduledExecutorService timer;
+    private final Object monitor = new Object();
+    private long durablePosition = 0;
+    private boolean isForcing = false;
+    private long forceCount = 0;
+    private volatile Exception periodicError = null;
+
+    /**
+     * Constructs a new syncer which calls {@code force} to force out every record appended so far, and which reads the
+     * current appended position of the log from {@code appendedPosition}. The interval is only used by the periodic
+     * policy.
+     *
+     * ASSUMPTION: Reading the appended position and then forcing makes every record up to that position durable.
+     */
+    LogSyncer(SyncPolicy policy, Duration interval, LongSupplier appendedPosition, Runnable force) {
+        ArgChecker.assertNonNull(policy);
+        ArgChecker.assertNonNull(appendedPosition);
+        ArgChecker.assertNonNull(force);
+        this.policy = policy;
+        this.appendedPosition = appendedPosition;
+        this.force = force;
+        this.durablePosition = appendedPosition.getAsLong();
+
+        if (policy == SyncPolicy.PERIODIC) {
+            ArgChecker.assertNonNull(interval);
+            if (interval.isNegative() || interval.isZero()) {
+                throw new IllegalArgumentException("The sync interval must be positive.");
+            }
+            this.timer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "zero-file-database-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long nanos = interval.toNanos();
+            this.timer.scheduleWithFixedDelay(this::syncPeriodically, nanos, nanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Invoked by a writer right after it appended a record, while it still holds the write lock.
+     */
+    void afterAppend() throws DatabaseError {
+        if (this.policy == SyncPolicy.EVERY_WRITE) {
+            sync();
+        }
+    }
+
+    /**
+     * Invoked by a writer once it has released the write lock, and returns once the record the writer appended, which
+     * ended at the specified position, is as durable as the policy requires.
+     */
+    void awaitDurable(long position) throws DatabaseError {
+        if (this.policy == SyncPolicy.PERIODIC) {
+            Exception error = this.periodicError;
+            if (error != null) {
+                this.periodicError = null;
+                throw new DatabaseError("The periodic sync failed.", error);
+            }
+        } else if (this.policy == SyncPolicy.GROUP_COMMIT) {
+            awaitGroupCommit(position);
+        }
+    }
+
+    /**
+     * Forces out every record appended so far, regardless of the policy.
+     */
+    void sync() throws DatabaseError {
+        long target = this.appendedPosition.getAsLong();
+        try {
+            this.force.run();
+        } catch (UncheckedIOException e) {
+            throw new DatabaseError("Failed to force the log out to the storage device.", e);
+        }
+        synchronized (this.monitor) {
+            markDurable(target);
+        }
+    }
+
+    /**
+     * Returns the number of forces that have been issued so far.
+     */
+    long getForceCount() {
+        synchronized (this.monitor) {
+            return this.forceCount;
+        }
+    }
+
+    /**
+     * Stops the periodic sync, if there is one. This does not force anything out.
+     */
+    void close() {
+        if (this.timer != null) {
+            this.timer.shutdownNow();
+            try {
+                this.timer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits until the specified position is durable. If no other writer is forcing, then this writer becomes the leader
+     * of the next group and forces out everything appended so far, including the records of every writer that has
+     * queued up behind it. Otherwise this writer waits for the current force, since its record may have been appended
+     * after the current leader read the appended position.
+     */
+    private void awaitGroupCommit(long position) throws DatabaseError {
+        synchronized (this.monitor) {
+            while (this.durablePosition < position) {
+                if (!this.isForcing) {
+                    this.isForcing = true;
+                    break;
+                }
+                try {
+                    this.monitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseError("Interrupted while waiting for the log to be forced.", e);
+                }
+            }
+            if (this.durablePosition >= position) {
+                return;
+            }
+        }
+
+        try {
+            sync();
+        } finally {
+            synchronized (this.monitor) {
+                this.isForcing = false;
+                this.monitor.notifyAll();
+            }
+        }
+    }
+
+    private void syncPeriodically() {
+        try {
+            if (this.appendedPosition.getAsLong() > durablePosition()) {
+                sync();
+            }
+        } catch (DatabaseError | RuntimeException e) {
+            // There is no caller to report the error to, so the next write reports it instead.
+            this.periodicError = e;
+        }
+    }
+
+    private long durablePosition() {
+        synchronized (this.monitor) {
+            return this.durablePosition;
+        }
+    }
+
+    private void markDurable(long position) {
+        this.forceCount++;
+        this.durablePosition = Math.max(this.durablePosition, position);
+    }
+}
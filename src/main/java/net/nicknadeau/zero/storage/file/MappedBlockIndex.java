@@ -0,0 +1,115 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.BlockStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * A {@link BlockIndex} which is kept in a memory-mapped {@link ExtendibleHashIndex} rather than on the heap, so that the
+ * index of a chain far larger than memory only costs the directory of the hash index on the heap, and every lookup
+ * reads one page of the index file, which the operating system caches like any other page.
+ *
+ * Every block hash must have the same length. A location is stored by the ids of its segments, and so it is copied out
+ * of the file, and its segments looked up by id, whenever it is read.
+ *
+ * This class is NOT thread-safe and must be externally synchronized, except that any number of threads may read from it
+ * at once.
+ */
+final class MappedBlockIndex implements BlockIndex {
+    private static final int VALUE_LENGTH = 6 * Integer.BYTES + 2;
+    private static final int NO_SEGMENT = -1;
+
+    private final ExtendibleHashIndex index;
+    private final IntFunction<Segment> segmentsById;
+
+    /**
+     * Constructs a new empty index in the file at the specified path, which is truncated if it exists, for block hashes
+     * of the specified length, which looks up the segments of the locations it reads by id with the given function.
+     */
+    MappedBlockIndex(Path path, int blockHashLength, IntFunction<Segment> segmentsById) throws IOException {
+        this.index = ExtendibleHashIndex.create(path, blockHashLength, VALUE_LENGTH, ExtendibleHashIndex.DEFAULT_PAGE_SIZE);
+        this.segmentsById = segmentsById;
+    }
+
+    @Override
+    public int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public boolean containsKey(byte[] blockHash) {
+        return (blockHash.length == this.index.keyLength()) && this.index.containsKey(blockHash);
+    }
+
+    @Override
+    public Location get(byte[] blockHash) {
+        if (blockHash.length != this.index.keyLength()) {
+            return null;
+        }
+        ByteBuffer value = this.index.get(blockHash);
+        return (value == null) ? null : decode(value);
+    }
+
+    @Override
+    public Location put(byte[] blockHash, Location location) {
+        Location previous = get(blockHash);
+        this.index.put(blockHash, encode(location));
+        return previous;
+    }
+
+    @Override
+    public Location remove(byte[] blockHash) {
+        Location previous = get(blockHash);
+        if (previous != null) {
+            this.index.remove(blockHash);
+        }
+        return previous;
+    }
+
+    @Override
+    public void forEach(BiConsumer<byte[], Location> consumer) {
+        this.index.forEach((blockHash, value) -> consumer.accept(blockHash, decode(value)));
+    }
+
+    @Override
+    public void assertIndexable(byte[] blockHash) {
+        if (blockHash.length != this.index.keyLength()) {
+            throw new IllegalArgumentException("The block hash is " + blockHash.length + " bytes, but the index only holds hashes of " + this.index.keyLength() + " bytes.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.index.close();
+    }
+
+    private static ByteBuffer encode(Location location) {
+        ByteBuffer value = ByteBuffer.allocate(VALUE_LENGTH);
+        value.putInt(location.segment.id());
+        value.putInt(location.bodyOffset);
+        value.putInt(location.bodyLength);
+        value.put((byte) (location.isGenesis ? 1 : 0));
+        value.put((byte) location.status.toInt());
+        value.putInt((location.statusSegment == null) ? NO_SEGMENT : location.statusSegment.id());
+        value.putInt(location.statusLength);
+        value.putInt(location.firstSegmentId);
+        return value.flip();
+    }
+
+    private Location decode(ByteBuffer value) {
+        int statusSegmentId = value.getInt(14);
+        return new Location(this.segmentsById.apply(value.getInt(0))
+                , value.getInt(4)
+                , value.getInt(8)
+                , value.get(12) == 1
+                , BlockStatus.fromInt(value.get(13))
+                , (statusSegmentId == NO_SEGMENT) ? null : this.segmentsById.apply(statusSegmentId)
+                , value.getInt(18)
+                , value.getInt(22)
+        );
+    }
+}
@@ -0,0 +1,226 @@
+package net.nicknadeau.zero.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single segment file of an {@link AppendOnlyFileDatabase}, which is preallocated to a fixed capacity and mapped into
+ * memory in its entirety, so that appending a record is a memory copy and reading a record never makes a system call.
+ *
+ * Records are only ever appended at the write position, and the bytes before the write position are never modified.
+ *
+ * This class is NOT thread-safe and must be externally synchronized, except that any number of threads may read the
+ * bytes before the write position at once.
+ */
+final class Segment {
+    private static final String FILE_PREFIX = "segment-";
+    private static final String FILE_SUFFIX = ".log";
+
+    private final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int writePosition = 0;
+    private long liveBytes = 0;
+
+    private Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new segment file with the specified id and capacity in the specified directory, and returns it mapped.
+     * The file, at its full size, and its entry in the directory are both forced out before this returns, so that a
+     * record which is forced out to the segment later cannot be lost along with the file itself.
+     */
+    static Segment create(Path directory, int id, int capacity) throws IOException {
+        Path path = directory.resolve(fileNameOf(id));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Writing the last byte makes the file its full size up front, and the file system fills the rest with zeros.
+            channel.write(ByteBuffer.allocate(1), capacity - 1);
+            channel.force(true);
+            syncDirectory(directory);
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the existing segment file with the specified id and returns it mapped. The write position of the returned
+     * segment is zero.
+     */
+    static Segment open(Path path, int id) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment file is too large: " + path);
+            }
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Forces the entries of the specified directory out to the storage device, so that the files created in it and
+     * removed from it up to now survive a power failure. Some platforms, such as Windows, do not allow a directory to
+     * be opened, and make the entry of a file durable along with the file itself, in which case this does nothing.
+     */
+    static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Returns the name of the segment file with the specified id.
+     */
+    static String fileNameOf(int id) {
+        return String.format("%s%08d%s", FILE_PREFIX, id, FILE_SUFFIX);
+    }
+
+    /**
+     * Returns the id of the segment file with the specified name, or -1 if the name is not the name of a segment file.
+     */
+    static int idOf(String fileName) {
+        if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            int id = Integer.parseInt(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+            return fileName.equals(fileNameOf(id)) ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int id() {
+        return this.id;
+    }
+
+    Path path() {
+        return this.path;
+    }
+
+    int capacity() {
+        return this.buffer.capacity();
+    }
+
+    int writePosition() {
+        return this.writePosition;
+    }
+
+    /**
+     * Returns the number of bytes which can still be appended to this segment.
+     */
+    int remaining() {
+        return this.buffer.capacity() - this.writePosition;
+    }
+
+    /**
+     * Returns the number of bytes taken up by the records in this segment which are still needed to rebuild the index,
+     * as counted by the database which owns this segment. Every other byte before the write position is dead.
+     */
+    long liveBytes() {
+        return this.liveBytes;
+    }
+
+    /**
+     * Adds the specified number of bytes, which is negative when a record dies, to the live bytes of this segment.
+     */
+    void addLiveBytes(long bytes) {
+        this.liveBytes += bytes;
+    }
+
+    /**
+     * Sets the write position of this segment, which is only done once the existing records have been scanned.
+     */
+    void setWritePosition(int writePosition) {
+        this.writePosition = writePosition;
+    }
+
+    /**
+     * Returns the int at the specified offset.
+     */
+    int getInt(int offset) {
+        return this.buffer.getInt(offset);
+    }
+
+    /**
+     * Appends the specified record, from its position to its limit, and returns the offset it was written at.
+     *
+     * ASSUMPTION: The record fits into the remaining bytes of this segment.
+     */
+    int append(ByteBuffer record) {
+        int offset = this.writePosition;
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(offset);
+        view.put(record);
+        this.writePosition = view.position();
+        return offset;
+    }
+
+    /**
+     * Returns a new buffer which is a view of the specified range of this segment, whose position is zero.
+     */
+    ByteBuffer read(int offset, int length) {
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Overwrites every byte from the specified offset to the end of this segment with zeros. Only the bytes which are
+     * not already zero are written, so that the pages which are already zero are not dirtied.
+     */
+    void zeroFrom(int offset) {
+        int capacity = this.buffer.capacity();
+        int index = offset;
+        while (index < capacity) {
+            if ((index + Long.BYTES <= capacity) && ((index & (Long.BYTES - 1)) == 0)) {
+                if (this.buffer.getLong(index) != 0) {
+                    this.buffer.putLong(index, 0);
+                }
+                index += Long.BYTES;
+            } else {
+                if (this.buffer.get(index) != 0) {
+                    this.buffer.put(index, (byte) 0);
+                }
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Forces every change to this segment out to the storage device.
+     */
+    void force() {
+        this.buffer.force();
+    }
+
+    /**
+     * Closes the file channel of this segment. The mapping itself is released once the segment is garbage collected.
+     */
+    void close() throws IOException {
+        this.channel.close();
+    }
+}
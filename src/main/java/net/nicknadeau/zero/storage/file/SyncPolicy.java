@@ -0,0 +1,33 @@
+package net.nicknadeau.zero.storage.file;
+
+/**
+ * When the records appended to an {@link AppendOnlyFileDatabase} are forced out to the storage device.
+ *
+ * Whatever the policy, the database only ever recovers a prefix of the records that were appended, and so after a crash
+ * it is always in a state that it was in at some point before the crash. The policy only decides how recent that state
+ * is guaranteed to be.
+ */
+public enum SyncPolicy {
+
+    /*
+     * Every write forces its record out before it returns, one write at a time. This is the most durable policy and
+     * the slowest, since concurrent writes never share a force.
+     */
+    EVERY_WRITE
+
+    /*
+     * Every write forces its record out before it returns, but a write that arrives while another write is forcing
+     * waits for that force to finish and then has its record forced out together with every other waiting write's
+     * record by one more force. This is as durable as EVERY_WRITE, while concurrent writes cost roughly one force per
+     * group rather than one each.
+     */
+    , GROUP_COMMIT
+
+    /*
+     * Writes return as soon as their records are appended, and a background thread forces out the records on a fixed
+     * interval. The writes of at most the last interval may be lost in a crash of the operating system or a power
+     * failure, but none are lost if only the process crashes.
+     */
+    , PERIODIC
+    ;
+}
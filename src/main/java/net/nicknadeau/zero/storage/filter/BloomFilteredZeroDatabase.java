@@ -0,0 +1,450 @@
+package net.nicknadeau.zero.storage.filter;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.ByteArrayMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A {@link ZeroDatabase} which puts a counting Bloom filter in front of another database, so that looking up a block
+ * which does not exist, which is what happens for almost every new block, is usually answered without touching the
+ * other database at all. Only the hashes which might be in the filter reach the other database.
+ *
+ * A block's hash is added to the filter before the block is saved to the other database, so that the filter never
+ * denies a block the other database holds, and it is removed from the filter once the block has been removed. Since
+ * the filter counts, removals keep it as accurate as it was before the blocks were added. A {@link WriteBatch} is
+ * committed by the other database's own batch, with the filter updated around it in the same way.
+ *
+ * If a filter file is given, then the filter is written to that file when this database is closed, and read back from
+ * it when the database is next built. The file is deleted as soon as it has been read, so that its absence marks a
+ * shutdown which was not clean, and in that case, or if the file is corrupt, the filter is rebuilt from every block in
+ * the other database instead. The other database must therefore only ever be modified through this database.
+ *
+ * This class is thread-safe if the other database is. Lookups never block, while writes are serialized.
+ */
+public final class BloomFilteredZeroDatabase implements ZeroDatabase, AutoCloseable {
+    /**
+     * The default number of blocks the filter is sized for.
+     */
+    public static final long DEFAULT_EXPECTED_BLOCK_COUNT = 1_000_000;
+
+    /**
+     * The default false positive rate of the filter once it holds the expected number of blocks.
+     */
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private final ZeroDatabase database;
+    private final Path filterFile;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final CountingBloomFilter filter;
+    private final boolean isFilterLoaded;
+    private final LongAdder filteredCount = new LongAdder();
+    private final LongAdder passedCount = new LongAdder();
+    private final LongAdder falsePositiveCount = new LongAdder();
+    private boolean isClosed = false;
+
+    private BloomFilteredZeroDatabase(ZeroDatabase database, Path filterFile, long expectedBlockCount, double falsePositiveRate) throws DatabaseError {
+        ArgChecker.assertNonNull(database);
+        this.database = database;
+        this.filterFile = filterFile;
+
+        CountingBloomFilter loaded = (filterFile == null) ? null : loadFilter(filterFile);
+        if (loaded != null) {
+            this.filter = loaded;
+            this.isFilterLoaded = true;
+        } else {
+            List<byte[]> hashes = new ArrayList<>();
+            for (BlockStatus status : BlockStatus.values()) {
+                for (BlockHeader header : database.findBlockHeadersByStatus(status)) {
+                    hashes.add(header.getBlockHash());
+                }
+            }
+            this.filter = CountingBloomFilter.withExpectedKeys(Math.max(expectedBlockCount, 2L * hashes.size()), falsePositiveRate);
+            for (byte[] hash : hashes) {
+                this.filter.add(hash);
+            }
+            this.isFilterLoaded = false;
+        }
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        return this.database.genesisBlockExists();
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || isFilteredOut(blockHash)) {
+            return false;
+        }
+        boolean exists = this.database.blockExists(blockHash);
+        if (!exists) {
+            this.falsePositiveCount.increment();
+        }
+        return exists;
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || isFilteredOut(blockHash)) {
+            return null;
+        }
+        Block block = this.database.findBlockByHash(blockHash);
+        if (block == null) {
+            this.falsePositiveCount.increment();
+        }
+        return block;
+    }
+
+    @Override
+    public BlockHeader findBlockHeaderByHash(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || isFilteredOut(blockHash)) {
+            return null;
+        }
+        BlockHeader header = this.database.findBlockHeaderByHash(blockHash);
+        if (header == null) {
+            this.falsePositiveCount.increment();
+        }
+        return header;
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        return this.database.findBlocksByStatus(status);
+    }
+
+    @Override
+    public Collection<BlockHeader> findBlockHeadersByStatus(BlockStatus status) throws DatabaseError {
+        return this.database.findBlockHeadersByStatus(status);
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        byte[] blockHash = block.getBlockHash().clone();
+
+        this.writeLock.lock();
+        try {
+            // A block which is saved again is already counted, and counting it twice would make it impossible to remove.
+            if (this.filter.mightContain(blockHash) && this.database.blockExists(blockHash)) {
+                return this.database.saveBlockAndStatus(block, status);
+            }
+
+            this.filter.add(blockHash);
+            boolean isSaved = this.database.saveBlockAndStatus(block, status);
+            if (!isSaved) {
+                this.filter.remove(blockHash);
+            }
+            return isSaved;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        return this.database.updateBlockStatus(blockHash, status);
+    }
+
+    @Override
+    public boolean containsPendingBlocks() throws DatabaseError {
+        return this.database.containsPendingBlocks();
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || !this.filter.mightContain(blockHash)) {
+            return this.database.removeBlockByHash(blockHash);
+        }
+
+        this.writeLock.lock();
+        try {
+            // Only a block which was actually removed may be removed from the filter, or the filter would deny blocks
+            // which share its counters.
+            boolean exists = this.database.blockExists(blockHash);
+            boolean isRemoved = this.database.removeBlockByHash(blockHash);
+            if (exists && isRemoved) {
+                this.filter.remove(blockHash);
+            }
+            return isRemoved;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Returns {@code true} if the filter was read from the filter file when this database was built, and {@code false}
+     * if it was rebuilt from the blocks in the other database.
+     *
+     * @return whether the filter was loaded from its file.
+     */
+    public boolean isFilterLoaded() {
+        return this.isFilterLoaded;
+    }
+
+    /**
+     * Returns the number of lookups which the filter answered without going to the other database.
+     *
+     * @return the filtered lookup count.
+     */
+    public long getFilteredCount() {
+        return this.filteredCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups which the filter let through to the other database.
+     *
+     * @return the passed lookup count.
+     */
+    public long getPassedCount() {
+        return this.passedCount.sum();
+    }
+
+    /**
+     * Returns the number of lookups which the filter let through but for which the other database had no block.
+     *
+     * @return the false positive count.
+     */
+    public long getFalsePositiveCount() {
+        return this.falsePositiveCount.sum();
+    }
+
+    /**
+     * Writes the filter to the filter file, if one was given, so that the next database built on the same file and
+     * other database does not need to rebuild it. The other database is NOT closed. Closing a closed database does
+     * nothing, and no method other than this one may be invoked on a closed database.
+     *
+     * @throws DatabaseError if the filter file could not be written.
+     */
+    @Override
+    public void close() throws DatabaseError {
+        this.writeLock.lock();
+        try {
+            if (this.isClosed) {
+                return;
+            }
+            this.isClosed = true;
+            if (this.filterFile != null) {
+                saveFilter(this.filter, this.filterFile);
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Commits the given operations through a batch of the other database, adding each new block to the filter before the
+     * commit and removing from the filter each removed block, and each new block which was not applied, after it. The
+     * operations after the count which the batch reports as applied are looked up in the other database.
+     */
+    private int applyBatch(List<WriteOperation> operations) throws DatabaseError {
+        this.writeLock.lock();
+        try {
+            // Work out which blocks each operation adds or removes, given the blocks saved and removed before it.
+            ByteArrayMap<Boolean> existence = new ByteArrayMap<>();
+            boolean[] isCounted = new boolean[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                WriteOperation operation = operations.get(i);
+                byte[] blockHash = operation.getBlockHash();
+                if (operation.getType() == WriteOperation.Type.UPDATE_STATUS) {
+                    continue;
+                }
+                boolean exists = existence.containsKey(blockHash)
+                        ? existence.get(blockHash)
+                        : this.filter.mightContain(blockHash) && this.database.blockExists(blockHash);
+                boolean isSave = operation.getType() == WriteOperation.Type.SAVE;
+                isCounted[i] = (isSave != exists);
+                existence.put(blockHash, isSave);
+            }
+
+            for (int i = 0; i < operations.size(); i++) {
+                if (isCounted[i] && (operations.get(i).getType() == WriteOperation.Type.SAVE)) {
+                    this.filter.add(operations.get(i).getBlockHash());
+                }
+            }
+            int appliedCount = this.database.newWriteBatch().addAll(operations).commit();
+            for (int i = 0; i < operations.size(); i++) {
+                if (!isCounted[i]) {
+                    continue;
+                }
+                // A batch which is not atomic across its stores may apply operations after the first failing one, so
+                // whether those were applied is only known by looking.
+                byte[] blockHash = operations.get(i).getBlockHash();
+                boolean isSave = operations.get(i).getType() == WriteOperation.Type.SAVE;
+                boolean isApplied = (i < appliedCount) || (isSave == this.database.blockExists(blockHash));
+                if (isSave != isApplied) {
+                    this.filter.remove(blockHash);
+                }
+            }
+            return appliedCount;
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    private boolean isFilteredOut(byte[] blockHash) {
+        if (this.filter.mightContain(blockHash)) {
+            this.passedCount.increment();
+            return false;
+        }
+        this.filteredCount.increment();
+        return true;
+    }
+
+    /**
+     * Returns the filter read from the specified file and deletes the file, or returns {@code null} if there is no such
+     * file or it is not intact.
+     */
+    private static CountingBloomFilter loadFilter(Path file) throws DatabaseError {
+        CountingBloomFilter filter;
+        try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), new CRC32());
+             DataInputStream input = new DataInputStream(checked)) {
+            filter = CountingBloomFilter.readFrom(input);
+            long checksum = checked.getChecksum().getValue();
+            if ((input.readLong() != checksum) || (input.read() != -1)) {
+                filter = null;
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            filter = null;
+        }
+
+        try {
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new DatabaseError("Failed to delete the filter file " + file, e);
+        }
+        return filter;
+    }
+
+    /**
+     * Writes the specified filter to the specified file, replacing the file atomically so that it is never seen half
+     * written.
+     */
+    private static void saveFilter(CountingBloomFilter filter, Path file) throws DatabaseError {
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)), new CRC32());
+                 DataOutputStream output = new DataOutputStream(checked)) {
+                filter.writeTo(output);
+                output.flush();
+                output.writeLong(checked.getChecksum().getValue());
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new DatabaseError("Failed to write the filter file " + file, e);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A builder which constructs new instances of {@link BloomFilteredZeroDatabase}.
+     */
+    public static final class Builder {
+        private ZeroDatabase database;
+        private Path filterFile;
+        private long expectedBlockCount = DEFAULT_EXPECTED_BLOCK_COUNT;
+        private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+
+        private Builder() {}
+
+        /**
+         * Returns a new builder instance.
+         *
+         * @return the new builder.
+         */
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        /**
+         * Filters the lookups of the specified database.
+         *
+         * @param database The database to filter.
+         * @return this builder.
+         */
+        public Builder withDatabase(ZeroDatabase database) {
+            this.database = database;
+            return this;
+        }
+
+        /**
+         * Persists the filter in the specified file across clean shutdowns. If no file is given, then the filter is
+         * rebuilt every time the database is built.
+         *
+         * @param filterFile The file to persist the filter in.
+         * @return this builder.
+         */
+        public Builder withFilterFile(Path filterFile) {
+            this.filterFile = filterFile;
+            return this;
+        }
+
+        /**
+         * Sizes a newly built filter so that once it holds {@code expectedBlockCount} blocks, a lookup of a block which
+         * does not exist reaches the other database with probability {@code falsePositiveRate}. The filter is sized for
+         * at least twice the number of blocks already in the other database. If not given, then
+         * {@link #DEFAULT_EXPECTED_BLOCK_COUNT} and {@link #DEFAULT_FALSE_POSITIVE_RATE} are used.
+         *
+         * @param expectedBlockCount The number of blocks the filter is expected to hold.
+         * @param falsePositiveRate The false positive rate at that number of blocks.
+         * @return this builder.
+         */
+        public Builder withFilterSize(long expectedBlockCount, double falsePositiveRate) {
+            this.expectedBlockCount = expectedBlockCount;
+            this.falsePositiveRate = falsePositiveRate;
+            return this;
+        }
+
+        /**
+         * Returns a newly constructed instance of {@link BloomFilteredZeroDatabase}, whose filter is read from the filter
+         * file if it is intact, and otherwise is rebuilt from every block in the other database.
+         *
+         * @return the new instance.
+         * @throws NullPointerException if no database was given.
+         * @throws IllegalArgumentException if the expected block count is not positive or the false positive rate is
+         * not strictly between 0 and 1.
+         * @throws DatabaseError if the filter had to be rebuilt and the other database failed, or if the filter file
+         * could not be deleted once read.
+         */
+        public BloomFilteredZeroDatabase build() throws DatabaseError {
+            return new BloomFilteredZeroDatabase(this.database, this.filterFile, this.expectedBlockCount, this.falsePositiveRate);
+        }
+    }
+}
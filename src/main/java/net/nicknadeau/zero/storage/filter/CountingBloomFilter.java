@@ -0,0 +1,188 @@
+package net.nicknadeau.zero.storage.filter;
+
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counting Bloom filter over byte array keys, which answers whether a key might have been added to it, and which
+ * supports removing keys.
+ *
+ * Each key maps to k of the filter's m counters, using double hashing of a 64-bit hash of the key. Adding a key
+ * increments its counters and removing it decrements them, and a key might be in the filter only if all of its
+ * counters are non-zero. The counters are 4 bits wide and packed 16 to a long. A counter which reaches 15 sticks there
+ * and is never decremented again, since its true count is no longer known; this can only cause false positives, never
+ * false negatives.
+ *
+ * This class is thread-safe for any number of concurrent readers while there is at most one writer, which is how it is
+ * used. Removing a key which was never added breaks the filter, and must never be done.
+ */
+final class CountingBloomFilter {
+    private static final int MAGIC = 0x5a434246;
+    private static final long COUNTER_MASK = 0xfL;
+
+    private final int hashCount;
+    private final long counterCount;
+    private final AtomicLongArray counters;
+
+    /**
+     * Constructs a new empty filter with the specified number of hash functions and counters.
+     */
+    CountingBloomFilter(int hashCount, long counterCount) {
+        ArgChecker.assertGreaterOrEqualTo(hashCount, 1);
+        ArgChecker.assertGreaterOrEqualTo(counterCount, 1);
+        if ((counterCount + 15) / 16 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("counterCount is too large: " + counterCount);
+        }
+        this.hashCount = hashCount;
+        this.counterCount = counterCount;
+        this.counters = new AtomicLongArray((int) ((counterCount + 15) / 16));
+    }
+
+    /**
+     * Returns a new empty filter sized so that, once the specified number of keys have been added, the probability that
+     * a key which was never added might be in the filter is the specified rate.
+     */
+    static CountingBloomFilter withExpectedKeys(long expectedKeyCount, double falsePositiveRate) {
+        ArgChecker.assertGreaterOrEqualTo(expectedKeyCount, 1);
+        if (!(falsePositiveRate > 0) || !(falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("falsePositiveRate must be in (0, 1): " + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        long counterCount = Math.max(64, (long) Math.ceil(-expectedKeyCount * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        int hashCount = Math.max(1, (int) Math.round((double) counterCount / expectedKeyCount * ln2));
+        return new CountingBloomFilter(hashCount, counterCount);
+    }
+
+    int getHashCount() {
+        return this.hashCount;
+    }
+
+    long getCounterCount() {
+        return this.counterCount;
+    }
+
+    /**
+     * Returns {@code false} if the specified key is definitely not in this filter, and {@code true} if it might be.
+     */
+    boolean mightContain(byte[] key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            if (get(indexOf(hash1, hash2, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the specified key to this filter.
+     */
+    void add(byte[] key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            long index = indexOf(hash1, hash2, i);
+            long count = get(index);
+            if (count < COUNTER_MASK) {
+                set(index, count + 1);
+            }
+        }
+    }
+
+    /**
+     * Removes the specified key from this filter.
+     *
+     * ASSUMPTION: The key was added to this filter more times than it has been removed.
+     */
+    void remove(byte[] key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            long index = indexOf(hash1, hash2, i);
+            long count = get(index);
+            if ((count > 0) && (count < COUNTER_MASK)) {
+                set(index, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Writes this filter to the specified stream.
+     */
+    void writeTo(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeInt(this.hashCount);
+        output.writeLong(this.counterCount);
+        for (int i = 0; i < this.counters.length(); i++) {
+            output.writeLong(this.counters.get(i));
+        }
+    }
+
+    /**
+     * Returns a new filter read from the specified stream, which was written by {@link #writeTo(DataOutputStream)}.
+     */
+    static CountingBloomFilter readFrom(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a filter.");
+        }
+        int hashCount = input.readInt();
+        long counterCount = input.readLong();
+        if ((hashCount < 1) || (counterCount < 1) || ((counterCount + 15) / 16 > Integer.MAX_VALUE)) {
+            throw new IOException("Corrupt filter header.");
+        }
+        CountingBloomFilter filter = new CountingBloomFilter(hashCount, counterCount);
+        for (int i = 0; i < filter.counters.length(); i++) {
+            filter.counters.set(i, input.readLong());
+        }
+        return filter;
+    }
+
+    private long indexOf(int hash1, int hash2, int i) {
+        long combined = hash1 + ((long) i * hash2);
+        return (combined & Long.MAX_VALUE) % this.counterCount;
+    }
+
+    private long get(long index) {
+        return (this.counters.get((int) (index >>> 4)) >>> ((index & 15) << 2)) & COUNTER_MASK;
+    }
+
+    private void set(long index, long count) {
+        int word = (int) (index >>> 4);
+        int shift = (int) ((index & 15) << 2);
+        long value = this.counters.get(word);
+        this.counters.set(word, (value & ~(COUNTER_MASK << shift)) | (count << shift));
+    }
+
+    /**
+     * Returns a 64-bit hash of the key, which mixes it 8 bytes at a time in the manner of MurmurHash3 and ends with its
+     * finalizer, since the keys are not necessarily uniformly distributed.
+     */
+    private static long hash(byte[] key) {
+        long hash = key.length;
+        for (int i = 0; i < key.length; i += 8) {
+            long word = 0;
+            for (int j = i; j < Math.min(i + 8, key.length); j++) {
+                word = (word << 8) | (key[j] & 0xff);
+            }
+            word *= 0x87c37b91114253d5L;
+            word = Long.rotateLeft(word, 31);
+            word *= 0x4cf5ad432745937fL;
+            hash ^= word;
+            hash = Long.rotateLeft(hash, 27) * 5 + 0x52dce729;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
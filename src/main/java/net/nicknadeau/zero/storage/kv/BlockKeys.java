@@ -0,0 +1,93 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.block.BlockStatus;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The key schema of {@link KeyValueZeroDatabase}. Every key begins with a one byte prefix naming the kind of key, and
+ * ends with a block hash of a fixed length, so that each kind of key occupies its own contiguous range of the store and
+ * every key of a kind has the same width:
+ *
+ * <ul>
+ *     <li>{@code BLOCK | hash} holds the encoding of the block.</li>
+ *     <li>{@code STATE | hash} holds the status of the block followed by its number, as an 8 byte big-endian integer,
+ *     which is everything needed to find its index keys.</li>
+ *     <li>{@code STATUS | status | hash} is empty, and indexes the block by status.</li>
+ *     <li>{@code HEIGHT | number | hash} is empty, and indexes the block by number, as an 8 byte big-endian integer.</li>
+ * </ul>
+ *
+ * Since the block numbers are never negative, their big-endian bytes sort in the same order as the numbers, and so the
+ * blocks with one status, or of one number or a range of numbers, are found by a single scan of one range.
+ */
+final class BlockKeys {
+    static final byte BLOCK = 1;
+    static final byte STATE = 2;
+    static final byte STATUS = 3;
+    static final byte HEIGHT = 4;
+    static final int STATE_LENGTH = 1 + Long.BYTES;
+
+    private final int blockHashLength;
+
+    BlockKeys(int blockHashLength) {
+        this.blockHashLength = blockHashLength;
+    }
+
+    /**
+     * Returns the length of the block hashes in these keys.
+     */
+    int blockHashLength() {
+        return this.blockHashLength;
+    }
+
+    /**
+     * Returns {@code true} if the specified block hash has the length of the block hashes in these keys.
+     */
+    boolean fits(byte[] blockHash) {
+        return blockHash.length == this.blockHashLength;
+    }
+
+    byte[] block(byte[] blockHash) {
+        return ByteBuffer.allocate(1 + this.blockHashLength).put(BLOCK).put(blockHash).array();
+    }
+
+    byte[] state(byte[] blockHash) {
+        return ByteBuffer.allocate(1 + this.blockHashLength).put(STATE).put(blockHash).array();
+    }
+
+    byte[] status(BlockStatus status, byte[] blockHash) {
+        return ByteBuffer.allocate(2 + this.blockHashLength).put(STATUS).put((byte) status.toInt()).put(blockHash).array();
+    }
+
+    byte[] height(long number, byte[] blockHash) {
+        return ByteBuffer.allocate(1 + Long.BYTES + this.blockHashLength).put(HEIGHT).putLong(number).put(blockHash).array();
+    }
+
+    static byte[] statusPrefix(BlockStatus status) {
+        return new byte[]{ STATUS, (byte) status.toInt() };
+    }
+
+    static byte[] heightPrefix(long number) {
+        return ByteBuffer.allocate(1 + Long.BYTES).put(HEIGHT).putLong(number).array();
+    }
+
+    /**
+     * Returns the block hash at the end of the specified key.
+     */
+    byte[] blockHashOf(byte[] key) {
+        return Arrays.copyOfRange(key, key.length - this.blockHashLength, key.length);
+    }
+
+    static byte[] newState(BlockStatus status, long number) {
+        return ByteBuffer.allocate(STATE_LENGTH).put((byte) status.toInt()).putLong(number).array();
+    }
+
+    static BlockStatus statusOf(byte[] state) {
+        return BlockStatus.fromInt(state[0]);
+    }
+
+    static long numberOf(byte[] state) {
+        return ByteBuffer.wrap(state).getLong(1);
+    }
+}
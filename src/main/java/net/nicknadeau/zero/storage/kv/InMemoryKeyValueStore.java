@@ -0,0 +1,133 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link SortedKeyValueStore} which holds all of its keys in memory, in a sorted tree, and so which is not durable. It
+ * is the reference engine for {@link KeyValueZeroDatabase}, for tests and benchmarks, and for any use which would
+ * otherwise pick an {@link net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase}.
+ *
+ * Every key and value is copied on the way in and on the way out.
+ *
+ * This class is thread-safe. Any number of threads may read from the store at once, while writes are exclusive, and so
+ * a batch is applied under a single acquisition of the write lock.
+ */
+public final class InMemoryKeyValueStore implements SortedKeyValueStore {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<byte[], byte[]> entries = new TreeMap<>(Arrays::compareUnsigned);
+
+    /**
+     * Constructs a new empty store.
+     */
+    public InMemoryKeyValueStore() {}
+
+    @Override
+    public byte[] get(byte[] key) {
+        ArgChecker.assertNonNull(key);
+
+        this.lock.readLock().lock();
+        try {
+            byte[] value = this.entries.get(key);
+            return (value == null) ? null : value.clone();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        ArgChecker.assertNonNull(key);
+        ArgChecker.assertNonNull(value);
+
+        this.lock.writeLock().lock();
+        try {
+            this.entries.put(key.clone(), value.clone());
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        ArgChecker.assertNonNull(key);
+
+        this.lock.writeLock().lock();
+        try {
+            this.entries.remove(key);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void scan(byte[] prefix, KeyValueVisitor visitor) {
+        ArgChecker.assertNonNull(prefix);
+        ArgChecker.assertNonNull(visitor);
+
+        this.lock.readLock().lock();
+        try {
+            byte[] end = successorOf(prefix);
+            NavigableMap<byte[], byte[]> range = (end == null) ? this.entries.tailMap(prefix, true) : this.entries.subMap(prefix, true, end, false);
+            for (Map.Entry<byte[], byte[]> entry : range.entrySet()) {
+                if (!visitor.visit(entry.getKey().clone(), entry.getValue().clone())) {
+                    return;
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void write(KeyValueBatch batch) {
+        ArgChecker.assertNonNull(batch);
+
+        this.lock.writeLock().lock();
+        try {
+            for (KeyValueBatch.Entry entry : batch.getEntries()) {
+                if (entry.isDelete()) {
+                    this.entries.remove(entry.getKey());
+                } else {
+                    this.entries.put(entry.getKey().clone(), entry.getValue().clone());
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of keys in this store.
+     *
+     * @return the number of keys.
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.entries.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the smallest key which is greater than every key beginning with the specified prefix, or {@code null} if
+     * there is no such key because the prefix is made only of 0xFF bytes.
+     */
+    private static byte[] successorOf(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte) 0xFF) {
+                byte[] successor = Arrays.copyOf(prefix, i + 1);
+                successor[i]++;
+                return successor;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.util.internal.ArgChecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of writes to a {@link SortedKeyValueStore}, which the store applies atomically, in order.
+ *
+ * The keys and values given to a batch are not copied, and must not be modified until it has been written. A batch is
+ * NOT thread-safe.
+ */
+public final class KeyValueBatch {
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Constructs a new empty batch.
+     */
+    public KeyValueBatch() {}
+
+    /**
+     * Adds a write which stores the specified value under the specified key.
+     *
+     * @param key The key to store.
+     * @param value The value to store.
+     * @return this batch.
+     * @throws NullPointerException if key or value are null.
+     */
+    public KeyValueBatch put(byte[] key, byte[] value) {
+        ArgChecker.assertNonNull(key);
+        ArgChecker.assertNonNull(value);
+        this.entries.add(new Entry(key, value));
+        return this;
+    }
+
+    /**
+     * Adds a write which removes the specified key.
+     *
+     * @param key The key to remove.
+     * @return this batch.
+     * @throws NullPointerException if key is null.
+     */
+    public KeyValueBatch delete(byte[] key) {
+        ArgChecker.assertNonNull(key);
+        this.entries.add(new Entry(key, null));
+        return this;
+    }
+
+    /**
+     * Returns the writes in this batch, in the order they were added.
+     *
+     * @return the writes.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    /**
+     * Returns the number of writes in this batch.
+     *
+     * @return the number of writes.
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * A single write in a batch, which is either a put or a delete.
+     */
+    public static final class Entry {
+        private final byte[] key;
+        private final byte[] value;
+
+        private Entry(byte[] key, byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        /**
+         * Returns the key this write stores or removes.
+         *
+         * @return the key.
+         */
+        public byte[] getKey() {
+            return this.key;
+        }
+
+        /**
+         * Returns the value this write stores, or {@code null} if it removes its key.
+         *
+         * @return the value or null if this is a delete.
+         */
+        public byte[] getValue() {
+            return this.value;
+        }
+
+        /**
+         * Returns {@code true} if this write removes its key and {@code false} if it stores a value under it.
+         *
+         * @return whether or not this is a delete.
+         */
+        public boolean isDelete() {
+            return this.value == null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.nicknadeau.zero.storage.kv;
+
+/**
+ * A visitor of the keys and values found by {@link SortedKeyValueStore#scan(byte[], KeyValueVisitor)}.
+ */
+@FunctionalInterface
+public interface KeyValueVisitor {
+
+    /**
+     * Visits the specified key and its value, and returns {@code true} to continue the scan or {@code false} to stop it.
+     *
+     * @param key The key.
+     * @param value The value stored under the key.
+     * @return whether or not to continue the scan.
+     */
+    public boolean visit(byte[] key, byte[] value);
+}
@@ -0,0 +1,447 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.block.ZeroBlockCodec;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.ByteArrayMap;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link ZeroDatabase} which keeps its blocks in a {@link SortedKeyValueStore}, so that it can be run on any embedded
+ * ordered key-value engine without designing a key schema for it.
+ *
+ * Each block is stored under four keys of fixed width, which are described by {@link BlockKeys}: the block itself,
+ * encoded by {@link ZeroBlockCodec}, its status and number, and one index key each for its status and its number. The
+ * index keys begin with the status or the number, so finding the blocks with a given status, or of a given number, is
+ * one sequential scan of the keys with that prefix followed by a lookup of each block, and finding whether any such
+ * block exists stops at the first key. Every block hash must have the same length, and every block number must fit in
+ * a signed 8 byte integer.
+ *
+ * Each write reads the keys it replaces and then writes all of the keys it changes in a single {@link KeyValueBatch},
+ * so the store never holds a block whose index keys disagree with it. A {@link WriteBatch} is committed atomically in
+ * the same way: its operations are applied one after the other to a view of the store which includes the writes of the
+ * operations before them, and then every key they changed is written in a single batch, or none is if any operation
+ * fails.
+ *
+ * This class is thread-safe. Any number of threads may read from the database at once, while writes are exclusive. The
+ * store must only ever be modified through this database.
+ */
+public final class KeyValueZeroDatabase implements ZeroDatabase {
+    /**
+     * The default length of the block hashes, in bytes.
+     */
+    public static final int DEFAULT_BLOCK_HASH_LENGTH = 32;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final SortedKeyValueStore store;
+    private final BlockKeys keys;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private KeyValueZeroDatabase(SortedKeyValueStore store, int blockHashLength) {
+        ArgChecker.assertNonNull(store);
+        ArgChecker.assertGreaterOrEqualTo(blockHashLength, 1);
+        this.store = store;
+        this.keys = new BlockKeys(blockHashLength);
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            return anyKeyWithPrefix(BlockKeys.heightPrefix(0));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || !this.keys.fits(blockHash)) {
+            return false;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            return this.store.get(this.keys.state(blockHash)) != null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || !this.keys.fits(blockHash)) {
+            return null;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            return decode(this.store.get(this.keys.block(blockHash)));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+
+        this.lock.readLock().lock();
+        try {
+            return findBlocksByIndex(BlockKeys.statusPrefix(status));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a collection of all the blocks in the database whose number is the specified number, in the order of their
+     * hashes. Returns an empty collection if there are none, including if {@code number == null} or the number does not
+     * fit in a signed 8 byte integer.
+     *
+     * @param number The block number to match against.
+     * @return the blocks with the number.
+     */
+    public Collection<Block> findBlocksByNumber(BigInteger number) throws DatabaseError {
+        if ((number == null) || (number.signum() < 0) || (number.bitLength() >= Long.SIZE)) {
+            return Collections.emptyList();
+        }
+
+        this.lock.readLock().lock();
+        try {
+            return findBlocksByIndex(BlockKeys.heightPrefix(number.longValue()));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        assertStorable(block);
+
+        this.lock.writeLock().lock();
+        try {
+            Transaction transaction = new Transaction();
+            save(transaction, block, status);
+            transaction.commit();
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(status);
+        if (!this.keys.fits(blockHash)) {
+            return false;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Transaction transaction = new Transaction();
+            if (!update(transaction, blockHash, status)) {
+                return false;
+            }
+            transaction.commit();
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsPendingBlocks() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            return anyKeyWithPrefix(BlockKeys.statusPrefix(BlockStatus.PENDING_ADDITION));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        if ((blockHash == null) || !this.keys.fits(blockHash)) {
+            return true;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Transaction transaction = new Transaction();
+            remove(transaction, blockHash);
+            transaction.commit();
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Applies every one of the given operations to a single transaction, and commits it, or applies none of them if any
+     * would fail, and returns the number applied.
+     */
+    private int applyBatch(List<WriteOperation> operations) throws DatabaseError {
+        for (WriteOperation operation : operations) {
+            if (operation.getType() == WriteOperation.Type.SAVE) {
+                assertStorable(operation.getBlock());
+            }
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Transaction transaction = new Transaction();
+            for (WriteOperation operation : operations) {
+                byte[] blockHash = operation.getBlockHash();
+                switch (operation.getType()) {
+                    case SAVE: save(transaction, operation.getBlock(), operation.getStatus()); break;
+                    case UPDATE_STATUS:
+                        if (!this.keys.fits(blockHash) || !update(transaction, blockHash, operation.getStatus())) {
+                            return 0;
+                        }
+                        break;
+                    default:
+                        if (this.keys.fits(blockHash)) {
+                            remove(transaction, blockHash);
+                        }
+                        break;
+                }
+            }
+            transaction.commit();
+            return operations.size();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the keys of the specified block with the specified status, replacing the index keys of any block already
+     * saved under its hash.
+     */
+    private void save(Transaction transaction, Block block, BlockStatus status) throws DatabaseError {
+        byte[] blockHash = block.getBlockHash().clone();
+        unindex(transaction, blockHash);
+
+        long number = block.getBlockNumber().longValue();
+        transaction.put(this.keys.block(blockHash), ZeroBlockCodec.encode(block).array());
+        transaction.put(this.keys.state(blockHash), BlockKeys.newState(status, number));
+        transaction.put(this.keys.status(status, blockHash), EMPTY);
+        transaction.put(this.keys.height(number, blockHash), EMPTY);
+    }
+
+    /**
+     * Moves the block with the specified hash from the index of its status to the index of the specified status, and
+     * returns {@code false} if there is no such block.
+     */
+    private boolean update(Transaction transaction, byte[] blockHash, BlockStatus status) throws DatabaseError {
+        byte[] stateKey = this.keys.state(blockHash);
+        byte[] state = transaction.get(stateKey);
+        if (state == null) {
+            return false;
+        }
+
+        BlockStatus previousStatus = BlockKeys.statusOf(state);
+        if (previousStatus != status) {
+            transaction.delete(this.keys.status(previousStatus, blockHash));
+            transaction.put(this.keys.status(status, blockHash), EMPTY);
+            transaction.put(stateKey, BlockKeys.newState(status, BlockKeys.numberOf(state)));
+        }
+        return true;
+    }
+
+    /**
+     * Deletes every key of the block with the specified hash, if there is such a block.
+     */
+    private void remove(Transaction transaction, byte[] blockHash) throws DatabaseError {
+        if (unindex(transaction, blockHash)) {
+            transaction.delete(this.keys.block(blockHash));
+            transaction.delete(this.keys.state(blockHash));
+        }
+    }
+
+    /**
+     * Deletes the index keys of the block with the specified hash, and returns {@code false} if there is no such block.
+     */
+    private boolean unindex(Transaction transaction, byte[] blockHash) throws DatabaseError {
+        byte[] state = transaction.get(this.keys.state(blockHash));
+        if (state == null) {
+            return false;
+        }
+        transaction.delete(this.keys.status(BlockKeys.statusOf(state), blockHash));
+        transaction.delete(this.keys.height(BlockKeys.numberOf(state), blockHash));
+        return true;
+    }
+
+    /**
+     * Returns the blocks whose hashes end the index keys beginning with the specified prefix.
+     *
+     * ASSUMPTION: The read lock is held.
+     */
+    private List<Block> findBlocksByIndex(byte[] prefix) throws DatabaseError {
+        List<byte[]> blockHashes = new ArrayList<>();
+        this.store.scan(prefix, (key, value) -> blockHashes.add(this.keys.blockHashOf(key)));
+
+        List<Block> blocks = new ArrayList<>(blockHashes.size());
+        for (byte[] blockHash : blockHashes) {
+            Block block = decode(this.store.get(this.keys.block(blockHash)));
+            if (block == null) {
+                throw new DatabaseError("The store indexes a block which it does not hold.");
+            }
+            blocks.add(block);
+        }
+        return blocks;
+    }
+
+    private boolean anyKeyWithPrefix(byte[] prefix) throws DatabaseError {
+        boolean[] isFound = { false };
+        this.store.scan(prefix, (key, value) -> {
+            isFound[0] = true;
+            return false;
+        });
+        return isFound[0];
+    }
+
+    /**
+     * Throws if the specified block cannot be stored under the fixed-width keys of this database.
+     */
+    private void assertStorable(Block block) {
+        if (!this.keys.fits(block.getBlockHash())) {
+            throw new IllegalArgumentException("The block hash is " + block.getBlockHash().length + " bytes, but the database only holds hashes of " + this.keys.blockHashLength() + " bytes.");
+        }
+        BigInteger number = block.getBlockNumber();
+        if ((number.signum() < 0) || (number.bitLength() >= Long.SIZE)) {
+            throw new IllegalArgumentException("The block number " + number + " does not fit in a signed 8 byte integer.");
+        }
+    }
+
+    private static Block decode(byte[] encoding) {
+        return (encoding == null) ? null : ZeroBlockCodec.decode(ByteBuffer.wrap(encoding));
+    }
+
+    /**
+     * The writes of a single write or batch, which are collected before being written to the store in one batch, and which
+     * are seen by the reads made through the transaction.
+     */
+    private final class Transaction {
+        private final ByteArrayMap<byte[]> writes = new ByteArrayMap<>();
+
+        /**
+         * A value which marks a deleted key. It is compared by identity, so it is never confused with an empty value.
+         */
+        private final byte[] deleted = new byte[0];
+
+        private byte[] get(byte[] key) throws DatabaseError {
+            byte[] value = this.writes.get(key);
+            if (value == null) {
+                return KeyValueZeroDatabase.this.store.get(key);
+            }
+            return (value == this.deleted) ? null : value;
+        }
+
+        private void put(byte[] key, byte[] value) {
+            this.writes.put(key, value);
+        }
+
+        private void delete(byte[] key) {
+            this.writes.put(key, this.deleted);
+        }
+
+        private void commit() throws DatabaseError {
+            if (this.writes.isEmpty()) {
+                return;
+            }
+            KeyValueBatch batch = new KeyValueBatch();
+            this.writes.forEach((key, value) -> {
+                if (value == this.deleted) {
+                    batch.delete(key);
+                } else {
+                    batch.put(key, value);
+                }
+            });
+            KeyValueZeroDatabase.this.store.write(batch);
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A builder which constructs new instances of {@link KeyValueZeroDatabase}.
+     */
+    public static final class Builder {
+        private SortedKeyValueStore store;
+        private int blockHashLength = DEFAULT_BLOCK_HASH_LENGTH;
+
+        private Builder() {}
+
+        /**
+         * Returns a new builder instance.
+         *
+         * @return the new builder.
+         */
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        /**
+         * Keeps the blocks in the specified store.
+         *
+         * @param store The store to keep the blocks in.
+         * @return this builder.
+         */
+        public Builder withStore(SortedKeyValueStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * Holds only blocks whose hashes have the specified length, which must be positive, so that every key has a fixed
+         * width. If no length is given, then {@link #DEFAULT_BLOCK_HASH_LENGTH} is used.
+         *
+         * @param blockHashLength The length of the block hashes, in bytes.
+         * @return this builder.
+         */
+        public Builder withBlockHashLength(int blockHashLength) {
+            this.blockHashLength = blockHashLength;
+            return this;
+        }
+
+        /**
+         * Returns a newly constructed instance of {@link KeyValueZeroDatabase}.
+         *
+         * @return the new instance.
+         * @throws NullPointerException if no store was given.
+         * @throws IllegalArgumentException if the block hash length is not positive.
+         */
+        public KeyValueZeroDatabase build() {
+            return new KeyValueZeroDatabase(this.store, this.blockHashLength);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.exception.DatabaseError;
+
+/**
+ * An ordered key-value store, which is the small set of operations that {@link KeyValueZeroDatabase} needs from an
+ * embedded storage engine, so that a layer zero database can be run on any engine which provides them.
+ *
+ * Keys and values are arbitrary byte arrays, and keys are ordered by comparing their bytes as unsigned values, so that
+ * every key which begins with a given prefix is found in one contiguous range of the store. A store never keeps a
+ * reference to an array passed to it once a method returns, and never modifies one, and the arrays it returns are the
+ * caller's to keep.
+ *
+ * Any implementation must be thread-safe, and must apply each {@link KeyValueBatch} atomically: either every write in
+ * it is applied, or none is, and no reader ever sees part of it.
+ */
+public interface SortedKeyValueStore {
+
+    /**
+     * Returns the value stored under the specified key, or {@code null} if there is no such key.
+     *
+     * @param key The key to look up.
+     * @return the value or null if not found.
+     * @throws NullPointerException if key is null.
+     */
+    public byte[] get(byte[] key) throws DatabaseError;
+
+    /**
+     * Stores the specified value under the specified key, replacing any value already stored under it.
+     *
+     * @param key The key to store.
+     * @param value The value to store.
+     * @throws NullPointerException if key or value are null.
+     */
+    public void put(byte[] key, byte[] value) throws DatabaseError;
+
+    /**
+     * Removes the specified key and its value from the store, if it is there.
+     *
+     * @param key The key to remove.
+     * @throws NullPointerException if key is null.
+     */
+    public void delete(byte[] key) throws DatabaseError;
+
+    /**
+     * Hands every key which begins with the specified prefix, and its value, to the specified visitor, in ascending key
+     * order, until the visitor returns {@code false} or there are no more such keys. The visitor must not write to this
+     * store.
+     *
+     * @param prefix The prefix of the keys to visit.
+     * @param visitor The visitor to hand the keys and values to.
+     * @throws NullPointerException if prefix or visitor are null.
+     */
+    public void scan(byte[] prefix, KeyValueVisitor visitor) throws DatabaseError;
+
+    /**
+     * Applies every write in the specified batch, atomically.
+     *
+     * @param batch The batch to apply.
+     * @throws NullPointerException if batch is null.
+     */
+    public void write(KeyValueBatch batch) throws DatabaseError;
+}
@@ -0,0 +1,285 @@
+package net.nicknadeau.zero.storage.memory;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.ByteArrayMap;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link ZeroDatabase} which holds all of its blocks in memory, and so which is not durable.
+ *
+ * The blocks are kept in an open-addressing hash table keyed directly on their block hashes, so a lookup by hash never
+ * allocates. The blocks pending addition and pending deletion are also kept in their own tables, so that finding the
+ * pending blocks costs time proportional to the number of pending blocks rather than to the number of all blocks. Each
+ * saved block is copied, so the caller may freely modify a block after saving it.
+ *
+ * A {@link WriteBatch} is committed atomically: it is checked in full before any of it is applied, and it is applied
+ * under a single acquisition of the write lock, so no reader ever sees part of a batch.
+ *
+ * This class is thread-safe. Any number of threads may read from the database at once, while writes are exclusive.
+ */
+public final class InMemoryZeroDatabase implements ZeroDatabase {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ByteArrayMap<Entry> blocks;
+    private final ByteArrayMap<ImmutableBlock> pendingAdditions = new ByteArrayMap<>();
+    private final ByteArrayMap<ImmutableBlock> pendingDeletions = new ByteArrayMap<>();
+    private int genesisCount = 0;
+
+    /**
+     * Constructs a new empty database.
+     */
+    public InMemoryZeroDatabase() {
+        this(0);
+    }
+
+    /**
+     * Constructs a new empty database with room for the specified number of blocks before its table has to grow.
+     *
+     * @param expectedBlockCount The number of blocks the database is expected to hold.
+     * @throws IllegalArgumentException if expectedBlockCount is negative.
+     */
+    public InMemoryZeroDatabase(int expectedBlockCount) {
+        this.blocks = new ByteArrayMap<>(expectedBlockCount);
+    }
+
+    @Override
+    public boolean genesisBlockExists() {
+        this.lock.readLock().lock();
+        try {
+            return this.genesisCount > 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) {
+        if (blockHash == null) {
+            return false;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            return this.blocks.containsKey(blockHash);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) {
+        if (blockHash == null) {
+            return null;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            Entry entry = this.blocks.get(blockHash);
+            return (entry == null) ? null : entry.block;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+
+        this.lock.readLock().lock();
+        try {
+            switch (status) {
+                case PENDING_ADDITION: return new ArrayList<>(this.pendingAdditions.values());
+                case PENDING_DELETION: return new ArrayList<>(this.pendingDeletions.values());
+                default:
+                    List<Block> addedBlocks = new ArrayList<>(this.blocks.size() - this.pendingAdditions.size() - this.pendingDeletions.size());
+                    this.blocks.forEach((hash, entry) -> {
+                        if (entry.status == status) {
+                            addedBlocks.add(entry.block);
+                        }
+                    });
+                    return addedBlocks;
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        ImmutableBlock copy = ImmutableBlock.copyOf(block);
+
+        this.lock.writeLock().lock();
+        try {
+            Entry previous = this.blocks.put(copy.getBlockHash(), new Entry(copy, status));
+            if (previous != null) {
+                untrack(previous);
+            } else if (copy.getBlockNumber().signum() == 0) {
+                this.genesisCount++;
+            }
+            track(copy, status);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) {
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(status);
+
+        this.lock.writeLock().lock();
+        try {
+            Entry entry = this.blocks.get(blockHash);
+            if (entry == null) {
+                return false;
+            }
+            untrack(entry);
+            entry.status = status;
+            track(entry.block, status);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsPendingBlocks() {
+        this.lock.readLock().lock();
+        try {
+            return !this.pendingAdditions.isEmpty();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) {
+        if (blockHash == null) {
+            return true;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Entry entry = this.blocks.remove(blockHash);
+            if (entry != null) {
+                untrack(entry);
+                if (entry.block.getBlockNumber().signum() == 0) {
+                    this.genesisCount--;
+                }
+            }
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of blocks in this database.
+     *
+     * @return the number of blocks.
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.blocks.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Applies every one of the given operations, or none of them if any would fail, and returns the number applied.
+     */
+    private int applyBatch(List<WriteOperation> operations) {
+        List<ImmutableBlock> copies = new ArrayList<>(operations.size());
+        for (WriteOperation operation : operations) {
+            copies.add((operation.getType() == WriteOperation.Type.SAVE) ? ImmutableBlock.copyOf(operation.getBlock()) : null);
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            // Only a status update can fail, if its block neither exists nor is saved earlier in the batch.
+            ByteArrayMap<Boolean> existence = new ByteArrayMap<>();
+            for (WriteOperation operation : operations) {
+                byte[] blockHash = operation.getBlockHash();
+                if (operation.getType() == WriteOperation.Type.SAVE) {
+                    existence.put(blockHash, Boolean.TRUE);
+                } else if (operation.getType() == WriteOperation.Type.REMOVE) {
+                    existence.put(blockHash, Boolean.FALSE);
+                } else if (!(existence.containsKey(blockHash) ? existence.get(blockHash) : this.blocks.containsKey(blockHash))) {
+                    return 0;
+                }
+            }
+
+            // The write lock is reentrant, so the single-write methods apply each operation under this same acquisition.
+            for (int i = 0; i < operations.size(); i++) {
+                WriteOperation operation = operations.get(i);
+                switch (operation.getType()) {
+                    case SAVE: saveBlockAndStatus(copies.get(i), operation.getStatus()); break;
+                    case UPDATE_STATUS: updateBlockStatus(operation.getBlockHash(), operation.getStatus()); break;
+                    default: removeBlockByHash(operation.getBlockHash()); break;
+                }
+            }
+            return operations.size();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the given block to the status index of the given status.
+     */
+    private void track(ImmutableBlock block, BlockStatus status) {
+        if (status == BlockStatus.PENDING_ADDITION) {
+            this.pendingAdditions.put(block.getBlockHash(), block);
+        } else if (status == BlockStatus.PENDING_DELETION) {
+            this.pendingDeletions.put(block.getBlockHash(), block);
+        }
+    }
+
+    /**
+     * Removes the block of the given entry from the status index of its current status.
+     */
+    private void untrack(Entry entry) {
+        if (entry.status == BlockStatus.PENDING_ADDITION) {
+            this.pendingAdditions.remove(entry.block.getBlockHash());
+        } else if (entry.status == BlockStatus.PENDING_DELETION) {
+            this.pendingDeletions.remove(entry.block.getBlockHash());
+        }
+    }
+
+    private static final class Entry {
+        private final ImmutableBlock block;
+        private BlockStatus status;
+
+        private Entry(ImmutableBlock block, BlockStatus status) {
+            this.block = block;
+            this.status = status;
+        }
+    }
+}
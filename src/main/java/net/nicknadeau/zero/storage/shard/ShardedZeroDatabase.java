@@ -0,0 +1,469 @@
+package net.nicknadeau.zero.storage.shard;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.HashKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ZeroDatabase} which spreads its blocks over several other databases, its shards, so that writes are spread
+ * over as many disks as there are shards. Each shard is typically an
+ * {@link net.nicknadeau.zero.storage.file.AppendOnlyFileDatabase} in a directory on its own mount point.
+ *
+ * A block is kept in the shard chosen by the prefix of its hash: the first 4 bytes of the hash, read as an unsigned
+ * big-endian integer (padded with zeros if the hash is shorter), are split into as many equal ranges as there are
+ * shards. Block hashes are uniformly distributed, so every shard receives the same share of the blocks, and a lookup by
+ * hash only ever touches one shard.
+ *
+ * A {@link WriteBatch} is split into one batch per shard, holding the operations of that shard in their original order,
+ * and the batches of the different shards are committed in parallel. Since each block lives in only one shard, the
+ * operations on any one block are still applied in order. The batch is atomic within each shard if the shards commit
+ * their batches atomically, but not across shards: if the batch of one shard fails, then the batches of the other
+ * shards may still be applied, including operations which come after the failing one, as {@link WriteBatch} allows. The
+ * commit reports the number of operations before the first operation which was not applied, and so does not count the
+ * operations after it which were applied.
+ *
+ * The blocks with a pending status are indexed in memory, across all of the shards, so that
+ * {@link #containsPendingBlocks()} never touches a shard, and finding the pending blocks only looks up the blocks which
+ * are pending rather than querying every shard. The index is built from the shards when this database is built, and is
+ * updated after each write to a shard, under a lock for that shard, so that writes to different shards never wait for
+ * each other. Finding the blocks with status {@link BlockStatus#ADDED}, which are most of the blocks, queries every
+ * shard in parallel. The shards must therefore only ever be modified through this database.
+ *
+ * This class is thread-safe if the shards are. Reads never block. A reader may see the pending index and a shard at
+ * slightly different moments, and so may find a block under the status it has just left.
+ */
+public final class ShardedZeroDatabase implements ZeroDatabase, AutoCloseable {
+    private final List<ZeroDatabase> shards;
+    private final ReentrantLock[] writeLocks;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<HashKey, Boolean> pendingAdditions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<HashKey, Boolean> pendingDeletions = new ConcurrentHashMap<>();
+
+    private ShardedZeroDatabase(List<ZeroDatabase> shards) throws DatabaseError {
+        ArgChecker.assertNonNull(shards);
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard must be given.");
+        }
+        for (ZeroDatabase shard : shards) {
+            ArgChecker.assertNonNull(shard);
+        }
+        this.shards = new ArrayList<>(shards);
+        this.writeLocks = new ReentrantLock[shards.size()];
+        for (int i = 0; i < this.writeLocks.length; i++) {
+            this.writeLocks[i] = new ReentrantLock();
+        }
+
+        for (ZeroDatabase shard : this.shards) {
+            for (BlockHeader header : shard.findBlockHeadersByStatus(BlockStatus.PENDING_ADDITION)) {
+                this.pendingAdditions.put(HashKey.wrap(header.getBlockHash().clone()), Boolean.TRUE);
+            }
+            for (BlockHeader header : shard.findBlockHeadersByStatus(BlockStatus.PENDING_DELETION)) {
+                this.pendingDeletions.put(HashKey.wrap(header.getBlockHash().clone()), Boolean.TRUE);
+            }
+        }
+
+        this.executor = Executors.newFixedThreadPool(this.shards.size(), (runnable) -> {
+            Thread thread = new Thread(runnable, "zero-sharded-database-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        for (ZeroDatabase shard : this.shards) {
+            if (shard.genesisBlockExists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        return (blockHash != null) && shardFor(blockHash).blockExists(blockHash);
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        return (blockHash == null) ? null : shardFor(blockHash).findBlockByHash(blockHash);
+    }
+
+    @Override
+    public BlockHeader findBlockHeaderByHash(byte[] blockHash) throws DatabaseError {
+        return (blockHash == null) ? null : shardFor(blockHash).findBlockHeaderByHash(blockHash);
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+        if (status == BlockStatus.ADDED) {
+            return fanOut((shard) -> shard.findBlocksByStatus(status));
+        }
+
+        List<Block> blocks = new ArrayList<>();
+        for (HashKey key : pendingIndexOf(status).keySet()) {
+            Block block = shardFor(key.getHash()).findBlockByHash(key.getHash());
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    @Override
+    public Collection<BlockHeader> findBlockHeadersByStatus(BlockStatus status) throws DatabaseError {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+        if (status == BlockStatus.ADDED) {
+            return fanOut((shard) -> shard.findBlockHeadersByStatus(status));
+        }
+
+        List<BlockHeader> headers = new ArrayList<>();
+        for (HashKey key : pendingIndexOf(status).keySet()) {
+            BlockHeader header = shardFor(key.getHash()).findBlockHeaderByHash(key.getHash());
+            if (header != null) {
+                headers.add(header);
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+        byte[] blockHash = block.getBlockHash().clone();
+        int shard = shardOf(blockHash);
+
+        this.writeLocks[shard].lock();
+        try {
+            boolean isSaved = this.shards.get(shard).saveBlockAndStatus(block, status);
+            if (isSaved) {
+                index(blockHash, status);
+            }
+            return isSaved;
+        } finally {
+            this.writeLocks[shard].unlock();
+        }
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(status);
+        int shard = shardOf(blockHash);
+
+        this.writeLocks[shard].lock();
+        try {
+            boolean isUpdated = this.shards.get(shard).updateBlockStatus(blockHash, status);
+            if (isUpdated) {
+                index(blockHash.clone(), status);
+            }
+            return isUpdated;
+        } finally {
+            this.writeLocks[shard].unlock();
+        }
+    }
+
+    @Override
+    public boolean containsPendingBlocks() {
+        return !this.pendingAdditions.isEmpty();
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return true;
+        }
+        int shard = shardOf(blockHash);
+
+        this.writeLocks[shard].lock();
+        try {
+            boolean isRemoved = this.shards.get(shard).removeBlockByHash(blockHash);
+            if (isRemoved) {
+                unindex(blockHash);
+            }
+            return isRemoved;
+        } finally {
+            this.writeLocks[shard].unlock();
+        }
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return the number of shards.
+     */
+    public int getShardCount() {
+        return this.shards.size();
+    }
+
+    /**
+     * Stops the threads which commit the batches of the shards. The shards are NOT closed. Closing a closed database does
+     * nothing, and no method other than this one may be invoked on a closed database.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Returns the index of the shard which holds the block with the specified hash.
+     */
+    int shardOf(byte[] blockHash) {
+        long prefix = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            prefix = (prefix << 8) | ((i < blockHash.length) ? Byte.toUnsignedInt(blockHash[i]) : 0);
+        }
+        return (int) ((prefix * this.shards.size()) >>> (8 * Integer.BYTES));
+    }
+
+    /**
+     * Splits the given operations into one batch per shard and commits the batches in parallel, updating the pending
+     * index for each shard under the lock of that shard, and returns the number of operations before the first one
+     * which was not applied.
+     */
+    private int applyBatch(List<WriteOperation> operations) throws DatabaseError {
+        List<List<Integer>> positionsByShard = new ArrayList<>(this.shards.size());
+        for (int i = 0; i < this.shards.size(); i++) {
+            positionsByShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            positionsByShard.get(shardOf(operations.get(i).getBlockHash())).add(i);
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < this.shards.size(); i++) {
+            int shard = i;
+            List<Integer> positions = positionsByShard.get(shard);
+            if (!positions.isEmpty()) {
+                tasks.add(() -> applyToShard(shard, operations, positions));
+            }
+        }
+
+        int appliedCount = operations.size();
+        for (int firstUnapplied : runAll(tasks)) {
+            appliedCount = Math.min(appliedCount, firstUnapplied);
+        }
+        return appliedCount;
+    }
+
+    /**
+     * Commits the operations at the specified positions, which all belong to the specified shard, as one batch of that
+     * shard, and indexes every one of them which was applied. Returns the position of the first operation which was not
+     * applied, or the number of operations if they all were.
+     */
+    private int applyToShard(int shard, List<WriteOperation> operations, List<Integer> positions) throws DatabaseError {
+        List<WriteOperation> shardOperations = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            shardOperations.add(operations.get(position));
+        }
+
+        this.writeLocks[shard].lock();
+        try {
+            int appliedCount = this.shards.get(shard).newWriteBatch().addAll(shardOperations).commit();
+            for (WriteOperation operation : shardOperations.subList(0, appliedCount)) {
+                if (operation.getType() == WriteOperation.Type.REMOVE) {
+                    unindex(operation.getBlockHash());
+                } else {
+                    index(operation.getBlockHash().clone(), operation.getStatus());
+                }
+            }
+            return (appliedCount == positions.size()) ? operations.size() : positions.get(appliedCount);
+        } finally {
+            this.writeLocks[shard].unlock();
+        }
+    }
+
+    /**
+     * Returns the results of the specified query of every shard, which are queried in parallel.
+     */
+    private <T> List<T> fanOut(ShardQuery<T> query) throws DatabaseError {
+        List<Callable<Collection<T>>> tasks = new ArrayList<>(this.shards.size());
+        for (ZeroDatabase shard : this.shards) {
+            tasks.add(() -> query.run(shard));
+        }
+
+        List<T> results = new ArrayList<>();
+        for (Collection<T> shardResults : runAll(tasks)) {
+            results.addAll(shardResults);
+        }
+        return results;
+    }
+
+    /**
+     * Runs the specified tasks, in parallel if there is more than one, and returns their results in order, or throws the
+     * failure of the first task which failed once every task has finished.
+     */
+    private <T> List<T> runAll(List<Callable<T>> tasks) throws DatabaseError {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (tasks.size() == 1) {
+            results.add(call(tasks.get(0)));
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(this.executor.submit(task));
+        }
+        Throwable failure = null;
+        boolean isInterrupted = false;
+        for (Future<T> future : futures) {
+            while (true) {
+                try {
+                    results.add(future.get());
+                    break;
+                } catch (ExecutionException e) {
+                    failure = (failure == null) ? e.getCause() : failure;
+                    break;
+                } catch (InterruptedException e) {
+                    // The other tasks must finish before returning, or they would still be applying writes.
+                    isInterrupted = true;
+                }
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure instanceof DatabaseError) {
+            throw (DatabaseError) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new DatabaseError(failure);
+        }
+        return results;
+    }
+
+    private static <T> T call(Callable<T> task) throws DatabaseError {
+        try {
+            return task.call();
+        } catch (DatabaseError | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DatabaseError(e);
+        }
+    }
+
+    /**
+     * Records the specified status as the status of the block with the specified hash in the pending index.
+     *
+     * ASSUMPTION: The write lock of the block's shard is held.
+     */
+    private void index(byte[] blockHash, BlockStatus status) {
+        HashKey key = HashKey.wrap(blockHash);
+        if (status == BlockStatus.PENDING_ADDITION) {
+            this.pendingAdditions.put(key, Boolean.TRUE);
+            this.pendingDeletions.remove(key);
+        } else if (status == BlockStatus.PENDING_DELETION) {
+            this.pendingDeletions.put(key, Boolean.TRUE);
+            this.pendingAdditions.remove(key);
+        } else {
+            unindex(blockHash);
+        }
+    }
+
+    /**
+     * Removes the block with the specified hash from the pending index.
+     *
+     * ASSUMPTION: The write lock of the block's shard is held.
+     */
+    private void unindex(byte[] blockHash) {
+        HashKey key = HashKey.wrap(blockHash);
+        this.pendingAdditions.remove(key);
+        this.pendingDeletions.remove(key);
+    }
+
+    private ConcurrentHashMap<HashKey, Boolean> pendingIndexOf(BlockStatus status) {
+        return (status == BlockStatus.PENDING_ADDITION) ? this.pendingAdditions : this.pendingDeletions;
+    }
+
+    private ZeroDatabase shardFor(byte[] blockHash) {
+        return this.shards.get(shardOf(blockHash));
+    }
+
+    @FunctionalInterface
+    private interface ShardQuery<T> {
+        Collection<T> run(ZeroDatabase shard) throws DatabaseError;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A builder which constructs new instances of {@link ShardedZeroDatabase}.
+     */
+    public static final class Builder {
+        private final List<ZeroDatabase> shards = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Returns a new builder instance.
+         *
+         * @return the new builder.
+         */
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        /**
+         * Adds the specified database as the next shard. The order of the shards decides which blocks each one holds, so
+         * a database must always be built with the same shards in the same order.
+         *
+         * @param shard The database to add as a shard.
+         * @return this builder.
+         */
+        public Builder withShard(ZeroDatabase shard) {
+            this.shards.add(shard);
+            return this;
+        }
+
+        /**
+         * Returns a newly constructed instance of {@link ShardedZeroDatabase}, which first indexes the pending blocks of
+         * every shard.
+         *
+         * @return the new instance.
+         * @throws NullPointerException if any shard is null.
+         * @throws IllegalArgumentException if no shard was given.
+         * @throws DatabaseError if the pending blocks of a shard could not be found.
+         */
+        public ShardedZeroDatabase build() throws DatabaseError {
+            return new ShardedZeroDatabase(this.shards);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package net.nicknadeau.zero.storage.tier;
+
+/**
+ * An immutable snapshot of the metrics of one tier of a {@link TieredZeroDatabase}.
+ *
+ * A lookup is answered by the first tier which holds the block, so the hits of the two tiers show how well the hot tier
+ * is absorbing the reads. Blocks move out of the hot tier once they are deep enough, after which they are served by the
+ * cold tier alone, and back into the hot tier if they become pending again, so every block moved out of one tier is
+ * moved into the other. The cold tier always holds a copy of every block, so a move never writes to it.
+ */
+public final class TierStats {
+    private final long hitCount;
+    private final long movedInCount;
+    private final long movedOutCount;
+
+    TierStats(long hitCount, long movedInCount, long movedOutCount) {
+        this.hitCount = hitCount;
+        this.movedInCount = movedInCount;
+        this.movedOutCount = movedOutCount;
+    }
+
+    /**
+     * Returns the total number of lookups by hash which were answered by this tier.
+     *
+     * @return the total number of hits.
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the total number of blocks which have been moved into this tier from the other tier.
+     *
+     * @return the total number of blocks moved in.
+     */
+    public long getMovedInCount() {
+        return this.movedInCount;
+    }
+
+    /**
+     * Returns the total number of blocks which have been moved out of this tier into the other tier.
+     *
+     * @return the total number of blocks moved out.
+     */
+    public long getMovedOutCount() {
+        return this.movedOutCount;
+    }
+
+    @Override
+    public String toString() {
+        return TierStats.class.getSimpleName()
+                + "{ hits=" + this.hitCount
+                + ", movedIn=" + this.movedInCount
+                + ", movedOut=" + this.movedOutCount
+                + " }";
+    }
+}
@@ -0,0 +1,644 @@
+package net.nicknadeau.zero.storage.tier;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase;
+import net.nicknadeau.zero.util.internal.ArgChecker;
+import net.nicknadeau.zero.util.internal.ByteArrayMap;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link ZeroDatabase} which keeps its blocks in two tiers: a hot tier in memory, which holds the most recent blocks
+ * and every block whose status is pending, and a cold tier, which is another database holding every block. Reads
+ * concentrate on the most recent blocks, so most lookups are answered from memory, while the chain as a whole may be far
+ * larger than memory. The cold tier is meant to be an {@link net.nicknadeau.zero.storage.file.AppendOnlyFileDatabase},
+ * whose segments are memory-mapped, but it may be any database.
+ *
+ * The cold tier is the durable record of the blocks, and the hot tier is only a fast path for reads. Every write goes
+ * through to the cold tier first, and is only applied to the hot tier once the cold tier has applied it, so that a crash
+ * never loses a write which was acknowledged, and in particular never loses the pending statuses which
+ * {@link net.nicknadeau.zero.blockchain.ZeroBlockchain} recovers from. A {@link WriteBatch} is committed through a batch
+ * of the cold tier, and so is atomic if the batches of the cold tier are.
+ *
+ * Every block which is written is kept in the hot tier. A block with status {@link BlockStatus#ADDED} is moved out of
+ * the hot tier, so that it is served by the cold tier alone, once it is more than the depth threshold below the highest
+ * added block in the hot tier. The move is made by a background mover, in chunks, each of which briefly locks this
+ * database. A block in the cold tier whose status is set to a pending status is moved back into the hot tier, as is
+ * every pending block found in the cold tier when this database is built, so that the pending blocks can always be
+ * found without touching the cold tier.
+ *
+ * Lookups are transparent: a block is looked for in the hot tier and then in the cold tier. The hits of each tier, and
+ * the blocks moved between them, are counted in a {@link TierStats} for each tier. The cold tier must only ever be
+ * modified through this database.
+ *
+ * This class is thread-safe if the cold tier is. Any number of threads may read from the database at once, while writes
+ * are exclusive. A {@link WriteBatch} is applied under a single acquisition of the lock, so no reader ever sees part of
+ * a batch.
+ */
+public final class TieredZeroDatabase implements ZeroDatabase, AutoCloseable {
+    /**
+     * The default depth below the highest added block beyond which blocks are moved out of the hot tier.
+     */
+    public static final int DEFAULT_DEPTH_THRESHOLD = 4096;
+
+    /**
+     * The default time between two runs of the background mover.
+     */
+    public static final Duration DEFAULT_MOVE_INTERVAL = Duration.ofSeconds(1);
+
+    /**
+     * The number of blocks which are moved out of the hot tier under each acquisition of the lock.
+     */
+    private static final int MOVE_CHUNK_SIZE = 256;
+
+    private final InMemoryZeroDatabase hot = new InMemoryZeroDatabase();
+    private final ZeroDatabase cold;
+    private final int depthThreshold;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock moveLock = new ReentrantLock();
+    private final ScheduledExecutorService mover;
+    private final LongAdder hotHitCount = new LongAdder();
+    private final LongAdder coldHitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder demotedCount = new LongAdder();
+    private final LongAdder promotedCount = new LongAdder();
+    private final LongAdder failedMoveCount = new LongAdder();
+    private ByteArrayMap<Boolean> writtenDuringMove = null;
+
+    private TieredZeroDatabase(ZeroDatabase cold, int depthThreshold, Duration moveInterval) throws DatabaseError {
+        ArgChecker.assertNonNull(cold);
+        ArgChecker.assertGreaterOrEqualTo(depthThreshold, 0);
+        if ((moveInterval != null) && (moveInterval.isNegative() || moveInterval.isZero())) {
+            throw new IllegalArgumentException("The move interval must be positive, but was " + moveInterval);
+        }
+        this.cold = cold;
+        this.depthThreshold = depthThreshold;
+        promotePendingBlocks();
+
+        if (moveInterval == null) {
+            this.mover = null;
+        } else {
+            this.mover = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "zero-tiered-database-mover");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long nanos = moveInterval.toNanos();
+            this.mover.scheduleWithFixedDelay(this::demotePeriodically, nanos, nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        this.lock.readLock().lock();
+        try {
+            return this.hot.genesisBlockExists() || this.cold.genesisBlockExists();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return false;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            if (this.hot.blockExists(blockHash)) {
+                this.hotHitCount.increment();
+                return true;
+            }
+            return countColdLookup(this.cold.blockExists(blockHash));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return null;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            Block block = this.hot.findBlockByHash(blockHash);
+            if (block != null) {
+                this.hotHitCount.increment();
+                return block;
+            }
+            block = this.cold.findBlockByHash(blockHash);
+            countColdLookup(block != null);
+            return block;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public BlockHeader findBlockHeaderByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return null;
+        }
+
+        this.lock.readLock().lock();
+        try {
+            BlockHeader header = this.hot.findBlockHeaderByHash(blockHash);
+            if (header != null) {
+                this.hotHitCount.increment();
+                return header;
+            }
+            header = this.cold.findBlockHeaderByHash(blockHash);
+            countColdLookup(header != null);
+            return header;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+
+        // Every pending block is in the hot tier, while the added blocks are only all found in the cold tier.
+        this.lock.readLock().lock();
+        try {
+            return (status == BlockStatus.ADDED) ? this.cold.findBlocksByStatus(status) : this.hot.findBlocksByStatus(status);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Collection<BlockHeader> findBlockHeadersByStatus(BlockStatus status) throws DatabaseError {
+        if (status == null) {
+            return Collections.emptyList();
+        }
+
+        this.lock.readLock().lock();
+        try {
+            return (status == BlockStatus.ADDED) ? this.cold.findBlockHeadersByStatus(status) : this.hot.findBlockHeadersByStatus(status);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(status);
+
+        this.lock.writeLock().lock();
+        try {
+            byte[] blockHash = block.getBlockHash().clone();
+            boolean isSaved;
+            try {
+                isSaved = this.cold.saveBlockAndStatus(block, status);
+            } catch (DatabaseError e) {
+                resynchronize(Collections.singletonList(blockHash));
+                throw e;
+            }
+            if (isSaved) {
+                markWritten(blockHash);
+                this.hot.saveBlockAndStatus(block, status);
+            }
+            return isSaved;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(status);
+
+        this.lock.writeLock().lock();
+        try {
+            boolean isUpdated;
+            try {
+                isUpdated = this.cold.updateBlockStatus(blockHash, status);
+            } catch (DatabaseError e) {
+                resynchronize(Collections.singletonList(blockHash));
+                throw e;
+            }
+            if (isUpdated) {
+                mirrorStatusUpdate(blockHash, status);
+            }
+            return isUpdated;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsPendingBlocks() {
+        return this.hot.containsPendingBlocks();
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        if (blockHash == null) {
+            return true;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            boolean isRemoved;
+            try {
+                isRemoved = this.cold.removeBlockByHash(blockHash);
+            } catch (DatabaseError e) {
+                resynchronize(Collections.singletonList(blockHash));
+                throw e;
+            }
+            if (isRemoved) {
+                markWritten(blockHash);
+                this.hot.removeBlockByHash(blockHash);
+            }
+            return isRemoved;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                return applyBatch(operations);
+            }
+        };
+    }
+
+    /**
+     * Moves every block with status {@link BlockStatus#ADDED} which is more than the depth threshold below the highest
+     * added block in the hot tier out of the hot tier, and returns the number of blocks moved. The blocks are already in
+     * the cold tier, so nothing is written. This is what the background mover runs, but it may also be invoked
+     * directly, for instance when the mover is disabled. Only one move runs at a time, and a move does not keep writes
+     * waiting other than while each chunk is removed from the hot tier.
+     *
+     * @return the number of blocks moved out of the hot tier.
+     * @throws DatabaseError if the deep blocks could not be found.
+     */
+    public int demote() throws DatabaseError {
+        this.moveLock.lock();
+        try {
+            setWrittenDuringMove(new ByteArrayMap<>());
+            try {
+                List<byte[]> blockHashes = findDeepBlocks();
+                int movedCount = 0;
+                for (int from = 0; from < blockHashes.size(); from += MOVE_CHUNK_SIZE) {
+                    movedCount += demote(blockHashes.subList(from, Math.min(blockHashes.size(), from + MOVE_CHUNK_SIZE)));
+                }
+                return movedCount;
+            } finally {
+                setWrittenDuringMove(null);
+            }
+        } finally {
+            this.moveLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the metrics of the hot tier.
+     *
+     * @return the hot tier metrics.
+     */
+    public TierStats getHotTierStats() {
+        long demoted = this.demotedCount.sum();
+        long promoted = this.promotedCount.sum();
+        return new TierStats(this.hotHitCount.sum(), promoted, demoted);
+    }
+
+    /**
+     * Returns the metrics of the cold tier.
+     *
+     * @return the cold tier metrics.
+     */
+    public TierStats getColdTierStats() {
+        long demoted = this.demotedCount.sum();
+        long promoted = this.promotedCount.sum();
+        return new TierStats(this.coldHitCount.sum(), demoted, promoted);
+    }
+
+    /**
+     * Returns the number of lookups by hash which found the block in neither tier.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    /**
+     * Returns the number of background mover runs which failed. A failed run leaves the blocks it did not move in the
+     * hot tier, and they are simply moved on the next run.
+     *
+     * @return the failed run count.
+     */
+    public long getFailedMoveCount() {
+        return this.failedMoveCount.sum();
+    }
+
+    /**
+     * Returns the number of blocks in the hot tier.
+     *
+     * @return the number of hot blocks.
+     */
+    public int getHotBlockCount() {
+        return this.hot.size();
+    }
+
+    /**
+     * Stops the background mover, waiting for a move which is running to finish. Every write has already gone through
+     * to the cold tier, so nothing needs to be written, and the cold tier is NOT closed. Closing a closed database does
+     * nothing.
+     */
+    @Override
+    public void close() {
+        if (this.mover != null) {
+            this.mover.shutdownNow();
+            try {
+                this.mover.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Commits the given operations through a single batch of the cold tier, under a single acquisition of the write
+     * lock, and then applies the operations which the cold tier applied to the hot tier, resynchronizing the blocks of
+     * any operation after those. Returns the number of operations at the front of the list which were applied.
+     */
+    private int applyBatch(List<WriteOperation> operations) throws DatabaseError {
+        this.lock.writeLock().lock();
+        try {
+            int appliedCount;
+            try {
+                appliedCount = this.cold.newWriteBatch().addAll(operations).commit();
+            } catch (DatabaseError e) {
+                resynchronize(hashesOf(operations));
+                throw e;
+            }
+
+            for (WriteOperation operation : operations.subList(0, appliedCount)) {
+                byte[] blockHash = operation.getBlockHash();
+                switch (operation.getType()) {
+                    case SAVE:
+                        markWritten(blockHash);
+                        this.hot.saveBlockAndStatus(operation.getBlock(), operation.getStatus());
+                        break;
+                    case UPDATE_STATUS:
+                        mirrorStatusUpdate(blockHash, operation.getStatus());
+                        break;
+                    default:
+                        markWritten(blockHash);
+                        this.hot.removeBlockByHash(blockHash);
+                        break;
+                }
+            }
+            if (appliedCount < operations.size()) {
+                // A batch which is not atomic across its stores may apply operations after the first failing one.
+                resynchronize(hashesOf(operations.subList(appliedCount, operations.size())));
+            }
+            return appliedCount;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void demotePeriodically() {
+        try {
+            demote();
+        } catch (DatabaseError | RuntimeException e) {
+            this.failedMoveCount.increment();
+        }
+    }
+
+    /**
+     * Returns the hashes of the blocks in the hot tier with status {@link BlockStatus#ADDED} which are more than the
+     * depth threshold below the highest of them.
+     */
+    private List<byte[]> findDeepBlocks() throws DatabaseError {
+        Collection<BlockHeader> headers = this.hot.findBlockHeadersByStatus(BlockStatus.ADDED);
+        BigInteger highest = BigInteger.ZERO;
+        for (BlockHeader header : headers) {
+            highest = highest.max(header.getBlockNumber());
+        }
+
+        BigInteger limit = highest.subtract(BigInteger.valueOf(this.depthThreshold));
+        List<byte[]> blockHashes = new ArrayList<>();
+        for (BlockHeader header : headers) {
+            if (header.getBlockNumber().compareTo(limit) < 0) {
+                blockHashes.add(header.getBlockHash());
+            }
+        }
+        return blockHashes;
+    }
+
+    /**
+     * Removes the blocks with the specified hashes from the hot tier, under the write lock, unless they were written
+     * since the move began, in which case they may no longer be added, and so stay in the hot tier. Returns the number
+     * of blocks moved.
+     */
+    private int demote(List<byte[]> blockHashes) {
+        this.lock.writeLock().lock();
+        try {
+            int movedCount = 0;
+            for (byte[] blockHash : blockHashes) {
+                if (!this.writtenDuringMove.containsKey(blockHash) && this.hot.blockExists(blockHash)) {
+                    this.hot.removeBlockByHash(blockHash);
+                    movedCount++;
+                }
+            }
+            this.demotedCount.add(movedCount);
+            return movedCount;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies an update of the status of the block with the specified hash, which the cold tier has already applied, to
+     * the hot tier. A block which is only in the cold tier is moved into the hot tier if its new status is pending.
+     *
+     * ASSUMPTION: The write lock is held.
+     */
+    private void mirrorStatusUpdate(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        markWritten(blockHash);
+        if (this.hot.blockExists(blockHash)) {
+            this.hot.updateBlockStatus(blockHash, status);
+        } else if (status != BlockStatus.ADDED) {
+            Block block = this.cold.findBlockByHash(blockHash);
+            if (block != null) {
+                this.hot.saveBlockAndStatus(block, status);
+                this.promotedCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Brings the hot tier back in line with the cold tier after a write to the cold tier failed, when it is not known
+     * whether the write was applied. The blocks with the specified hashes are dropped from the hot tier, which is always
+     * safe since the cold tier holds every block, and then every pending block of the cold tier which is not in the hot
+     * tier is moved into it.
+     *
+     * ASSUMPTION: The write lock is held.
+     */
+    private void resynchronize(List<byte[]> blockHashes) throws DatabaseError {
+        for (byte[] blockHash : blockHashes) {
+            markWritten(blockHash);
+            this.hot.removeBlockByHash(blockHash);
+        }
+        promotePendingBlocks();
+    }
+
+    private static List<byte[]> hashesOf(List<WriteOperation> operations) {
+        List<byte[]> blockHashes = new ArrayList<>(operations.size());
+        for (WriteOperation operation : operations) {
+            blockHashes.add(operation.getBlockHash());
+        }
+        return blockHashes;
+    }
+
+    /**
+     * Copies every pending block of the cold tier which is not yet in the hot tier into the hot tier.
+     */
+    private void promotePendingBlocks() throws DatabaseError {
+        for (BlockStatus status : new BlockStatus[]{ BlockStatus.PENDING_ADDITION, BlockStatus.PENDING_DELETION }) {
+            for (Block block : this.cold.findBlocksByStatus(status)) {
+                if (!this.hot.blockExists(block.getBlockHash())) {
+                    this.hot.saveBlockAndStatus(block, status);
+                    this.promotedCount.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the block with the specified hash as written, if a move is running.
+     *
+     * ASSUMPTION: The write lock is held.
+     */
+    private void markWritten(byte[] blockHash) {
+        if (this.writtenDuringMove != null) {
+            this.writtenDuringMove.put(blockHash.clone(), Boolean.TRUE);
+        }
+    }
+
+    private void setWrittenDuringMove(ByteArrayMap<Boolean> writtenDuringMove) {
+        this.lock.writeLock().lock();
+        try {
+            this.writtenDuringMove = writtenDuringMove;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Counts a lookup which missed the hot tier as a hit of the cold tier if the block was found, and otherwise as a
+     * miss, and returns whether it was found.
+     */
+    private boolean countColdLookup(boolean isFound) {
+        if (isFound) {
+            this.coldHitCount.increment();
+        } else {
+            this.missCount.increment();
+        }
+        return isFound;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * A builder which constructs new instances of {@link TieredZeroDatabase}.
+     */
+    public static final class Builder {
+        private ZeroDatabase coldDatabase;
+        private int depthThreshold = DEFAULT_DEPTH_THRESHOLD;
+        private Duration moveInterval = DEFAULT_MOVE_INTERVAL;
+
+        private Builder() {}
+
+        /**
+         * Returns a new builder instance.
+         *
+         * @return the new builder.
+         */
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        /**
+         * Uses the specified database as the cold tier, which durably holds every block.
+         *
+         * @param coldDatabase The database of the cold tier.
+         * @return this builder.
+         */
+        public Builder withColdDatabase(ZeroDatabase coldDatabase) {
+            this.coldDatabase = coldDatabase;
+            return this;
+        }
+
+        /**
+         * Keeps every added block which is no more than the specified depth, which must not be negative, below the
+         * highest added block in the hot tier. If no threshold is given, then {@link #DEFAULT_DEPTH_THRESHOLD} is used.
+         *
+         * @param depthThreshold The depth threshold in blocks.
+         * @return this builder.
+         */
+        public Builder withDepthThreshold(int depthThreshold) {
+            this.depthThreshold = depthThreshold;
+            return this;
+        }
+
+        /**
+         * Runs the background mover with the specified time between runs, which must be positive. A null interval
+         * disables the background mover, so that blocks are only moved to the cold tier by
+         * {@link TieredZeroDatabase#demote()}. If no interval is given, then {@link #DEFAULT_MOVE_INTERVAL} is used.
+         *
+         * @param moveInterval The time between two runs of the mover.
+         * @return this builder.
+         */
+        public Builder withMoveInterval(Duration moveInterval) {
+            this.moveInterval = moveInterval;
+            return this;
+        }
+
+        /**
+         * Returns a newly constructed instance of {@link TieredZeroDatabase}, which first copies every pending block
+         * in the cold tier into the hot tier.
+         *
+         * @return the new instance.
+         * @throws NullPointerException if no cold database was given.
+         * @throws IllegalArgumentException if the depth threshold is negative or the move interval is not positive.
+         * @throws DatabaseError if the pending blocks could not be read from the cold tier.
+         */
+        public TieredZeroDatabase build() throws DatabaseError {
+            return new TieredZeroDatabase(this.coldDatabase, this.depthThreshold, this.moveInterval);
+        }
+    }
+}
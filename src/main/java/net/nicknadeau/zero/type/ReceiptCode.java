@@ -15,6 +15,12 @@ public enum ReceiptCode {
      */
     , DOES_NOT_EXIST
 
+    /*
+     * The action was deferred because the block's parent does not exist yet. The block is being held, and it will be
+     * added automatically once its parent is added.
+     */
+    , ORPHANED
+
     /*
      * The action could not be performed because some resource which should not exist does exist.
      */
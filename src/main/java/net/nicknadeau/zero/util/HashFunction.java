@@ -2,6 +2,8 @@ package net.nicknadeau.zero.util;
 
 /**
  * A hash function.
+ *
+ * Implementations must be thread-safe, since blocks are validated by many threads in parallel.
  */
 @FunctionalInterface
 public interface HashFunction {
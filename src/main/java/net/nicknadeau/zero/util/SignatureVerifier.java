@@ -3,6 +3,8 @@ package net.nicknadeau.zero.util;
 /**
  * A verification function that is used to determine whether or not a cryptographic signature was correctly obtained
  * for some public-private key pair and a payload.
+ *
+ * Implementations must be thread-safe, since blocks are validated by many threads in parallel.
  */
 @FunctionalInterface
 public interface SignatureVerifier {
@@ -55,4 +55,17 @@ public final class ArgChecker {
             throw new IllegalArgumentException("value " + value + " must be greater or equal to " + threshold);
         }
     }
+
+    /**
+     * Throws {@link IllegalArgumentException} if {@code value} is less than {@code threshold}.
+     *
+     * @param value The value to test.
+     * @param threshold The threshold, which value must be greater or equal to.
+     * @throws IllegalArgumentException if value is less than threshold.
+     */
+    public static void assertGreaterOrEqualTo(long value, long threshold) {
+        if (value < threshold) {
+            throw new IllegalArgumentException("value " + value + " must be greater or equal to " + threshold);
+        }
+    }
 }
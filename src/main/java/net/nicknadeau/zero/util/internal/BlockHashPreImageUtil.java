@@ -1,6 +1,9 @@
 package net.nicknadeau.zero.util.internal;
 
+import net.nicknadeau.zero.block.EncodedBlock;
+
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -76,6 +79,41 @@ public final class BlockHashPreImageUtil {
         return bytes;
     }
 
+    /**
+     * Returns the block hash pre-image for the specified encoded block, which is built straight from the slices of its
+     * encoding, so that its attributes are never copied out into arrays of their own.
+     *
+     * @param block The encoded block.
+     * @return the pre-image.
+     */
+    public static byte[] createPreImage(EncodedBlock block) {
+        ArgChecker.assertNonNull(block);
+
+        ByteBuffer producerPublicKey = block.getBlockProducerPublicKeyBuffer();
+        ByteBuffer blockData = block.getBlockDataBuffer();
+        ByteBuffer parentBlockHash = block.getParentBlockHashBuffer();
+        if (parentBlockHash == null) {
+            ByteBuffer bytes = ByteBuffer.allocate(4 + producerPublicKey.remaining() + blockData.remaining());
+            bytes.putInt(block.getLayerZeroMajorVersion());
+            bytes.put(producerPublicKey);
+            bytes.put(blockData);
+            return bytes.array();
+        }
+
+        // As for createNonGenesisPreImage, the block number is written unsigned, so a leading sign byte is chopped. The
+        // codec only accepts numbers in their minimal form, so there is never more than one such byte.
+        ByteBuffer bigEndianBlockNumber = block.getBlockNumberBuffer();
+        if ((bigEndianBlockNumber.remaining() > 1) && (bigEndianBlockNumber.get(0) == 0x0)) {
+            bigEndianBlockNumber.position(1);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(bigEndianBlockNumber.remaining() + producerPublicKey.remaining() + parentBlockHash.remaining() + blockData.remaining());
+        bytes.put(bigEndianBlockNumber);
+        bytes.put(producerPublicKey);
+        bytes.put(parentBlockHash);
+        bytes.put(blockData);
+        return bytes.array();
+    }
+
     /**
      * Writes the big-endian unsigned integer value of {@code value} into {@code bytes} at the given offset into the
      * bytes array.
@@ -2,6 +2,8 @@ package net.nicknadeau.zero.util.internal;
 
 import net.nicknadeau.zero.ZeroVersion;
 import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+import net.nicknadeau.zero.block.EncodedBlock;
 import net.nicknadeau.zero.exception.RuntimeAssertionError;
 import net.nicknadeau.zero.storage.ZeroDatabase;
 import net.nicknadeau.zero.type.Receipt;
@@ -11,6 +13,11 @@ import net.nicknadeau.zero.util.SignatureVerifier;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * The validation class that performs block validation checks for layer zero.
@@ -18,6 +25,11 @@ import java.util.Arrays;
  * Note that this validator will NOT run the layer one block validation checks.
  */
 public final class BlockValidator {
+    /**
+     * The number of blocks below which a batch is no longer split up when its stateless checks are run in parallel.
+     * A single signature verification is expensive enough that even a small run of blocks is worth a task of its own.
+     */
+    private static final int PARALLEL_VALIDATION_THRESHOLD = 4;
 
     /**
      * Validates the given {@code block} and returns a receipt which will have code
@@ -41,9 +53,61 @@ public final class BlockValidator {
      * @return the receipt of the validation action.
      */
     public static Receipt runLayerZeroValidation(Block block, ZeroDatabase database, HashFunction hashFunction, SignatureVerifier signatureVerifier) {
+        return runLayerZeroValidation(block, database, hashFunction, signatureVerifier, Collections.emptyMap());
+    }
+
+    /**
+     * Validates the given {@code block} exactly as {@link BlockValidator#runLayerZeroValidation(Block, ZeroDatabase, HashFunction, SignatureVerifier)}
+     * does, except that the blocks in {@code batchBlocks} are treated as though they already exist in the database.
+     *
+     * This is used when validating a parent-ordered batch of blocks, so that a block whose parent is earlier in the same
+     * batch (and which has itself passed validation) passes the parent check without a database lookup, and so that a
+     * block which is duplicated within the batch is rejected.
+     *
+     * @param block The block to validate.
+     * @param database The database backing the blockchain.
+     * @param hashFunction The hash function.
+     * @param signatureVerifier The signature verification function.
+     * @param batchBlocks The validated blocks earlier in the same batch, keyed by their block hashes.
+     * @return the receipt of the validation action.
+     */
+    public static Receipt runLayerZeroValidation(Block block, ZeroDatabase database, HashFunction hashFunction, SignatureVerifier signatureVerifier, Map<HashKey, Block> batchBlocks) {
         ArgChecker.assertNonNull(database);
         ArgChecker.assertNonNull(hashFunction);
         ArgChecker.assertNonNull(signatureVerifier);
+        ArgChecker.assertNonNull(batchBlocks);
+
+        Receipt receipt = runStatelessLayerZeroValidation(block, hashFunction, signatureVerifier);
+        if (receipt.getCode() != ReceiptCode.SUCCESS) {
+            return receipt;
+        }
+        return runStatefulLayerZeroValidation(block, database, batchBlocks);
+    }
+
+    /**
+     * Runs the layer zero validation checks on the given {@code block} which do not depend on the state of the
+     * blockchain. These are the checks on the block's own attributes, including the verification of its hash and of
+     * its cryptographic signature, which are by far the most expensive checks. Returns a receipt which will have code
+     * {@link ReceiptCode#SUCCESS} if and only if the block passes all of these checks and otherwise will return one of
+     * the following descriptive failure codes:
+     *
+     * - {@link ReceiptCode#VERSION_MISMATCH}: if the block was produced with a conflicting major version.
+     * - {@link ReceiptCode#INVALID_PARAMETER}: if the block has invalid attributes.
+     * - {@link ReceiptCode#DOES_NOT_EXIST}: if the block is {@code null}.
+     * - {@link ReceiptCode#UNEXPECTED}: if an unexpected error occurred.
+     *
+     * Since these checks never touch the database, they may be run without holding any blockchain lock. A block which
+     * passes them must still pass {@link BlockValidator#runStatefulLayerZeroValidation(Block, ZeroDatabase, Map)}
+     * before it is considered valid.
+     *
+     * @param block The block to validate.
+     * @param hashFunction The hash function.
+     * @param signatureVerifier The signature verification function.
+     * @return the receipt of the validation action.
+     */
+    public static Receipt runStatelessLayerZeroValidation(Block block, HashFunction hashFunction, SignatureVerifier signatureVerifier) {
+        ArgChecker.assertNonNull(hashFunction);
+        ArgChecker.assertNonNull(signatureVerifier);
 
         try {
             if (block == null) {
@@ -72,9 +136,6 @@ public final class BlockValidator {
             if (blockHash.length == 0) {
                 return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "block hash is empty");
             }
-            if (database.blockExists(blockHash)) {
-                return Receipt.failedReceipt(ReceiptCode.EXISTS, "block already exists");
-            }
             byte[] blockSignature = block.getBlockSignature();
             if (blockSignature == null) {
                 return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "block signature is null");
@@ -98,23 +159,18 @@ public final class BlockValidator {
                 if (parentHash.length == 0) {
                     return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "parent block hash is empty");
                 }
-                Block parentBlock = database.findBlockByHash(parentHash);
-                if (parentBlock == null) {
-                    return Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "parent block does not exist");
-                }
-                BigInteger parentBlockNumber = parentBlock.getBlockNumber();
-                if (parentBlockNumber == null) {
-                    throw RuntimeAssertionError.unexpected();
-                }
-                if (!parentBlockNumber.add(BigInteger.ONE).equals(block.getBlockNumber())) {
-                    return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "block number is not one larger than parent block number");
-                }
             }
 
-            // Validate the block hash by hashing the block's pre-image and comparing the result.
-            byte[] blockHashPreImage = (isGenesisBlock)
-                    ? BlockHashPreImageUtil.createGenesisPreImage(block.getLayerZeroMajorVersion(), producerPublicKey, block.getBlockData())
-                    : BlockHashPreImageUtil.createNonGenesisPreImage(block.getBlockNumber(), producerPublicKey, block.getParentBlockHash(), block.getBlockData());
+            // Validate the block hash by hashing the block's pre-image and comparing the result. An encoded block
+            // builds its pre-image from its encoding, so that its data is not first copied out into an array.
+            byte[] blockHashPreImage;
+            if (block instanceof EncodedBlock) {
+                blockHashPreImage = BlockHashPreImageUtil.createPreImage((EncodedBlock) block);
+            } else if (isGenesisBlock) {
+                blockHashPreImage = BlockHashPreImageUtil.createGenesisPreImage(block.getLayerZeroMajorVersion(), producerPublicKey, block.getBlockData());
+            } else {
+                blockHashPreImage = BlockHashPreImageUtil.createNonGenesisPreImage(block.getBlockNumber(), producerPublicKey, block.getParentBlockHash(), block.getBlockData());
+            }
             byte[] expectedBlockHash = hashFunction.hash(blockHashPreImage);
             if (!Arrays.equals(expectedBlockHash, blockHash)) {
                 return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "block hash is illegitimate");
@@ -131,4 +187,136 @@ public final class BlockValidator {
             return Receipt.unexpectedErrorReceipt(e);
         }
     }
+
+    /**
+     * Runs {@link BlockValidator#runStatelessLayerZeroValidation(Block, HashFunction, SignatureVerifier)} over each of
+     * the given {@code blocks} in parallel, using the threads of the given {@code pool}, and returns their receipts in
+     * the same order as the blocks. The receipt of the block at index {@code i} is at index {@code i} of the returned
+     * array, and is exactly the receipt that would have been returned had the block been validated on its own.
+     *
+     * The blocks are hashed and have their signatures verified independently of one another, so the given
+     * {@code hashFunction} and {@code signatureVerifier} must be safe to call from multiple threads at once. The
+     * stateful checks, which depend on the blocks before them in the batch, are not run here and must still be run over
+     * the batch in order.
+     *
+     * This method blocks until all of the blocks have been validated.
+     *
+     * @param blocks The blocks to validate.
+     * @param hashFunction The hash function.
+     * @param signatureVerifier The signature verification function.
+     * @param pool The pool to run the validation checks on.
+     * @return the receipts of the validation actions.
+     */
+    public static Receipt[] runStatelessLayerZeroValidation(List<Block> blocks, HashFunction hashFunction, SignatureVerifier signatureVerifier, ForkJoinPool pool) {
+        ArgChecker.assertNonNull(blocks);
+        ArgChecker.assertNonNull(hashFunction);
+        ArgChecker.assertNonNull(signatureVerifier);
+        ArgChecker.assertNonNull(pool);
+
+        Receipt[] receipts = new Receipt[blocks.size()];
+        if (receipts.length <= PARALLEL_VALIDATION_THRESHOLD) {
+            // Not worth handing off to the pool, since the calling thread would only sit and wait for it.
+            for (int i = 0; i < receipts.length; i++) {
+                receipts[i] = runStatelessLayerZeroValidation(blocks.get(i), hashFunction, signatureVerifier);
+            }
+        } else {
+            pool.invoke(new StatelessValidationTask(blocks, hashFunction, signatureVerifier, receipts, 0, receipts.length));
+        }
+        return receipts;
+    }
+
+    /**
+     * Runs the layer zero validation checks on the given {@code block} which depend on the state of the blockchain:
+     * that the block does not already exist, and, for a non-genesis block, that its parent exists and that its block
+     * number is one larger than its parent's. The blocks in {@code batchBlocks} are treated as though they already
+     * exist in the database. Returns a receipt which will have code {@link ReceiptCode#SUCCESS} if and only if the
+     * block passes all of these checks and otherwise will return one of the following descriptive failure codes:
+     *
+     * - {@link ReceiptCode#INVALID_PARAMETER}: if the block number is not one larger than its parent's.
+     * - {@link ReceiptCode#DOES_NOT_EXIST}: if the block is a non-genesis block and its parent block does not exist.
+     * - {@link ReceiptCode#EXISTS}: if the block already exists.
+     * - {@link ReceiptCode#UNEXPECTED}: if an unexpected error occurred.
+     *
+     * These checks are cheap, but their outcome can be changed by any concurrent modification of the blockchain, and
+     * therefore they must be run while holding the lock that serializes such modifications.
+     *
+     * ASSUMPTION: The block has already passed {@link BlockValidator#runStatelessLayerZeroValidation(Block, HashFunction, SignatureVerifier)}.
+     *
+     * @param block The block to validate.
+     * @param database The database backing the blockchain.
+     * @param batchBlocks The validated blocks earlier in the same batch, keyed by their block hashes.
+     * @return the receipt of the validation action.
+     */
+    public static Receipt runStatefulLayerZeroValidation(Block block, ZeroDatabase database, Map<HashKey, Block> batchBlocks) {
+        ArgChecker.assertNonNull(block);
+        ArgChecker.assertNonNull(database);
+        ArgChecker.assertNonNull(batchBlocks);
+
+        try {
+            byte[] blockHash = block.getBlockHash();
+            if (batchBlocks.containsKey(HashKey.wrap(blockHash)) || database.blockExists(blockHash)) {
+                return Receipt.failedReceipt(ReceiptCode.EXISTS, "block already exists");
+            }
+
+            if (block.getBlockNumber().signum() != 0) {
+                byte[] parentHash = block.getParentBlockHash();
+                // Only the parent's number is needed, so only its header is looked up and its data is never loaded.
+                BlockHeader parentBlock = batchBlocks.get(HashKey.wrap(parentHash));
+                if (parentBlock == null) {
+                    parentBlock = database.findBlockHeaderByHash(parentHash);
+                }
+                if (parentBlock == null) {
+                    return Receipt.failedReceipt(ReceiptCode.DOES_NOT_EXIST, "parent block does not exist");
+                }
+                BigInteger parentBlockNumber = parentBlock.getBlockNumber();
+                if (parentBlockNumber == null) {
+                    throw RuntimeAssertionError.unexpected();
+                }
+                if (!parentBlockNumber.add(BigInteger.ONE).equals(block.getBlockNumber())) {
+                    return Receipt.failedReceipt(ReceiptCode.INVALID_PARAMETER, "block number is not one larger than parent block number");
+                }
+            }
+
+            return Receipt.successfulReceipt();
+        } catch (Exception e) {
+            return Receipt.unexpectedErrorReceipt(e);
+        }
+    }
+
+    /**
+     * Runs the stateless validation checks over the blocks in the index range {@code [from, to)}, splitting the range
+     * in half until it is small enough to be validated by a single thread. Each receipt is written to the index of its
+     * block, so the tasks never write to the same index.
+     */
+    private static final class StatelessValidationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Block> blocks;
+        private final HashFunction hashFunction;
+        private final SignatureVerifier signatureVerifier;
+        private final Receipt[] receipts;
+        private final int from;
+        private final int to;
+
+        private StatelessValidationTask(List<Block> blocks, HashFunction hashFunction, SignatureVerifier signatureVerifier, Receipt[] receipts, int from, int to) {
+            this.blocks = blocks;
+            this.hashFunction = hashFunction;
+            this.signatureVerifier = signatureVerifier;
+            this.receipts = receipts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= PARALLEL_VALIDATION_THRESHOLD) {
+                for (int i = this.from; i < this.to; i++) {
+                    this.receipts[i] = runStatelessLayerZeroValidation(this.blocks.get(i), this.hashFunction, this.signatureVerifier);
+                }
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new StatelessValidationTask(this.blocks, this.hashFunction, this.signatureVerifier, this.receipts, this.from, middle)
+                        , new StatelessValidationTask(this.blocks, this.hashFunction, this.signatureVerifier, this.receipts, middle, this.to));
+            }
+        }
+    }
 }
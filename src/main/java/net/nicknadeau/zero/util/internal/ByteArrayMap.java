@@ -0,0 +1,255 @@
+package net.nicknadeau.zero.util.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A hash map whose keys are byte arrays, which are compared by content rather than by identity.
+ *
+ * Unlike a {@link java.util.HashMap} keyed on {@link HashKey}, this map does not allocate anything to look up a key: it
+ * is an open-addressing table with linear probing, which keeps the keys, their hash codes and the values in three
+ * parallel arrays. Removals shift the following entries of the probe sequence backwards, so that no tombstones are ever
+ * left behind.
+ *
+ * The keys are NOT copied, and therefore must not be modified after they have been put into the map.
+ *
+ * This class is NOT thread-safe and must be externally synchronized.
+ *
+ * @param <V> The type of the values.
+ */
+public final class ByteArrayMap<V> {
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private byte[][] keys;
+    private int[] hashes;
+    private Object[] values;
+    private int size = 0;
+    private int resizeThreshold;
+
+    /**
+     * Constructs a new empty map with room for the specified number of entries before it has to grow.
+     *
+     * @param expectedSize The number of entries the map is expected to hold.
+     */
+    public ByteArrayMap(int expectedSize) {
+        ArgChecker.assertGreaterOrEqualTo(expectedSize, 0);
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Constructs a new empty map.
+     */
+    public ByteArrayMap() {
+        this(0);
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     *
+     * @return the size of the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns {@code true} if and only if this map contains no entries.
+     *
+     * @return whether or not the map is empty.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Returns {@code true} if and only if this map contains an entry whose key has the same content as {@code key}.
+     *
+     * @param key The key.
+     * @return whether or not the key is in the map.
+     * @throws NullPointerException if key is null.
+     */
+    public boolean containsKey(byte[] key) {
+        return indexOf(key, hash(key)) >= 0;
+    }
+
+    /**
+     * Returns the value of the entry whose key has the same content as {@code key}, or {@code null} if there is no such
+     * entry.
+     *
+     * @param key The key.
+     * @return the value or null if not found.
+     * @throws NullPointerException if key is null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(byte[] key) {
+        int index = indexOf(key, hash(key));
+        return (index < 0) ? null : (V) this.values[index];
+    }
+
+    /**
+     * Puts the specified entry into this map, replacing the value of any entry with the same key, and returns the value
+     * that was replaced or {@code null} if there was none.
+     *
+     * @param key The key.
+     * @param value The value.
+     * @return the previous value or null if there was none.
+     * @throws NullPointerException if key or value is null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(byte[] key, V value) {
+        ArgChecker.assertNonNull(value);
+        int hash = hash(key);
+        int mask = this.keys.length - 1;
+        int index = hash & mask;
+        while (this.keys[index] != null) {
+            if ((this.hashes[index] == hash) && Arrays.equals(this.keys[index], key)) {
+                V previous = (V) this.values[index];
+                this.values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        this.keys[index] = key;
+        this.hashes[index] = hash;
+        this.values[index] = value;
+        this.size++;
+        if (this.size > this.resizeThreshold) {
+            resize(this.keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry whose key has the same content as {@code key} from this map, and returns its value or
+     * {@code null} if there was no such entry.
+     *
+     * @param key The key.
+     * @return the removed value or null if there was none.
+     * @throws NullPointerException if key is null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(byte[] key) {
+        int index = indexOf(key, hash(key));
+        if (index < 0) {
+            return null;
+        }
+        V removed = (V) this.values[index];
+
+        // Shift each following entry of the probe run back into the hole, unless its home slot lies after the hole.
+        int mask = this.keys.length - 1;
+        int hole = index;
+        int next = (hole + 1) & mask;
+        while (this.keys[next] != null) {
+            int home = this.hashes[next] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                this.keys[hole] = this.keys[next];
+                this.hashes[hole] = this.hashes[next];
+                this.values[hole] = this.values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        this.keys[hole] = null;
+        this.values[hole] = null;
+        this.size--;
+        return removed;
+    }
+
+    /**
+     * Removes every entry from this map.
+     */
+    public void clear() {
+        Arrays.fill(this.keys, null);
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    /**
+     * Invokes the specified action on each entry of this map, in no particular order. The action must not modify this
+     * map.
+     *
+     * @param action The action to invoke.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<byte[], V> action) {
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                action.accept(this.keys[i], (V) this.values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns a new list of the values in this map, in no particular order.
+     *
+     * @return the values.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<V> values = new ArrayList<>(this.size);
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != null) {
+                values.add((V) this.values[i]);
+            }
+        }
+        return values;
+    }
+
+    private int indexOf(byte[] key, int hash) {
+        int mask = this.keys.length - 1;
+        int index = hash & mask;
+        while (this.keys[index] != null) {
+            if ((this.hashes[index] == hash) && Arrays.equals(this.keys[index], key)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        byte[][] oldKeys = this.keys;
+        int[] oldHashes = this.hashes;
+        Object[] oldValues = this.values;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = oldHashes[i] & mask;
+                while (this.keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                this.keys[index] = oldKeys[i];
+                this.hashes[index] = oldHashes[i];
+                this.values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new byte[capacity][];
+        this.hashes = new int[capacity];
+        this.values = new Object[capacity];
+        this.resizeThreshold = (capacity / 4) * 3;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MINIMUM_CAPACITY;
+        while ((capacity / 4) * 3 < expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns a well-spread hash code of the key, since linear probing degrades badly when hash codes cluster.
+     */
+    private static int hash(byte[] key) {
+        int hash = Arrays.hashCode(key) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,57 @@
+package net.nicknadeau.zero.util.internal;
+
+import java.util.Arrays;
+
+/**
+ * A wrapper around a block hash so that hashes can be used as keys in the standard collections, which would otherwise
+ * compare the arrays by identity.
+ *
+ * The wrapped array is NOT copied, and therefore must not be modified after it has been wrapped.
+ */
+public final class HashKey {
+    private final byte[] hash;
+    private final int hashCode;
+
+    private HashKey(byte[] hash) {
+        this.hash = hash;
+        this.hashCode = Arrays.hashCode(hash);
+    }
+
+    /**
+     * Returns a new key which wraps the specified hash.
+     *
+     * @param hash The hash to wrap.
+     * @return the key.
+     * @throws NullPointerException if hash is null.
+     */
+    public static HashKey wrap(byte[] hash) {
+        ArgChecker.assertNonNull(hash);
+        return new HashKey(hash);
+    }
+
+    /**
+     * Returns the wrapped hash.
+     *
+     * @return the hash.
+     */
+    public byte[] getHash() {
+        return this.hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof HashKey)) {
+            return false;
+        }
+        HashKey otherKey = (HashKey) other;
+        return (this.hashCode == otherKey.hashCode) && Arrays.equals(this.hash, otherKey.hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+}
@@ -0,0 +1,125 @@
+package net.nicknadeau.zero.util.internal;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * An immutable {@link Block}, which is how the bundled database implementations hold on to the blocks they are given so
+ * that the caller can never modify a block after it has been saved.
+ *
+ * To avoid copying on every read, the getters return the internal arrays, and therefore the returned arrays must not be
+ * modified.
+ */
+public final class ImmutableBlock implements Block {
+    private final int layerZeroMajorVersion;
+    private final BigInteger blockNumber;
+    private final byte[] blockProducerPublicKey;
+    private final byte[] blockHash;
+    private final byte[] parentBlockHash;
+    private final byte[] blockData;
+    private final byte[] blockSignature;
+
+    /**
+     * Constructs a new block from the given attributes, which are NOT copied and must not be modified afterwards.
+     *
+     * @param layerZeroMajorVersion The major version.
+     * @param blockNumber The block number.
+     * @param blockProducerPublicKey The producer's public key.
+     * @param blockHash The block hash.
+     * @param parentBlockHash The parent block hash, which is null for a genesis block.
+     * @param blockData The block data.
+     * @param blockSignature The block signature.
+     * @throws NullPointerException if any argument but parentBlockHash is null.
+     */
+    public ImmutableBlock(int layerZeroMajorVersion, BigInteger blockNumber, byte[] blockProducerPublicKey, byte[] blockHash, byte[] parentBlockHash, byte[] blockData, byte[] blockSignature) {
+        ArgChecker.assertNonNull(blockNumber);
+        ArgChecker.assertNonNull(blockProducerPublicKey);
+        ArgChecker.assertNonNull(blockHash);
+        ArgChecker.assertNonNull(blockData);
+        ArgChecker.assertNonNull(blockSignature);
+        this.layerZeroMajorVersion = layerZeroMajorVersion;
+        this.blockNumber = blockNumber;
+        this.blockProducerPublicKey = blockProducerPublicKey;
+        this.blockHash = blockHash;
+        this.parentBlockHash = parentBlockHash;
+        this.blockData = blockData;
+        this.blockSignature = blockSignature;
+    }
+
+    /**
+     * Returns an immutable copy of the specified block. If the block is already an {@link ImmutableBlock} then it is
+     * returned as is.
+     *
+     * @param block The block to copy.
+     * @return the copy.
+     * @throws NullPointerException if block or any of its attributes but its parent block hash is null.
+     */
+    public static ImmutableBlock copyOf(Block block) {
+        if (block instanceof ImmutableBlock) {
+            return (ImmutableBlock) block;
+        }
+        byte[] parentBlockHash = block.getParentBlockHash();
+        return new ImmutableBlock(block.getLayerZeroMajorVersion()
+                , block.getBlockNumber()
+                , block.getBlockProducerPublicKey().clone()
+                , block.getBlockHash().clone()
+                , (parentBlockHash == null) ? null : parentBlockHash.clone()
+                , block.getBlockData().clone()
+                , block.getBlockSignature().clone()
+        );
+    }
+
+    @Override
+    public int getLayerZeroMajorVersion() {
+        return this.layerZeroMajorVersion;
+    }
+
+    @Override
+    public BigInteger getBlockNumber() {
+        return this.blockNumber;
+    }
+
+    @Override
+    public byte[] getBlockProducerPublicKey() {
+        return this.blockProducerPublicKey;
+    }
+
+    @Override
+    public byte[] getBlockHash() {
+        return this.blockHash;
+    }
+
+    @Override
+    public byte[] getParentBlockHash() {
+        return this.parentBlockHash;
+    }
+
+    @Override
+    public byte[] getBlockData() {
+        return this.blockData;
+    }
+
+    @Override
+    public byte[] getBlockSignature() {
+        return this.blockSignature;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof BlockHeader)) {
+            return false;
+        }
+        return Arrays.equals(this.blockHash, ((BlockHeader) other).getBlockHash());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.blockHash);
+    }
+}
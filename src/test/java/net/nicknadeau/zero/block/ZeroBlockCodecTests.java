@@ -0,0 +1,155 @@
+package net.nicknadeau.zero.block;
+
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.util.HashFunction;
+import net.nicknadeau.zero.util.internal.BlockHashPreImageUtil;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+public class ZeroBlockCodecTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testGenesisRoundTrip() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ByteBuffer encoding = ZeroBlockCodec.encode(genesisBlock);
+        Assert.assertEquals(ZeroBlockCodec.encodedSize(genesisBlock), encoding.remaining());
+
+        EncodedBlock decoded = ZeroBlockCodec.decode(encoding);
+        Assert.assertFalse(encoding.hasRemaining());
+        assertSameBlock(genesisBlock, decoded);
+        Assert.assertNull(decoded.getParentBlockHash());
+        Assert.assertNull(decoded.getParentBlockHashBuffer());
+    }
+
+    @Test
+    public void testNonGenesisRoundTripWithLargeData() {
+        // Data longer than 127 bytes needs more than one byte for its length.
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(300), genesisBlock, new byte[70_000], MIRROR_HASH);
+        EncodedBlock decoded = ZeroBlockCodec.decode(ZeroBlockCodec.encode(block));
+        assertSameBlock(block, decoded);
+        Assert.assertEquals(70_000, decoded.getBlockDataBuffer().remaining());
+    }
+
+    @Test
+    public void testDecodingDoesNotCopy() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1, 2, 3 }, MIRROR_HASH);
+        ByteBuffer encoding = ZeroBlockCodec.encode(block);
+
+        // Several blocks back to back in one direct buffer, each decoded in place.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3 * encoding.remaining());
+        for (int i = 0; i < 3; i++) {
+            buffer.put(encoding.duplicate());
+        }
+        buffer.flip();
+        for (int i = 0; i < 3; i++) {
+            EncodedBlock decoded = ZeroBlockCodec.decode(buffer);
+            Assert.assertTrue(decoded.getBlockDataBuffer().isDirect());
+            Assert.assertTrue(decoded.getBlockDataBuffer().isReadOnly());
+            Assert.assertEquals(ByteBuffer.wrap(block.getBlockData()), decoded.getBlockDataBuffer());
+            Assert.assertSame(decoded.getBlockHash(), decoded.getBlockHash());
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testEncodedBlockIsReencodedAsIs() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ByteBuffer encoding = ZeroBlockCodec.encode(genesisBlock);
+        EncodedBlock decoded = ZeroBlockCodec.decode(encoding.duplicate());
+        Assert.assertEquals(encoding, ZeroBlockCodec.encode(decoded));
+        Assert.assertEquals(encoding.remaining(), decoded.getEncodedSize());
+    }
+
+    @Test
+    public void testEqualsOtherBlocks() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        EncodedBlock decoded = ZeroBlockCodec.decode(ZeroBlockCodec.encode(genesisBlock));
+        ImmutableBlock copy = ImmutableBlock.copyOf(genesisBlock);
+        Assert.assertEquals(copy, decoded);
+        Assert.assertEquals(decoded, copy);
+        Assert.assertEquals(copy.hashCode(), decoded.hashCode());
+        Assert.assertEquals(decoded, ZeroBlockCodec.decode(ZeroBlockCodec.encode(genesisBlock)));
+    }
+
+    @Test
+    public void testPreImageFromEncoding() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(128), genesisBlock, new byte[]{ 4, 5 }, MIRROR_HASH);
+
+        byte[] genesisPreImage = BlockHashPreImageUtil.createGenesisPreImage(genesisBlock.getLayerZeroMajorVersion(), genesisBlock.getBlockProducerPublicKey(), genesisBlock.getBlockData());
+        Assert.assertArrayEquals(genesisPreImage, BlockHashPreImageUtil.createPreImage(ZeroBlockCodec.decode(ZeroBlockCodec.encode(genesisBlock))));
+
+        // The number 128 has a leading sign byte, which is not part of the pre-image.
+        byte[] preImage = BlockHashPreImageUtil.createNonGenesisPreImage(block.getBlockNumber(), block.getBlockProducerPublicKey(), block.getParentBlockHash(), block.getBlockData());
+        Assert.assertArrayEquals(preImage, BlockHashPreImageUtil.createPreImage(ZeroBlockCodec.decode(ZeroBlockCodec.encode(block))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedVersionIsRejected() {
+        ByteBuffer encoding = ZeroBlockCodec.encode(BlockHelper.newGenesisBlock(MIRROR_HASH));
+        encoding.put(0, (byte) (ZeroBlockCodec.FORMAT_VERSION + 1));
+        ZeroBlockCodec.decode(encoding);
+    }
+
+    @Test
+    public void testTruncatedEncodingIsRejected() {
+        ByteBuffer encoding = ZeroBlockCodec.encode(BlockHelper.newGenesisBlock(MIRROR_HASH));
+        for (int length = 0; length < encoding.remaining(); length++) {
+            ByteBuffer truncated = encoding.duplicate();
+            truncated.limit(length);
+            try {
+                ZeroBlockCodec.decode(truncated);
+                Assert.fail("Expected a truncated encoding of length " + length + " to be rejected.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals(0, truncated.position());
+            }
+        }
+    }
+
+    @Test
+    public void testNonMinimalBlockNumberIsRejected() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(5), genesisBlock, MIRROR_HASH);
+        ByteBuffer encoding = ZeroBlockCodec.encode(block);
+
+        // The number 5 is encoded as a length of 1 followed by the single byte 5, right after the version bytes.
+        int numberOffset = 1 + Integer.BYTES;
+        Assert.assertEquals(1, encoding.get(numberOffset));
+        Assert.assertEquals(5, encoding.get(numberOffset + 1));
+        for (byte[] number : new byte[][]{ { 0, 5 }, { 0, 0, 5 }, { (byte) 0xff, (byte) 0xfb } }) {
+            ByteBuffer padded = ByteBuffer.allocate(encoding.remaining() + number.length - 1);
+            padded.put(encoding.duplicate().limit(numberOffset));
+            padded.put((byte) number.length).put(number);
+            padded.put(encoding.duplicate().position(numberOffset + 2));
+            padded.flip();
+            try {
+                ZeroBlockCodec.decode(padded);
+                Assert.fail("Expected a block number of " + number.length + " bytes to be rejected.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals(0, padded.position());
+            }
+        }
+
+        // A leading sign byte which is needed is still accepted.
+        MutableBlock signedBlock = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(128), genesisBlock, MIRROR_HASH);
+        Assert.assertEquals(BigInteger.valueOf(128), ZeroBlockCodec.decode(ZeroBlockCodec.encode(signedBlock)).getBlockNumber());
+    }
+
+    private static void assertSameBlock(Block expected, Block actual) {
+        Assert.assertEquals(expected.getLayerZeroMajorVersion(), actual.getLayerZeroMajorVersion());
+        Assert.assertEquals(expected.getBlockNumber(), actual.getBlockNumber());
+        Assert.assertArrayEquals(expected.getBlockProducerPublicKey(), actual.getBlockProducerPublicKey());
+        Assert.assertArrayEquals(expected.getBlockHash(), actual.getBlockHash());
+        Assert.assertArrayEquals(expected.getParentBlockHash(), actual.getParentBlockHash());
+        Assert.assertArrayEquals(expected.getBlockData(), actual.getBlockData());
+        Assert.assertArrayEquals(expected.getBlockSignature(), actual.getBlockSignature());
+    }
+}
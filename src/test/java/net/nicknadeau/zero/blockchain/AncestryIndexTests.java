@@ -0,0 +1,107 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.exception.RuntimeAssertionError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AncestryIndexTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testAncestorsOfLongChain() {
+        List<Block> chain = newChain(BlockHelper.newGenesisBlock(MIRROR_HASH), 1_000);
+        AncestryIndex index = new AncestryIndex();
+        index.rebuild(chain);
+
+        Block head = chain.get(chain.size() - 1);
+        for (Block block : chain) {
+            long number = block.getBlockNumber().longValueExact();
+            Assert.assertArrayEquals(block.getBlockHash(), index.getAncestorHash(head.getBlockHash(), number));
+            Assert.assertTrue(index.isAncestor(block.getBlockHash(), head.getBlockHash()));
+        }
+        Assert.assertFalse(index.isAncestor(head.getBlockHash(), chain.get(0).getBlockHash()));
+        Assert.assertNull(index.getAncestorHash(head.getBlockHash(), chain.size()));
+        Assert.assertNull(index.getAncestorHash(head.getBlockHash(), -1));
+        Assert.assertArrayEquals(chain.get(998).getBlockHash(), index.getParentHash(chain.get(999).getBlockHash()));
+        Assert.assertNull(index.getParentHash(chain.get(0).getBlockHash()));
+        Assert.assertEquals(999, index.getBlockNumber(head.getBlockHash()));
+        Assert.assertEquals(-1, index.getBlockNumber(new byte[]{ 9 }));
+    }
+
+    @Test
+    public void testCommonAncestorOfFork() {
+        List<Block> trunk = newChain(BlockHelper.newGenesisBlock(MIRROR_HASH), 300);
+        Block forkPoint = trunk.get(123);
+        MutableBlock firstSibling = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(124), forkPoint, MIRROR_HASH);
+        firstSibling.setBlockData(new byte[]{ 1 });
+        firstSibling.setBlockHash(new byte[]{ 1, 0x7f });
+        List<Block> branch = newChain(firstSibling, 500);
+
+        List<Block> blocks = new ArrayList<>(branch);
+        blocks.addAll(trunk);
+        AncestryIndex index = new AncestryIndex();
+        index.rebuild(blocks);
+
+        byte[] trunkHead = trunk.get(trunk.size() - 1).getBlockHash();
+        byte[] branchHead = branch.get(branch.size() - 1).getBlockHash();
+        Assert.assertArrayEquals(forkPoint.getBlockHash(), index.getCommonAncestorHash(trunkHead, branchHead));
+        Assert.assertArrayEquals(forkPoint.getBlockHash(), index.getCommonAncestorHash(branchHead, trunkHead));
+        Assert.assertArrayEquals(trunk.get(50).getBlockHash(), index.getCommonAncestorHash(trunk.get(50).getBlockHash(), branchHead));
+        Assert.assertArrayEquals(trunkHead, index.getCommonAncestorHash(trunkHead, trunkHead));
+        Assert.assertFalse(index.isAncestor(trunk.get(124).getBlockHash(), branchHead));
+        Assert.assertTrue(index.isAncestor(forkPoint.getBlockHash(), branchHead));
+        Assert.assertNull(index.getCommonAncestorHash(trunkHead, new byte[]{ 9 }));
+    }
+
+    @Test
+    public void testRemoveHead() {
+        List<Block> chain = newChain(BlockHelper.newGenesisBlock(MIRROR_HASH), 3);
+        AncestryIndex index = new AncestryIndex();
+        index.rebuild(chain);
+
+        byte[] head = chain.get(2).getBlockHash();
+        index.remove(head);
+        Assert.assertNull(index.getParentHash(head));
+        Assert.assertFalse(index.isAncestor(chain.get(0).getBlockHash(), head));
+        Assert.assertTrue(index.isAncestor(chain.get(0).getBlockHash(), chain.get(1).getBlockHash()));
+    }
+
+    @Test(expected = RuntimeAssertionError.class)
+    public void testAddWithMissingParent() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        AncestryIndex index = new AncestryIndex();
+        index.rebuild(Collections.emptySet());
+        index.add(BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH));
+    }
+
+    @Test
+    public void testRebuildWithDuplicates() {
+        List<Block> chain = newChain(BlockHelper.newGenesisBlock(MIRROR_HASH), 2);
+        AncestryIndex index = new AncestryIndex();
+        index.rebuild(Arrays.asList(chain.get(1), chain.get(0), chain.get(1)));
+        Assert.assertTrue(index.isAncestor(chain.get(0).getBlockHash(), chain.get(1).getBlockHash()));
+    }
+
+    /**
+     * Returns a chain of the given length which starts at the given block.
+     */
+    private static List<Block> newChain(Block first, int length) {
+        List<Block> chain = new ArrayList<>(length);
+        chain.add(first);
+        for (int i = 1; i < length; i++) {
+            Block parent = chain.get(i - 1);
+            chain.add(BlockHelper.newNonGenesisBlock(parent.getBlockNumber().add(BigInteger.ONE), parent, MIRROR_HASH));
+        }
+        return chain;
+    }
+}
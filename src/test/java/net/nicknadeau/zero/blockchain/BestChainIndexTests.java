@@ -0,0 +1,124 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.exception.RuntimeAssertionError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.util.HashFunction;
+import net.nicknadeau.zero.util.internal.HashKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class BestChainIndexTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testExtendBestChain() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        BestChainIndex.ParentLookup lookup = newLookup(genesisBlock, block1);
+
+        BestChainIndex index = new BestChainIndex();
+        Assert.assertNull(index.getHeadHash());
+        index.selectBestOf(Collections.singleton(genesisBlock), lookup);
+        index.selectBestOf(Collections.singleton(block1), lookup);
+
+        Assert.assertEquals(2, index.length());
+        Assert.assertArrayEquals(genesisBlock.getBlockHash(), index.getHash(BigInteger.ZERO));
+        Assert.assertArrayEquals(block1.getBlockHash(), index.getHash(BigInteger.ONE));
+        Assert.assertArrayEquals(block1.getBlockHash(), index.getHeadHash());
+        Assert.assertNull(index.getHash(BigInteger.TWO));
+        Assert.assertNull(index.getHash(BigInteger.ONE.negate()));
+    }
+
+    @Test
+    public void testReorgOntoLongerBranch() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        MutableBlock sibling1 = BlockHelper.newSibling(block1, 1);
+        MutableBlock sibling2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, sibling1, MIRROR_HASH);
+        MutableBlock sibling3 = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(3), sibling2, MIRROR_HASH);
+        BestChainIndex.ParentLookup lookup = newLookup(genesisBlock, block1, block2, sibling1, sibling2, sibling3);
+
+        BestChainIndex index = new BestChainIndex();
+        index.moveTo(block2, lookup);
+        Assert.assertTrue(index.contains(block1));
+
+        // A branch of the same length does not replace the best chain.
+        index.selectBestOf(Collections.singleton(sibling2), lookup);
+        Assert.assertArrayEquals(block2.getBlockHash(), index.getHeadHash());
+
+        index.selectBestOf(Collections.singleton(sibling3), lookup);
+        Assert.assertEquals(4, index.length());
+        Assert.assertTrue(index.contains(genesisBlock));
+        Assert.assertTrue(index.contains(sibling1));
+        Assert.assertTrue(index.contains(sibling2));
+        Assert.assertTrue(index.contains(sibling3));
+        Assert.assertFalse(index.contains(block1));
+        Assert.assertFalse(index.contains(block2));
+    }
+
+    @Test
+    public void testTruncateThenSelectBestHead() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        MutableBlock sibling2 = BlockHelper.newSibling(block2, 2);
+        BestChainIndex.ParentLookup lookup = newLookup(genesisBlock, block1, block2, sibling2);
+
+        BestChainIndex index = new BestChainIndex();
+        index.moveTo(block2, lookup);
+        index.truncateFrom(BigInteger.TWO);
+        Assert.assertArrayEquals(block1.getBlockHash(), index.getHeadHash());
+
+        index.selectBestOf(Arrays.asList(sibling2), lookup);
+        Assert.assertArrayEquals(sibling2.getBlockHash(), index.getHeadHash());
+
+        index.selectBestOf(Collections.emptySet(), lookup);
+        Assert.assertEquals(0, index.length());
+    }
+
+    @Test(expected = RuntimeAssertionError.class)
+    public void testMissingAncestor() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        new BestChainIndex().moveTo(block2, newLookup(block2));
+    }
+
+    @Test
+    public void testManyBlocks() throws Exception {
+        Map<HashKey, Block> blocks = new HashMap<>();
+        Block block = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        blocks.put(HashKey.wrap(block.getBlockHash()), block);
+        for (int i = 1; i <= 5_000; i++) {
+            block = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(i), block, MIRROR_HASH);
+            blocks.put(HashKey.wrap(block.getBlockHash()), block);
+        }
+
+        BestChainIndex index = new BestChainIndex();
+        index.moveTo(block, (hash) -> blocks.get(HashKey.wrap(hash)).getParentBlockHash());
+        Assert.assertEquals(5_001, index.length());
+        for (Block indexed : blocks.values()) {
+            Assert.assertTrue(index.contains(indexed));
+        }
+    }
+
+    private static BestChainIndex.ParentLookup newLookup(Block... blocks) {
+        Map<HashKey, Block> blocksByHash = new HashMap<>();
+        for (Block block : blocks) {
+            blocksByHash.put(HashKey.wrap(block.getBlockHash()), block);
+        }
+        return (hash) -> {
+            Block block = blocksByHash.get(HashKey.wrap(hash));
+            return (block == null) ? null : block.getParentBlockHash();
+        };
+    }
+}
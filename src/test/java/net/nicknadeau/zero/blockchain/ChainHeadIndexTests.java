@@ -0,0 +1,88 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.DatabaseHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ChainHeadIndexTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testRebuild() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock sibling1 = BlockHelper.newSibling(block1, 1);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(block2, genesisBlock, sibling1, block1), Collections.emptySet());
+
+        ChainHeadIndex index = new ChainHeadIndex();
+        index.rebuild(Arrays.asList(block2, genesisBlock, sibling1, block1), database);
+
+        Assert.assertEquals(asSet(block2, sibling1), new HashSet<>(index.getHeads()));
+        Assert.assertTrue(index.isHead(block2.getBlockHash()));
+        Assert.assertTrue(index.isHead(sibling1.getBlockHash()));
+        Assert.assertFalse(index.isHead(block1.getBlockHash()));
+        Assert.assertFalse(index.isHead(genesisBlock.getBlockHash()));
+    }
+
+    @Test
+    public void testParentBecomesHeadOnlyOnceLastChildIsRemoved() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock sibling1 = BlockHelper.newSibling(block1, 1);
+        MutableBlock sibling2 = BlockHelper.newSibling(block1, 2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
+
+        ChainHeadIndex index = new ChainHeadIndex();
+        index.rebuild(Collections.singleton(genesisBlock), database);
+        index.onBlockAdded(block1);
+        index.onBlockAdded(sibling1);
+        index.onBlockAdded(sibling2);
+        Assert.assertEquals(asSet(block1, sibling1, sibling2), new HashSet<>(index.getHeads()));
+
+        index.onBlockRemoved(sibling1, database);
+        Assert.assertEquals(asSet(block1, sibling2), new HashSet<>(index.getHeads()));
+        index.onBlockRemoved(block1, database);
+        Assert.assertEquals(asSet(sibling2), new HashSet<>(index.getHeads()));
+        index.onBlockRemoved(sibling2, database);
+        Assert.assertEquals(asSet(genesisBlock), new HashSet<>(index.getHeads()));
+    }
+
+    @Test
+    public void testRemovingNonHeadIsIgnored() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1), Collections.emptySet());
+
+        ChainHeadIndex index = new ChainHeadIndex();
+        index.rebuild(Arrays.asList(genesisBlock, block1), database);
+        index.onBlockRemoved(genesisBlock, database);
+        Assert.assertEquals(asSet(block1), new HashSet<>(index.getHeads()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testHeadsAreImmutable() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
+
+        ChainHeadIndex index = new ChainHeadIndex();
+        index.rebuild(Collections.singleton(genesisBlock), database);
+        index.getHeads().clear();
+    }
+
+    private static Set<Block> asSet(Block... blocks) {
+        return new HashSet<>(Arrays.asList(blocks));
+    }
+}
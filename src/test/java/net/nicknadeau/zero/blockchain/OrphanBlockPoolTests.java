@@ -0,0 +1,101 @@
+package net.nicknadeau.zero.blockchain;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OrphanBlockPoolTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testDrainChildrenInArrivalOrder() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock child1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock child2 = BlockHelper.newSibling(child1, 1);
+        MutableBlock grandchild = BlockHelper.newNonGenesisBlock(BigInteger.TWO, child1, MIRROR_HASH);
+
+        OrphanBlockPool pool = new OrphanBlockPool(10, 1_000_000, Long.MAX_VALUE, () -> 0);
+        Assert.assertTrue(pool.hold(child2));
+        Assert.assertTrue(pool.hold(grandchild));
+        Assert.assertTrue(pool.hold(child1));
+
+        List<Block> children = pool.drainChildrenOf(genesisBlock.getBlockHash());
+        Assert.assertEquals(Arrays.asList(child2, child1), children);
+        Assert.assertTrue(pool.drainChildrenOf(genesisBlock.getBlockHash()).isEmpty());
+        Assert.assertEquals(Arrays.asList(grandchild), pool.drainChildrenOf(child1.getBlockHash()));
+
+        OrphanPoolStats stats = pool.getStats();
+        Assert.assertEquals(0, stats.getBlockCount());
+        Assert.assertEquals(0, stats.getByteCount());
+        Assert.assertEquals(3, stats.getHeldCount());
+        Assert.assertEquals(3, stats.getDrainedCount());
+    }
+
+    @Test
+    public void testEvictOldestWhenFull() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock child1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock child2 = BlockHelper.newSibling(child1, 1);
+        MutableBlock child3 = BlockHelper.newSibling(child1, 2);
+
+        OrphanBlockPool pool = new OrphanBlockPool(2, 1_000_000, Long.MAX_VALUE, () -> 0);
+        Assert.assertTrue(pool.hold(child1));
+        Assert.assertTrue(pool.hold(child2));
+        Assert.assertTrue(pool.hold(child3));
+
+        Assert.assertEquals(Arrays.asList(child2, child3), pool.drainChildrenOf(genesisBlock.getBlockHash()));
+        Assert.assertEquals(1, pool.getStats().getEvictedCount());
+    }
+
+    @Test
+    public void testEvictOldestWhenOverByteBudget() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock child1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock child2 = BlockHelper.newSibling(child1, 1);
+
+        // Size the budget so that only one block fits at a time.
+        OrphanBlockPool sizingPool = new OrphanBlockPool(10, 1_000_000, Long.MAX_VALUE, () -> 0);
+        sizingPool.hold(child1);
+        long blockBytes = sizingPool.getStats().getByteCount();
+
+        OrphanBlockPool pool = new OrphanBlockPool(10, blockBytes + 1, Long.MAX_VALUE, () -> 0);
+        Assert.assertTrue(pool.hold(child1));
+        Assert.assertTrue(pool.hold(child2));
+        Assert.assertEquals(1, pool.getStats().getBlockCount());
+        Assert.assertEquals(1, pool.getStats().getEvictedCount());
+        Assert.assertEquals(Arrays.asList(child2), pool.drainChildrenOf(genesisBlock.getBlockHash()));
+
+        // A block which could never fit is refused outright.
+        OrphanBlockPool tinyPool = new OrphanBlockPool(10, 1, Long.MAX_VALUE, () -> 0);
+        Assert.assertFalse(tinyPool.hold(child1));
+        Assert.assertEquals(0, tinyPool.getStats().getHeldCount());
+    }
+
+    @Test
+    public void testExpireByAge() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock child1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock child2 = BlockHelper.newSibling(child1, 1);
+
+        AtomicLong clock = new AtomicLong(0);
+        OrphanBlockPool pool = new OrphanBlockPool(10, 1_000_000, 100, clock::get);
+        Assert.assertTrue(pool.hold(child1));
+        clock.set(60);
+        Assert.assertTrue(pool.hold(child2));
+
+        // Only the first block is now too old.
+        clock.set(120);
+        OrphanPoolStats stats = pool.getStats();
+        Assert.assertEquals(1, stats.getBlockCount());
+        Assert.assertEquals(1, stats.getExpiredCount());
+        Assert.assertEquals(Arrays.asList(child2), pool.drainChildrenOf(genesisBlock.getBlockHash()));
+    }
+}
@@ -6,12 +6,15 @@ import net.nicknadeau.zero.blockchain.callback.LayerOneAddBlockCallback;
 import net.nicknadeau.zero.blockchain.callback.LayerOneDeleteBlockCallback;
 import net.nicknadeau.zero.blockchain.callback.LayerOneValidateBlockCallback;
 import net.nicknadeau.zero.blockchain.callback.ZeroCallbacks;
+import net.nicknadeau.zero.exception.DatabaseError;
 import net.nicknadeau.zero.exception.LayersOutOfSyncException;
 import net.nicknadeau.zero.exception.RuntimeAssertionError;
 import net.nicknadeau.zero.mock.BlockHelper;
 import net.nicknadeau.zero.mock.CallbackHelper;
 import net.nicknadeau.zero.mock.DatabaseHelper;
 import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
 import net.nicknadeau.zero.storage.ZeroDatabase;
 import net.nicknadeau.zero.type.Receipt;
 import net.nicknadeau.zero.type.ReceiptCode;
@@ -22,9 +25,20 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ZeroBlockchainTests {
     private static final HashFunction MIRROR_HASH = (payload) -> payload;
@@ -176,6 +190,514 @@ public class ZeroBlockchainTests {
         blockchain.addBlock(genesisBlock);
     }
 
+    @Test
+    public void testAddBlocksSucceeds() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1, block2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        List<Receipt> receipts = blockchain.addBlocks(blocks);
+        Assert.assertEquals(blocks.size(), receipts.size());
+        for (Receipt receipt : receipts) {
+            Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        }
+    }
+
+    @Test
+    public void testAddBlocksWhenParentInBatchFailsLayerOne() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1, block2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        // Layer one rejects the first child, so its own child can never be added.
+        int errorCode = 1;
+        LayerOneValidateBlockCallback validateCallback = (block) -> (block == block1) ? errorCode : 0;
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks(validateCallback);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        List<Receipt> receipts = blockchain.addBlocks(blocks);
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipts.get(0).getCode());
+        Assert.assertEquals(ReceiptCode.LAYER_ONE_FAILURE, receipts.get(1).getCode());
+        Assert.assertEquals(errorCode, receipts.get(1).getLayerOneErrorCode());
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipts.get(2).getCode());
+    }
+
+    @Test
+    public void testAddBlocksWhenParentInBatchIsInvalid() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        // An illegitimate signature on the genesis block invalidates it, and therefore its child too.
+        SignatureVerifier verifier = (key, payload, signature) -> !Arrays.equals(payload, genesisBlock.getBlockHash());
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(verifier)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        List<Receipt> receipts = blockchain.addBlocks(blocks);
+        Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipts.get(0).getCode());
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipts.get(1).getCode());
+    }
+
+    @Test
+    public void testAddBlocksWithDuplicateBlock() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        List<Receipt> receipts = blockchain.addBlocks(Arrays.asList(genesisBlock, genesisBlock));
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipts.get(0).getCode());
+        Assert.assertEquals(ReceiptCode.EXISTS, receipts.get(1).getCode());
+    }
+
+    @Test
+    public void testAddBlocksSavesWholeBatchBeforeAddingToLayerOne() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1, block2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        List<String> calls = new ArrayList<>();
+        for (Block block : blocks) {
+            Mockito.when(database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)).thenAnswer((invocation) -> calls.add("save " + block.getBlockNumber()));
+            Mockito.when(database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED)).thenAnswer((invocation) -> calls.add("added " + block.getBlockNumber()));
+            Mockito.when(database.removeBlockByHash(block.getBlockHash())).thenAnswer((invocation) -> calls.add("remove " + block.getBlockNumber()));
+        }
+
+        // Layer one refuses to add the first child, so it and its own child are removed from the database again.
+        int errorCode = 1;
+        LayerOneValidateBlockCallback validateCallback = (block) -> {
+            calls.add("validate " + block.getBlockNumber());
+            return 0;
+        };
+        LayerOneAddBlockCallback addCallback = (block) -> {
+            calls.add("add " + block.getBlockNumber());
+            return (block == block1) ? errorCode : 0;
+        };
+        ZeroCallbacks callbacks = ZeroCallbacks.Builder.newBuilder()
+                .withValidateBlockCallback(validateCallback)
+                .withAddBlockCallback(addCallback)
+                .withDeleteBlockCallback((block) -> 0)
+                .build()
+                ;
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        List<Receipt> receipts = blockchain.addBlocks(blocks);
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipts.get(0).getCode());
+        Assert.assertEquals(ReceiptCode.LAYER_ONE_FAILURE, receipts.get(1).getCode());
+        Assert.assertEquals(errorCode, receipts.get(1).getLayerOneErrorCode());
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipts.get(2).getCode());
+        Assert.assertEquals(Arrays.asList("validate 0", "validate 1", "validate 2", "save 0", "save 1", "save 2", "add 0", "add 1", "added 0", "remove 1", "remove 2"), calls);
+        Assert.assertFalse(blockchain.isOutOfSync());
+        Assert.assertEquals(genesisBlock, blockchain.getBestHead());
+    }
+
+    @Test
+    public void testGetBlockByHash() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(genesisBlock, blockchain.getBlockByHash(genesisBlock.getBlockHash()));
+        Assert.assertNull(blockchain.getBlockByHash(new byte[]{ 1, 2, 3 }));
+    }
+
+    @Test(timeout = 10_000)
+    public void testReadsDoNotWaitOnInProgressAdd() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+
+        // The add callback parks the adding thread until we have finished reading.
+        CountDownLatch addStarted = new CountDownLatch(1);
+        CountDownLatch readsDone = new CountDownLatch(1);
+        LayerOneAddBlockCallback addCallback = (block) -> {
+            addStarted.countDown();
+            try {
+                readsDone.await();
+            } catch (InterruptedException e) {
+                return 1;
+            }
+            return 0;
+        };
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks(addCallback);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+
+        AtomicReference<Receipt> receipt = new AtomicReference<>();
+        Thread adder = new Thread(() -> {
+            try {
+                receipt.set(blockchain.addBlock(genesisBlock));
+            } catch (LayersOutOfSyncException e) {
+                // leave the receipt null so that the assertion below fails.
+            }
+        });
+        adder.start();
+        addStarted.await();
+
+        Assert.assertFalse(blockchain.isOutOfSync());
+        Assert.assertNull(blockchain.getBlockByHash(new byte[]{ 1, 2, 3 }));
+        readsDone.countDown();
+
+        adder.join();
+        Assert.assertNotNull(receipt.get());
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.get().getCode());
+    }
+
+    @Test(timeout = 10_000)
+    public void testValidationDoesNotWaitOnInProgressAdd() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+
+        // The add callback parks the adding thread until the child block's signature has been verified.
+        CountDownLatch addStarted = new CountDownLatch(1);
+        CountDownLatch signatureVerified = new CountDownLatch(1);
+        LayerOneAddBlockCallback addCallback = (added) -> {
+            addStarted.countDown();
+            try {
+                signatureVerified.await();
+            } catch (InterruptedException e) {
+                return 1;
+            }
+            return 0;
+        };
+        SignatureVerifier verifier = (key, payload, signature) -> {
+            if (Arrays.equals(payload, block.getBlockHash())) {
+                signatureVerified.countDown();
+            }
+            return true;
+        };
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks(addCallback);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(verifier)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+
+        AtomicReference<Receipt> receipt = new AtomicReference<>();
+        Thread adder = new Thread(() -> {
+            try {
+                receipt.set(blockchain.addBlock(genesisBlock));
+            } catch (LayersOutOfSyncException e) {
+                // leave the receipt null so that the assertion below fails.
+            }
+        });
+        adder.start();
+        addStarted.await();
+
+        // The genesis add is parked holding the lock, yet the child must still get through its signature check, which
+        // is what releases the genesis add. The child then fails because the mocked database never sees its parent.
+        Receipt childReceipt = blockchain.addBlock(block);
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, childReceipt.getCode());
+
+        adder.join();
+        Assert.assertNotNull(receipt.get());
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.get().getCode());
+    }
+
+    @Test
+    public void testAddBlocksAsyncInSubmissionOrder() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1, block2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        // Each block only becomes visible as a parent once it is actually saved, so out-of-order adds would fail.
+        Set<Block> savedBlocks = ConcurrentHashMap.newKeySet();
+        for (Block block : blocks) {
+            Mockito.when(database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)).thenAnswer((invocation) -> savedBlocks.add(block));
+            Mockito.when(database.findBlockByHash(block.getBlockHash())).thenAnswer((invocation) -> savedBlocks.contains(block) ? block : null);
+            Mockito.when(database.findBlockHeaderByHash(block.getBlockHash())).thenAnswer((invocation) -> savedBlocks.contains(block) ? block : null);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+            ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                    .withDatabase(database)
+                    .withHashFunction(MIRROR_HASH)
+                    .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                    .withCallbacks(callbacks)
+                    .withExecutor(executor)
+                    .build()
+                    ;
+
+            List<CompletableFuture<Receipt>> futures = new ArrayList<>();
+            for (Block block : blocks) {
+                futures.add(blockchain.addBlockAsync(block));
+            }
+            for (CompletableFuture<Receipt> future : futures) {
+                Assert.assertEquals(ReceiptCode.SUCCESS, future.get().getCode());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRemoveBlockAsyncSucceeds() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Receipt receipt = blockchain.removeBlockAsync(genesisBlock).get();
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+    }
+
+    @Test
+    public void testAddBlockAsyncWhenUpdateStatusCallFails() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+
+        // Override the database to say it fails to update the status.
+        Mockito.when(database.updateBlockStatus(genesisBlock.getBlockHash(), BlockStatus.ADDED)).thenReturn(false);
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        try {
+            blockchain.addBlockAsync(genesisBlock).get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof LayersOutOfSyncException);
+        }
+        Assert.assertTrue(blockchain.isOutOfSync());
+
+        // Now every asynchronous operation must fail immediately.
+        Assert.assertTrue(blockchain.addBlockAsync(genesisBlock).isCompletedExceptionally());
+        Assert.assertTrue(blockchain.removeBlockAsync(genesisBlock).isCompletedExceptionally());
+    }
+
+    @Test
+    public void testOrphanAddedOnceParentArrives() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1, block2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        // Each block only becomes visible as a parent once it is actually saved.
+        Set<Block> savedBlocks = ConcurrentHashMap.newKeySet();
+        for (Block block : blocks) {
+            Mockito.when(database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)).thenAnswer((invocation) -> savedBlocks.add(block));
+            Mockito.when(database.findBlockByHash(block.getBlockHash())).thenAnswer((invocation) -> savedBlocks.contains(block) ? block : null);
+            Mockito.when(database.findBlockHeaderByHash(block.getBlockHash())).thenAnswer((invocation) -> savedBlocks.contains(block) ? block : null);
+        }
+
+        List<Block> layerOneBlocks = new ArrayList<>();
+        LayerOneAddBlockCallback addCallback = (block) -> {
+            layerOneBlocks.add(block);
+            return 0;
+        };
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks(addCallback);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .withOrphanPool(16, 1_000_000, Duration.ofMinutes(1))
+                .build()
+                ;
+
+        // The descendants arrive first and are held.
+        Assert.assertEquals(ReceiptCode.ORPHANED, blockchain.addBlock(block2).getCode());
+        Assert.assertEquals(ReceiptCode.ORPHANED, blockchain.addBlock(block1).getCode());
+        Assert.assertEquals(2, blockchain.getOrphanPoolStats().getBlockCount());
+
+        // Adding the genesis block drains the whole chain of orphans in order.
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.addBlock(genesisBlock).getCode());
+        Assert.assertEquals(blocks, layerOneBlocks);
+
+        OrphanPoolStats stats = blockchain.getOrphanPoolStats();
+        Assert.assertEquals(0, stats.getBlockCount());
+        Assert.assertEquals(2, stats.getDrainedCount());
+    }
+
+    @Test
+    public void testMissingParentWithoutOrphanPool() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(block1));
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, blockchain.addBlock(block1).getCode());
+        Assert.assertEquals(0, blockchain.getOrphanPoolStats().getHeldCount());
+    }
+
+    @Test
+    public void testHeadsFollowAddsAndRemoves() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.singleton(block));
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(Collections.singletonList(genesisBlock), new ArrayList<>(blockchain.getHeads()));
+        Assert.assertTrue(blockchain.isHead(genesisBlock.getBlockHash()));
+
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.addBlock(block).getCode());
+        Assert.assertEquals(Collections.singletonList(block), new ArrayList<>(blockchain.getHeads()));
+        Assert.assertTrue(blockchain.isHead(block.getBlockHash()));
+        Assert.assertFalse(blockchain.isHead(genesisBlock.getBlockHash()));
+
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.removeBlock(block).getCode());
+        Assert.assertEquals(Collections.singletonList(genesisBlock), new ArrayList<>(blockchain.getHeads()));
+        Assert.assertFalse(blockchain.isHead(block.getBlockHash()));
+        Assert.assertFalse(blockchain.isHead(null));
+    }
+
+    @Test
+    public void testGetBlockByNumber() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(block2, genesisBlock, block1), Collections.emptySet());
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(block2, blockchain.getBestHead());
+        Assert.assertEquals(genesisBlock, blockchain.getBlockByNumber(BigInteger.ZERO));
+        Assert.assertEquals(block1, blockchain.getBlockByNumber(BigInteger.ONE));
+        Assert.assertEquals(block2, blockchain.getBlockByNumber(BigInteger.TWO));
+        Assert.assertNull(blockchain.getBlockByNumber(BigInteger.TEN));
+        Assert.assertNull(blockchain.getBlockByNumber(null));
+        Assert.assertEquals(Arrays.asList(block1, block2), blockchain.getBlocksByNumber(BigInteger.ONE, BigInteger.TEN));
+
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.removeBlock(block2).getCode());
+        Assert.assertEquals(block1, blockchain.getBestHead());
+        Assert.assertNull(blockchain.getBlockByNumber(BigInteger.TWO));
+        Assert.assertEquals(Arrays.asList(genesisBlock, block1), blockchain.getBlocksByNumber(BigInteger.ZERO, BigInteger.TWO));
+    }
+
+    @Test
+    public void testAncestorQueries() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1, block2), Collections.emptySet());
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertTrue(blockchain.isAncestor(genesisBlock.getBlockHash(), block2.getBlockHash()));
+        Assert.assertFalse(blockchain.isAncestor(block2.getBlockHash(), block1.getBlockHash()));
+        Assert.assertFalse(blockchain.isAncestor(null, block1.getBlockHash()));
+        Assert.assertEquals(block1, blockchain.getCommonAncestor(block1.getBlockHash(), block2.getBlockHash()));
+        Assert.assertEquals(genesisBlock, blockchain.getAncestorAtHeight(block2.getBlockHash(), BigInteger.ZERO));
+        Assert.assertNull(blockchain.getAncestorAtHeight(block1.getBlockHash(), BigInteger.TWO));
+
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.removeBlock(block2).getCode());
+        Assert.assertFalse(blockchain.isAncestor(genesisBlock.getBlockHash(), block2.getBlockHash()));
+    }
+
+    @Test
+    public void testBestHeadFollowsAdds() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        List<Block> blocks = Arrays.asList(genesisBlock, block1);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), blocks);
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertNull(blockchain.getBestHead());
+        Assert.assertTrue(blockchain.getBlocksByNumber(BigInteger.ZERO, BigInteger.TEN).isEmpty());
+
+        blockchain.addBlocks(blocks);
+        Assert.assertEquals(block1, blockchain.getBestHead());
+    }
+
     @Test(expected = LayersOutOfSyncException.class)
     public void testBlockchainBackedByOutOfSyncDatabase() throws Exception {
         ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.emptySet());
@@ -199,7 +721,7 @@ public class ZeroBlockchainTests {
     @Test
     public void testRemoveBlockWhenUpdateStatusCallFails() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
-        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
 
         // Override the database to fail when we first try to update the block status.
         Mockito.when(database.updateBlockStatus(genesisBlock.getBlockHash(), BlockStatus.PENDING_DELETION)).thenReturn(false);
@@ -220,7 +742,7 @@ public class ZeroBlockchainTests {
     @Test
     public void testRemoveWhenLayerOneDeleteBlockFails() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
-        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
 
         int errorCode = 1;
         LayerOneDeleteBlockCallback deleteCallback = (block) -> { return errorCode; };
@@ -241,7 +763,7 @@ public class ZeroBlockchainTests {
     @Test(expected = LayersOutOfSyncException.class)
     public void testRemoveWhenRemoveDatabaseCallFails() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
-        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
 
         // Override the database to fail when we try to remove the block.
         Mockito.when(database.removeBlockByHash(genesisBlock.getBlockHash())).thenReturn(false);
@@ -260,7 +782,7 @@ public class ZeroBlockchainTests {
     @Test
     public void testRemoveWhenExceptionThrown() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
-        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
 
         IllegalArgumentException exception = new IllegalArgumentException();
         LayerOneDeleteBlockCallback deleteCallback = (block) -> { throw exception; };
@@ -312,10 +834,272 @@ public class ZeroBlockchainTests {
         Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipt.getCode());
     }
 
+    @Test
+    public void testRewindToRemovesBranchTipFirst() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        MutableBlock block3 = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(3), block2, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1, block2, block3), Collections.emptySet());
+
+        List<Block> deletedBlocks = new ArrayList<>();
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneDeleteBlockCallback) (deleted) -> {
+            deletedBlocks.add(deleted);
+            return 0;
+        });
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Receipt receipt = blockchain.rewindTo(block1.getBlockHash());
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        Assert.assertEquals(Arrays.asList(block3, block2), deletedBlocks);
+        Assert.assertEquals(Collections.singletonList(block1), new ArrayList<>(blockchain.getHeads()));
+        Assert.assertEquals(block1, blockchain.getBestHead());
+
+        // Rewinding to a head does nothing.
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.rewindTo(block1.getBlockHash()).getCode());
+        Assert.assertEquals(2, deletedBlocks.size());
+    }
+
+    @Test
+    public void testRewindToRemovesBlocksFromDatabaseOnlyOnceLayerOneHasRemovedThemAll() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        MutableBlock block3 = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(3), block2, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1, block2, block3), Collections.emptySet());
+
+        List<String> calls = new ArrayList<>();
+        for (Block block : Arrays.asList(block2, block3)) {
+            Mockito.when(database.removeBlockByHash(block.getBlockHash())).thenAnswer((invocation) -> calls.add("remove " + block.getBlockNumber()));
+        }
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneDeleteBlockCallback) (deleted) -> {
+            calls.add("delete " + deleted.getBlockNumber());
+            return 0;
+        });
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.rewindTo(block1.getBlockHash()).getCode());
+        Assert.assertEquals(Arrays.asList("delete 3", "delete 2", "remove 3", "remove 2"), calls);
+        Assert.assertEquals(block1, blockchain.getBestHead());
+    }
+
+    @Test
+    public void testRewindToUnknownBlock() throws Exception {
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.emptySet());
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, blockchain.rewindTo(new byte[]{ 1 }).getCode());
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, blockchain.rewindTo(null).getCode());
+    }
+
+    @Test
+    public void testRewindToWhenLayerOneDeleteBlockFails() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1, block2), Collections.emptySet());
+        Mockito.when(database.updateBlockStatus(block1.getBlockHash(), BlockStatus.ADDED)).thenReturn(true);
+
+        int code = 3;
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneDeleteBlockCallback) (deleted) -> (deleted == block1) ? code : 0);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Receipt receipt = blockchain.rewindTo(genesisBlock.getBlockHash());
+        Assert.assertEquals(ReceiptCode.LAYER_ONE_FAILURE, receipt.getCode());
+        Assert.assertEquals(code, receipt.getLayerOneErrorCode());
+        Assert.assertFalse(blockchain.isOutOfSync());
+        Assert.assertEquals(Collections.singletonList(block1), new ArrayList<>(blockchain.getHeads()));
+    }
+
+    @Test(expected = LayersOutOfSyncException.class)
+    public void testRewindToWhenRestoringStatusFails() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1), Collections.emptySet());
+
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneDeleteBlockCallback) (deleted) -> 1);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        try {
+            blockchain.rewindTo(genesisBlock.getBlockHash());
+        } finally {
+            Assert.assertTrue(blockchain.isOutOfSync());
+        }
+    }
+
+    @Test
+    public void testSwitchHeadSucceeds() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock oldBlock1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock oldBlock2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, oldBlock1, MIRROR_HASH);
+        MutableBlock newBlock1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1 }, MIRROR_HASH);
+        MutableBlock newBlock2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, newBlock1, MIRROR_HASH);
+        MutableBlock newBlock3 = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(3), newBlock2, MIRROR_HASH);
+        List<Block> newBranch = Arrays.asList(newBlock1, newBlock2, newBlock3);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, oldBlock1, oldBlock2), newBranch);
+
+        List<Block> calls = new ArrayList<>();
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((added) -> {
+            calls.add(added);
+            return 0;
+        }, (deleted) -> {
+            calls.add(deleted);
+            return 0;
+        });
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Receipt receipt = blockchain.switchHead(oldBlock2.getBlockHash(), newBranch);
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        Assert.assertEquals(Arrays.asList(oldBlock2, oldBlock1, newBlock1, newBlock2, newBlock3), calls);
+        Assert.assertEquals(Collections.singletonList(newBlock3), new ArrayList<>(blockchain.getHeads()));
+        Assert.assertEquals(newBlock3, blockchain.getBestHead());
+        Assert.assertTrue(blockchain.isAncestor(newBlock1.getBlockHash(), newBlock3.getBlockHash()));
+    }
+
+    @Test
+    public void testSwitchHeadWithInvalidBranchTearsNothingDown() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock oldBlock1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock newBlock1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1 }, MIRROR_HASH);
+        MutableBlock newBlock2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, newBlock1, MIRROR_HASH);
+        newBlock2.setBlockSignature(new byte[0]);
+        List<Block> newBranch = Arrays.asList(newBlock1, newBlock2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, oldBlock1), newBranch);
+
+        List<Block> calls = new ArrayList<>();
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((added) -> {
+            calls.add(added);
+            return 0;
+        }, (deleted) -> {
+            calls.add(deleted);
+            return 0;
+        });
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Receipt receipt = blockchain.switchHead(oldBlock1.getBlockHash(), newBranch);
+        Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipt.getCode());
+        Assert.assertTrue(calls.isEmpty());
+        Assert.assertEquals(oldBlock1, blockchain.getBestHead());
+    }
+
+    @Test
+    public void testSwitchHeadWhenLayerOneValidationFails() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock oldBlock1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock newBlock1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1 }, MIRROR_HASH);
+        MutableBlock newBlock2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, newBlock1, MIRROR_HASH);
+        List<Block> newBranch = Arrays.asList(newBlock1, newBlock2);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, oldBlock1), newBranch);
+
+        int code = 7;
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneValidateBlockCallback) (block) -> (block == newBlock2) ? code : 0);
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Receipt receipt = blockchain.switchHead(oldBlock1.getBlockHash(), newBranch);
+        Assert.assertEquals(ReceiptCode.LAYER_ONE_FAILURE, receipt.getCode());
+        Assert.assertEquals(code, receipt.getLayerOneErrorCode());
+        Assert.assertEquals(Collections.singletonList(oldBlock1), new ArrayList<>(blockchain.getHeads()));
+    }
+
+    @Test
+    public void testSwitchHeadWithUnrelatedBranch() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock sibling1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1 }, MIRROR_HASH);
+        MutableBlock newBlock = BlockHelper.newNonGenesisBlock(BigInteger.TWO, sibling1, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1, sibling1), Collections.singleton(newBlock));
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, blockchain.switchHead(block1.getBlockHash(), Collections.singletonList(newBlock)).getCode());
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, blockchain.switchHead(genesisBlock.getBlockHash(), Collections.singletonList(newBlock)).getCode());
+        Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, blockchain.switchHead(block1.getBlockHash(), Collections.emptyList()).getCode());
+    }
+
+    @Test
+    public void testRemoveNonHeadBlock() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, block1), Collections.singleton(block2));
+        Set<BlockStatus> writtenStatuses = new HashSet<>();
+        Mockito.when(database.updateBlockStatus(genesisBlock.getBlockHash(), BlockStatus.PENDING_DELETION)).thenAnswer((invocation) -> writtenStatuses.add(BlockStatus.PENDING_DELETION));
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+
+        // The genesis block has a child, so it must not be removed, and nothing may be written.
+        Receipt receipt = blockchain.removeBlock(genesisBlock);
+        Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipt.getCode());
+        Assert.assertNotNull(receipt.getErrorMessage());
+        Assert.assertTrue(writtenStatuses.isEmpty());
+
+        // A block which was never added does not exist.
+        receipt = blockchain.removeBlock(block2);
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipt.getCode());
+
+        Assert.assertTrue(blockchain.isHead(block1.getBlockHash()));
+        Assert.assertEquals(block1, blockchain.getBestHead());
+        Assert.assertFalse(blockchain.isOutOfSync());
+    }
+
     @Test
     public void testRemoveBlockSucceeds() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
-        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(genesisBlock));
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.emptySet());
 
         ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
         ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
@@ -371,6 +1155,68 @@ public class ZeroBlockchainTests {
         Assert.assertFalse(blockchain.isOutOfSync());
     }
 
+    @Test
+    public void testRecoveryAfterAddedStatusesApplyNothing() throws Exception {
+        assertRecoveryAfterFailedAddedStatuses(false);
+    }
+
+    @Test
+    public void testRecoveryAfterAddedStatusesFail() throws Exception {
+        assertRecoveryAfterFailedAddedStatuses(true);
+    }
+
+    /**
+     * Adds a child of the genesis block in a batch whose commit of the added statuses fails, either by applying nothing
+     * or by throwing, recovers the blockchain, and then removes the child. The genesis block must be a head again,
+     * which it only is if its child was indexed exactly once.
+     */
+    private void assertRecoveryAfterFailedAddedStatuses(boolean isThrowing) throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.singleton(block1));
+        Mockito.when(database.newWriteBatch()).thenAnswer((invocation) -> new WriteBatch() {
+            @Override
+            protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                // The pending saves go through, so that it is the batch of added statuses which fails.
+                if (operations.stream().allMatch((operation) -> operation.getType() == WriteOperation.Type.SAVE)) {
+                    return operations.size();
+                }
+                if (isThrowing) {
+                    throw new DatabaseError("commit failed");
+                }
+                return 0;
+            }
+        });
+
+        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
+        try {
+            blockchain.addBlocks(Collections.singletonList(block1));
+            Assert.fail();
+        } catch (LayersOutOfSyncException e) {
+            // this is the expected behaviour
+        }
+        Assert.assertTrue(blockchain.isOutOfSync());
+
+        // The child is still pending on disk, so the recovery adds it again.
+        Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)).thenReturn(Collections.singleton(block1));
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.recover().getCode());
+        Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)).thenReturn(Collections.emptySet());
+        Mockito.when(database.findBlockByHash(block1.getBlockHash())).thenReturn(block1);
+        Assert.assertTrue(blockchain.isHead(block1.getBlockHash()));
+        Assert.assertFalse(blockchain.isHead(genesisBlock.getBlockHash()));
+
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.removeBlock(block1).getCode());
+        Assert.assertTrue(blockchain.isHead(genesisBlock.getBlockHash()));
+        Assert.assertEquals(genesisBlock, blockchain.getBestHead());
+    }
+
     @Test
     public void testRecoveryOfPendingAdditionWhenCallbackFails() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
@@ -452,7 +1298,7 @@ public class ZeroBlockchainTests {
         Assert.assertTrue(blockchain.isOutOfSync());
     }
 
-    @Test(expected = RuntimeAssertionError.class)
+    @Test
     public void testRecoveryOfMultiplePendingAdditionBlocks() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
         MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
@@ -466,7 +1312,11 @@ public class ZeroBlockchainTests {
         Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)).thenReturn(Collections.emptySet());
         Mockito.when(database.containsPendingBlocks()).thenReturn(true);
 
-        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        List<Block> addedBlocks = new ArrayList<>();
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneAddBlockCallback) (added) -> {
+            addedBlocks.add(added);
+            return 0;
+        });
         ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
                 .withDatabase(database)
                 .withHashFunction(MIRROR_HASH)
@@ -476,15 +1326,52 @@ public class ZeroBlockchainTests {
                 ;
         Assert.assertTrue(blockchain.isOutOfSync());
 
+        // The blocks must be added parent-first.
         Receipt receipt = blockchain.recover();
         Assert.assertNotNull(receipt);
-        Assert.assertEquals(ReceiptCode.UNEXPECTED, receipt.getCode());
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        Assert.assertFalse(blockchain.isOutOfSync());
+        Assert.assertEquals(Arrays.asList(genesisBlock, block), addedBlocks);
+        Assert.assertEquals(block, blockchain.getBestHead());
+    }
+
+    @Test
+    public void testRecoveryOfInterruptedHeadSwitch() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock oldBlock = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock newBlock = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1 }, MIRROR_HASH);
+
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Arrays.asList(genesisBlock, oldBlock), Collections.singleton(newBlock));
+        Mockito.when(database.findBlocksByStatus(BlockStatus.ADDED)).thenReturn(Collections.singleton(genesisBlock));
+        Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)).thenReturn(Collections.singleton(oldBlock));
+        Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)).thenReturn(Collections.singleton(newBlock));
+        Mockito.when(database.containsPendingBlocks()).thenReturn(true);
+
+        List<Block> calls = new ArrayList<>();
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((added) -> {
+            calls.add(added);
+            return 0;
+        }, (deleted) -> {
+            calls.add(deleted);
+            return 0;
+        });
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(callbacks)
+                .build()
+                ;
         Assert.assertTrue(blockchain.isOutOfSync());
 
-        throw receipt.getUnexpectedErrorCause();
+        // The old block must be deleted before the new block is added.
+        Receipt receipt = blockchain.recover();
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        Assert.assertEquals(Arrays.asList(oldBlock, newBlock), calls);
+        Assert.assertEquals(Collections.singletonList(newBlock), new ArrayList<>(blockchain.getHeads()));
     }
 
-    @Test(expected = RuntimeAssertionError.class)
+    @Test
     public void testRecoveryOfMultiplePendingDeletionBlocks() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
         MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
@@ -498,7 +1385,11 @@ public class ZeroBlockchainTests {
         Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)).thenReturn(blocksToRemove);
         Mockito.when(database.containsPendingBlocks()).thenReturn(true);
 
-        ZeroCallbacks callbacks = CallbackHelper.newSuccessfulCallbacks();
+        List<Block> deletedBlocks = new ArrayList<>();
+        ZeroCallbacks callbacks = CallbackHelper.newCallbacks((LayerOneDeleteBlockCallback) (deleted) -> {
+            deletedBlocks.add(deleted);
+            return 0;
+        });
         ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
                 .withDatabase(database)
                 .withHashFunction(MIRROR_HASH)
@@ -508,12 +1399,13 @@ public class ZeroBlockchainTests {
                 ;
         Assert.assertTrue(blockchain.isOutOfSync());
 
+        // The blocks must be removed tip-first.
         Receipt receipt = blockchain.recover();
         Assert.assertNotNull(receipt);
-        Assert.assertEquals(ReceiptCode.UNEXPECTED, receipt.getCode());
-        Assert.assertTrue(blockchain.isOutOfSync());
-
-        throw receipt.getUnexpectedErrorCause();
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        Assert.assertFalse(blockchain.isOutOfSync());
+        Assert.assertEquals(Arrays.asList(block, genesisBlock), deletedBlocks);
+        Assert.assertTrue(blockchain.getHeads().isEmpty());
     }
 
     @Test(expected = RuntimeAssertionError.class)
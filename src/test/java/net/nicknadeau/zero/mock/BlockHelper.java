@@ -7,7 +7,9 @@ import net.nicknadeau.zero.util.internal.BlockHashPreImageUtil;
 import org.junit.Assert;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Helper class that constructs instances of {@link Block} for tests.
@@ -35,15 +37,24 @@ public final class BlockHelper {
      * Returns a new non-genesis block with the given number, parent, and whose hash is derived from the given function.
      */
     public static MutableBlock newNonGenesisBlock(BigInteger number, Block parent, HashFunction hashFunction) {
+        return newNonGenesisBlock(number, parent, new byte[0], hashFunction);
+    }
+
+    /**
+     * Returns a new non-genesis block with the given number, parent and data, and whose hash is derived from the given
+     * function. Blocks with the same parent but different data are siblings with different hashes.
+     */
+    public static MutableBlock newNonGenesisBlock(BigInteger number, Block parent, byte[] data, HashFunction hashFunction) {
         Assert.assertNotNull(number);
         Assert.assertNotNull(parent);
+        Assert.assertNotNull(data);
         Assert.assertNotNull(hashFunction);
         byte[] parentHash = parent.getBlockHash();
         MutableBlock block = new MutableBlock()
                 .setLayerZeroMajorVersion(ZeroVersion.ZERO_MAJOR_VERSION)
                 .setBlockNumber(number)
                 .setBlockProducerPublicKey(new byte[1])
-                .setBlockData(new byte[0])
+                .setBlockData(data)
                 .setBlockSignature(new byte[1])
                 .setParentBlockHash(Arrays.copyOf(parentHash, parentHash.length))
                 ;
@@ -52,6 +63,35 @@ public final class BlockHelper {
         return block;
     }
 
+    /**
+     * Returns a new sibling of the given non-genesis block, which has the same number and parent but the given data. Its
+     * hash is not derived from its contents but is fixed by the data, so siblings made with different data differ.
+     */
+    public static MutableBlock newSibling(Block block, int data) {
+        Assert.assertNotNull(block);
+        MutableBlock parent = new MutableBlock().setBlockHash(block.getParentBlockHash());
+        byte[] siblingData = new byte[]{ (byte) data };
+        MutableBlock sibling = newNonGenesisBlock(block.getBlockNumber(), parent, siblingData, (payload) -> payload);
+        sibling.setBlockHash(new byte[]{ (byte) data, 0x7f });
+        return sibling;
+    }
+
+    /**
+     * Returns a new chain of the given length, which starts at a genesis block and in which every other block is the
+     * child of the block before it. The hashes of the blocks are derived from the given function.
+     */
+    public static List<Block> newChain(int length, HashFunction hashFunction) {
+        Assert.assertNotNull(hashFunction);
+        List<Block> blocks = new ArrayList<>(length);
+        Block parent = newGenesisBlock(hashFunction);
+        blocks.add(parent);
+        for (int i = 1; i < length; i++) {
+            parent = newNonGenesisBlock(BigInteger.valueOf(i), parent, hashFunction);
+            blocks.add(parent);
+        }
+        return blocks;
+    }
+
     private static byte[] computeBlockHash(Block block, HashFunction hashFunction) {
         byte[] preImage;
         if (block.getBlockNumber().equals(BigInteger.ZERO)) {
@@ -50,6 +50,15 @@ public final class CallbackHelper {
         return newCallbacksPrivate(validateCallback, addCallback, deleteCallback);
     }
 
+    /**
+     * Returns callbacks, each of which returns a successful code when called, except for the given callbacks - the given
+     * callbacks will be used in place of the default successful callbacks of those types.
+     */
+    public static ZeroCallbacks newCallbacks(LayerOneAddBlockCallback addCallback, LayerOneDeleteBlockCallback deleteCallback) {
+        LayerOneValidateBlockCallback validateCallback = (block) -> 0;
+        return newCallbacksPrivate(validateCallback, addCallback, deleteCallback);
+    }
+
     private static ZeroCallbacks newCallbacksPrivate(LayerOneValidateBlockCallback validate, LayerOneAddBlockCallback add, LayerOneDeleteBlockCallback delete) {
         return ZeroCallbacks.Builder.newBuilder()
                 .withValidateBlockCallback(validate)
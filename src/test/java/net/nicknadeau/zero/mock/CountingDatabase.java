@@ -0,0 +1,116 @@
+package net.nicknadeau.zero.mock;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+
+import java.util.Collection;
+
+/**
+ * A database which delegates to another database and counts the lookups and status scans made of it. It can also run a
+ * hook in the middle of each block lookup, and can be made to fail its saves.
+ *
+ * The write batches of this database are the batches of the database it delegates to, so they are neither counted nor
+ * made to fail.
+ */
+public final class CountingDatabase implements ZeroDatabase {
+    private final ZeroDatabase database;
+    private int lookupCount = 0;
+    private int statusScanCount = 0;
+    private LookupHook onLookup = null;
+    private boolean failSaves = false;
+
+    public CountingDatabase(ZeroDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Returns the number of times a block has been looked up, either by checking whether it exists or by loading it.
+     */
+    public int getLookupCount() {
+        return this.lookupCount;
+    }
+
+    /**
+     * Returns the number of times the blocks with some status have been scanned for.
+     */
+    public int getStatusScanCount() {
+        return this.statusScanCount;
+    }
+
+    /**
+     * Sets the hook to run after each block is loaded but before it is returned, or {@code null} to run nothing.
+     */
+    public void setOnLookup(LookupHook onLookup) {
+        this.onLookup = onLookup;
+    }
+
+    /**
+     * Sets whether every save made to this database fails without reaching the database it delegates to.
+     */
+    public void setFailSaves(boolean failSaves) {
+        this.failSaves = failSaves;
+    }
+
+    @Override
+    public boolean genesisBlockExists() throws DatabaseError {
+        return this.database.genesisBlockExists();
+    }
+
+    @Override
+    public boolean blockExists(byte[] blockHash) throws DatabaseError {
+        this.lookupCount++;
+        return this.database.blockExists(blockHash);
+    }
+
+    @Override
+    public Block findBlockByHash(byte[] blockHash) throws DatabaseError {
+        this.lookupCount++;
+        Block block = this.database.findBlockByHash(blockHash);
+        if (this.onLookup != null) {
+            this.onLookup.run();
+        }
+        return block;
+    }
+
+    @Override
+    public Collection<Block> findBlocksByStatus(BlockStatus status) throws DatabaseError {
+        this.statusScanCount++;
+        return this.database.findBlocksByStatus(status);
+    }
+
+    @Override
+    public boolean saveBlockAndStatus(Block block, BlockStatus status) throws DatabaseError {
+        if (this.failSaves) {
+            throw new DatabaseError("save failed");
+        }
+        return this.database.saveBlockAndStatus(block, status);
+    }
+
+    @Override
+    public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) throws DatabaseError {
+        return this.database.updateBlockStatus(blockHash, status);
+    }
+
+    @Override
+    public boolean containsPendingBlocks() throws DatabaseError {
+        return this.database.containsPendingBlocks();
+    }
+
+    @Override
+    public boolean removeBlockByHash(byte[] blockHash) throws DatabaseError {
+        return this.database.removeBlockByHash(blockHash);
+    }
+
+    @Override
+    public WriteBatch newWriteBatch() {
+        return this.database.newWriteBatch();
+    }
+
+    @FunctionalInterface
+    public interface LookupHook {
+        void run() throws DatabaseError;
+    }
+}
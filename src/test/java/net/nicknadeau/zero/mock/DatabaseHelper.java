@@ -1,12 +1,15 @@
 package net.nicknadeau.zero.mock;
 
 import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockHeader;
 import net.nicknadeau.zero.block.BlockStatus;
 import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.SequentialWriteBatch;
 import net.nicknadeau.zero.storage.ZeroDatabase;
 import org.mockito.Mockito;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -26,11 +29,16 @@ public final class DatabaseHelper {
         Mockito.when(database.findBlocksByStatus(BlockStatus.ADDED)).thenReturn(blocksInDb);
         Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)).thenReturn(Collections.emptySet());
         Mockito.when(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)).thenReturn(Collections.emptySet());
+        Mockito.when(database.findBlockHeadersByStatus(BlockStatus.ADDED)).thenReturn(new ArrayList<BlockHeader>(blocksInDb));
+        Mockito.when(database.findBlockHeadersByStatus(BlockStatus.PENDING_ADDITION)).thenReturn(Collections.emptySet());
+        Mockito.when(database.findBlockHeadersByStatus(BlockStatus.PENDING_DELETION)).thenReturn(Collections.emptySet());
+        Mockito.when(database.newWriteBatch()).thenAnswer((invocation) -> new SequentialWriteBatch(database));
 
         // Add all blocks that are supposed to be in the database to it.
         boolean containsGenesis = false;
         for (Block block : blocksInDb) {
             Mockito.when(database.findBlockByHash(block.getBlockHash())).thenReturn(block);
+            Mockito.when(database.findBlockHeaderByHash(block.getBlockHash())).thenReturn(block);
             Mockito.when(database.blockExists(block.getBlockHash())).thenReturn(true);
             Mockito.when(database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)).thenReturn(false);
             Mockito.when(database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED)).thenReturn(false);
@@ -46,6 +54,7 @@ public final class DatabaseHelper {
         // The blocks that are not yet in the database but which we must allow in, set their criteria.
         for (Block block : blocksToAdd) {
             Mockito.when(database.findBlockByHash(block.getBlockHash())).thenReturn(null);
+            Mockito.when(database.findBlockHeaderByHash(block.getBlockHash())).thenReturn(null);
             Mockito.when(database.blockExists(block.getBlockHash())).thenReturn(false);
             Mockito.when(database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)).thenReturn(true);
             Mockito.when(database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED)).thenReturn(true);
@@ -0,0 +1,59 @@
+package net.nicknadeau.zero.storage;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.DatabaseHelper;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+
+public class SequentialWriteBatchTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testStopsAtFirstFailure() throws DatabaseError {
+        Block genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        Block block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.singleton(block));
+
+        // The genesis block is already added, so marking it added again fails, and the removal after it never runs.
+        WriteBatch batch = new SequentialWriteBatch(database)
+                .saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION)
+                .updateBlockStatus(genesisBlock.getBlockHash(), BlockStatus.ADDED)
+                .removeBlockByHash(block.getBlockHash());
+        Assert.assertEquals(1, batch.commit());
+    }
+
+    @Test
+    public void testDefaultBatchIsSequential() throws DatabaseError {
+        List<Block> blocks = Collections.singletonList(BlockHelper.newGenesisBlock(MIRROR_HASH));
+        ZeroDatabase database = new ZeroDatabase() {
+            @Override public boolean genesisBlockExists() { return false; }
+            @Override public boolean blockExists(byte[] blockHash) { return false; }
+            @Override public Block findBlockByHash(byte[] blockHash) { return null; }
+            @Override public java.util.Collection<Block> findBlocksByStatus(BlockStatus status) { return Collections.emptyList(); }
+            @Override public boolean saveBlockAndStatus(Block block, BlockStatus status) { return true; }
+            @Override public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) { return false; }
+            @Override public boolean containsPendingBlocks() { return false; }
+            @Override public boolean removeBlockByHash(byte[] blockHash) { return true; }
+        };
+        WriteBatch batch = database.newWriteBatch();
+        Assert.assertTrue(batch instanceof SequentialWriteBatch);
+        Assert.assertEquals(0, batch.commit());
+
+        batch = database.newWriteBatch().saveBlockAndStatus(blocks.get(0), BlockStatus.ADDED).removeBlockByHash(new byte[]{ 1 });
+        Assert.assertEquals(2, batch.commit());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullStatus() throws DatabaseError {
+        new SequentialWriteBatch(DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.emptySet()))
+                .updateBlockStatus(new byte[]{ 1 }, null);
+    }
+}
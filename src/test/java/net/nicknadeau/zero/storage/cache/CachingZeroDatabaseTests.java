@@ -0,0 +1,213 @@
+package net.nicknadeau.zero.storage.cache;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.CountingDatabase;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.List;
+
+public class CachingZeroDatabaseTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testHitsAndMisses() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks);
+        CachingZeroDatabase database = newCache(backing, 1_000_000, EvictionPolicy.LRU);
+
+        Assert.assertNull(database.findBlockByHash(null));
+        Assert.assertFalse(database.blockExists(null));
+        Assert.assertArrayEquals(blocks.get(1).getBlockHash(), database.findBlockByHash(blocks.get(1).getBlockHash()).getBlockHash());
+        Assert.assertEquals(1, database.getMissCount());
+        Assert.assertEquals(0, database.getHitCount());
+
+        Assert.assertArrayEquals(blocks.get(1).getBlockHash(), database.findBlockByHash(blocks.get(1).getBlockHash()).getBlockHash());
+        Assert.assertTrue(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertEquals(1, database.getMissCount());
+        Assert.assertEquals(2, database.getHitCount());
+        Assert.assertEquals(1, backing.getLookupCount());
+
+        // A block that does not exist is never cached.
+        Assert.assertNull(database.findBlockByHash(new byte[]{ 1 }));
+        Assert.assertNull(database.findBlockByHash(new byte[]{ 1 }));
+        Assert.assertEquals(3, backing.getLookupCount());
+        Assert.assertEquals(1, database.getCachedBlockCount());
+    }
+
+    @Test
+    public void testHeaderLookupDoesNotFillCache() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks);
+        CachingZeroDatabase database = newCache(backing, 1_000_000, EvictionPolicy.LRU);
+
+        Assert.assertNull(database.findBlockHeaderByHash(null));
+        Assert.assertArrayEquals(blocks.get(1).getBlockHash(), database.findBlockHeaderByHash(blocks.get(1).getBlockHash()).getBlockHash());
+        Assert.assertEquals(0, database.getCachedBlockCount());
+        Assert.assertEquals(1, backing.getLookupCount());
+
+        // Once the block is cached its header is found in the cache.
+        Assert.assertNotNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+        Assert.assertEquals(blocks.get(1).getBlockNumber(), database.findBlockHeaderByHash(blocks.get(1).getBlockHash()).getBlockNumber());
+        Assert.assertEquals(2, backing.getLookupCount());
+        Assert.assertEquals(1, database.getHitCount());
+        Assert.assertEquals(2, database.findBlockHeadersByStatus(BlockStatus.ADDED).size());
+    }
+
+    @Test
+    public void testSaveCachesBlock() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 1));
+        CachingZeroDatabase database = newCache(backing, 1_000_000, EvictionPolicy.W_TINY_LFU);
+
+        Assert.assertTrue(database.saveBlockAndStatus(blocks.get(1), BlockStatus.PENDING_ADDITION));
+        Assert.assertArrayEquals(blocks.get(1).getBlockHash(), database.findBlockByHash(blocks.get(1).getBlockHash()).getBlockHash());
+        Assert.assertEquals(0, backing.getLookupCount());
+
+        // Statuses are never cached.
+        Assert.assertTrue(database.updateBlockStatus(blocks.get(1).getBlockHash(), BlockStatus.ADDED));
+        Assert.assertFalse(database.containsPendingBlocks());
+        Assert.assertEquals(2, database.findBlocksByStatus(BlockStatus.ADDED).size());
+    }
+
+    @Test
+    public void testRemoveInvalidates() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        CachingZeroDatabase database = newCache(newBackingDatabase(blocks), 1_000_000, EvictionPolicy.LRU);
+        Assert.assertNotNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+        Assert.assertEquals(1, database.getCachedBlockCount());
+
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(1).getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(null));
+        Assert.assertEquals(0, database.getCachedBlockCount());
+        Assert.assertEquals(0, database.getWeight());
+        Assert.assertNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+    }
+
+    @Test
+    public void testLookupRacingWithRemovalDoesNotCacheRemovedBlock() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks);
+        CachingZeroDatabase database = newCache(backing, 1_000_000, EvictionPolicy.LRU);
+
+        // The block is removed after the lookup read it from the backing database but before it could be cached.
+        backing.setOnLookup(() -> database.removeBlockByHash(blocks.get(1).getBlockHash()));
+        Assert.assertNotNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+        backing.setOnLookup(null);
+
+        Assert.assertEquals(0, database.getCachedBlockCount());
+        Assert.assertNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+    }
+
+    @Test
+    public void testWriteBatchInvalidates() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 2));
+        CachingZeroDatabase database = newCache(backing, 1_000_000, EvictionPolicy.LRU);
+        Assert.assertNotNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+
+        WriteBatch batch = database.newWriteBatch()
+                .removeBlockByHash(blocks.get(1).getBlockHash())
+                .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED);
+        Assert.assertEquals(2, batch.commit());
+        Assert.assertNull(database.findBlockByHash(blocks.get(1).getBlockHash()));
+
+        int lookups = backing.getLookupCount();
+        Assert.assertArrayEquals(blocks.get(2).getBlockHash(), database.findBlockByHash(blocks.get(2).getBlockHash()).getBlockHash());
+        Assert.assertEquals(lookups, backing.getLookupCount());
+    }
+
+    @Test
+    public void testWeightIsBounded() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(100, MIRROR_HASH);
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            CachingZeroDatabase database = newCache(newBackingDatabase(blocks), 5_000, policy);
+            for (Block block : blocks) {
+                Assert.assertNotNull(database.findBlockByHash(block.getBlockHash()));
+                Assert.assertTrue(database.getWeight() <= 5_000);
+            }
+            Assert.assertTrue(database.getEvictionCount() > 0);
+            Assert.assertTrue(database.getCachedBlockCount() > 0);
+            Assert.assertEquals(blocks.size() - database.getCachedBlockCount(), database.getEvictionCount());
+        }
+    }
+
+    @Test
+    public void testLruEvictsLeastRecentlyUsed() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(100, MIRROR_HASH);
+        CachingZeroDatabase database = newCache(newBackingDatabase(blocks), 5_000, EvictionPolicy.LRU);
+        for (Block block : blocks) {
+            database.findBlockByHash(block.getBlockHash());
+        }
+        long hits = database.getHitCount();
+        database.findBlockByHash(blocks.get(99).getBlockHash());
+        database.findBlockByHash(blocks.get(0).getBlockHash());
+        Assert.assertEquals(hits + 1, database.getHitCount());
+    }
+
+    @Test
+    public void testTinyLfuKeepsFrequentBlockThroughScan() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(200, MIRROR_HASH);
+        Block hotBlock = blocks.get(0);
+        CachingZeroDatabase lfu = newCache(newBackingDatabase(blocks), 5_000, EvictionPolicy.W_TINY_LFU);
+        CachingZeroDatabase lru = newCache(newBackingDatabase(blocks), 5_000, EvictionPolicy.LRU);
+        for (CachingZeroDatabase database : new CachingZeroDatabase[]{ lfu, lru }) {
+            for (int i = 0; i < 10; i++) {
+                database.findBlockByHash(hotBlock.getBlockHash());
+            }
+            for (Block block : blocks.subList(1, blocks.size())) {
+                database.findBlockByHash(block.getBlockHash());
+            }
+        }
+
+        long lfuHits = lfu.getHitCount();
+        lfu.findBlockByHash(hotBlock.getBlockHash());
+        Assert.assertEquals(lfuHits + 1, lfu.getHitCount());
+
+        long lruHits = lru.getHitCount();
+        lru.findBlockByHash(hotBlock.getBlockHash());
+        Assert.assertEquals(lruHits, lru.getHitCount());
+    }
+
+    @Test
+    public void testBlockHeavierThanCacheIsNotCached() throws DatabaseError {
+        Block genesis = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        Block heavy = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesis, new byte[10_000], MIRROR_HASH);
+        CachingZeroDatabase database = newCache(newBackingDatabase(BlockHelper.newChain(1, MIRROR_HASH)), 5_000, EvictionPolicy.W_TINY_LFU);
+        Assert.assertTrue(database.saveBlockAndStatus(heavy, BlockStatus.ADDED));
+        Assert.assertEquals(0, database.getCachedBlockCount());
+        Assert.assertNotNull(database.findBlockByHash(heavy.getBlockHash()));
+        Assert.assertEquals(0, database.getCachedBlockCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaximumWeight() {
+        CachingZeroDatabase.Builder.newBuilder().withDatabase(new InMemoryZeroDatabase()).withMaximumWeight(0).build();
+    }
+
+    private static CachingZeroDatabase newCache(ZeroDatabase backing, long maximumWeight, EvictionPolicy policy) {
+        return CachingZeroDatabase.Builder.newBuilder()
+                .withDatabase(backing)
+                .withMaximumWeight(maximumWeight)
+                .withEvictionPolicy(policy)
+                .build()
+                ;
+    }
+
+    private static CountingDatabase newBackingDatabase(List<Block> blocks) throws DatabaseError {
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.ADDED);
+        }
+        return new CountingDatabase(database);
+    }
+}
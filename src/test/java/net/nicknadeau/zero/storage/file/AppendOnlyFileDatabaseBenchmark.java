@@ -0,0 +1,114 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A benchmark of {@link AppendOnlyFileDatabase} which measures the latency of each add and the throughput of the scan
+ * which rebuilds the index when the database is opened.
+ *
+ * This is not a test and is not run by the test suite. Run it directly, optionally giving the number of blocks, the size
+ * of the data of each block in bytes, the {@link SyncPolicy}, the number of concurrent writers and the length of the
+ * block hashes in a mapped index, or 0 for the heap index, as arguments. Group commit only pays off with more than one
+ * writer.
+ */
+public final class AppendOnlyFileDatabaseBenchmark {
+    private static final int WARMUP_BLOCKS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int dataSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        SyncPolicy syncPolicy = (args.length > 2) ? SyncPolicy.valueOf(args[2]) : SyncPolicy.GROUP_COMMIT;
+        int writerCount = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+        int indexedHashLength = (args.length > 4) ? Integer.parseInt(args[4]) : 0;
+        Path directory = Files.createTempDirectory("zero-file-db-benchmark");
+        try {
+            Block[] blocks = newChain(blockCount, dataSize);
+            long[] latencies = new long[blockCount];
+
+            long addStart = System.nanoTime();
+            long forceCount;
+            try (AppendOnlyFileDatabase database = AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(directory).withSyncPolicy(syncPolicy).withMappedIndex(indexedHashLength).build()) {
+                Thread[] writers = new Thread[writerCount];
+                for (int w = 0; w < writerCount; w++) {
+                    int writer = w;
+                    writers[w] = new Thread(() -> {
+                        try {
+                            for (int i = writer; i < blockCount; i += writerCount) {
+                                long start = System.nanoTime();
+                                database.saveBlockAndStatus(blocks[i], BlockStatus.PENDING_ADDITION);
+                                database.updateBlockStatus(blocks[i].getBlockHash(), BlockStatus.ADDED);
+                                latencies[i] = System.nanoTime() - start;
+                            }
+                        } catch (DatabaseError e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    writers[w].start();
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+                forceCount = database.getForceCount();
+            }
+            long addElapsed = System.nanoTime() - addStart;
+            long[] measured = Arrays.copyOfRange(latencies, Math.min(WARMUP_BLOCKS, blockCount / 2), blockCount);
+            Arrays.sort(measured);
+            System.out.printf("add (save + status update) of %d blocks with %d data bytes, %s, %d writers, %s index:%n"
+                    , blockCount, dataSize, syncPolicy, writerCount, (indexedHashLength == 0) ? "heap" : "mapped");
+            System.out.printf("  %,.0f adds/s, %,d forces%n", blockCount / (addElapsed / 1e9), forceCount);
+            System.out.printf("  p50 %,d ns, p99 %,d ns, p99.9 %,d ns, max %,d ns%n"
+                    , percentile(measured, 0.5), percentile(measured, 0.99), percentile(measured, 0.999), measured[measured.length - 1]);
+
+            long bytes = 0;
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    if (Segment.idOf(path.getFileName().toString()) >= 0) {
+                        bytes += Files.size(path);
+                    }
+                }
+            }
+            for (int run = 0; run < 5; run++) {
+                long start = System.nanoTime();
+                try (AppendOnlyFileDatabase database = AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(directory).withMappedIndex(indexedHashLength).build()) {
+                    long elapsed = System.nanoTime() - start;
+                    System.out.printf("open #%d: %d blocks in %,d ms, %,.0f blocks/s, %,.1f MiB/s%n"
+                            , run, database.size(), elapsed / 1_000_000, blockCount / (elapsed / 1e9), bytes / (elapsed / 1e9) / (1024 * 1024));
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static Block[] newChain(int length, int dataSize) {
+        Random random = new Random(42);
+        Block[] blocks = new Block[length];
+        byte[] parentHash = null;
+        for (int i = 0; i < length; i++) {
+            byte[] hash = ByteBuffer.allocate(32).putLong(random.nextLong()).putLong(i).array();
+            byte[] data = new byte[dataSize];
+            random.nextBytes(data);
+            blocks[i] = new ImmutableBlock(1, BigInteger.valueOf(i), new byte[32], hash, parentHash, data, new byte[64]);
+            parentHash = hash;
+        }
+        return blocks;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+}
@@ -0,0 +1,929 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.block.EncodedBlock;
+import net.nicknadeau.zero.blockchain.ZeroBlockchain;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.CallbackHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.type.Receipt;
+import net.nicknadeau.zero.type.ReceiptCode;
+import net.nicknadeau.zero.util.HashFunction;
+import net.nicknadeau.zero.util.SignatureVerifier;
+import net.nicknadeau.zero.util.internal.HashKey;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+public class AppendOnlyFileDatabaseTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+    private static final SignatureVerifier ALWAYS_OK_VERIFIER = (key, hash, signature) -> true;
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("zero-file-db");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testSaveAndFind() throws DatabaseError {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1, 2, 3 }, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertFalse(database.genesisBlockExists());
+            Assert.assertFalse(database.blockExists(null));
+            Assert.assertNull(database.findBlockByHash(null));
+            Assert.assertNull(database.findBlockByHash(block.getBlockHash()));
+
+            Assert.assertTrue(database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED));
+            Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+            Assert.assertTrue(database.genesisBlockExists());
+            Assert.assertTrue(database.blockExists(block.getBlockHash()));
+
+            assertSameBlock(genesisBlock, database.findBlockByHash(genesisBlock.getBlockHash()));
+            assertSameBlock(block, database.findBlockByHash(block.getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testStatusIndex() throws DatabaseError {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED);
+            database.saveBlockAndStatus(block1, BlockStatus.ADDED);
+            database.saveBlockAndStatus(block2, BlockStatus.PENDING_ADDITION);
+
+            Assert.assertTrue(database.containsPendingBlocks());
+            Assert.assertEquals(hashesOf(block2), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)));
+            Assert.assertEquals(hashesOf(genesisBlock, block1), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+            Assert.assertTrue(database.findBlocksByStatus(null).isEmpty());
+
+            Assert.assertTrue(database.updateBlockStatus(block2.getBlockHash(), BlockStatus.ADDED));
+            Assert.assertTrue(database.updateBlockStatus(block1.getBlockHash(), BlockStatus.PENDING_DELETION));
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertEquals(hashesOf(block1), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)));
+            Assert.assertFalse(database.updateBlockStatus(new byte[]{ 1 }, BlockStatus.ADDED));
+
+            Assert.assertTrue(database.removeBlockByHash(block1.getBlockHash()));
+            Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+            Assert.assertFalse(database.blockExists(block1.getBlockHash()));
+            Assert.assertTrue(database.removeBlockByHash(block1.getBlockHash()));
+            Assert.assertTrue(database.removeBlockByHash(null));
+            Assert.assertEquals(2, database.size());
+        }
+    }
+
+    @Test
+    public void testReopenRebuildsIndex() throws DatabaseError {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        MutableBlock block3 = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(3), block2, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED);
+            database.saveBlockAndStatus(block1, BlockStatus.ADDED);
+            database.saveBlockAndStatus(block2, BlockStatus.PENDING_ADDITION);
+            database.saveBlockAndStatus(block3, BlockStatus.ADDED);
+            database.updateBlockStatus(block2.getBlockHash(), BlockStatus.ADDED);
+            database.updateBlockStatus(block1.getBlockHash(), BlockStatus.PENDING_DELETION);
+            database.removeBlockByHash(block3.getBlockHash());
+        }
+
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertEquals(3, database.size());
+            Assert.assertTrue(database.genesisBlockExists());
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertFalse(database.blockExists(block3.getBlockHash()));
+            Assert.assertEquals(hashesOf(genesisBlock, block2), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+            Assert.assertEquals(hashesOf(block1), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)));
+            assertSameBlock(block2, database.findBlockByHash(block2.getBlockHash()));
+
+            // Writes after reopening go after the replayed records.
+            database.saveBlockAndStatus(block3, BlockStatus.PENDING_ADDITION);
+            database.removeBlockByHash(genesisBlock.getBlockHash());
+        }
+
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertEquals(3, database.size());
+            Assert.assertFalse(database.genesisBlockExists());
+            Assert.assertEquals(hashesOf(block3), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)));
+        }
+    }
+
+    @Test
+    public void testRollsOverToNewSegments() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(50, MIRROR_HASH);
+        MutableBlock largeBlock = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(50), blocks.get(49), new byte[4096], MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(512)) {
+            for (Block block : blocks) {
+                Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+            }
+            Assert.assertTrue(database.saveBlockAndStatus(largeBlock, BlockStatus.ADDED));
+            assertSameBlock(blocks.get(0), database.findBlockByHash(blocks.get(0).getBlockHash()));
+            assertSameBlock(largeBlock, database.findBlockByHash(largeBlock.getBlockHash()));
+        }
+        Assert.assertTrue(segmentFiles().size() > 2);
+
+        try (AppendOnlyFileDatabase database = open(512)) {
+            Assert.assertEquals(51, database.size());
+            for (Block block : blocks) {
+                assertSameBlock(block, database.findBlockByHash(block.getBlockHash()));
+            }
+            assertSameBlock(largeBlock, database.findBlockByHash(largeBlock.getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testCorruptTailIsDiscarded() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            for (Block block : blocks) {
+                database.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+        }
+
+        // Flip a byte of the last block's data, which is the last byte of the last record.
+        Path segment = segmentFiles().get(0);
+        int lastRecordEnd = endOfRecords(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{ 0x7f }), lastRecordEnd - 1);
+        }
+
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertEquals(2, database.size());
+            Assert.assertFalse(database.blockExists(blocks.get(2).getBlockHash()));
+            database.saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED);
+        }
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertEquals(3, database.size());
+            assertSameBlock(blocks.get(2), database.findBlockByHash(blocks.get(2).getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testCorruptRecordBeforeLastSegmentFailsToOpen() throws Exception {
+        try (AppendOnlyFileDatabase database = open(256)) {
+            for (Block block : BlockHelper.newChain(20, MIRROR_HASH)) {
+                database.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{ 0x7f }), LogRecord.HEADER_SIZE + 2);
+        }
+
+        try {
+            open(256);
+            Assert.fail("Expected the corrupt segment to be detected.");
+        } catch (DatabaseError e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testTornTailLeavesBlockPending() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            for (Block block : blocks) {
+                database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+                database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED);
+            }
+        }
+
+        // Tear the last status update in half, as if the machine stopped in the middle of writing it.
+        Path segment = segmentFiles().get(0);
+        int lastRecordEnd = endOfRecords(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(10), lastRecordEnd - 10);
+        }
+
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            Assert.assertEquals(3, database.size());
+            Assert.assertTrue(database.containsPendingBlocks());
+            Assert.assertEquals(hashesOf(blocks.get(2)), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)));
+
+            ZeroBlockchain blockchain = newBlockchain(database);
+            Assert.assertTrue(blockchain.isOutOfSync());
+            Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.recover().getCode());
+            Assert.assertFalse(database.containsPendingBlocks());
+        }
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertEquals(hashesOf(blocks), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+        }
+    }
+
+    @Test
+    public void testRecordsAfterMissingRecordAreErased() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            for (Block block : blocks) {
+                database.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+        }
+
+        // Erase the second record, as if its page never reached the device while the page after it did.
+        Path segment = segmentFiles().get(0);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int secondRecord = LogRecord.HEADER_SIZE + bytes.getInt(0);
+        int thirdRecord = secondRecord + LogRecord.HEADER_SIZE + bytes.getInt(secondRecord);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(thirdRecord - secondRecord), secondRecord);
+        }
+
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            Assert.assertEquals(1, database.size());
+            database.removeBlockByHash(blocks.get(0).getBlockHash());
+        }
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            Assert.assertEquals(0, database.size());
+            Assert.assertFalse(database.blockExists(blocks.get(2).getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testEveryWriteForcesEachWrite() throws Exception {
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            long forces = database.getForceCount();
+            for (Block block : BlockHelper.newChain(5, MIRROR_HASH)) {
+                database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+                database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED);
+            }
+            Assert.assertEquals(forces + 10, database.getForceCount());
+        }
+    }
+
+    @Test
+    public void testWriteBatchIsOneForcedRecord() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(5, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            long forces = database.getForceCount();
+            WriteBatch batch = database.newWriteBatch();
+            for (Block block : blocks) {
+                batch.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+            }
+            for (Block block : blocks) {
+                batch.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED);
+            }
+            batch.removeBlockByHash(blocks.get(4).getBlockHash());
+            Assert.assertEquals(11, batch.commit());
+            Assert.assertEquals(forces + 1, database.getForceCount());
+            Assert.assertEquals(4, database.size());
+            Assert.assertFalse(database.containsPendingBlocks());
+
+            // A failing batch writes nothing at all.
+            batch = database.newWriteBatch()
+                    .updateBlockStatus(blocks.get(0).getBlockHash(), BlockStatus.PENDING_DELETION)
+                    .updateBlockStatus(blocks.get(4).getBlockHash(), BlockStatus.ADDED);
+            Assert.assertEquals(0, batch.commit());
+            Assert.assertEquals(forces + 1, database.getForceCount());
+            Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+        }
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertEquals(hashesOf(blocks.subList(0, 4)), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+            assertSameBlock(blocks.get(3), database.findBlockByHash(blocks.get(3).getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testTornWriteBatchIsDiscarded() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024, SyncPolicy.EVERY_WRITE)) {
+            database.saveBlockAndStatus(blocks.get(0), BlockStatus.ADDED);
+            database.newWriteBatch()
+                    .saveBlockAndStatus(blocks.get(1), BlockStatus.ADDED)
+                    .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED)
+                    .commit();
+        }
+
+        // Tear the end off the batch, which leaves its first block intact but must discard the whole batch.
+        Path segment = segmentFiles().get(0);
+        int lastRecordEnd = endOfRecords(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(10), lastRecordEnd - 10);
+        }
+
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertEquals(1, database.size());
+            Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testConcurrentGroupCommits() throws Exception {
+        int threadCount = 8;
+        int blocksPerThread = 50;
+        List<Block> blocks = BlockHelper.newChain(threadCount * blocksPerThread, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(4096, SyncPolicy.GROUP_COMMIT)) {
+            long forces = database.getForceCount();
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < threadCount; i++) {
+                List<Block> slice = blocks.subList(i * blocksPerThread, (i + 1) * blocksPerThread);
+                threads.add(new Thread(() -> {
+                    try {
+                        for (Block block : slice) {
+                            database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+                            database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED);
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertTrue(errors.isEmpty());
+            Assert.assertTrue(database.getForceCount() - forces <= 2 * blocks.size());
+        }
+
+        try (AppendOnlyFileDatabase database = open(4096, SyncPolicy.GROUP_COMMIT)) {
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertEquals(hashesOf(blocks), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+        }
+    }
+
+    @Test
+    public void testPeriodicSync() throws Exception {
+        AppendOnlyFileDatabase database = AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(this.directory)
+                .withSyncPolicy(SyncPolicy.PERIODIC)
+                .withSyncInterval(Duration.ofMillis(5))
+                .build()
+                ;
+        try {
+            long forces = database.getForceCount();
+            database.saveBlockAndStatus(BlockHelper.newGenesisBlock(MIRROR_HASH), BlockStatus.ADDED);
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while ((database.getForceCount() == forces) && (System.nanoTime() < deadline)) {
+                Thread.sleep(1);
+            }
+            Assert.assertTrue(database.getForceCount() > forces);
+        } finally {
+            database.close();
+        }
+    }
+
+    @Test
+    public void testHeaderLookupDoesNotLoadData() throws DatabaseError {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[]{ 1, 2, 3 }, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(1024)) {
+            Assert.assertNull(database.findBlockHeaderByHash(null));
+            Assert.assertNull(database.findBlockHeaderByHash(block.getBlockHash()));
+            Assert.assertTrue(database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED));
+            Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION));
+
+            EncodedBlock header = (EncodedBlock) database.findBlockHeaderByHash(block.getBlockHash());
+            Assert.assertEquals(block.getBlockNumber(), header.getBlockNumber());
+            Assert.assertArrayEquals(block.getParentBlockHash(), header.getParentBlockHash());
+            Assert.assertArrayEquals(block.getBlockSignature(), header.getBlockSignature());
+
+            Assert.assertEquals(1, database.findBlockHeadersByStatus(BlockStatus.PENDING_ADDITION).size());
+            Assert.assertArrayEquals(block.getBlockHash(), database.findBlockHeadersByStatus(BlockStatus.PENDING_ADDITION).iterator().next().getBlockHash());
+
+            // The data of a block stays in its mapped segment until it is copied out, which happens only once.
+            EncodedBlock found = (EncodedBlock) database.findBlockByHash(block.getBlockHash());
+            Assert.assertTrue(found.getBlockDataBuffer().isDirect());
+            assertSameBlock(block, found);
+            Assert.assertSame(found.getBlockData(), found.getBlockData());
+        }
+    }
+
+    @Test
+    public void testCompressedBlocks() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock compressible = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, new byte[4096], MIRROR_HASH);
+        byte[] randomData = new byte[4096];
+        new Random(7).nextBytes(randomData);
+        MutableBlock incompressible = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, randomData, MIRROR_HASH);
+        // The mirror hash would make each hash as large as the data.
+        compressible.setBlockHash(new byte[]{ 1 });
+        incompressible.setBlockHash(new byte[]{ 2 });
+
+        try (AppendOnlyFileDatabase database = openCompressed(Deflater.BEST_SPEED, null)) {
+            Assert.assertTrue(database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED));
+            Assert.assertTrue(database.saveBlockAndStatus(compressible, BlockStatus.ADDED));
+            Assert.assertTrue(database.saveBlockAndStatus(incompressible, BlockStatus.ADDED));
+
+            Assert.assertTrue(database.findBlockHeaderByHash(compressible.getBlockHash()) instanceof CompressedBlock);
+            Assert.assertTrue(database.findBlockHeaderByHash(incompressible.getBlockHash()) instanceof EncodedBlock);
+            assertSameBlock(compressible, database.findBlockByHash(compressible.getBlockHash()));
+            assertSameBlock(incompressible, database.findBlockByHash(incompressible.getBlockHash()));
+        }
+        // Only the incompressible data takes up its full size.
+        Assert.assertTrue(endOfRecords(segmentFiles().get(0)) < 4096 + 1024);
+
+        // Compressed blocks can be read back whatever the compression level.
+        try (AppendOnlyFileDatabase database = open(1024 * 1024)) {
+            Assert.assertEquals(3, database.size());
+            assertSameBlock(compressible, database.findBlockByHash(compressible.getBlockHash()));
+            assertSameBlock(incompressible, database.findBlockByHash(incompressible.getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testCompressionDictionary() throws Exception {
+        // Small blocks which only compress well against a dictionary of typical block data.
+        byte[] dictionary = new byte[256];
+        new Random(11).nextBytes(dictionary);
+        List<Block> blocks = new ArrayList<>();
+        Block parent = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        blocks.add(parent);
+        for (int i = 1; i < 10; i++) {
+            byte[] data = Arrays.copyOf(dictionary, 128 + i);
+            parent = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(i), parent, data, MIRROR_HASH);
+            blocks.add(parent);
+        }
+
+        try (AppendOnlyFileDatabase database = openCompressed(Deflater.BEST_COMPRESSION, dictionary)) {
+            for (Block block : blocks) {
+                Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+            }
+            for (Block block : blocks.subList(1, blocks.size())) {
+                Assert.assertTrue(database.findBlockHeaderByHash(block.getBlockHash()) instanceof CompressedBlock);
+            }
+        }
+
+        try {
+            openCompressed(Deflater.BEST_COMPRESSION, null).close();
+            Assert.fail("Expected a database holding blocks compressed with a dictionary to need that dictionary.");
+        } catch (DatabaseError e) {
+            // expected.
+        }
+        try (AppendOnlyFileDatabase database = openCompressed(Deflater.NO_COMPRESSION, dictionary)) {
+            for (Block block : blocks) {
+                assertSameBlock(block, database.findBlockByHash(block.getBlockHash()));
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedWriteBatch() throws Exception {
+        List<Block> blocks = new ArrayList<>();
+        Block parent = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        blocks.add(parent);
+        for (int i = 1; i < 5; i++) {
+            parent = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(i), parent, new byte[1024], MIRROR_HASH);
+            blocks.add(parent);
+        }
+        try (AppendOnlyFileDatabase database = openCompressed(Deflater.DEFAULT_COMPRESSION, null)) {
+            WriteBatch batch = database.newWriteBatch();
+            for (Block block : blocks) {
+                batch.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+            Assert.assertEquals(5, batch.commit());
+            Assert.assertTrue(database.findBlockHeaderByHash(blocks.get(4).getBlockHash()) instanceof CompressedBlock);
+        }
+        try (AppendOnlyFileDatabase database = open(1024 * 1024)) {
+            for (Block block : blocks) {
+                assertSameBlock(block, database.findBlockByHash(block.getBlockHash()));
+            }
+        }
+    }
+
+    @Test
+    public void testClosedDatabaseThrows() throws DatabaseError {
+        AppendOnlyFileDatabase database = open(1024);
+        database.close();
+        database.close();
+        try {
+            database.blockExists(new byte[]{ 1 });
+            Assert.fail("Expected a closed database to throw.");
+        } catch (DatabaseError e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testBackingBlockchain() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(100, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(4096)) {
+            ZeroBlockchain blockchain = newBlockchain(database);
+            for (Receipt receipt : blockchain.addBlocks(blocks)) {
+                Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+            }
+            Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.rewindTo(blocks.get(49).getBlockHash()).getCode());
+        }
+
+        // A blockchain built on the reopened database picks up where the first left off.
+        try (AppendOnlyFileDatabase database = open(4096)) {
+            Assert.assertEquals(50, database.size());
+            ZeroBlockchain reopened = newBlockchain(database);
+            Assert.assertFalse(reopened.isOutOfSync());
+            Assert.assertArrayEquals(blocks.get(49).getBlockHash(), reopened.getBestHead().getBlockHash());
+            Assert.assertArrayEquals(blocks.get(10).getBlockHash(), reopened.getBlockByNumber(BigInteger.TEN).getBlockHash());
+        }
+    }
+
+    @Test
+    public void testBlockchainBatchesItsWrites() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(20, MIRROR_HASH);
+        try (AppendOnlyFileDatabase database = open(4096, SyncPolicy.EVERY_WRITE)) {
+            ZeroBlockchain blockchain = newBlockchain(database);
+
+            // The blocks are all saved as pending together, and then all marked as added together.
+            long forces = database.getForceCount();
+            for (Receipt receipt : blockchain.addBlocks(blocks)) {
+                Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+            }
+            Assert.assertEquals(forces + 2, database.getForceCount());
+            Assert.assertFalse(database.containsPendingBlocks());
+
+            // The whole branch is marked for deletion together, and then removed together once layer one has removed it.
+            forces = database.getForceCount();
+            Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.rewindTo(blocks.get(9).getBlockHash()).getCode());
+            Assert.assertEquals(forces + 2, database.getForceCount());
+            Assert.assertEquals(10, database.size());
+        }
+    }
+
+    @Test
+    public void testCompactionReclaimsDeadSegments() throws Exception {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            blocks.add(newBlock(i, 500));
+        }
+        try (AppendOnlyFileDatabase database = openCompacting(4096)) {
+            for (Block block : blocks) {
+                database.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+            for (int i = 0; i < 15; i++) {
+                database.removeBlockByHash(blocks.get(i).getBlockHash());
+            }
+            database.updateBlockStatus(blocks.get(15).getBlockHash(), BlockStatus.PENDING_DELETION);
+            int segmentCount = segmentFiles().size();
+
+            int compacted = database.compact();
+            Assert.assertTrue(compacted > 0);
+            Assert.assertEquals(segmentCount - compacted, segmentFiles().size());
+            CompactionStats stats = database.getCompactionStats();
+            Assert.assertEquals(compacted, stats.getCompactedSegmentCount());
+            Assert.assertTrue(stats.getReclaimedBytes() > 0);
+            Assert.assertTrue(stats.getPauseCount() > 0);
+            Assert.assertTrue(stats.getMaxPauseNanos() <= stats.getTotalPauseNanos());
+            Assert.assertEquals(0, database.compact());
+
+            assertCompactedBlocks(database, blocks);
+        }
+        try (AppendOnlyFileDatabase database = openCompacting(4096)) {
+            assertCompactedBlocks(database, blocks);
+        }
+    }
+
+    @Test
+    public void testCompactionCarriesStatusesAndRemovals() throws Exception {
+        Block a = newBlock(1, 3000);
+        Block b = newBlock(2, 100);
+        Block dead = newBlock(3, 3000);
+        Block active = newBlock(4, 3000);
+        try (AppendOnlyFileDatabase database = openCompacting(4096)) {
+            // The first segment holds a and b, and stays mostly live.
+            database.saveBlockAndStatus(a, BlockStatus.ADDED);
+            database.saveBlockAndStatus(b, BlockStatus.ADDED);
+
+            // The second segment holds the latest status of a and the removal of b, neither of which may be lost.
+            database.saveBlockAndStatus(dead, BlockStatus.ADDED);
+            database.updateBlockStatus(a.getBlockHash(), BlockStatus.PENDING_DELETION);
+            database.removeBlockByHash(b.getBlockHash());
+
+            database.saveBlockAndStatus(active, BlockStatus.ADDED);
+            database.removeBlockByHash(dead.getBlockHash());
+            Assert.assertEquals(3, segmentFiles().size());
+
+            Assert.assertEquals(1, database.compact());
+            Assert.assertEquals(2, segmentFiles().size());
+            assertCarriedBlocks(database, a, b, dead, active);
+        }
+        try (AppendOnlyFileDatabase database = openCompacting(4096)) {
+            assertCarriedBlocks(database, a, b, dead, active);
+        }
+    }
+
+    @Test
+    public void testCompactionDropsRemovalsOnceTheirBlocksAreGone() throws Exception {
+        Block kept = newBlock(0, 985);
+        List<Block> removed = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            removed.add(newBlock(i, 0));
+        }
+        Block active = newBlock(99, 900);
+        try (AppendOnlyFileDatabase database = openCompacting(1024)) {
+            // The first segment is filled by a block which stays live, so the removals are never in the oldest segment.
+            database.saveBlockAndStatus(kept, BlockStatus.ADDED);
+            for (Block block : removed) {
+                database.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+            for (Block block : removed) {
+                database.removeBlockByHash(block.getBlockHash());
+            }
+            database.saveBlockAndStatus(active, BlockStatus.ADDED);
+            List<Path> segments = segmentFiles();
+            Path activeSegment = segments.get(segments.size() - 1);
+            int activeEnd = endOfRecords(activeSegment);
+
+            // Once the segments which held the removed blocks are gone, the removals are dead and are not carried.
+            int compacted = 0;
+            for (int count = database.compact(); count > 0; count = database.compact()) {
+                compacted += count;
+            }
+            Assert.assertEquals(segments.size() - 2, compacted);
+            Assert.assertEquals(Arrays.asList(segments.get(0), activeSegment), segmentFiles());
+            Assert.assertEquals(activeEnd, endOfRecords(activeSegment));
+        }
+        try (AppendOnlyFileDatabase database = openCompacting(1024)) {
+            Assert.assertEquals(hashesOf(kept, active), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+            for (Block block : removed) {
+                Assert.assertFalse(database.blockExists(block.getBlockHash()));
+            }
+        }
+    }
+
+    @Test
+    public void testCompactionWhileWriting() throws Exception {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            blocks.add(newBlock(i, 500));
+        }
+        Set<HashKey> expected = new HashSet<>();
+        try (AppendOnlyFileDatabase database = openCompacting(4096)) {
+            // Every block is saved as pending, and then one in four is marked added while the others are removed.
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < blocks.size(); i++) {
+                        database.saveBlockAndStatus(blocks.get(i), BlockStatus.PENDING_ADDITION);
+                        if (i % 4 == 3) {
+                            database.updateBlockStatus(blocks.get(i - 3).getBlockHash(), BlockStatus.ADDED);
+                            for (int j = i - 2; j <= i; j++) {
+                                database.removeBlockByHash(blocks.get(j).getBlockHash());
+                            }
+                        }
+                    }
+                } catch (DatabaseError e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            writer.start();
+            int compacted = 0;
+            while (writer.isAlive()) {
+                compacted += database.compact();
+            }
+            writer.join();
+            compacted += database.compact();
+            Assert.assertTrue(compacted > 0);
+
+            for (int i = 0; i < blocks.size(); i++) {
+                if ((i % 4) == 0) {
+                    expected.add(HashKey.wrap(blocks.get(i).getBlockHash()));
+                }
+            }
+            Assert.assertEquals(expected, hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertEquals(100, database.size());
+            assertSameBlock(blocks.get(396), database.findBlockByHash(blocks.get(396).getBlockHash()));
+        }
+        try (AppendOnlyFileDatabase database = openCompacting(4096)) {
+            Assert.assertEquals(expected, hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertEquals(100, database.size());
+        }
+    }
+
+    @Test
+    public void testBackgroundCompaction() throws Exception {
+        try (AppendOnlyFileDatabase database = AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(this.directory).withSegmentSize(4096).withCompactionInterval(Duration.ofMillis(10)).build()) {
+            for (int i = 0; i < 10; i++) {
+                database.saveBlockAndStatus(newBlock(i, 500), BlockStatus.ADDED);
+            }
+            for (int i = 0; i < 10; i++) {
+                database.removeBlockByHash(newBlock(i, 500).getBlockHash());
+            }
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while ((database.getCompactionStats().getCompactedSegmentCount() == 0) && (System.nanoTime() < deadline)) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(database.getCompactionStats().getCompactedSegmentCount() > 0);
+            Assert.assertEquals(0, database.getCompactionStats().getFailedCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompactionThresholdMustBePositive() throws DatabaseError {
+        AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(this.directory).withCompactionThreshold(0).build();
+    }
+
+    @Test
+    public void testMappedIndex() throws Exception {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            blocks.add(newBlock(i, 100));
+        }
+        try (AppendOnlyFileDatabase database = openMapped()) {
+            Assert.assertTrue(Files.exists(this.directory.resolve("blocks.index")));
+            for (Block block : blocks) {
+                database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+            }
+            for (int i = 0; i < 2000; i++) {
+                if (i % 4 == 0) {
+                    database.updateBlockStatus(blocks.get(i).getBlockHash(), BlockStatus.ADDED);
+                } else {
+                    database.removeBlockByHash(blocks.get(i).getBlockHash());
+                }
+            }
+            Assert.assertTrue(database.compact() > 0);
+            assertMappedBlocks(database, blocks);
+
+            // Only hashes of the indexed length can be saved, and any other hash is simply not there.
+            try {
+                database.saveBlockAndStatus(BlockHelper.newGenesisBlock(MIRROR_HASH), BlockStatus.ADDED);
+                Assert.fail("Expected a hash of the wrong length to be rejected.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertFalse(database.blockExists(new byte[]{ 1 }));
+                Assert.assertNull(database.findBlockByHash(new byte[]{ 1 }));
+            }
+        }
+        Assert.assertFalse(Files.exists(this.directory.resolve("blocks.index")));
+        try (AppendOnlyFileDatabase database = openMapped()) {
+            assertMappedBlocks(database, blocks);
+        }
+    }
+
+    private static void assertMappedBlocks(AppendOnlyFileDatabase database, List<Block> blocks) throws DatabaseError {
+        Assert.assertEquals(500, database.size());
+        Assert.assertFalse(database.containsPendingBlocks());
+        Set<HashKey> expected = new HashSet<>();
+        for (int i = 0; i < 2000; i += 4) {
+            expected.add(HashKey.wrap(blocks.get(i).getBlockHash()));
+        }
+        Assert.assertEquals(expected, hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        assertSameBlock(blocks.get(1996), database.findBlockByHash(blocks.get(1996).getBlockHash()));
+        Assert.assertArrayEquals(blocks.get(8).getBlockHash(), database.findBlockHeaderByHash(blocks.get(8).getBlockHash()).getBlockHash());
+    }
+
+    private AppendOnlyFileDatabase openMapped() throws DatabaseError {
+        return AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(this.directory)
+                .withSegmentSize(16 * 1024)
+                .withCompactionInterval(null)
+                .withCompactionRate(Long.MAX_VALUE)
+                .withMappedIndex(Integer.BYTES)
+                .build()
+                ;
+    }
+
+    private static void assertCompactedBlocks(AppendOnlyFileDatabase database, List<Block> blocks) throws DatabaseError {
+        Assert.assertEquals(5, database.size());
+        Assert.assertEquals(hashesOf(blocks.get(15)), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)));
+        Assert.assertEquals(hashesOf(blocks.subList(16, 20)), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+        for (int i = 0; i < 15; i++) {
+            Assert.assertFalse(database.blockExists(blocks.get(i).getBlockHash()));
+        }
+        for (int i = 15; i < 20; i++) {
+            assertSameBlock(blocks.get(i), database.findBlockByHash(blocks.get(i).getBlockHash()));
+        }
+    }
+
+    private static void assertCarriedBlocks(AppendOnlyFileDatabase database, Block a, Block b, Block dead, Block active) throws DatabaseError {
+        Assert.assertEquals(hashesOf(a), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)));
+        Assert.assertEquals(hashesOf(active), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+        Assert.assertFalse(database.blockExists(b.getBlockHash()));
+        Assert.assertFalse(database.blockExists(dead.getBlockHash()));
+        assertSameBlock(a, database.findBlockByHash(a.getBlockHash()));
+    }
+
+    private AppendOnlyFileDatabase openCompacting(int segmentSize) throws DatabaseError {
+        return AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(this.directory)
+                .withSegmentSize(segmentSize)
+                .withCompactionInterval(null)
+                .withCompactionRate(Long.MAX_VALUE)
+                .build()
+                ;
+    }
+
+    private AppendOnlyFileDatabase open(int segmentSize) throws DatabaseError {
+        return open(segmentSize, SyncPolicy.GROUP_COMMIT);
+    }
+
+    private AppendOnlyFileDatabase openCompressed(int compressionLevel, byte[] compressionDictionary) throws DatabaseError {
+        return AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(this.directory)
+                .withSegmentSize(1024 * 1024)
+                .withCompressionLevel(compressionLevel)
+                .withCompressionDictionary(compressionDictionary)
+                .build()
+                ;
+    }
+
+    private AppendOnlyFileDatabase open(int segmentSize, SyncPolicy syncPolicy) throws DatabaseError {
+        return AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(this.directory)
+                .withSegmentSize(segmentSize)
+                .withSyncPolicy(syncPolicy)
+                .build()
+                ;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(this.directory)) {
+            paths.filter((path) -> Segment.idOf(path.getFileName().toString()) >= 0).sorted().forEach(files::add);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the offset just past the last record in the specified segment file.
+     */
+    private static int endOfRecords(Path segment) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int position = 0;
+        while (position + LogRecord.HEADER_SIZE <= bytes.capacity() && bytes.getInt(position) != 0) {
+            position += LogRecord.HEADER_SIZE + bytes.getInt(position);
+        }
+        return position;
+    }
+
+    private static ZeroBlockchain newBlockchain(AppendOnlyFileDatabase database) throws DatabaseError {
+        return ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(CallbackHelper.newSuccessfulCallbacks())
+                .build()
+                ;
+    }
+
+
+    /**
+     * Returns a new block with the specified amount of data and a short hash made from the specified id.
+     */
+    private static Block newBlock(int id, int dataSize) {
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(id + 1), BlockHelper.newGenesisBlock(MIRROR_HASH), new byte[dataSize], MIRROR_HASH);
+        return block.setBlockHash(ByteBuffer.allocate(Integer.BYTES).putInt(id).array());
+    }
+
+    private static void assertSameBlock(Block expected, Block actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.getLayerZeroMajorVersion(), actual.getLayerZeroMajorVersion());
+        Assert.assertEquals(expected.getBlockNumber(), actual.getBlockNumber());
+        Assert.assertArrayEquals(expected.getBlockProducerPublicKey(), actual.getBlockProducerPublicKey());
+        Assert.assertArrayEquals(expected.getBlockHash(), actual.getBlockHash());
+        Assert.assertArrayEquals(expected.getParentBlockHash(), actual.getParentBlockHash());
+        Assert.assertArrayEquals(expected.getBlockData(), actual.getBlockData());
+        Assert.assertArrayEquals(expected.getBlockSignature(), actual.getBlockSignature());
+    }
+
+    private static Set<HashKey> hashesOf(Block... blocks) {
+        return hashesOf(Arrays.asList(blocks));
+    }
+
+    @SafeVarargs
+    private static Set<HashKey> hashesOf(Collection<Block>... collections) {
+        Set<HashKey> hashes = new HashSet<>();
+        for (Collection<Block> blocks : collections) {
+            for (Block block : blocks) {
+                hashes.add(HashKey.wrap(block.getBlockHash()));
+            }
+        }
+        return hashes;
+    }
+}
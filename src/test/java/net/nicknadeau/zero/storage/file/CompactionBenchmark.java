@@ -0,0 +1,113 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A benchmark of the segment compaction of {@link AppendOnlyFileDatabase}, which measures the latency of each save of a
+ * new block while the segments left mostly dead by removed blocks are compacted, against the latency without compaction.
+ *
+ * This is not a test and is not run by the test suite. Run it directly, optionally giving the number of blocks, the size
+ * of the data of each block in bytes and the compaction rate in bytes per second as arguments.
+ */
+public final class CompactionBenchmark {
+    private static final int SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int dataSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        long rate = (args.length > 2) ? Long.parseLong(args[2]) : AppendOnlyFileDatabase.DEFAULT_COMPACTION_RATE;
+        Block[] blocks = newBlocks(2 * blockCount, dataSize);
+
+        System.out.printf("save of %d blocks with %d data bytes after removing 3 in 4 of %d blocks:%n", blockCount, dataSize, blockCount);
+        run("without compaction", blocks, blockCount, rate, false);
+        run("with compaction", blocks, blockCount, rate, true);
+    }
+
+    private static void run(String name, Block[] blocks, int blockCount, long rate, boolean isCompacting) throws Exception {
+        Path directory = Files.createTempDirectory("zero-file-db-benchmark");
+        try (AppendOnlyFileDatabase database = AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(directory)
+                .withSegmentSize(SEGMENT_SIZE)
+                .withCompactionInterval(null)
+                .withCompactionRate(rate)
+                .build()) {
+            for (int i = 0; i < blockCount; i++) {
+                database.saveBlockAndStatus(blocks[i], BlockStatus.ADDED);
+            }
+            for (int i = 0; i < blockCount; i++) {
+                if (i % 4 != 0) {
+                    database.removeBlockByHash(blocks[i].getBlockHash());
+                }
+            }
+            long bytesBefore = sizeOf(directory);
+
+            Thread compactor = new Thread(() -> {
+                try {
+                    database.compact();
+                } catch (DatabaseError e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            if (isCompacting) {
+                compactor.start();
+            }
+            long[] latencies = new long[blockCount];
+            long start = System.nanoTime();
+            for (int i = 0; i < blockCount; i++) {
+                long saveStart = System.nanoTime();
+                database.saveBlockAndStatus(blocks[blockCount + i], BlockStatus.ADDED);
+                latencies[i] = System.nanoTime() - saveStart;
+            }
+            long elapsed = System.nanoTime() - start;
+            compactor.join();
+
+            Arrays.sort(latencies);
+            CompactionStats stats = database.getCompactionStats();
+            System.out.printf("  %s: %,.0f saves/s, p50 %,d ns, p99 %,d ns, p99.9 %,d ns, max %,d ns%n"
+                    , name, blockCount / (elapsed / 1e9), percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999), latencies[latencies.length - 1]);
+            System.out.printf("    %,.1f MiB before, %,.1f MiB after, %s%n", bytesBefore / (1024.0 * 1024.0), sizeOf(directory) / (1024.0 * 1024.0), stats);
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static long sizeOf(Path directory) throws Exception {
+        long bytes = 0;
+        try (Stream<Path> paths = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                bytes += Files.size(path);
+            }
+        }
+        return bytes;
+    }
+
+    private static Block[] newBlocks(int count, int dataSize) {
+        Random random = new Random(42);
+        Block[] blocks = new Block[count];
+        for (int i = 0; i < count; i++) {
+            byte[] hash = ByteBuffer.allocate(32).putLong(random.nextLong()).putLong(i).array();
+            byte[] data = new byte[dataSize];
+            random.nextBytes(data);
+            blocks[i] = new ImmutableBlock(1, BigInteger.valueOf(i + 1), new byte[32], hash, new byte[32], data, new byte[64]);
+        }
+        return blocks;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+}
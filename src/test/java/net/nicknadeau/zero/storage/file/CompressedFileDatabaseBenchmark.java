@@ -0,0 +1,121 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * A benchmark of the block compression of {@link AppendOnlyFileDatabase}, which measures the write and read throughput
+ * and the size on disk of the same blocks stored uncompressed, compressed, and compressed with a preset dictionary.
+ *
+ * This is not a test and is not run by the test suite. Run it directly, optionally giving the number of blocks, the size
+ * of the data of each block in bytes and the compression level as arguments. The block data is made of words drawn from
+ * a small vocabulary, like the structured payloads of real blocks, so that it compresses.
+ */
+public final class CompressedFileDatabaseBenchmark {
+    private static final String[] VOCABULARY = { "transfer", "account", "amount", "nonce", "fee", "0x", "from", "to", "{", "}", ":", ",", "\"" };
+
+    public static void main(String[] args) throws Exception {
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        int dataSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        int level = (args.length > 2) ? Integer.parseInt(args[2]) : Deflater.BEST_SPEED;
+        Block[] blocks = newChain(blockCount, dataSize, new Random(42));
+        byte[] dictionary = newData(4096, new Random(7));
+
+        System.out.printf("%d blocks with %d data bytes:%n", blockCount, dataSize);
+        run("uncompressed", blocks, Deflater.NO_COMPRESSION, null);
+        run("level " + level, blocks, level, null);
+        run("level " + level + " + dictionary", blocks, level, dictionary);
+    }
+
+    private static void run(String name, Block[] blocks, int level, byte[] dictionary) throws Exception {
+        Path directory = Files.createTempDirectory("zero-file-db-benchmark");
+        try {
+            long writeStart = System.nanoTime();
+            try (AppendOnlyFileDatabase database = open(directory, level, dictionary)) {
+                for (Block block : blocks) {
+                    database.saveBlockAndStatus(block, BlockStatus.ADDED);
+                }
+            }
+            long writeElapsed = System.nanoTime() - writeStart;
+
+            long bytes = 0;
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    bytes += endOfRecords(path);
+                }
+            }
+
+            long readElapsed;
+            long checksum = 0;
+            try (AppendOnlyFileDatabase database = open(directory, level, dictionary)) {
+                long readStart = System.nanoTime();
+                for (Block block : blocks) {
+                    checksum += database.findBlockByHash(block.getBlockHash()).getBlockData().length;
+                }
+                readElapsed = System.nanoTime() - readStart;
+            }
+
+            System.out.printf("  %s: %,.1f MiB on disk, %,.0f writes/s, %,.0f reads/s (%d)%n"
+                    , name, bytes / (1024.0 * 1024.0), blocks.length / (writeElapsed / 1e9), blocks.length / (readElapsed / 1e9), checksum);
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static AppendOnlyFileDatabase open(Path directory, int level, byte[] dictionary) throws Exception {
+        return AppendOnlyFileDatabase.Builder.newBuilder()
+                .withDirectory(directory)
+                .withSyncPolicy(SyncPolicy.PERIODIC)
+                .withCompressionLevel(level)
+                .withCompressionDictionary(dictionary)
+                .build()
+                ;
+    }
+
+    /**
+     * Returns the offset just past the last record in the specified segment file.
+     */
+    private static long endOfRecords(Path segment) throws Exception {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int position = 0;
+        while (position + LogRecord.HEADER_SIZE <= bytes.capacity() && bytes.getInt(position) != 0) {
+            position += LogRecord.HEADER_SIZE + bytes.getInt(position);
+        }
+        return position;
+    }
+
+    private static Block[] newChain(int length, int dataSize, Random random) {
+        Block[] blocks = new Block[length];
+        byte[] parentHash = null;
+        for (int i = 0; i < length; i++) {
+            byte[] hash = ByteBuffer.allocate(32).putLong(random.nextLong()).putLong(i).array();
+            blocks[i] = new ImmutableBlock(1, BigInteger.valueOf(i), new byte[32], hash, parentHash, newData(dataSize, random), new byte[64]);
+            parentHash = hash;
+        }
+        return blocks;
+    }
+
+    private static byte[] newData(int size, Random random) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream(size);
+        while (data.size() < size) {
+            String word = (random.nextInt(4) == 0) ? Long.toHexString(random.nextLong()) : VOCABULARY[random.nextInt(VOCABULARY.length)];
+            data.writeBytes(word.getBytes(StandardCharsets.US_ASCII));
+        }
+        return Arrays.copyOf(data.toByteArray(), size);
+    }
+}
@@ -0,0 +1,128 @@
+package net.nicknadeau.zero.storage.file;
+
+import net.nicknadeau.zero.util.internal.HashKey;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ExtendibleHashIndexTests {
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        this.file = Files.createTempFile("zero-hash-index", ".index");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    @Test
+    public void testPutGetAndRemove() throws IOException {
+        ExtendibleHashIndex index = ExtendibleHashIndex.create(this.file, 4, Long.BYTES, 256);
+        try {
+            byte[] key = new byte[]{ 1, 2, 3, 4 };
+            Assert.assertNull(index.get(key));
+            Assert.assertTrue(index.put(key, valueOf(7)));
+            Assert.assertEquals(7, index.get(key).getLong(0));
+            Assert.assertTrue(index.get(key).isReadOnly());
+
+            Assert.assertFalse(index.put(key, valueOf(8)));
+            Assert.assertEquals(8, index.get(key).getLong(0));
+            Assert.assertEquals(1, index.size());
+
+            Assert.assertTrue(index.remove(key));
+            Assert.assertFalse(index.remove(key));
+            Assert.assertFalse(index.containsKey(key));
+            Assert.assertEquals(0, index.size());
+        } finally {
+            index.close();
+        }
+        Assert.assertFalse(Files.exists(this.file));
+    }
+
+    @Test
+    public void testSplitsKeepEveryEntry() throws IOException {
+        // Small pages make the index split and double its directory many times over.
+        Random random = new Random(42);
+        Map<HashKey, Long> expected = new HashMap<>();
+        ExtendibleHashIndex index = ExtendibleHashIndex.create(this.file, 32, Long.BYTES, 1024);
+        try {
+            for (long i = 0; i < 50_000; i++) {
+                byte[] key = new byte[32];
+                random.nextBytes(key);
+                index.put(key, valueOf(i));
+                expected.put(HashKey.wrap(key), i);
+
+                // Every third key is removed again, and every fifth is overwritten.
+                if (i % 3 == 0) {
+                    Assert.assertTrue(index.remove(key));
+                    expected.remove(HashKey.wrap(key));
+                } else if (i % 5 == 0) {
+                    index.put(key, valueOf(-i));
+                    expected.put(HashKey.wrap(key), -i);
+                }
+            }
+
+            Assert.assertEquals(expected.size(), index.size());
+            for (Map.Entry<HashKey, Long> entry : expected.entrySet()) {
+                Assert.assertEquals((long) entry.getValue(), index.get(entry.getKey().getHash()).getLong(0));
+            }
+            Map<HashKey, Long> actual = new HashMap<>();
+            index.forEach((key, value) -> actual.put(HashKey.wrap(key), value.getLong(0)));
+            Assert.assertEquals(expected, actual);
+
+            // The directory only has a few slots per page, far fewer than there are entries.
+            Assert.assertTrue(index.pageCount() > 1000);
+            Assert.assertTrue(index.directorySize() <= 4 * index.pageCount());
+            Assert.assertTrue(index.directorySize() < index.size());
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testKeysWhichDifferOnlySlightly() throws IOException {
+        ExtendibleHashIndex index = ExtendibleHashIndex.create(this.file, 4, 0, 64);
+        try {
+            for (int i = 0; i < 10_000; i++) {
+                Assert.assertTrue(index.put(ByteBuffer.allocate(4).putInt(i).array(), ByteBuffer.allocate(0)));
+            }
+            for (int i = 0; i < 10_000; i++) {
+                Assert.assertTrue(index.containsKey(ByteBuffer.allocate(4).putInt(i).array()));
+            }
+            Assert.assertFalse(index.containsKey(ByteBuffer.allocate(4).putInt(10_000).array()));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKeyLength() throws IOException {
+        ExtendibleHashIndex index = ExtendibleHashIndex.create(this.file, 4, Long.BYTES, 256);
+        try {
+            index.put(new byte[]{ 1, 2, 3 }, valueOf(1));
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPageSizeMustHoldTwoEntries() throws IOException {
+        ExtendibleHashIndex.create(this.file, 32, 32, 128);
+    }
+
+    private static ByteBuffer valueOf(long value) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, value);
+    }
+}
@@ -0,0 +1,228 @@
+package net.nicknadeau.zero.storage.filter;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.CountingDatabase;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class BloomFilteredZeroDatabaseTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+    private Path directory;
+
+    @Before
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("zero-filter-db");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testNegativeLookupsDoNotReachDatabase() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(100, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 50));
+        BloomFilteredZeroDatabase database = newFilter(backing, null);
+        Assert.assertFalse(database.isFilterLoaded());
+
+        for (Block block : blocks.subList(0, 50)) {
+            Assert.assertTrue(database.blockExists(block.getBlockHash()));
+            Assert.assertNotNull(database.findBlockByHash(block.getBlockHash()));
+        }
+        Assert.assertEquals(100, backing.getLookupCount());
+        Assert.assertFalse(database.blockExists(null));
+        Assert.assertNull(database.findBlockByHash(null));
+
+        for (Block block : blocks.subList(50, 100)) {
+            Assert.assertFalse(database.blockExists(block.getBlockHash()));
+            Assert.assertNull(database.findBlockByHash(block.getBlockHash()));
+        }
+        Assert.assertEquals(100 + (2 * database.getFalsePositiveCount()), backing.getLookupCount());
+        Assert.assertEquals(100, database.getFilteredCount() + database.getFalsePositiveCount());
+        Assert.assertEquals(100 + database.getFalsePositiveCount(), database.getPassedCount());
+    }
+
+    @Test
+    public void testSaveAndRemove() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 1));
+        BloomFilteredZeroDatabase database = newFilter(backing, null);
+
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertTrue(database.saveBlockAndStatus(blocks.get(1), BlockStatus.PENDING_ADDITION));
+        Assert.assertTrue(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertTrue(database.containsPendingBlocks());
+
+        // Saving a block again must not count it twice, or removing it once would leave it in the filter.
+        Assert.assertTrue(database.saveBlockAndStatus(blocks.get(1), BlockStatus.ADDED));
+        Assert.assertFalse(database.containsPendingBlocks());
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(1).getBlockHash()));
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertEquals(0, database.getFalsePositiveCount());
+
+        // Removing a block which does not exist leaves the blocks sharing its counters alone.
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(2).getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(null));
+        Assert.assertTrue(database.blockExists(blocks.get(0).getBlockHash()));
+    }
+
+    @Test
+    public void testFailedSaveLeavesNoFalseNegative() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 1));
+        BloomFilteredZeroDatabase database = newFilter(backing, null);
+
+        backing.setFailSaves(true);
+        try {
+            database.saveBlockAndStatus(blocks.get(1), BlockStatus.ADDED);
+            Assert.fail();
+        } catch (DatabaseError e) {
+            // expected.
+        }
+        backing.setFailSaves(false);
+
+        // The save may or may not have reached the database, so the block must still reach the database.
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertEquals(1, database.getFalsePositiveCount());
+    }
+
+    @Test
+    public void testWriteBatchUpdatesFilter() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(4, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 2));
+        BloomFilteredZeroDatabase database = newFilter(backing, null);
+
+        WriteBatch batch = database.newWriteBatch()
+                .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED)
+                .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED)
+                .removeBlockByHash(blocks.get(1).getBlockHash())
+                .updateBlockStatus(blocks.get(3).getBlockHash(), BlockStatus.ADDED);
+        Assert.assertEquals(0, batch.commit());
+        Assert.assertFalse(database.blockExists(blocks.get(2).getBlockHash()));
+        Assert.assertTrue(database.blockExists(blocks.get(1).getBlockHash()));
+
+        batch = database.newWriteBatch()
+                .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED)
+                .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED)
+                .removeBlockByHash(blocks.get(1).getBlockHash());
+        Assert.assertEquals(3, batch.commit());
+        Assert.assertTrue(database.blockExists(blocks.get(2).getBlockHash()));
+
+        // Each block was counted once, so a single removal takes it out of the filter.
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(2).getBlockHash()));
+        long falsePositives = database.getFalsePositiveCount();
+        Assert.assertFalse(database.blockExists(blocks.get(2).getBlockHash()));
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertEquals(falsePositives, database.getFalsePositiveCount());
+    }
+
+    @Test
+    public void testFilterPersistsAcrossCleanShutdown() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(20, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 10));
+        Path filterFile = this.directory.resolve("blocks.filter");
+
+        BloomFilteredZeroDatabase database = newFilter(backing, filterFile);
+        Assert.assertFalse(database.isFilterLoaded());
+        for (Block block : blocks.subList(10, 20)) {
+            Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+        }
+        database.close();
+        database.close();
+        Assert.assertTrue(Files.exists(filterFile));
+
+        int scans = backing.getStatusScanCount();
+        database = newFilter(backing, filterFile);
+        Assert.assertTrue(database.isFilterLoaded());
+        Assert.assertEquals(scans, backing.getStatusScanCount());
+        Assert.assertFalse(Files.exists(filterFile));
+        for (Block block : blocks) {
+            Assert.assertTrue(database.blockExists(block.getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testFilterIsRebuiltAfterUncleanShutdown() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(20, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks.subList(0, 10));
+        Path filterFile = this.directory.resolve("blocks.filter");
+
+        newFilter(backing, filterFile).close();
+        BloomFilteredZeroDatabase database = newFilter(backing, filterFile);
+        for (Block block : blocks.subList(10, 20)) {
+            Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+        }
+
+        // The database was never closed, so the filter file does not hold the later blocks and must not be read.
+        database = newFilter(backing, filterFile);
+        Assert.assertFalse(database.isFilterLoaded());
+        for (Block block : blocks) {
+            Assert.assertTrue(database.blockExists(block.getBlockHash()));
+        }
+    }
+
+    @Test
+    public void testCorruptFilterFileIsRebuilt() throws DatabaseError, IOException {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        CountingDatabase backing = newBackingDatabase(blocks);
+        Path filterFile = this.directory.resolve("blocks.filter");
+        newFilter(backing, filterFile).close();
+
+        byte[] bytes = Files.readAllBytes(filterFile);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(filterFile, bytes);
+
+        BloomFilteredZeroDatabase database = newFilter(backing, filterFile);
+        Assert.assertFalse(database.isFilterLoaded());
+        Assert.assertFalse(Files.exists(filterFile));
+        for (Block block : blocks) {
+            Assert.assertTrue(database.blockExists(block.getBlockHash()));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFalsePositiveRate() throws DatabaseError {
+        BloomFilteredZeroDatabase.Builder.newBuilder().withDatabase(new InMemoryZeroDatabase()).withFilterSize(100, 0).build();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNoDatabase() throws DatabaseError {
+        BloomFilteredZeroDatabase.Builder.newBuilder().build();
+    }
+
+    private static BloomFilteredZeroDatabase newFilter(ZeroDatabase backing, Path filterFile) throws DatabaseError {
+        return BloomFilteredZeroDatabase.Builder.newBuilder()
+                .withDatabase(backing)
+                .withFilterSize(1_000, 0.01)
+                .withFilterFile(filterFile)
+                .build()
+                ;
+    }
+
+    private static CountingDatabase newBackingDatabase(List<Block> blocks) throws DatabaseError {
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.ADDED);
+        }
+        return new CountingDatabase(database);
+    }
+}
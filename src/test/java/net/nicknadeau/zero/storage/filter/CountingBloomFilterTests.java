@@ -0,0 +1,117 @@
+package net.nicknadeau.zero.storage.filter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+public class CountingBloomFilterTests {
+
+    @Test
+    public void testNoFalseNegatives() {
+        CountingBloomFilter filter = CountingBloomFilter.withExpectedKeys(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(keyOf(i));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            Assert.assertTrue(filter.mightContain(keyOf(i)));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        CountingBloomFilter filter = CountingBloomFilter.withExpectedKeys(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add(keyOf(i));
+        }
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) {
+            if (filter.mightContain(keyOf(i))) {
+                falsePositives++;
+            }
+        }
+        // The expected rate is 1%, and anything under 2% is within the noise of the hash.
+        Assert.assertTrue("false positives: " + falsePositives, falsePositives < 2_000);
+    }
+
+    @Test
+    public void testRemove() {
+        CountingBloomFilter filter = CountingBloomFilter.withExpectedKeys(1_000, 0.01);
+        for (int i = 0; i < 1_000; i++) {
+            filter.add(keyOf(i));
+        }
+        for (int i = 0; i < 1_000; i += 2) {
+            filter.remove(keyOf(i));
+        }
+
+        int stillPresent = 0;
+        for (int i = 0; i < 1_000; i++) {
+            if (i % 2 == 1) {
+                Assert.assertTrue(filter.mightContain(keyOf(i)));
+            } else if (filter.mightContain(keyOf(i))) {
+                stillPresent++;
+            }
+        }
+        Assert.assertTrue("removed keys still present: " + stillPresent, stillPresent < 50);
+    }
+
+    @Test
+    public void testKeyAddedTwiceSurvivesOneRemoval() {
+        CountingBloomFilter filter = CountingBloomFilter.withExpectedKeys(100, 0.01);
+        filter.add(keyOf(7));
+        filter.add(keyOf(7));
+        filter.remove(keyOf(7));
+        Assert.assertTrue(filter.mightContain(keyOf(7)));
+        filter.remove(keyOf(7));
+        Assert.assertFalse(filter.mightContain(keyOf(7)));
+    }
+
+    @Test
+    public void testSaturatedCountersNeverDecrement() {
+        CountingBloomFilter filter = new CountingBloomFilter(1, 1);
+        for (int i = 0; i < 20; i++) {
+            filter.add(keyOf(i));
+        }
+        for (int i = 0; i < 20; i++) {
+            filter.remove(keyOf(i));
+        }
+        Assert.assertTrue(filter.mightContain(keyOf(0)));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        CountingBloomFilter filter = CountingBloomFilter.withExpectedKeys(1_000, 0.01);
+        for (int i = 0; i < 1_000; i++) {
+            filter.add(keyOf(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.writeTo(new DataOutputStream(bytes));
+        CountingBloomFilter read = CountingBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Assert.assertEquals(filter.getHashCount(), read.getHashCount());
+        Assert.assertEquals(filter.getCounterCount(), read.getCounterCount());
+        for (int i = 0; i < 2_000; i++) {
+            Assert.assertEquals(filter.mightContain(keyOf(i)), read.mightContain(keyOf(i)));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadNonFilter() throws IOException {
+        CountingBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[16])));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFalsePositiveRate() {
+        CountingBloomFilter.withExpectedKeys(1_000, 1);
+    }
+
+    private static byte[] keyOf(int i) {
+        return ByteBuffer.allocate(32).putInt(28, i).array();
+    }
+}
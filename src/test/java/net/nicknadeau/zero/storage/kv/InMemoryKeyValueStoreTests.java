@@ -0,0 +1,85 @@
+package net.nicknadeau.zero.storage.kv;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class InMemoryKeyValueStoreTests {
+
+    @Test
+    public void testGetPutDelete() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        byte[] key = { 1, 2 };
+        byte[] value = { 3 };
+        Assert.assertNull(store.get(key));
+
+        store.put(key, value);
+        value[0] = 4;
+        Assert.assertArrayEquals(new byte[]{ 3 }, store.get(key));
+        store.get(key)[0] = 5;
+        Assert.assertArrayEquals(new byte[]{ 3 }, store.get(key));
+
+        store.delete(key);
+        store.delete(key);
+        Assert.assertNull(store.get(key));
+        Assert.assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testScanIsOrderedAndBoundedByPrefix() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        store.put(new byte[]{ 1, (byte) 0xFF }, new byte[0]);
+        store.put(new byte[]{ 1, 0x7F }, new byte[0]);
+        store.put(new byte[]{ 1 }, new byte[0]);
+        store.put(new byte[]{ 2 }, new byte[0]);
+        store.put(new byte[]{ 0, (byte) 0xFF }, new byte[0]);
+
+        // Keys compare as unsigned bytes, so 0xFF comes last.
+        Assert.assertEquals(List.of("1", "1,127", "1,255"), scan(store, new byte[]{ 1 }, Integer.MAX_VALUE));
+        Assert.assertEquals(List.of("1"), scan(store, new byte[]{ 1 }, 1));
+        Assert.assertEquals(5, scan(store, new byte[0], Integer.MAX_VALUE).size());
+        Assert.assertTrue(scan(store, new byte[]{ 3 }, Integer.MAX_VALUE).isEmpty());
+
+        store.put(new byte[]{ (byte) 0xFF, (byte) 0xFF, 1 }, new byte[0]);
+        Assert.assertEquals(List.of("255,255,1"), scan(store, new byte[]{ (byte) 0xFF, (byte) 0xFF }, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testBatchAppliesInOrder() {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        store.put(new byte[]{ 1 }, new byte[]{ 1 });
+
+        KeyValueBatch batch = new KeyValueBatch()
+                .put(new byte[]{ 2 }, new byte[]{ 2 })
+                .delete(new byte[]{ 1 })
+                .put(new byte[]{ 2 }, new byte[]{ 3 })
+                .delete(new byte[]{ 4 });
+        Assert.assertEquals(4, batch.size());
+        Assert.assertTrue(batch.getEntries().get(1).isDelete());
+        store.write(batch);
+
+        Assert.assertNull(store.get(new byte[]{ 1 }));
+        Assert.assertArrayEquals(new byte[]{ 3 }, store.get(new byte[]{ 2 }));
+        Assert.assertEquals(1, store.size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        new KeyValueBatch().put(new byte[]{ 1 }, null);
+    }
+
+    private static List<String> scan(InMemoryKeyValueStore store, byte[] prefix, int limit) {
+        List<String> keys = new ArrayList<>();
+        store.scan(prefix, (key, value) -> {
+            StringBuilder builder = new StringBuilder();
+            for (byte b : key) {
+                builder.append((builder.length() == 0) ? "" : ",").append(Byte.toUnsignedInt(b));
+            }
+            keys.add(builder.toString());
+            return keys.size() < limit;
+        });
+        return keys;
+    }
+}
@@ -0,0 +1,78 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * A benchmark of {@link KeyValueZeroDatabase} on the {@link InMemoryKeyValueStore} reference engine, which measures the
+ * throughput of adds, lookups by hash and status queries against those of an {@link InMemoryZeroDatabase}, so that the
+ * cost of the key schema itself can be told apart from the cost of any real engine.
+ *
+ * This is not a test and is not run by the test suite. Run it directly, optionally giving the number of blocks and the
+ * size of the data of each block in bytes as arguments.
+ */
+public final class KeyValueZeroDatabaseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int dataSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        Block[] blocks = newChain(blockCount, dataSize);
+
+        System.out.printf("%d blocks with %d data bytes:%n", blockCount, dataSize);
+        for (int round = 0; round < 2; round++) {
+            run("in-memory database", new InMemoryZeroDatabase(), blocks);
+            run("key-value database", KeyValueZeroDatabase.Builder.newBuilder().withStore(new InMemoryKeyValueStore()).build(), blocks);
+        }
+    }
+
+    private static void run(String name, ZeroDatabase database, Block[] blocks) throws Exception {
+        long addStart = System.nanoTime();
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+            database.updateBlockStatus(block.getBlockHash(), BlockStatus.ADDED);
+        }
+        long addElapsed = System.nanoTime() - addStart;
+
+        long checksum = 0;
+        long findStart = System.nanoTime();
+        for (Block block : blocks) {
+            checksum += database.findBlockByHash(block.getBlockHash()).getBlockData().length;
+        }
+        long findElapsed = System.nanoTime() - findStart;
+
+        // The last hundredth of the blocks are pending, as at the head of a chain.
+        for (int i = blocks.length - blocks.length / 100; i < blocks.length; i++) {
+            database.updateBlockStatus(blocks[i].getBlockHash(), BlockStatus.PENDING_ADDITION);
+        }
+        long queryStart = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            checksum += database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size();
+            checksum += database.containsPendingBlocks() ? 1 : 0;
+        }
+        long queryElapsed = System.nanoTime() - queryStart;
+
+        System.out.printf("  %s: %,.0f adds/s, %,.0f finds/s, %,.0f pending queries/s (%d)%n"
+                , name, blocks.length / (addElapsed / 1e9), blocks.length / (findElapsed / 1e9), 100 / (queryElapsed / 1e9), checksum);
+    }
+
+    private static Block[] newChain(int length, int dataSize) {
+        Random random = new Random(42);
+        Block[] blocks = new Block[length];
+        byte[] parentHash = null;
+        for (int i = 0; i < length; i++) {
+            byte[] hash = ByteBuffer.allocate(32).putLong(random.nextLong()).putLong(i).array();
+            byte[] data = new byte[dataSize];
+            random.nextBytes(data);
+            blocks[i] = new ImmutableBlock(1, BigInteger.valueOf(i), new byte[32], hash, parentHash, data, new byte[64]);
+            parentHash = hash;
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,224 @@
+package net.nicknadeau.zero.storage.kv;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class KeyValueZeroDatabaseTests {
+    private static final HashFunction SHA_256 = (payload) -> {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(payload);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    };
+
+    @Test
+    public void testSaveAndFind() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(5, SHA_256);
+        KeyValueZeroDatabase database = newDatabase(new InMemoryKeyValueStore());
+        Assert.assertFalse(database.genesisBlockExists());
+        Assert.assertFalse(database.containsPendingBlocks());
+
+        for (Block block : blocks) {
+            Assert.assertTrue(database.saveBlockAndStatus(block, (block.getBlockNumber().intValue() < 3) ? BlockStatus.ADDED : BlockStatus.PENDING_ADDITION));
+        }
+        Block sibling = BlockHelper.newNonGenesisBlock(BigInteger.TWO, blocks.get(1), new byte[]{ 7 }, SHA_256);
+        Assert.assertTrue(database.saveBlockAndStatus(sibling, BlockStatus.PENDING_DELETION));
+
+        Assert.assertTrue(database.genesisBlockExists());
+        Assert.assertTrue(database.containsPendingBlocks());
+        for (Block block : blocks) {
+            Assert.assertTrue(database.blockExists(block.getBlockHash()));
+            Block found = database.findBlockByHash(block.getBlockHash());
+            Assert.assertArrayEquals(block.getBlockHash(), found.getBlockHash());
+            Assert.assertArrayEquals(block.getParentBlockHash(), found.getParentBlockHash());
+            Assert.assertEquals(block.getBlockNumber(), found.getBlockNumber());
+        }
+        Assert.assertArrayEquals(new byte[]{ 7 }, database.findBlockByHash(sibling.getBlockHash()).getBlockData());
+        Assert.assertFalse(database.blockExists(new byte[32]));
+        Assert.assertNull(database.findBlockByHash(new byte[32]));
+        Assert.assertNull(database.findBlockByHash(null));
+
+        Assert.assertEquals(3, database.findBlocksByStatus(BlockStatus.ADDED).size());
+        Assert.assertEquals(2, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+        Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+        Assert.assertEquals(3, database.findBlockHeadersByStatus(BlockStatus.ADDED).size());
+        Assert.assertTrue(database.findBlocksByStatus(null).isEmpty());
+        Assert.assertEquals(2, database.findBlocksByNumber(BigInteger.TWO).size());
+        Assert.assertEquals(1, database.findBlocksByNumber(BigInteger.ZERO).size());
+        Assert.assertTrue(database.findBlocksByNumber(BigInteger.TEN).isEmpty());
+        Assert.assertTrue(database.findBlocksByNumber(BigInteger.ONE.shiftLeft(64)).isEmpty());
+    }
+
+    @Test
+    public void testWritesKeepIndexesConsistent() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(3, SHA_256);
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        KeyValueZeroDatabase database = newDatabase(store);
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.PENDING_ADDITION);
+        }
+        Assert.assertEquals(4 * blocks.size(), store.size());
+
+        Assert.assertTrue(database.updateBlockStatus(blocks.get(0).getBlockHash(), BlockStatus.ADDED));
+        Assert.assertTrue(database.updateBlockStatus(blocks.get(0).getBlockHash(), BlockStatus.ADDED));
+        Assert.assertFalse(database.updateBlockStatus(new byte[32], BlockStatus.ADDED));
+        Assert.assertEquals(4 * blocks.size(), store.size());
+        Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.ADDED).size());
+
+        // Saving a block again replaces its index keys.
+        Assert.assertTrue(database.saveBlockAndStatus(blocks.get(1), BlockStatus.PENDING_DELETION));
+        Assert.assertEquals(4 * blocks.size(), store.size());
+        Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(0).getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(0).getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(null));
+        Assert.assertFalse(database.genesisBlockExists());
+        Assert.assertFalse(database.blockExists(blocks.get(0).getBlockHash()));
+        Assert.assertEquals(4 * (blocks.size() - 1), store.size());
+    }
+
+    @Test
+    public void testKeysHaveFixedWidths() throws DatabaseError {
+        InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        KeyValueZeroDatabase database = newDatabase(store);
+        for (Block block : BlockHelper.newChain(20, SHA_256)) {
+            database.saveBlockAndStatus(block, BlockStatus.ADDED);
+        }
+
+        int[] expectedWidths = { 0, 1 + 32, 1 + 32, 2 + 32, 1 + 8 + 32 };
+        List<Long> numbers = new ArrayList<>();
+        store.scan(new byte[0], (key, value) -> {
+            Assert.assertEquals(expectedWidths[key[0]], key.length);
+            if (key[0] == BlockKeys.HEIGHT) {
+                numbers.add(ByteBuffer.wrap(key).getLong(1));
+            }
+            return true;
+        });
+
+        // The height index is scanned in block number order.
+        Assert.assertEquals(20, numbers.size());
+        for (int i = 0; i < numbers.size(); i++) {
+            Assert.assertEquals(i, (long) numbers.get(i));
+        }
+    }
+
+    @Test
+    public void testBatchIsAtomic() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(3, SHA_256);
+        CountingStore store = new CountingStore();
+        KeyValueZeroDatabase database = newDatabase(store);
+
+        int applied = database.newWriteBatch()
+                .saveBlockAndStatus(blocks.get(0), BlockStatus.ADDED)
+                .updateBlockStatus(blocks.get(0).getBlockHash(), BlockStatus.PENDING_DELETION)
+                .updateBlockStatus(blocks.get(1).getBlockHash(), BlockStatus.ADDED)
+                .commit();
+        Assert.assertEquals(0, applied);
+        Assert.assertEquals(0, store.writeCount);
+        Assert.assertFalse(database.genesisBlockExists());
+
+        applied = database.newWriteBatch()
+                .saveBlockAndStatus(blocks.get(0), BlockStatus.ADDED)
+                .saveBlockAndStatus(blocks.get(1), BlockStatus.PENDING_ADDITION)
+                .updateBlockStatus(blocks.get(1).getBlockHash(), BlockStatus.ADDED)
+                .saveBlockAndStatus(blocks.get(2), BlockStatus.ADDED)
+                .removeBlockByHash(blocks.get(2).getBlockHash())
+                .commit();
+        Assert.assertEquals(5, applied);
+        Assert.assertEquals(1, store.writeCount);
+        Assert.assertEquals(2, database.findBlocksByStatus(BlockStatus.ADDED).size());
+        Assert.assertFalse(database.containsPendingBlocks());
+        Assert.assertFalse(database.blockExists(blocks.get(2).getBlockHash()));
+        Assert.assertEquals(8, store.size());
+    }
+
+    @Test
+    public void testWrongHashLength() throws DatabaseError {
+        KeyValueZeroDatabase database = KeyValueZeroDatabase.Builder.newBuilder()
+                .withStore(new InMemoryKeyValueStore())
+                .withBlockHashLength(16)
+                .build();
+        Block genesis = BlockHelper.newGenesisBlock(SHA_256);
+        try {
+            database.saveBlockAndStatus(genesis, BlockStatus.ADDED);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+        Assert.assertFalse(database.blockExists(genesis.getBlockHash()));
+        Assert.assertNull(database.findBlockByHash(genesis.getBlockHash()));
+        Assert.assertFalse(database.updateBlockStatus(genesis.getBlockHash(), BlockStatus.ADDED));
+        Assert.assertTrue(database.removeBlockByHash(genesis.getBlockHash()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlockNumberTooLarge() throws DatabaseError {
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE.shiftLeft(63), BlockHelper.newGenesisBlock(SHA_256), SHA_256);
+        newDatabase(new InMemoryKeyValueStore()).saveBlockAndStatus(block, BlockStatus.ADDED);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNoStore() {
+        KeyValueZeroDatabase.Builder.newBuilder().build();
+    }
+
+    private static KeyValueZeroDatabase newDatabase(SortedKeyValueStore store) {
+        return KeyValueZeroDatabase.Builder.newBuilder().withStore(store).build();
+    }
+
+
+    /**
+     * An in-memory store which counts the batches written to it.
+     */
+    private static final class CountingStore implements SortedKeyValueStore {
+        private final InMemoryKeyValueStore store = new InMemoryKeyValueStore();
+        private int writeCount = 0;
+
+        @Override
+        public byte[] get(byte[] key) {
+            return this.store.get(key);
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) {
+            this.writeCount++;
+            this.store.put(key, value);
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            this.writeCount++;
+            this.store.delete(key);
+        }
+
+        @Override
+        public void scan(byte[] prefix, KeyValueVisitor visitor) {
+            this.store.scan(prefix, visitor);
+        }
+
+        @Override
+        public void write(KeyValueBatch batch) {
+            this.writeCount++;
+            this.store.write(batch);
+        }
+
+        private int size() {
+            return this.store.size();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package net.nicknadeau.zero.storage.memory;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.blockchain.ZeroBlockchain;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.CallbackHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.type.Receipt;
+import net.nicknadeau.zero.type.ReceiptCode;
+import net.nicknadeau.zero.util.HashFunction;
+import net.nicknadeau.zero.util.SignatureVerifier;
+import net.nicknadeau.zero.util.internal.HashKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class InMemoryZeroDatabaseTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+    private static final SignatureVerifier ALWAYS_OK_VERIFIER = (key, hash, signature) -> true;
+
+    @Test
+    public void testSaveAndFind() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        Assert.assertFalse(database.genesisBlockExists());
+        Assert.assertFalse(database.blockExists(genesisBlock.getBlockHash()));
+        Assert.assertFalse(database.blockExists(null));
+        Assert.assertNull(database.findBlockByHash(null));
+
+        Assert.assertTrue(database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED));
+        Assert.assertTrue(database.genesisBlockExists());
+        Assert.assertTrue(database.blockExists(genesisBlock.getBlockHash()));
+
+        Block found = database.findBlockByHash(genesisBlock.getBlockHash());
+        Assert.assertArrayEquals(genesisBlock.getBlockHash(), found.getBlockHash());
+        Assert.assertEquals(genesisBlock.getBlockNumber(), found.getBlockNumber());
+        Assert.assertArrayEquals(genesisBlock.getBlockData(), found.getBlockData());
+        Assert.assertNull(found.getParentBlockHash());
+    }
+
+    @Test
+    public void testSavedBlockIsCopied() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        byte[] hash = genesisBlock.getBlockHash().clone();
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED);
+
+        genesisBlock.getBlockHash()[0]++;
+        genesisBlock.setBlockData(new byte[]{ 1 });
+        Block found = database.findBlockByHash(hash);
+        Assert.assertNotNull(found);
+        Assert.assertArrayEquals(new byte[0], found.getBlockData());
+    }
+
+    @Test
+    public void testStatusIndex() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED);
+        database.saveBlockAndStatus(block1, BlockStatus.ADDED);
+        database.saveBlockAndStatus(block2, BlockStatus.PENDING_ADDITION);
+
+        Assert.assertTrue(database.containsPendingBlocks());
+        Assert.assertEquals(hashesOf(block2), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)));
+        Assert.assertEquals(hashesOf(genesisBlock, block1), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+        Assert.assertTrue(database.findBlocksByStatus(null).isEmpty());
+
+        Assert.assertTrue(database.updateBlockStatus(block2.getBlockHash(), BlockStatus.ADDED));
+        Assert.assertTrue(database.updateBlockStatus(block1.getBlockHash(), BlockStatus.PENDING_DELETION));
+        Assert.assertFalse(database.containsPendingBlocks());
+        Assert.assertEquals(hashesOf(block1), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_DELETION)));
+        Assert.assertFalse(database.updateBlockStatus(new byte[]{ 1 }, BlockStatus.ADDED));
+
+        Assert.assertTrue(database.removeBlockByHash(block1.getBlockHash()));
+        Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+        Assert.assertFalse(database.blockExists(block1.getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(block1.getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(null));
+        Assert.assertEquals(2, database.size());
+
+        Assert.assertTrue(database.removeBlockByHash(genesisBlock.getBlockHash()));
+        Assert.assertFalse(database.genesisBlockExists());
+    }
+
+    @Test
+    public void testWriteBatchIsAtomic() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block1 = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        MutableBlock block2 = BlockHelper.newNonGenesisBlock(BigInteger.TWO, block1, MIRROR_HASH);
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        database.saveBlockAndStatus(genesisBlock, BlockStatus.ADDED);
+
+        // The status update of a block which never exists fails the whole batch.
+        WriteBatch batch = database.newWriteBatch()
+                .saveBlockAndStatus(block1, BlockStatus.PENDING_ADDITION)
+                .removeBlockByHash(genesisBlock.getBlockHash())
+                .updateBlockStatus(block2.getBlockHash(), BlockStatus.ADDED);
+        Assert.assertEquals(0, batch.commit());
+        Assert.assertEquals(1, database.size());
+        Assert.assertFalse(database.containsPendingBlocks());
+
+        // A status update of a block saved earlier in the batch succeeds.
+        batch = database.newWriteBatch()
+                .saveBlockAndStatus(block1, BlockStatus.PENDING_ADDITION)
+                .saveBlockAndStatus(block2, BlockStatus.PENDING_ADDITION)
+                .updateBlockStatus(block1.getBlockHash(), BlockStatus.ADDED)
+                .removeBlockByHash(new byte[]{ 1 })
+                .removeBlockByHash(null);
+        Assert.assertEquals(4, batch.size());
+        Assert.assertEquals(4, batch.commit());
+        Assert.assertEquals(3, database.size());
+        Assert.assertEquals(hashesOf(block2), hashesOf(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION)));
+        Assert.assertEquals(hashesOf(genesisBlock, block1), hashesOf(database.findBlocksByStatus(BlockStatus.ADDED)));
+
+        try {
+            batch.commit();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testBackingBlockchain() throws Exception {
+        List<Block> blocks = new ArrayList<>();
+        Block parent = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        blocks.add(parent);
+        for (int i = 1; i < 100; i++) {
+            parent = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(i), parent, MIRROR_HASH);
+            blocks.add(parent);
+        }
+
+        InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        ZeroBlockchain blockchain = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(CallbackHelper.newSuccessfulCallbacks())
+                .build()
+                ;
+        for (Receipt receipt : blockchain.addBlocks(blocks)) {
+            Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+        }
+        Assert.assertEquals(ReceiptCode.EXISTS, blockchain.addBlock(blocks.get(5)).getCode());
+        Assert.assertEquals(ReceiptCode.SUCCESS, blockchain.rewindTo(blocks.get(49).getBlockHash()).getCode());
+        Assert.assertEquals(50, database.size());
+        Assert.assertFalse(database.containsPendingBlocks());
+
+        // A blockchain built on the same database picks up where the first left off.
+        ZeroBlockchain reopened = ZeroBlockchain.Builder.newBuilder()
+                .withDatabase(database)
+                .withHashFunction(MIRROR_HASH)
+                .withSignatureVerifier(ALWAYS_OK_VERIFIER)
+                .withCallbacks(CallbackHelper.newSuccessfulCallbacks())
+                .build()
+                ;
+        Assert.assertFalse(reopened.isOutOfSync());
+        Assert.assertArrayEquals(blocks.get(49).getBlockHash(), reopened.getBestHead().getBlockHash());
+        Assert.assertArrayEquals(blocks.get(10).getBlockHash(), reopened.getBlockByNumber(BigInteger.TEN).getBlockHash());
+    }
+
+    private static Set<HashKey> hashesOf(Block... blocks) {
+        return hashesOf(Arrays.asList(blocks));
+    }
+
+    private static Set<HashKey> hashesOf(Collection<Block> blocks) {
+        Set<HashKey> hashes = new HashSet<>();
+        for (Block block : blocks) {
+            hashes.add(HashKey.wrap(block.getBlockHash()));
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,113 @@
+package net.nicknadeau.zero.storage.shard;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.file.AppendOnlyFileDatabase;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A benchmark of {@link ShardedZeroDatabase} over {@link AppendOnlyFileDatabase} shards, which measures the throughput
+ * of batched writes with one shard and with the given number of shards. To measure the spread of writes over several
+ * disks, give one directory per shard on different mount points.
+ *
+ * This is not a test and is not run by the test suite. Run it directly, optionally giving the number of blocks, the size
+ * of the data of each block in bytes, the number of blocks in each batch and then the directory of each shard as
+ * arguments. If no directories are given, then four temporary directories are used.
+ */
+public final class ShardedZeroDatabaseBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int dataSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        int batchSize = (args.length > 2) ? Integer.parseInt(args[2]) : 1_000;
+        List<Path> directories = new ArrayList<>();
+        for (int i = 3; i < args.length; i++) {
+            directories.add(Path.of(args[i]));
+        }
+        boolean isTemporary = directories.isEmpty();
+        if (isTemporary) {
+            for (int i = 0; i < 4; i++) {
+                directories.add(Files.createTempDirectory("zero-sharded-db-benchmark"));
+            }
+        }
+        Block[] blocks = newBlocks(blockCount, dataSize);
+
+        System.out.printf("%d blocks with %d data bytes in batches of %d:%n", blockCount, dataSize, batchSize);
+        try {
+            for (int round = 0; round < 2; round++) {
+                run(blocks, batchSize, directories.subList(0, 1));
+                run(blocks, batchSize, directories);
+            }
+        } finally {
+            if (isTemporary) {
+                for (Path directory : directories) {
+                    delete(directory);
+                }
+            }
+        }
+    }
+
+    private static void run(Block[] blocks, int batchSize, List<Path> directories) throws Exception {
+        List<AppendOnlyFileDatabase> shards = new ArrayList<>();
+        ShardedZeroDatabase.Builder builder = ShardedZeroDatabase.Builder.newBuilder();
+        for (Path directory : directories) {
+            Path shardDirectory = Files.createTempDirectory(directory, "shard");
+            AppendOnlyFileDatabase shard = AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(shardDirectory).build();
+            shards.add(shard);
+            builder.withShard(shard);
+        }
+
+        try (ShardedZeroDatabase database = builder.build()) {
+            long start = System.nanoTime();
+            for (int from = 0; from < blocks.length; from += batchSize) {
+                WriteBatch batch = database.newWriteBatch();
+                for (int i = from; i < Math.min(blocks.length, from + batchSize); i++) {
+                    batch.saveBlockAndStatus(blocks[i], BlockStatus.ADDED);
+                }
+                batch.commit();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("  %d shard(s): %,.0f blocks/s%n", directories.size(), blocks.length / (elapsed / 1e9));
+        } finally {
+            for (AppendOnlyFileDatabase shard : shards) {
+                shard.close();
+            }
+            for (Path directory : directories) {
+                try (Stream<Path> paths = Files.list(directory)) {
+                    for (Path path : (Iterable<Path>) paths::iterator) {
+                        delete(path);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+        }
+    }
+
+    private static Block[] newBlocks(int count, int dataSize) {
+        Random random = new Random(42);
+        Block[] blocks = new Block[count];
+        for (int i = 0; i < count; i++) {
+            byte[] hash = ByteBuffer.allocate(32).putLong(random.nextLong()).putLong(i).array();
+            byte[] data = new byte[dataSize];
+            random.nextBytes(data);
+            blocks[i] = new ImmutableBlock(1, BigInteger.valueOf(i + 1), new byte[32], hash, new byte[32], data, new byte[64]);
+        }
+        return blocks;
+    }
+}
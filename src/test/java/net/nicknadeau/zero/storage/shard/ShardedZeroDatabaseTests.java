@@ -0,0 +1,290 @@
+package net.nicknadeau.zero.storage.shard;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase;
+import net.nicknadeau.zero.util.internal.ImmutableBlock;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class ShardedZeroDatabaseTests {
+
+    @Test
+    public void testRoutesByHashPrefix() throws DatabaseError {
+        List<InMemoryZeroDatabase> shards = newShards(4);
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            Assert.assertEquals(4, database.getShardCount());
+            Assert.assertEquals(0, database.shardOf(new byte[]{ 0x00, (byte) 0xFF }));
+            Assert.assertEquals(0, database.shardOf(new byte[]{ 0x3F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1 }));
+            Assert.assertEquals(1, database.shardOf(new byte[]{ 0x40 }));
+            Assert.assertEquals(3, database.shardOf(new byte[]{ (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF }));
+
+            List<Block> blocks = newBlocks(400, new Random(1));
+            for (Block block : blocks) {
+                Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+            }
+            for (Block block : blocks) {
+                int shard = database.shardOf(block.getBlockHash());
+                for (int i = 0; i < shards.size(); i++) {
+                    Assert.assertEquals(i == shard, shards.get(i).blockExists(block.getBlockHash()));
+                }
+                Assert.assertTrue(database.blockExists(block.getBlockHash()));
+                Assert.assertArrayEquals(block.getBlockData(), database.findBlockByHash(block.getBlockHash()).getBlockData());
+                Assert.assertEquals(block.getBlockNumber(), database.findBlockHeaderByHash(block.getBlockHash()).getBlockNumber());
+            }
+            for (InMemoryZeroDatabase shard : shards) {
+                Assert.assertTrue(shard.size() > 50);
+            }
+
+            Assert.assertTrue(database.genesisBlockExists());
+            Assert.assertEquals(400, database.findBlocksByStatus(BlockStatus.ADDED).size());
+            Assert.assertEquals(400, database.findBlockHeadersByStatus(BlockStatus.ADDED).size());
+            Assert.assertFalse(database.blockExists(null));
+            Assert.assertNull(database.findBlockByHash(null));
+            Assert.assertTrue(database.findBlocksByStatus(null).isEmpty());
+        }
+    }
+
+    @Test
+    public void testPendingIndexAcrossShards() throws DatabaseError {
+        List<InMemoryZeroDatabase> shards = newShards(3);
+        List<Block> blocks = newBlocks(60, new Random(2));
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            Assert.assertFalse(database.containsPendingBlocks());
+            for (int i = 0; i < blocks.size(); i++) {
+                database.saveBlockAndStatus(blocks.get(i), BlockStatus.values()[i % 3]);
+            }
+            Assert.assertTrue(database.containsPendingBlocks());
+            Assert.assertEquals(20, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+            Assert.assertEquals(20, database.findBlockHeadersByStatus(BlockStatus.PENDING_DELETION).size());
+
+            // Move every pending addition to added, and remove every pending deletion.
+            for (int i = 0; i < blocks.size(); i++) {
+                if (i % 3 == 1) {
+                    Assert.assertTrue(database.updateBlockStatus(blocks.get(i).getBlockHash(), BlockStatus.ADDED));
+                } else if (i % 3 == 2) {
+                    Assert.assertTrue(database.removeBlockByHash(blocks.get(i).getBlockHash()));
+                }
+            }
+            Assert.assertFalse(database.updateBlockStatus(blocks.get(2).getBlockHash(), BlockStatus.PENDING_ADDITION));
+            Assert.assertTrue(database.removeBlockByHash(null));
+            Assert.assertFalse(database.containsPendingBlocks());
+            Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).isEmpty());
+            Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+            Assert.assertEquals(40, database.findBlocksByStatus(BlockStatus.ADDED).size());
+        }
+
+        // A new database indexes the pending blocks already in its shards.
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            shards.get(database.shardOf(blocks.get(2).getBlockHash())).saveBlockAndStatus(blocks.get(2), BlockStatus.PENDING_DELETION);
+            shards.get(database.shardOf(blocks.get(5).getBlockHash())).saveBlockAndStatus(blocks.get(5), BlockStatus.PENDING_ADDITION);
+        }
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            Assert.assertTrue(database.containsPendingBlocks());
+            Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+            Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+        }
+    }
+
+    @Test
+    public void testBatchIsSplitByShard() throws DatabaseError {
+        List<CountingShard> shards = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            shards.add(new CountingShard(null));
+        }
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            Block low = newBlock(new byte[]{ 0x10, 1 }, 1);
+            Block high = newBlock(new byte[]{ (byte) 0x90, 1 }, 2);
+            Block otherHigh = newBlock(new byte[]{ (byte) 0x90, 2 }, 3);
+
+            WriteBatch batch = database.newWriteBatch()
+                    .saveBlockAndStatus(low, BlockStatus.PENDING_ADDITION)
+                    .saveBlockAndStatus(high, BlockStatus.ADDED)
+                    .updateBlockStatus(low.getBlockHash(), BlockStatus.PENDING_DELETION)
+                    .saveBlockAndStatus(otherHigh, BlockStatus.PENDING_ADDITION);
+            Assert.assertEquals(4, batch.commit());
+            Assert.assertEquals(1, shards.get(0).batchCount);
+            Assert.assertEquals(1, shards.get(1).batchCount);
+            Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+            Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+
+            // The second shard fails at its first operation, at position 1, while the first shard applies its whole batch.
+            batch = database.newWriteBatch()
+                    .removeBlockByHash(low.getBlockHash())
+                    .updateBlockStatus(new byte[]{ (byte) 0x90, 3 }, BlockStatus.ADDED)
+                    .updateBlockStatus(otherHigh.getBlockHash(), BlockStatus.ADDED);
+            Assert.assertEquals(1, batch.commit());
+            Assert.assertFalse(database.blockExists(low.getBlockHash()));
+            Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+            Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+        }
+    }
+
+    @Test
+    public void testBatchAppliesOperationsAfterFailureInOtherShards() throws DatabaseError {
+        List<InMemoryZeroDatabase> shards = newShards(2);
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            Block low = newBlock(new byte[]{ 0x10, 1 }, 1);
+            Block high = newBlock(new byte[]{ (byte) 0x90, 1 }, 2);
+            Assert.assertTrue(database.saveBlockAndStatus(low, BlockStatus.ADDED));
+
+            // The first operation fails in the second shard, and yet the first shard applies the operations after it.
+            WriteBatch batch = database.newWriteBatch()
+                    .updateBlockStatus(new byte[]{ (byte) 0x90, 3 }, BlockStatus.ADDED)
+                    .updateBlockStatus(low.getBlockHash(), BlockStatus.PENDING_DELETION)
+                    .saveBlockAndStatus(high, BlockStatus.PENDING_ADDITION)
+                    .removeBlockByHash(new byte[]{ 0x10, 2 });
+            Assert.assertEquals(0, batch.commit());
+            Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+            Assert.assertEquals(1, shards.get(0).findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+
+            // The second shard stops at its failing operation.
+            Assert.assertFalse(database.blockExists(high.getBlockHash()));
+            Assert.assertFalse(database.containsPendingBlocks());
+        }
+    }
+
+    @Test
+    public void testShardBatchesRunInParallel() throws DatabaseError {
+        int shardCount = 4;
+        CountDownLatch latch = new CountDownLatch(shardCount);
+        List<CountingShard> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new CountingShard(latch));
+        }
+
+        try (ShardedZeroDatabase database = newSharded(shards)) {
+            WriteBatch batch = database.newWriteBatch();
+            for (int i = 0; i < shardCount; i++) {
+                batch.saveBlockAndStatus(newBlock(new byte[]{ (byte) (i * 256 / shardCount), 1 }, i), BlockStatus.ADDED);
+            }
+
+            // Each shard's batch waits until every shard's batch has started, which only happens if they run in parallel.
+            Assert.assertEquals(shardCount, batch.commit());
+            for (CountingShard shard : shards) {
+                Assert.assertTrue(shard.isLatchReleased);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoShards() throws DatabaseError {
+        ShardedZeroDatabase.Builder.newBuilder().build();
+    }
+
+    private static ShardedZeroDatabase newSharded(List<? extends ZeroDatabase> shards) throws DatabaseError {
+        ShardedZeroDatabase.Builder builder = ShardedZeroDatabase.Builder.newBuilder();
+        for (ZeroDatabase shard : shards) {
+            builder.withShard(shard);
+        }
+        return builder.build();
+    }
+
+    private static List<InMemoryZeroDatabase> newShards(int count) {
+        List<InMemoryZeroDatabase> shards = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            shards.add(new InMemoryZeroDatabase());
+        }
+        return shards;
+    }
+
+    private static List<Block> newBlocks(int count, Random random) {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] hash = ByteBuffer.allocate(32).putLong(random.nextLong()).putLong(i).array();
+            blocks.add(newBlock(hash, i));
+        }
+        return blocks;
+    }
+
+    private static Block newBlock(byte[] hash, int number) {
+        byte[] parentHash = (number == 0) ? null : new byte[32];
+        return new ImmutableBlock(1, BigInteger.valueOf(number), new byte[1], hash, parentHash, new byte[]{ (byte) number }, new byte[1]);
+    }
+
+    /**
+     * An in-memory shard which counts the batches committed to it, and which can make each batch wait on a latch.
+     */
+    private static final class CountingShard implements ZeroDatabase {
+        private final InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        private final CountDownLatch latch;
+        private volatile int batchCount = 0;
+        private volatile boolean isLatchReleased = false;
+
+        private CountingShard(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public boolean genesisBlockExists() {
+            return this.database.genesisBlockExists();
+        }
+
+        @Override
+        public boolean blockExists(byte[] blockHash) {
+            return this.database.blockExists(blockHash);
+        }
+
+        @Override
+        public Block findBlockByHash(byte[] blockHash) {
+            return this.database.findBlockByHash(blockHash);
+        }
+
+        @Override
+        public Collection<Block> findBlocksByStatus(BlockStatus status) {
+            return this.database.findBlocksByStatus(status);
+        }
+
+        @Override
+        public boolean saveBlockAndStatus(Block block, BlockStatus status) {
+            return this.database.saveBlockAndStatus(block, status);
+        }
+
+        @Override
+        public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) {
+            return this.database.updateBlockStatus(blockHash, status);
+        }
+
+        @Override
+        public boolean containsPendingBlocks() {
+            return this.database.containsPendingBlocks();
+        }
+
+        @Override
+        public boolean removeBlockByHash(byte[] blockHash) {
+            return this.database.removeBlockByHash(blockHash);
+        }
+
+        @Override
+        public WriteBatch newWriteBatch() {
+            return new WriteBatch() {
+                @Override
+                protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                    batchCount++;
+                    if (latch != null) {
+                        latch.countDown();
+                        try {
+                            isLatchReleased = latch.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new DatabaseError(e);
+                        }
+                    }
+                    return database.newWriteBatch().addAll(operations).commit();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package net.nicknadeau.zero.storage.tier;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.block.BlockStatus;
+import net.nicknadeau.zero.exception.DatabaseError;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.storage.WriteBatch;
+import net.nicknadeau.zero.storage.WriteOperation;
+import net.nicknadeau.zero.storage.ZeroDatabase;
+import net.nicknadeau.zero.storage.file.AppendOnlyFileDatabase;
+import net.nicknadeau.zero.storage.memory.InMemoryZeroDatabase;
+import net.nicknadeau.zero.util.HashFunction;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class TieredZeroDatabaseTests {
+    private static final HashFunction MIRROR_HASH = (payload) -> payload;
+
+    @Test
+    public void testDeepBlocksMoveToColdTier() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        InMemoryZeroDatabase cold = new InMemoryZeroDatabase();
+        TieredZeroDatabase database = newTiered(cold, 3);
+        for (Block block : blocks) {
+            Assert.assertTrue(database.saveBlockAndStatus(block, BlockStatus.ADDED));
+        }
+        Assert.assertEquals(10, cold.size());
+        Assert.assertEquals(10, database.getHotBlockCount());
+
+        // Blocks 0 to 5 are more than 3 blocks below block 9, and the cold tier already holds them.
+        Assert.assertEquals(6, database.demote());
+        Assert.assertEquals(0, database.demote());
+        Assert.assertEquals(4, database.getHotBlockCount());
+        Assert.assertEquals(10, cold.size());
+
+        // Lookups are transparent.
+        Assert.assertTrue(database.genesisBlockExists());
+        Assert.assertArrayEquals(blocks.get(9).getBlockHash(), database.findBlockByHash(blocks.get(9).getBlockHash()).getBlockHash());
+        Assert.assertArrayEquals(blocks.get(0).getBlockHash(), database.findBlockByHash(blocks.get(0).getBlockHash()).getBlockHash());
+        Assert.assertEquals(BigInteger.ONE, database.findBlockHeaderByHash(blocks.get(1).getBlockHash()).getBlockNumber());
+        Assert.assertTrue(database.blockExists(blocks.get(2).getBlockHash()));
+        Assert.assertNull(database.findBlockByHash(new byte[]{ 1 }));
+        Assert.assertNull(database.findBlockByHash(null));
+        Assert.assertEquals(10, database.findBlocksByStatus(BlockStatus.ADDED).size());
+        Assert.assertEquals(10, database.findBlockHeadersByStatus(BlockStatus.ADDED).size());
+
+        TierStats hotStats = database.getHotTierStats();
+        TierStats coldStats = database.getColdTierStats();
+        Assert.assertEquals(1, hotStats.getHitCount());
+        Assert.assertEquals(3, coldStats.getHitCount());
+        Assert.assertEquals(1, database.getMissCount());
+        Assert.assertEquals(6, hotStats.getMovedOutCount());
+        Assert.assertEquals(6, coldStats.getMovedInCount());
+        Assert.assertEquals(0, coldStats.getMovedOutCount());
+    }
+
+    @Test
+    public void testPendingBlocksStayInHotTier() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        InMemoryZeroDatabase cold = new InMemoryZeroDatabase();
+        TieredZeroDatabase database = newTiered(cold, 3);
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, (block.getBlockNumber().intValue() % 2 == 0) ? BlockStatus.ADDED : BlockStatus.PENDING_ADDITION);
+        }
+
+        // Only the even blocks from 0 to 4 are more than 3 blocks below block 8, the highest added block.
+        Assert.assertEquals(3, database.demote());
+        Assert.assertEquals(7, database.getHotBlockCount());
+        Assert.assertTrue(database.containsPendingBlocks());
+        Assert.assertTrue(cold.containsPendingBlocks());
+        Assert.assertEquals(5, database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size());
+        Assert.assertEquals(5, database.findBlocksByStatus(BlockStatus.ADDED).size());
+        Assert.assertTrue(database.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+        Assert.assertTrue(database.findBlocksByStatus(null).isEmpty());
+    }
+
+    @Test
+    public void testPendingStatusMovesBlockBackToHotTier() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        InMemoryZeroDatabase cold = new InMemoryZeroDatabase();
+        TieredZeroDatabase database = newTiered(cold, 3);
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.ADDED);
+        }
+        database.demote();
+
+        Assert.assertTrue(database.updateBlockStatus(blocks.get(0).getBlockHash(), BlockStatus.PENDING_DELETION));
+        Assert.assertEquals(1, cold.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+        Assert.assertEquals(5, database.getHotBlockCount());
+        Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+        Assert.assertEquals(9, database.findBlocksByStatus(BlockStatus.ADDED).size());
+        Assert.assertEquals(1, database.getHotTierStats().getMovedInCount());
+        Assert.assertEquals(1, database.getColdTierStats().getMovedOutCount());
+
+        // An added status of a block which is only in the cold tier leaves it there.
+        Assert.assertTrue(database.updateBlockStatus(blocks.get(1).getBlockHash(), BlockStatus.ADDED));
+        Assert.assertEquals(5, database.getHotBlockCount());
+        Assert.assertFalse(database.updateBlockStatus(new byte[]{ 1 }, BlockStatus.PENDING_ADDITION));
+
+        // Once the block is added again it moves back out of the hot tier.
+        Assert.assertTrue(database.updateBlockStatus(blocks.get(0).getBlockHash(), BlockStatus.ADDED));
+        Assert.assertFalse(cold.containsPendingBlocks());
+        Assert.assertTrue(cold.findBlocksByStatus(BlockStatus.PENDING_DELETION).isEmpty());
+        Assert.assertEquals(1, database.demote());
+        Assert.assertEquals(4, database.getHotBlockCount());
+    }
+
+    @Test
+    public void testSaveAndRemoveAcrossTiers() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        InMemoryZeroDatabase cold = new InMemoryZeroDatabase();
+        TieredZeroDatabase database = newTiered(cold, 3);
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.ADDED);
+        }
+        database.demote();
+
+        // Saving a cold block again brings it into the hot tier, and writes it through to the cold tier.
+        Assert.assertTrue(database.saveBlockAndStatus(blocks.get(2), BlockStatus.PENDING_ADDITION));
+        Assert.assertEquals(5, database.getHotBlockCount());
+        Assert.assertTrue(cold.containsPendingBlocks());
+        Assert.assertTrue(database.containsPendingBlocks());
+
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(3).getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(blocks.get(9).getBlockHash()));
+        Assert.assertTrue(database.removeBlockByHash(null));
+        Assert.assertTrue(database.removeBlockByHash(new byte[]{ 1 }));
+        Assert.assertFalse(database.blockExists(blocks.get(3).getBlockHash()));
+        Assert.assertFalse(database.blockExists(blocks.get(9).getBlockHash()));
+        Assert.assertFalse(cold.blockExists(blocks.get(3).getBlockHash()));
+        Assert.assertFalse(cold.blockExists(blocks.get(9).getBlockHash()));
+        Assert.assertEquals(7, database.findBlocksByStatus(BlockStatus.ADDED).size());
+
+        WriteBatch batch = database.newWriteBatch()
+                .removeBlockByHash(blocks.get(0).getBlockHash())
+                .updateBlockStatus(blocks.get(2).getBlockHash(), BlockStatus.ADDED)
+                .updateBlockStatus(blocks.get(3).getBlockHash(), BlockStatus.ADDED)
+                .saveBlockAndStatus(blocks.get(3), BlockStatus.ADDED);
+        // The batch goes through a batch of the cold tier, which is atomic, so none of it is applied.
+        Assert.assertEquals(0, batch.commit());
+        Assert.assertTrue(database.genesisBlockExists());
+        Assert.assertTrue(database.containsPendingBlocks());
+
+        batch = database.newWriteBatch()
+                .removeBlockByHash(blocks.get(0).getBlockHash())
+                .updateBlockStatus(blocks.get(2).getBlockHash(), BlockStatus.ADDED);
+        Assert.assertEquals(2, batch.commit());
+        Assert.assertFalse(database.genesisBlockExists());
+        Assert.assertFalse(cold.genesisBlockExists());
+        Assert.assertFalse(database.containsPendingBlocks());
+        Assert.assertFalse(cold.containsPendingBlocks());
+    }
+
+    @Test
+    public void testFailedColdBatchResynchronizesHotTier() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        HookedDatabase cold = new HookedDatabase();
+        TieredZeroDatabase database = newTiered(cold, 3);
+        for (Block block : blocks) {
+            database.saveBlockAndStatus(block, BlockStatus.ADDED);
+        }
+        Assert.assertEquals(6, database.demote());
+
+        // The cold tier applies the batch but then fails, so it is not known what was applied.
+        byte[] pendingHash = blocks.get(0).getBlockHash();
+        byte[] removedHash = blocks.get(9).getBlockHash();
+        cold.afterCommit = () -> {
+            throw new DatabaseError("commit failed");
+        };
+        WriteBatch batch = database.newWriteBatch()
+                .updateBlockStatus(pendingHash, BlockStatus.PENDING_DELETION)
+                .removeBlockByHash(removedHash);
+        try {
+            batch.commit();
+            Assert.fail();
+        } catch (DatabaseError e) {
+            // this is the expected behaviour
+        }
+
+        // The hot tier follows the cold tier, so the pending block is found in it and the removed block is not.
+        Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+        Assert.assertArrayEquals(pendingHash, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).iterator().next().getBlockHash());
+        Assert.assertFalse(database.blockExists(removedHash));
+        Assert.assertEquals(8, database.findBlocksByStatus(BlockStatus.ADDED).size());
+    }
+
+    @Test
+    public void testFailedColdWriteIsNotApplied() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        HookedDatabase cold = new HookedDatabase();
+        TieredZeroDatabase database = newTiered(cold, 3);
+        database.saveBlockAndStatus(blocks.get(0), BlockStatus.ADDED);
+
+        cold.isSaveRejected = true;
+        Assert.assertFalse(database.saveBlockAndStatus(blocks.get(1), BlockStatus.PENDING_ADDITION));
+        Assert.assertFalse(database.blockExists(blocks.get(1).getBlockHash()));
+        Assert.assertFalse(database.containsPendingBlocks());
+        Assert.assertEquals(1, database.getHotBlockCount());
+    }
+
+    @Test
+    public void testPendingColdBlocksAreCopiedToHotTierOnBuild() throws DatabaseError {
+        List<Block> blocks = BlockHelper.newChain(3, MIRROR_HASH);
+        InMemoryZeroDatabase cold = new InMemoryZeroDatabase();
+        cold.saveBlockAndStatus(blocks.get(0), BlockStatus.ADDED);
+        cold.saveBlockAndStatus(blocks.get(1), BlockStatus.PENDING_ADDITION);
+        cold.saveBlockAndStatus(blocks.get(2), BlockStatus.PENDING_DELETION);
+
+        TieredZeroDatabase database = newTiered(cold, 3);
+        Assert.assertEquals(3, cold.size());
+        Assert.assertTrue(cold.containsPendingBlocks());
+        Assert.assertEquals(2, database.getHotBlockCount());
+        Assert.assertTrue(database.containsPendingBlocks());
+        Assert.assertEquals(3, database.findBlocksByStatus(BlockStatus.ADDED).size() + database.findBlocksByStatus(BlockStatus.PENDING_ADDITION).size() + database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+    }
+
+    @Test
+    public void testWritesAreDurableWithoutClose() throws Exception {
+        Path directory = Files.createTempDirectory("zero-tiered-db");
+        try {
+            List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+            try (AppendOnlyFileDatabase cold = AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(directory).build()) {
+                // The tiered database is never closed, exactly as if the process had crashed.
+                TieredZeroDatabase database = newTiered(cold, 3);
+                for (Block block : blocks) {
+                    database.saveBlockAndStatus(block, (block.getBlockNumber().intValue() == 9) ? BlockStatus.PENDING_ADDITION : BlockStatus.ADDED);
+                }
+                Assert.assertEquals(5, database.demote());
+
+                // A deep block which is marked for deletion keeps its mark in the cold tier.
+                Assert.assertTrue(database.updateBlockStatus(blocks.get(1).getBlockHash(), BlockStatus.PENDING_DELETION));
+            }
+
+            try (AppendOnlyFileDatabase cold = AppendOnlyFileDatabase.Builder.newBuilder().withDirectory(directory).build();
+                 TieredZeroDatabase database = newTiered(cold, 3)) {
+                Assert.assertEquals(2, database.getHotBlockCount());
+                Assert.assertTrue(database.containsPendingBlocks());
+                Assert.assertEquals(1, database.findBlocksByStatus(BlockStatus.PENDING_DELETION).size());
+                Assert.assertEquals(8, database.findBlocksByStatus(BlockStatus.ADDED).size());
+                for (Block block : blocks) {
+                    Assert.assertArrayEquals(block.getBlockData(), database.findBlockByHash(block.getBlockHash()).getBlockData());
+                }
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testBackgroundMover() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(10, MIRROR_HASH);
+        InMemoryZeroDatabase cold = new InMemoryZeroDatabase();
+        try (TieredZeroDatabase database = TieredZeroDatabase.Builder.newBuilder()
+                .withColdDatabase(cold)
+                .withDepthThreshold(0)
+                .withMoveInterval(Duration.ofMillis(10))
+                .build()) {
+            for (Block block : blocks) {
+                database.saveBlockAndStatus(block, BlockStatus.ADDED);
+            }
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((database.getHotBlockCount() > 1) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, database.getHotBlockCount());
+            Assert.assertEquals(10, cold.size());
+            Assert.assertEquals(0, database.getFailedMoveCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDepthThreshold() throws DatabaseError {
+        TieredZeroDatabase.Builder.newBuilder().withColdDatabase(new InMemoryZeroDatabase()).withDepthThreshold(-1).build();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNoColdDatabase() throws DatabaseError {
+        TieredZeroDatabase.Builder.newBuilder().build();
+    }
+
+    private static TieredZeroDatabase newTiered(ZeroDatabase cold, int depthThreshold) throws DatabaseError {
+        return TieredZeroDatabase.Builder.newBuilder()
+                .withColdDatabase(cold)
+                .withDepthThreshold(depthThreshold)
+                .withMoveInterval(null)
+                .build()
+                ;
+    }
+
+
+    @FunctionalInterface
+    private interface CommitHook {
+        void run() throws DatabaseError;
+    }
+
+    /**
+     * An in-memory database which runs a hook after each batch is committed, and which can be made to reject saves.
+     */
+    private static final class HookedDatabase implements ZeroDatabase {
+        private final InMemoryZeroDatabase database = new InMemoryZeroDatabase();
+        private CommitHook afterCommit = () -> {};
+        private boolean isSaveRejected = false;
+
+        @Override
+        public boolean genesisBlockExists() {
+            return this.database.genesisBlockExists();
+        }
+
+        @Override
+        public boolean blockExists(byte[] blockHash) {
+            return this.database.blockExists(blockHash);
+        }
+
+        @Override
+        public Block findBlockByHash(byte[] blockHash) {
+            return this.database.findBlockByHash(blockHash);
+        }
+
+        @Override
+        public Collection<Block> findBlocksByStatus(BlockStatus status) {
+            return this.database.findBlocksByStatus(status);
+        }
+
+        @Override
+        public boolean saveBlockAndStatus(Block block, BlockStatus status) {
+            return !this.isSaveRejected && this.database.saveBlockAndStatus(block, status);
+        }
+
+        @Override
+        public boolean updateBlockStatus(byte[] blockHash, BlockStatus status) {
+            return this.database.updateBlockStatus(blockHash, status);
+        }
+
+        @Override
+        public boolean containsPendingBlocks() {
+            return this.database.containsPendingBlocks();
+        }
+
+        @Override
+        public boolean removeBlockByHash(byte[] blockHash) {
+            return this.database.removeBlockByHash(blockHash);
+        }
+
+        @Override
+        public WriteBatch newWriteBatch() {
+            return new WriteBatch() {
+                @Override
+                protected int apply(List<WriteOperation> operations) throws DatabaseError {
+                    int appliedCount = database.newWriteBatch().addAll(operations).commit();
+                    afterCommit.run();
+                    return appliedCount;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.nicknadeau.zero.util.internal;
+
+import net.nicknadeau.zero.block.Block;
+import net.nicknadeau.zero.mock.BlockHelper;
+import net.nicknadeau.zero.mock.MutableBlock;
+import net.nicknadeau.zero.util.HashFunction;
+import net.nicknadeau.zero.util.SignatureVerifier;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A benchmark of the stateless layer zero validation of a batch of blocks, which measures the throughput of validating
+ * the blocks one at a time and of validating them in parallel on pools of increasing size, up to the given number of
+ * threads. The blocks are hashed with SHA-256 and signed with ECDSA over the P-256 curve, so that the cost of each block
+ * is dominated by the signature verification, as it would be in a real blockchain.
+ *
+ * This is not a test and is not run by the test suite. Run it directly, optionally giving the number of blocks, the size
+ * of the data of each block in bytes and the maximum number of threads as arguments.
+ */
+public final class BlockValidatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int blockCount = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000;
+        int dataSize = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+        int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        KeyPair keys = generator.generateKeyPair();
+        HashFunction sha256 = (payload) -> newDigest().digest(payload);
+        SignatureVerifier verifier = (key, payload, signature) -> verify(keys.getPublic(), payload, signature);
+        List<Block> blocks = newBlocks(blockCount, dataSize, sha256, keys);
+
+        System.out.printf("%d blocks with %d data bytes:%n", blockCount, dataSize);
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (Block block : blocks) {
+                BlockValidator.runStatelessLayerZeroValidation(block, sha256, verifier);
+            }
+            report("sequential", blocks.size(), System.nanoTime() - start);
+
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    start = System.nanoTime();
+                    BlockValidator.runStatelessLayerZeroValidation(blocks, sha256, verifier, pool);
+                    report(threads + " thread(s)", blocks.size(), System.nanoTime() - start);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static void report(String name, int blockCount, long elapsed) {
+        System.out.printf("  %s: %,.0f blocks/s%n", name, blockCount / (elapsed / 1e9));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean verify(PublicKey key, byte[] payload, byte[] signature) {
+        try {
+            Signature verifier = Signature.getInstance("SHA256withECDSA");
+            verifier.initVerify(key);
+            verifier.update(payload);
+            return verifier.verify(signature);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<Block> newBlocks(int count, int dataSize, HashFunction hashFunction, KeyPair keys) throws Exception {
+        Random random = new Random(42);
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(keys.getPrivate());
+
+        List<Block> blocks = new ArrayList<>(count);
+        MutableBlock block = BlockHelper.newGenesisBlock(hashFunction);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                byte[] data = new byte[dataSize];
+                random.nextBytes(data);
+                block = BlockHelper.newNonGenesisBlock(BigInteger.valueOf(i), block, data, hashFunction);
+            }
+            signer.update(block.getBlockHash());
+            block.setBlockSignature(signer.sign());
+            blocks.add(block);
+        }
+        return blocks;
+    }
+}
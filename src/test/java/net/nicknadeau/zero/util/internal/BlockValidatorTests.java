@@ -1,6 +1,7 @@
 package net.nicknadeau.zero.util.internal;
 
 import net.nicknadeau.zero.ZeroVersion;
+import net.nicknadeau.zero.block.Block;
 import net.nicknadeau.zero.exception.RuntimeAssertionError;
 import net.nicknadeau.zero.mock.BlockHelper;
 import net.nicknadeau.zero.mock.DatabaseHelper;
@@ -15,7 +16,15 @@ import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class BlockValidatorTests {
     private static final HashFunction MIRROR_HASH = (payload) -> payload;
@@ -130,6 +139,7 @@ public class BlockValidatorTests {
 
         // Override database to return a null parent block.
         Mockito.when(database.findBlockByHash(genesisBlock.getBlockHash())).thenReturn(null);
+        Mockito.when(database.findBlockHeaderByHash(genesisBlock.getBlockHash())).thenReturn(null);
 
         Receipt receipt = BlockValidator.runLayerZeroValidation(block, database, MIRROR_HASH, ALWAYS_OK_VERIFIER);
         Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipt.getCode());
@@ -137,6 +147,58 @@ public class BlockValidatorTests {
         Assert.assertNull(receipt.getUnexpectedErrorCause());
     }
 
+    @Test
+    public void testParentExistsInBatch() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Arrays.asList(genesisBlock, block));
+
+        Map<HashKey, Block> batchBlocks = Collections.singletonMap(HashKey.wrap(genesisBlock.getBlockHash()), genesisBlock);
+        Receipt receipt = BlockValidator.runLayerZeroValidation(block, database, MIRROR_HASH, ALWAYS_OK_VERIFIER, batchBlocks);
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+
+        // The genesis block itself must now be considered a duplicate.
+        receipt = BlockValidator.runLayerZeroValidation(genesisBlock, database, MIRROR_HASH, ALWAYS_OK_VERIFIER, batchBlocks);
+        Assert.assertEquals(ReceiptCode.EXISTS, receipt.getCode());
+    }
+
+    @Test
+    public void testParentIsLookedUpByHeader() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.singleton(genesisBlock), Collections.singleton(block));
+
+        // Loading the whole parent block is an error, since only its header is needed.
+        Mockito.when(database.findBlockByHash(genesisBlock.getBlockHash())).thenThrow(new IllegalStateException());
+        Receipt receipt = BlockValidator.runStatefulLayerZeroValidation(block, database, Collections.emptyMap());
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+    }
+
+    @Test
+    public void testStatelessValidationIgnoresBlockchainState() throws Exception {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+        MutableBlock block = BlockHelper.newNonGenesisBlock(BigInteger.ONE, genesisBlock, MIRROR_HASH);
+
+        // The parent does not exist anywhere, but that is only caught by the stateful checks.
+        Receipt receipt = BlockValidator.runStatelessLayerZeroValidation(block, MIRROR_HASH, ALWAYS_OK_VERIFIER);
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+
+        ZeroDatabase database = DatabaseHelper.newConsistentDatabase(Collections.emptySet(), Collections.singleton(block));
+        receipt = BlockValidator.runStatefulLayerZeroValidation(block, database, Collections.emptyMap());
+        Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipt.getCode());
+        Assert.assertNotNull(receipt.getErrorMessage());
+    }
+
+    @Test
+    public void testStatelessValidationChecksSignature() {
+        MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
+
+        SignatureVerifier signatureVerifier = (key, payload, signature) -> false;
+        Receipt receipt = BlockValidator.runStatelessLayerZeroValidation(genesisBlock, MIRROR_HASH, signatureVerifier);
+        Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipt.getCode());
+        Assert.assertNotNull(receipt.getErrorMessage());
+    }
+
     @Test
     public void testParentNumberNotOneLess() throws Exception {
         MutableBlock genesisBlock = BlockHelper.newGenesisBlock(MIRROR_HASH);
@@ -331,4 +393,77 @@ public class BlockValidatorTests {
         Assert.assertNotNull(error);
         throw error;
     }
+
+    @Test
+    public void testParallelStatelessValidationMatchesSequential() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(50, MIRROR_HASH);
+        ((MutableBlock) blocks.get(3)).setBlockHash(new byte[]{ 1, 2, 3 });
+        ((MutableBlock) blocks.get(27)).setBlockSignature(new byte[0]);
+        ((MutableBlock) blocks.get(49)).setBlockData(null);
+        blocks.set(40, null);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Receipt[] receipts = BlockValidator.runStatelessLayerZeroValidation(blocks, MIRROR_HASH, ALWAYS_OK_VERIFIER, pool);
+            Assert.assertEquals(blocks.size(), receipts.length);
+            for (int i = 0; i < receipts.length; i++) {
+                Receipt expected = BlockValidator.runStatelessLayerZeroValidation(blocks.get(i), MIRROR_HASH, ALWAYS_OK_VERIFIER);
+                Assert.assertEquals(expected.getCode(), receipts[i].getCode());
+                Assert.assertEquals(expected.getErrorMessage(), receipts[i].getErrorMessage());
+            }
+            Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipts[3].getCode());
+            Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipts[27].getCode());
+            Assert.assertEquals(ReceiptCode.DOES_NOT_EXIST, receipts[40].getCode());
+            Assert.assertEquals(ReceiptCode.INVALID_PARAMETER, receipts[49].getCode());
+            Assert.assertEquals(ReceiptCode.SUCCESS, receipts[0].getCode());
+            Assert.assertEquals(ReceiptCode.SUCCESS, receipts[48].getCode());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelStatelessValidationOfSmallBatch() throws Exception {
+        List<Block> blocks = BlockHelper.newChain(2, MIRROR_HASH);
+        Receipt[] receipts = BlockValidator.runStatelessLayerZeroValidation(blocks, MIRROR_HASH, ALWAYS_OK_VERIFIER, ForkJoinPool.commonPool());
+        Assert.assertEquals(2, receipts.length);
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipts[0].getCode());
+        Assert.assertEquals(ReceiptCode.SUCCESS, receipts[1].getCode());
+
+        Assert.assertEquals(0, BlockValidator.runStatelessLayerZeroValidation(Collections.emptyList(), MIRROR_HASH, ALWAYS_OK_VERIFIER, ForkJoinPool.commonPool()).length);
+    }
+
+    @Test
+    public void testParallelStatelessValidationUsesMultipleThreads() throws Exception {
+        // Each verification waits until a second thread is verifying too, so this only completes promptly in parallel.
+        Set<Thread> verifierThreads = ConcurrentHashMap.newKeySet();
+        CountDownLatch twoThreads = new CountDownLatch(2);
+        SignatureVerifier verifier = (key, payload, signature) -> {
+            if (verifierThreads.add(Thread.currentThread())) {
+                twoThreads.countDown();
+            }
+            try {
+                return twoThreads.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Receipt[] receipts = BlockValidator.runStatelessLayerZeroValidation(BlockHelper.newChain(32, MIRROR_HASH), MIRROR_HASH, verifier, pool);
+            for (Receipt receipt : receipts) {
+                Assert.assertEquals(ReceiptCode.SUCCESS, receipt.getCode());
+            }
+            Assert.assertTrue(verifierThreads.size() > 1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testParallelStatelessValidationWithNullPool() {
+        BlockValidator.runStatelessLayerZeroValidation(Collections.emptyList(), MIRROR_HASH, ALWAYS_OK_VERIFIER, null);
+    }
+
 }
@@ -0,0 +1,65 @@
+package net.nicknadeau.zero.util.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ByteArrayMapTests {
+
+    @Test
+    public void testPutGetAndRemove() {
+        ByteArrayMap<String> map = new ByteArrayMap<>();
+        Assert.assertNull(map.put(new byte[]{ 1, 2 }, "a"));
+        Assert.assertNull(map.put(new byte[]{ 3 }, "b"));
+        Assert.assertEquals("a", map.put(new byte[]{ 1, 2 }, "c"));
+
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("c", map.get(new byte[]{ 1, 2 }));
+        Assert.assertTrue(map.containsKey(new byte[]{ 3 }));
+        Assert.assertFalse(map.containsKey(new byte[]{ 1 }));
+
+        Assert.assertEquals("b", map.remove(new byte[]{ 3 }));
+        Assert.assertNull(map.remove(new byte[]{ 3 }));
+        Assert.assertEquals(1, map.size());
+        Assert.assertNull(map.get(new byte[]{ 3 }));
+
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(new byte[]{ 1, 2 }));
+    }
+
+    @Test
+    public void testAgainstHashMapWithManyRandomOperations() {
+        Random random = new Random(42);
+        ByteArrayMap<Integer> map = new ByteArrayMap<>();
+        Map<ByteBuffer, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            // A small key space forces long probe runs and lots of removals from the middle of them.
+            byte[] key = new byte[]{ (byte) random.nextInt(64), (byte) random.nextInt(64) };
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals(expected.remove(ByteBuffer.wrap(key)), map.remove(key));
+            } else {
+                Assert.assertEquals(expected.put(ByteBuffer.wrap(key), i), map.put(key, i));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), map.size());
+        for (Map.Entry<ByteBuffer, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), map.get(entry.getKey().array()));
+        }
+        Map<ByteBuffer, Integer> actual = new HashMap<>();
+        map.forEach((key, value) -> actual.put(ByteBuffer.wrap(key), value));
+        Assert.assertEquals(expected, actual);
+        Assert.assertEquals(expected.size(), map.values().size());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        new ByteArrayMap<String>().put(new byte[]{ 1 }, null);
+    }
+}